@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import java.util.concurrent.TimeUnit;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.Clip;
+import javax.sound.sampled.Mixer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import ste.falco.sound.MemoryMixer;
+
+/**
+ * The clip life cycle: SoundUtils.getClip(), the play/rewind cycle driven by
+ * MotionClipListener and the close/reopen cycle it used to do at every STOP,
+ * both from the sound cache and from the classpath (i.e. decoding the sound
+ * and converting it to the native format of the device).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ClipBenchmark {
+
+    private static final String SOUND = "/sounds/red-tailed-hawk-sound.wav";
+
+    private Mixer mixer;
+    private SoundMotionDetector moctor;
+    private Clip clip;
+    private SoundAsset asset;
+    private AudioFormat format;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        mixer = new MemoryMixer();
+
+        moctor = new SoundMotionDetector(SOUND, mixer);
+        moctor.startup();
+
+        format = SoundUtils.getNativeFormat(mixer);
+        asset = SoundCache.getInstance().get(SOUND, format);
+        clip = SoundUtils.getClip(mixer, format);
+        clip.open(asset.stream());
+    }
+
+    @Benchmark
+    public Clip get_clip() throws Exception {
+        return SoundUtils.getClip(mixer, format);
+    }
+
+    @Benchmark
+    public void play_and_rewind() {
+        moctor.play();
+    }
+
+    @Benchmark
+    public void close_and_reopen_from_cache() throws Exception {
+        clip.close();
+        clip.open(asset.stream());
+    }
+
+    @Benchmark
+    public void close_and_reopen_from_classpath() throws Exception {
+        clip.close();
+        clip.open(new SoundCache(0).get(SOUND, format).stream());
+    }
+}
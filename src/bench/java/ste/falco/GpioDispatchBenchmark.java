@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import com.pi4j.io.gpio.GpioFactory;
+import com.pi4j.io.gpio.PinState;
+import com.pi4j.io.gpio.RaspiPin;
+import com.pi4j.io.gpio.event.GpioPinDigitalStateChangeEvent;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import ste.falco.sound.MemoryMixer;
+
+/**
+ * The GPIO listener dispatch: the cost paid on the Pi4J listener thread for
+ * every PIR edge, called directly and driven through the PIREmulator. The
+ * dispatcher thread consumes the triggers in the background (muted by the
+ * cooldown after the first play).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GpioDispatchBenchmark {
+
+    private PIREmulator pir;
+    private MotionDetector moctor;
+    private GpioPinDigitalStateChangeEvent high;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Logger.getLogger("ste.falco").setLevel(java.util.logging.Level.OFF);
+
+        pir = new PIREmulator();
+        GpioFactory.setDefaultProvider(pir);
+
+        moctor = new MotionDetector("/sounds/red-tailed-hawk-sound.wav", new MemoryMixer());
+        //
+        // edges come every few nanoseconds here: the pin must not be
+        // quarantined as chattering (1M edges would have to come within 1ms)
+        //
+        moctor.setHealth(new PinHealth(
+            PinHealth.DEFAULT_STUCK, 1 << 20, 1, PinHealth.DEFAULT_DEAD
+        ));
+        moctor.startup();
+
+        high = new GpioPinDigitalStateChangeEvent(
+            this, GpioFactory.getInstance().getProvisionedPin(RaspiPin.GPIO_04), PinState.HIGH
+        );
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        moctor.shutdown();
+    }
+
+    @Benchmark
+    public void listener(final Dispatch dispatch) {
+        moctor.handleGpioPinDigitalStateChangeEvent(high);
+    }
+
+    @Benchmark
+    public void pir_edge(final Dispatch dispatch) {
+        pir.up(); pir.down();
+    }
+
+    // ---------------------------------------------------------------- Dispatch
+
+    /**
+     * The triggers dispatched and dropped in each iteration, reported by JMH
+     * next to the score.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Dispatch {
+
+        private TriggerDispatcher dispatcher;
+        private long dispatched, dropped;
+
+        @Setup(Level.Iteration)
+        public void setup(final GpioDispatchBenchmark benchmark) {
+            dispatcher = benchmark.moctor.getDispatcher();
+            dispatched = dispatcher.getDispatched();
+            dropped = dispatcher.getDropped();
+        }
+
+        public long dispatched() {
+            return dispatcher.getDispatched() - dispatched;
+        }
+
+        public long dropped() {
+            return dispatcher.getDropped() - dropped;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import java.time.ZoneId;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * A PlayPolicy decision for a motion, with a policy using weekday windows,
+ * cooldown tiers and a per-source override. Run with -prof gc to check it
+ * does not allocate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PlayPolicyBenchmark {
+
+    private PlayPolicy policy;
+    private ZoneId zone;
+    private long state, now;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        policy = PlayPolicy.compile(
+            "mon-fri=7-9,17-21;sat+sun=8-20;cooldown=10,20,60;jmx:hours=always;jmx:cooldown=0"
+        );
+        zone = ZoneId.of("Europe/Rome");
+        now = System.currentTimeMillis();
+        state = PlayPolicy.state(now - TimeUnit.HOURS.toMillis(24), 0);
+    }
+
+    @Benchmark
+    public byte muted() {
+        return policy.muted(state, now, zone, TriggerSource.GPIO);
+    }
+
+    @Benchmark
+    public long played() {
+        return policy.played(state, now, TriggerSource.GPIO);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import java.time.Clock;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import ste.falco.sound.MemoryMixer;
+
+/**
+ * SoundMotionDetector.moved(), shallPlay() policy included, both when the
+ * sound is played and when it is muted by the cooldown. Logging is turned
+ * off so that the console handler does not dominate the measure.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SoundMotionDetectorBenchmark {
+
+    private SoundMotionDetector moctor;
+    private long longAgo;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Logger.getLogger("ste.falco").setLevel(java.util.logging.Level.OFF);
+
+        moctor = new SoundMotionDetector("/sounds/red-tailed-hawk-sound.wav", new MemoryMixer());
+        moctor.startup();
+
+        //
+        // always in daylight
+        //
+        ZonedDateTime noon = ZonedDateTime.now().withHour(12);
+        Clock clock = Clock.fixed(noon.toInstant(), ZoneId.systemDefault());
+        moctor.setClock(clock);
+
+        longAgo = clock.millis() - TimeUnit.HOURS.toMillis(24);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        moctor.shutdown();
+    }
+
+    @State(Scope.Thread)
+    public static class Cooldown {
+        @Setup(Level.Invocation)
+        public void expire(SoundMotionDetectorBenchmark b) throws Exception {
+            b.moctor.setLastPlayed(b.longAgo);
+        }
+    }
+
+    @Benchmark
+    public void moved_and_played(Cooldown cooldown) {
+        moctor.moved();
+    }
+
+    @Benchmark
+    public void moved_and_muted() {
+        moctor.moved();
+    }
+}
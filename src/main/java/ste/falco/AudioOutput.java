@@ -0,0 +1,687 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.Mixer;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * Streaming playback engine and software mixer: a single SourceDataLine
+ * opened once and fed by a dedicated render thread, on which any number of
+ * sounds (voices) can be played at the same time. Unlike a Clip, the line
+ * only holds a small native buffer regardless of the length of the sounds,
+ * and starting a sound only requires the render thread to pick it up, not
+ * to load it into the device; and there is only one line to open, whatever
+ * is played on it.
+ *
+ * Each voice has its own gain and priority. At most <code>voices</code>
+ * voices are mixed at once; when they are all busy a new voice replaces the
+ * oldest voice with the lowest priority, if not higher than its own, or it is
+ * dropped.
+ *
+ * Voices are preallocated at construction, enough for the ones being mixed
+ * plus PENDING handed over and not yet picked up: play() claims a free one
+ * with a CAS and hands its index to the render thread through a TriggerRing,
+ * which gives it back once done with it, so that playing a sound allocates
+ * nothing. When they are all taken, the sound is dropped.
+ *
+ * Gains are applied in software, in the render loop (see Gain): the gain of
+ * each voice, its fade in/out envelope and the master volume, which takes
+ * effect from the next period and is ramped across it to avoid clicks. No
+ * MASTER_GAIN control is needed on the line.
+ *
+ * The render thread mixes the 16 bits samples of the playing voices into an
+ * accumulator and a period buffer, both allocated once at open(), and writes
+ * the period to the line; when there is nothing to play it parks until
+ * play() is called.
+ *
+ * If the line fails while writing (e.g. it has been closed underneath) the
+ * render thread stops and, if a supervisor is set, the failure is reported
+ * to it, which reopens the line in place (see recover()): listeners, volume
+ * and fades are kept, the sounds being played are lost.
+ */
+public class AudioOutput implements AutoCloseable {
+
+    public static final int DEFAULT_PERIOD_FRAMES = 1024;
+    public static final int DEFAULT_VOICES = 4;
+    public static final int DEFAULT_PRIORITY = 5;
+    public static final int PENDING = 32;  // voices handed over and not picked up yet, at most
+
+    /**
+     * A fade short enough not to be noticed but long enough to avoid clicks
+     * when a sound starts or ends abruptly
+     */
+    public static final int DECLICK_MILLIS = 5;
+
+    protected final Logger LOG = Logger.getLogger("ste.falco");
+
+    public final Mixer mixer;
+    public final int periodFrames;
+    public final int voices;
+
+    private final Voice[] pool;
+    private final AtomicIntegerArray taken;  // 1 if the voice with the same index is in use
+    private final TriggerRing pending = new TriggerRing(PENDING);  // indexes of the voices to start
+    private final TriggerRing.Handler release = new TriggerRing.Handler() {
+        @Override
+        public void handle(long stamp, int index) {
+            release(pool[index]);
+        }
+    };
+
+    private volatile SourceDataLine line;
+    private volatile Thread renderer;
+    private volatile int playing;
+    private volatile Listener[] listeners = new Listener[0];
+    private volatile int volume = Gain.UNITY;
+    private volatile int fadeIn = 0, fadeOut = 0;  // milliseconds
+    private volatile Supervisor supervisor;
+    private final Supervisor.Component component = new LineComponent();
+    private AudioFormat format;
+
+    public AudioOutput(final Mixer mixer) {
+        this(mixer, DEFAULT_PERIOD_FRAMES);
+    }
+
+    public AudioOutput(final Mixer mixer, final int periodFrames) {
+        this(mixer, periodFrames, DEFAULT_VOICES);
+    }
+
+    /**
+     * @param mixer the mixer to get the line from - NOT NULL
+     * @param periodFrames the number of frames written to the line at a time
+     * @param voices the maximum number of sounds played at the same time
+     */
+    public AudioOutput(final Mixer mixer, final int periodFrames, final int voices) {
+        if (mixer == null) {
+            throw new IllegalArgumentException("mixer can not be null");
+        }
+        if (periodFrames <= 0) {
+            throw new IllegalArgumentException("periodFrames must be greater than 0");
+        }
+        if (voices <= 0) {
+            throw new IllegalArgumentException("voices must be greater than 0");
+        }
+        this.mixer = mixer;
+        this.periodFrames = periodFrames;
+        this.voices = voices;
+
+        pool = new Voice[voices + PENDING];
+        for (int i=0; i<pool.length; ++i) {
+            pool[i] = new Voice(i);
+        }
+        taken = new AtomicIntegerArray(pool.length);
+    }
+
+    /**
+     * Opens and starts the line in the given format and starts the render
+     * thread. All sounds played through this output must be in this format.
+     *
+     * @param format the format of the line - NOT NULL, 16 bits signed PCM
+     *
+     * @throws LineUnavailableException if the line can not be obtained or opened
+     * @throws IllegalStateException if the output is already open
+     */
+    public synchronized void open(final AudioFormat format) throws LineUnavailableException {
+        if (format == null) {
+            throw new IllegalArgumentException("format can not be null");
+        }
+        if (!AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding()) || (format.getSampleSizeInBits() != 16)) {
+            throw new IllegalArgumentException("only 16 bits signed PCM can be mixed, not " + format);
+        }
+        if (line != null) {
+            throw new IllegalStateException("output already open");
+        }
+
+        SourceDataLine l = SoundUtils.getSourceDataLine(mixer, format);
+        final byte[] period = new byte[periodFrames * format.getFrameSize()];
+        l.open(format, period.length * 4);
+        l.start();
+
+        this.format = format;
+        this.line = l;
+
+        renderer = new Thread(new Renderer(l, period), "falco-audio");
+        renderer.setDaemon(true);
+        renderer.start();
+    }
+
+    /**
+     * Stops the render thread and closes the line. It does nothing if the
+     * output is not open.
+     */
+    public synchronized void close() {
+        if (line == null) {
+            return;
+        }
+
+        Thread t = renderer; renderer = null;
+        LockSupport.unpark(t);
+        try {
+            t.join(1000);
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+        }
+
+        line.stop(); line.flush(); line.close();
+        line = null; playing = 0;
+        while (pending.poll(release)) {
+            //
+            // the sounds not picked up are lost
+            //
+        }
+    }
+
+    /**
+     * Reopens the line in the format it was open in, after a failure; it
+     * does nothing if the output has been closed in the meantime or the line
+     * is open and rendering. The sounds pending at the time of the failure
+     * are discarded.
+     *
+     * @throws LineUnavailableException if the line can not be opened again
+     */
+    public synchronized void recover() throws LineUnavailableException {
+        final SourceDataLine l = line;
+        final Thread t = renderer;
+        if ((l == null) || (l.isOpen() && (t != null) && t.isAlive())) {
+            return;
+        }
+        final AudioFormat f = format;
+        close();
+        open(f);
+    }
+
+    /**
+     * @param supervisor the supervisor line failures are reported to; null
+     *        to not recover them
+     */
+    public void setSupervisor(final Supervisor supervisor) {
+        this.supervisor = supervisor;
+    }
+
+    public Supervisor getSupervisor() {
+        return supervisor;
+    }
+
+    public boolean isOpen() {
+        return (line != null);
+    }
+
+    /**
+     * @return true if a sound is being rendered or is about to be
+     */
+    public boolean isPlaying() {
+        return (playing > 0) || !pending.isEmpty();
+    }
+
+    /**
+     * @return the number of voices being rendered
+     */
+    public int getPlaying() {
+        return playing;
+    }
+
+    /**
+     * Plays the given sound from its beginning at its natural volume and
+     * default priority
+     *
+     * @see #play(SoundAsset, float, int)
+     */
+    public void play(final SoundAsset asset) {
+        play(asset, 1f, DEFAULT_PRIORITY);
+    }
+
+    /**
+     * Plays the given sound from its beginning on a new voice, mixed with
+     * whatever else is playing. This only hands the sound over to the render
+     * thread and returns immediately.
+     *
+     * @param asset the sound to play - NOT NULL and in the format of the line
+     * @param gain the gain of the voice in the range [0, 2]: 0 is silence, 1
+     *        the natural volume of the sound
+     * @param priority the higher the priority the less likely the voice is
+     *        dropped or replaced when too many sounds are playing
+     *
+     * @throws IllegalStateException if the output is not open
+     */
+    public void play(final SoundAsset asset, final float gain, final int priority) {
+        if (asset == null) {
+            throw new IllegalArgumentException("asset can not be null");
+        }
+        if (gain < 0f || gain > 2f) {
+            throw new IllegalArgumentException("invalid gain " + gain + " - it must in range (0.0, 2.0)");
+        }
+        if (line == null) {
+            throw new IllegalStateException("play() called before the output is open; make sure to call open()");
+        }
+        if (!format.matches(asset.format)) {
+            throw new IllegalArgumentException(
+                String.format("sound format %s does not match line format %s", asset.format, format)
+            );
+        }
+        final Voice voice = take();
+        if (voice == null) {
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.fine("too many sounds pending, dropping one");
+            }
+            return;
+        }
+        voice.set(asset, gain, priority);
+        if (!pending.offer(0, voice.index)) {
+            release(voice);
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.fine("too many sounds pending, dropping one");
+            }
+        }
+        LockSupport.unpark(renderer);
+    }
+
+    /**
+     * Sets the master volume, applied to everything played from the next
+     * period on; nothing is reopened.
+     *
+     * @param volume linear volume in the range [0, 2]: 0 is silence, 1 the
+     *        natural volume of the sounds
+     */
+    public void setVolume(final double volume) {
+        this.volume = Gain.of(volume);
+    }
+
+    public double getVolume() {
+        return Gain.volume(volume);
+    }
+
+    /**
+     * Sets the fade in and fade out applied to the sounds played from now on;
+     * fades longer than half a sound are shortened to half the sound.
+     *
+     * @param fadeIn the fade in in milliseconds, 0 for none
+     * @param fadeOut the fade out in milliseconds, 0 for none
+     */
+    public void setFades(final int fadeIn, final int fadeOut) {
+        if (fadeIn < 0 || fadeOut < 0) {
+            throw new IllegalArgumentException("fades can not be negative");
+        }
+        this.fadeIn = fadeIn; this.fadeOut = fadeOut;
+    }
+
+    /**
+     * @param listener notified when a sound starts being rendered
+     */
+    public synchronized void addListener(final Listener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener can not be null");
+        }
+        final Listener[] l = Arrays.copyOf(listeners, listeners.length + 1);
+        l[listeners.length] = listener;
+        listeners = l;
+    }
+
+    /**
+     * @param listener the listener to remove; nothing happens if not added
+     */
+    public synchronized void removeListener(final Listener listener) {
+        for (int i=0; i<listeners.length; ++i) {
+            if (listeners[i] == listener) {
+                final Listener[] l = new Listener[listeners.length - 1];
+                System.arraycopy(listeners, 0, l, 0, i);
+                System.arraycopy(listeners, i+1, l, i, l.length - i);
+                listeners = l;
+                return;
+            }
+        }
+    }
+
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @return the underlying line, to access its controls; null if the output
+     *         is not open
+     */
+    public SourceDataLine getLine() {
+        return line;
+    }
+
+    // --------------------------------------------------------- Private methods
+
+    /**
+     * @return a free voice, now taken, or null if they are all in use
+     */
+    private Voice take() {
+        for (int i=0; i<pool.length; ++i) {
+            if ((taken.get(i) == 0) && taken.compareAndSet(i, 0, 1)) {
+                return pool[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gives a voice back to the pool; the render thread does this once done
+     * with it
+     */
+    private void release(final Voice voice) {
+        voice.asset = null;
+        taken.set(voice.index, 0);
+    }
+
+    private void failed(final Throwable cause) {
+        playing = 0;
+        final Supervisor s = supervisor;
+        if (s != null) {
+            s.failed(Supervisor.AUDIO, component, cause);
+        } else if (LOG.isLoggable(Level.SEVERE)) {
+            LOG.log(Level.SEVERE, "audio line failed, nothing is played any more", cause);
+        }
+    }
+
+    // ---------------------------------------------------------------- Listener
+
+    public static interface Listener {
+        /**
+         * Called on the render thread once the first period of a sound has
+         * been handed to the line.
+         */
+        public void started(SoundAsset sound, long nanos);
+    }
+
+    // ------------------------------------------------------------------- Voice
+
+    private static final class Voice {
+        final int index;    // in the pool
+
+        SoundAsset asset;   // set by play(), null when free
+        int gain;
+        int priority;
+        int frames;
+
+        int frame;          // next frame to render
+        int fadeIn, fadeOut;  // frames, set by the renderer
+        long order;         // set by the renderer, the lower the older
+
+        Voice(final int index) {
+            this.index = index;
+        }
+
+        /**
+         * Readies the voice to play the given sound; it is then handed over
+         * to the render thread through the ring, which publishes the fields
+         */
+        void set(final SoundAsset asset, final float gain, final int priority) {
+            this.asset = asset;
+            this.gain = Math.round(gain * Gain.UNITY);
+            this.priority = priority;
+            this.frames = (int)asset.frames;
+            this.frame = 0;
+        }
+
+        /**
+         * @return the gain of the given frame: the gain of the voice shaped
+         *         by the fade in and fade out
+         */
+        int gain(int frame) {
+            if (frame < fadeIn) {
+                return Gain.multiply(gain, Gain.fade(frame, fadeIn));
+            }
+            final int left = frames - 1 - frame;
+            if (left < fadeOut) {
+                return Gain.multiply(gain, Gain.fade(left, fadeOut));
+            }
+            return gain;
+        }
+    }
+
+    // ---------------------------------------------------------------- Renderer
+
+    private class Renderer implements Runnable, TriggerRing.Handler {
+
+        private final SourceDataLine line;
+        private final byte[] period;
+        private final int[] mix;
+        private final Voice[] slots = new Voice[voices];
+        private final Voice[] started = new Voice[voices];
+        private final Voice[] finished = new Voice[voices];
+        private final boolean bigEndian;
+        private final int channels;
+        private final float rate;
+
+        private long order = 0;
+        private int master = volume;  // the master gain of the last period
+        private int nstarted = 0;     // voices in started, to be announced
+        private int nfinished = 0;    // voices in finished, to be released
+
+        private Renderer(final SourceDataLine line, final byte[] period) {
+            this.line = line;
+            this.period = period;
+            this.mix = new int[period.length / 2];
+            this.bigEndian = format.isBigEndian();
+            this.channels = format.getChannels();
+            this.rate = format.getFrameRate();
+        }
+
+        @Override
+        public void run() {
+            try {
+                render();
+            } catch (RuntimeException x) {
+                if (renderer == Thread.currentThread()) {
+                    failed(x);
+                }
+            } finally {
+                releaseAll();
+            }
+        }
+
+        /**
+         * Picks up a voice handed over by play()
+         */
+        @Override
+        public void handle(long stamp, int index) {
+            final Voice v = pool[index];
+            if (assign(v)) {
+                started[nstarted++] = v;
+            }
+        }
+
+        private void render() {
+            final Thread self = Thread.currentThread();
+            while (renderer == self) {
+                nstarted = 0;
+                while (pending.poll(this)) {
+                    //
+                    // picked up in handle()
+                    //
+                }
+
+                final int frames = mix();
+                if (frames == 0) {
+                    playing = 0;
+                    LockSupport.park(this);
+                    continue;
+                }
+                final int length = frames * channels * 2;
+                if ((line.write(period, 0, length) < length) && !line.isOpen()) {
+                    if (renderer == self) {
+                        failed(null);  // closed underneath, not by close()
+                    }
+                    return;
+                }
+
+                if (nstarted > 0) {
+                    final long now = System.nanoTime();
+                    final Listener[] l = listeners;
+                    for (int i=0; i<nstarted; ++i) {
+                        for (int j=0; j<l.length; ++j) {
+                            l[j].started(started[i].asset, now);
+                        }
+                        started[i] = null;
+                    }
+                }
+
+                //
+                // only now, once announced, the voices played to the end can
+                // be taken again
+                //
+                for (int i=0; i<nfinished; ++i) {
+                    release(finished[i]); finished[i] = null;
+                }
+                nfinished = 0;
+            }
+        }
+
+        /**
+         * Gives back all the voices the renderer holds, when it stops
+         */
+        private void releaseAll() {
+            for (int i=0; i<slots.length; ++i) {
+                if (slots[i] != null) {
+                    release(slots[i]); slots[i] = null;
+                }
+            }
+            for (int i=0; i<nfinished; ++i) {
+                release(finished[i]); finished[i] = null;
+            }
+            nfinished = 0;
+        }
+
+        /**
+         * Puts the given voice in a free slot or in place of the oldest voice
+         * with the lowest priority, if not higher than the new one's
+         *
+         * @return true if the voice shall be added to the voices to announce,
+         *         false if dropped or already added in place of the replaced one
+         */
+        private boolean assign(final Voice voice) {
+            voice.order = order++;
+            voice.fadeIn = Math.min(voice.frames / 2, (int)(fadeIn * rate / 1000));
+            voice.fadeOut = Math.min(voice.frames / 2, (int)(fadeOut * rate / 1000));
+
+            int victim = -1;
+            for (int i=0; i<slots.length; ++i) {
+                final Voice v = slots[i];
+                if (v == null) {
+                    slots[i] = voice; return true;
+                }
+                if ((victim < 0)
+                ||  (v.priority < slots[victim].priority)
+                ||  ((v.priority == slots[victim].priority) && (v.order < slots[victim].order))) {
+                    victim = i;
+                }
+            }
+
+            if (slots[victim].priority <= voice.priority) {
+                if (LOG.isLoggable(Level.FINE)) {
+                    LOG.fine("too many voices, replacing a voice with priority " + slots[victim].priority);
+                }
+                for (int i=0; i<nstarted; ++i) {
+                    if (started[i] == slots[victim]) {
+                        //
+                        // replaced before being rendered at all
+                        //
+                        release(slots[victim]);
+                        started[i] = slots[victim] = voice;
+                        return false;
+                    }
+                }
+                release(slots[victim]);
+                slots[victim] = voice;
+                return true;
+            }
+
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.fine("too many voices, dropping a voice with priority " + voice.priority);
+            }
+            release(voice);
+            return false;
+        }
+
+        /**
+         * Mixes the next period of all voices into the period buffer
+         *
+         * @return the number of frames to write, 0 if nothing is playing
+         */
+        private int mix() {
+            int frames = 0, active = 0;
+            for (int i=0; i<slots.length; ++i) {
+                final Voice v = slots[i];
+                if (v == null) {
+                    continue;
+                }
+                ++active;
+
+                final byte[] pcm = v.asset.pcm;
+                final int n = Math.min(periodFrames, v.frames - v.frame);
+                if (n > frames) {
+                    Arrays.fill(mix, frames * channels, n * channels, 0);
+                    frames = n;
+                }
+                for (int f=0, s=0, b=v.frame*channels*2; f<n; ++f) {
+                    final int gain = v.gain(v.frame + f);
+                    for (int c=0; c<channels; ++c, ++s, b+=2) {
+                        final int sample = bigEndian
+                                         ? (pcm[b] << 8) | (pcm[b+1] & 0xFF)
+                                         : (pcm[b+1] << 8) | (pcm[b] & 0xFF);
+                        mix[s] += (sample * gain) >> Gain.SHIFT;
+                    }
+                }
+                v.frame += n;
+
+                if (v.frame >= v.frames) {
+                    slots[i] = null; finished[nfinished++] = v;
+                }
+            }
+            playing = active;
+
+            //
+            // master volume, ramped from the previous one across the period
+            //
+            final int from = master, to = volume;
+            master = to;
+            for (int f=0, s=0, b=0; f<frames; ++f) {
+                final long gain = (from == to) ? to : from + (long)(to - from) * f / frames;
+                for (int c=0; c<channels; ++c, ++s, b+=2) {
+                    int sample = (gain == Gain.UNITY) ? mix[s] : (int)((mix[s] * gain) >> Gain.SHIFT);
+                    sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample));
+                    if (bigEndian) {
+                        period[b] = (byte)(sample >> 8); period[b+1] = (byte)sample;
+                    } else {
+                        period[b] = (byte)sample; period[b+1] = (byte)(sample >> 8);
+                    }
+                }
+            }
+
+            return frames;
+        }
+    }
+
+    // ----------------------------------------------------------- LineComponent
+
+    private class LineComponent implements Supervisor.Component {
+        @Override
+        public void recover() throws Exception {
+            AudioOutput.this.recover();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Debounces and coalesces the edges of a noisy sensor (e.g. a PIR at dusk)
+ * so that a burst of edges becomes a single motion event:
+ *
+ * <ul>
+ *   <li>an edge closer than <i>debounce</i> to the previous edge of any level
+ *       is a bounce and it is ignored altogether;</li>
+ *   <li>a rising edge closer than <i>window</i> to the previous rising edge
+ *       belongs to the same burst: it is coalesced and it extends the burst,
+ *       so a new event needs the sensor to be quiet for at least <i>window</i>
+ *       (hysteresis).</li>
+ * </ul>
+ *
+ * The state is made of primitive timestamps updated with CAS, so that accept()
+ * can be called from any listener thread without locks nor allocations. With
+ * both debounce and window set to 0 every rising edge is an event.
+ */
+public class EdgeFilter {
+
+    public static final int BOUNCE = 0;  // ignored altogether
+    public static final int EDGE = 1;    // a falling edge or a coalesced rising one
+    public static final int EVENT = 2;   // a new motion event
+
+    private final long debounceNanos, windowNanos;
+
+    private final AtomicLong lastEdge = new AtomicLong();
+    private final AtomicLong lastRise = new AtomicLong();
+
+    private final AtomicLong edges = new AtomicLong();
+    private final AtomicLong bounces = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong events = new AtomicLong();
+
+    /**
+     * @param debounce debounce time in milliseconds
+     * @param window burst window in milliseconds
+     *
+     * @throws IllegalArgumentException if debounce or window are negative
+     */
+    public EdgeFilter(long debounce, long window) {
+        if (debounce < 0 || window < 0) {
+            throw new IllegalArgumentException("debounce and window can not be negative");
+        }
+        this.debounceNanos = TimeUnit.MILLISECONDS.toNanos(debounce);
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(window);
+
+        //
+        // make sure the very first edges are not taken as bounces
+        //
+        final long start = System.nanoTime() - Math.max(debounceNanos, windowNanos) - 1;
+        lastEdge.set(start); lastRise.set(start);
+    }
+
+    /**
+     * Creates a filter that lets every rising edge through
+     */
+    public EdgeFilter() {
+        this(0, 0);
+    }
+
+    /**
+     * @param stamp the time of the edge (System.nanoTime())
+     * @param high true for a rising edge, false for a falling edge
+     *
+     * @return true if the edge is a new motion event, false otherwise
+     */
+    public boolean accept(long stamp, boolean high) {
+        return filter(stamp, high) == EVENT;
+    }
+
+    /**
+     * Like accept(), telling apart the edges that are bounces from the ones
+     * that are not, but are not new motion events either
+     *
+     * @param stamp the time of the edge (System.nanoTime())
+     * @param high true for a rising edge, false for a falling edge
+     *
+     * @return BOUNCE, EDGE or EVENT
+     */
+    public int filter(long stamp, boolean high) {
+        edges.incrementAndGet();
+
+        if (debounceNanos == 0) {
+            return (high && rise(stamp)) ? EVENT : EDGE;
+        }
+
+        //
+        // NOTE: with concurrent listeners an edge may come with a stamp older
+        // than the last one; being practically simultaneous, it is a bounce
+        //
+        long last = lastEdge.get();
+        while (stamp - last >= debounceNanos) {
+            if (lastEdge.compareAndSet(last, stamp)) {
+                return (high && rise(stamp)) ? EVENT : EDGE;
+            }
+            last = lastEdge.get();
+        }
+        bounces.incrementAndGet();
+        return BOUNCE;
+    }
+
+    public long getDebounceMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(debounceNanos);
+    }
+
+    public long getWindowMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(windowNanos);
+    }
+
+    /**
+     * @return the number of edges (of any level) received
+     */
+    public long getEdges() {
+        return edges.get();
+    }
+
+    /**
+     * @return the number of edges ignored as bounces
+     */
+    public long getBounces() {
+        return bounces.get();
+    }
+
+    /**
+     * @return the number of rising edges merged into an ongoing burst
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return the number of motion events let through
+     */
+    public long getEvents() {
+        return events.get();
+    }
+
+    public void reset() {
+        edges.set(0); bounces.set(0); coalesced.set(0); events.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "edges=%d bounces=%d coalesced=%d events=%d",
+            getEdges(), getBounces(), getCoalesced(), getEvents()
+        );
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private boolean rise(long stamp) {
+        //
+        // the burst goes on as long as rising edges keep coming within the
+        // window; only the edge that opens it is an event
+        //
+        final long last = lastRise.getAndSet(stamp);
+        if (stamp - last < windowNanos) {
+            coalesced.incrementAndGet();
+            return false;
+        }
+        events.incrementAndGet();
+        return true;
+    }
+}
@@ -0,0 +1,431 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Append-only binary journal of motion events, written through memory
+ * mapped segments of fixed size: records land in the page cache and the OS
+ * writes them back in large chunks, which is what an SD card likes; a
+ * segment is forced to disk only when it is full, at flush() (if anything
+ * was appended since the previous one) or when the journal is closed.
+ * <p>
+ * A segment is a header followed by fixed size records:
+ *
+ * <pre>
+ * header (512 bytes)
+ *   0  int   magic ("FALJ")
+ *   4  short version
+ *   6  short record size
+ *   8  int   number of records
+ *  16  long  time of the last play of each key (pin), 32 of them
+ * 272  byte  cooldown tier of the last play of each key, 32 of them
+ *
+ * record (16 bytes)
+ *   0  long  time (epoch millis)
+ *   8  byte  key (pin)
+ *   9  byte  type (EDGE, PLAYED, MUTED)
+ *  10  byte  detail (EDGE: RISING or 0 for falling, plus DROPPED if
+ *              the edge filter dropped it; PLAYED: cooldown tier;
+ *              MUTED: NIGHT, COOLDOWN)
+ *  11  byte  trigger source
+ *  12  int   reserved
+ * </pre>
+ *
+ * The last play times and tiers are carried over to every new segment, so
+ * that the cooldown state is restored in O(1) from the header of the last
+ * segment.
+ * Only the most recent segments are retained.
+ */
+public class EventJournal implements AutoCloseable {
+
+    public static final int MAGIC = 0x46414C4A;  // FALJ
+    public static final short VERSION = 1;
+    public static final int HEADER_SIZE = 512;
+    public static final int RECORD_SIZE = 16;
+    public static final int MAX_KEYS = 32;
+
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 20;
+    public static final int DEFAULT_SEGMENTS = 8;
+
+    public static final byte EDGE = 1;
+    public static final byte PLAYED = 2;
+    public static final byte MUTED = 3;
+
+    public static final byte RISING = 1;
+    public static final byte DROPPED = 2;
+
+    public static final byte NIGHT = 1;
+    public static final byte COOLDOWN = 2;
+
+    private static final int COUNT = 8;
+    private static final int LAST_PLAYED = 16;
+    private static final int TIERS = LAST_PLAYED + MAX_KEYS * 8;
+    private static final String PREFIX = "falco-";
+    private static final String SUFFIX = ".journal";
+
+    protected final Logger LOG = Logger.getLogger("ste.falco");
+
+    public final Path dir;
+    public final int segmentSize;
+    public final int segments;
+
+    private int capacity;         // records in the current segment
+
+    private MappedByteBuffer buffer;
+    private int segment = 0;
+    private int count = 0;
+    private int flushed = 0;      // records of the current segment forced to disk
+
+    public EventJournal(final Path dir) {
+        this(dir, DEFAULT_SEGMENT_SIZE, DEFAULT_SEGMENTS);
+    }
+
+    /**
+     * @param dir the directory of the segments - NOT NULL
+     * @param segmentSize the size of a segment in bytes; it must hold at
+     *        least one record
+     * @param segments how many segments to retain (at least 1)
+     */
+    public EventJournal(final Path dir, int segmentSize, int segments) {
+        if (dir == null) {
+            throw new IllegalArgumentException("dir can not be null");
+        }
+        if (segmentSize < HEADER_SIZE + RECORD_SIZE) {
+            throw new IllegalArgumentException("segmentSize must be at least " + (HEADER_SIZE + RECORD_SIZE));
+        }
+        if (segments < 1) {
+            throw new IllegalArgumentException("segments must be greater than 0");
+        }
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.segments = segments;
+    }
+
+    /**
+     * Maps the last segment, or a new one if there is none, and positions the
+     * journal at its end.
+     *
+     * @throws IOException if the directory or the segment can not be
+     *         accessed or the segment is not valid
+     */
+    public synchronized void open() throws IOException {
+        if (buffer != null) {
+            return;
+        }
+        Files.createDirectories(dir);
+
+        final List<Path> all = getSegments();
+        if (all.isEmpty()) {
+            roll(null);
+            return;
+        }
+
+        final Path last = all.get(all.size() - 1);
+        final long size = Files.size(last);
+        if ((size < HEADER_SIZE + RECORD_SIZE) || (size > Integer.MAX_VALUE)) {
+            throw new IOException(last + " is not a valid journal segment");
+        }
+        final MappedByteBuffer map = map(last, (int)size);
+        if ((map.getInt(0) != MAGIC) || (map.getShort(6) != RECORD_SIZE)) {
+            throw new IOException(last + " is not a valid journal segment");
+        }
+        buffer = map; segment = number(last);
+        capacity = (buffer.capacity() - HEADER_SIZE) / RECORD_SIZE;
+        count = Math.max(0, Math.min(buffer.getInt(COUNT), capacity));
+        flushed = count;
+        if (count == capacity) {
+            roll(buffer);
+        }
+        if (LOG.isLoggable(Level.INFO)) {
+            LOG.info(String.format("journal %s opened at record %d", last, count));
+        }
+    }
+
+    public synchronized boolean isOpen() {
+        return buffer != null;
+    }
+
+    /**
+     * Appends a record; it does nothing if the journal is not open.
+     *
+     * @param time the time of the event (epoch millis)
+     * @param key the pin (0-31)
+     * @param type EDGE, PLAYED or MUTED
+     * @param detail see above
+     * @param source the trigger source
+     *
+     * @throws IllegalArgumentException if key is out of range
+     */
+    public synchronized void append(long time, int key, byte type, byte detail, int source) {
+        if ((key < 0) || (key >= MAX_KEYS)) {
+            throw new IllegalArgumentException("key must be in the range [0, " + (MAX_KEYS - 1) + "]");
+        }
+        if (buffer == null) {
+            return;
+        }
+        if (count == capacity) {
+            try {
+                roll(buffer);
+            } catch (IOException x) {
+                if (LOG.isLoggable(Level.SEVERE)) {
+                    LOG.log(Level.SEVERE, "unable to roll the journal over, event not recorded", x);
+                }
+                return;
+            }
+        }
+
+        final int at = HEADER_SIZE + count * RECORD_SIZE;
+        buffer.putLong(at, time);
+        buffer.put(at + 8, (byte)key);
+        buffer.put(at + 9, type);
+        buffer.put(at + 10, detail);
+        buffer.put(at + 11, (byte)TriggerSource.source(source));
+        buffer.putInt(at + 12, 0);
+        if (type == PLAYED) {
+            buffer.putLong(LAST_PLAYED + key * 8, time);
+            buffer.put(TIERS + key, detail);
+        }
+        buffer.putInt(COUNT, ++count);  // the record is there only once counted
+    }
+
+    /**
+     * @param key the pin (0-31)
+     *
+     * @return the time of the last PLAYED event of the given key (epoch
+     *         millis), 0 if none or if the journal is not open
+     */
+    public synchronized long getLastPlayed(int key) {
+        if ((key < 0) || (key >= MAX_KEYS)) {
+            throw new IllegalArgumentException("key must be in the range [0, " + (MAX_KEYS - 1) + "]");
+        }
+        return (buffer == null) ? 0 : buffer.getLong(LAST_PLAYED + key * 8);
+    }
+
+    /**
+     * @param key the pin (0-31)
+     *
+     * @return the cooldown tier of the last PLAYED event of the given key, 0
+     *         if none or if the journal is not open
+     */
+    public synchronized int getTier(int key) {
+        if ((key < 0) || (key >= MAX_KEYS)) {
+            throw new IllegalArgumentException("key must be in the range [0, " + (MAX_KEYS - 1) + "]");
+        }
+        return (buffer == null) ? 0 : buffer.get(TIERS + key);
+    }
+
+    /**
+     * @return the number of records in the current segment
+     */
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * @return the number of the current segment, 0 if not open
+     */
+    public synchronized int getSegment() {
+        return (buffer == null) ? 0 : segment;
+    }
+
+    /**
+     * @return the segments in the journal directory, oldest first
+     *
+     * @throws IOException in case of errors reading the directory
+     */
+    public List<Path> getSegments() throws IOException {
+        final List<Path> ret = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return ret;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path file: files) {
+                if (number(file) > 0) {
+                    ret.add(file);
+                }
+            }
+        }
+        Collections.sort(ret);
+        return ret;
+    }
+
+    /**
+     * Reads the number of records of a segment from its header. This can be
+     * done while the segment is being written: records are counted only once
+     * completely written.
+     *
+     * @param segment the segment file - NOT NULL
+     *
+     * @return the number of records in the given segment
+     *
+     * @throws IOException if the segment can not be read or is not valid
+     */
+    public static int count(final Path segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if ((size < HEADER_SIZE + RECORD_SIZE) || (size > Integer.MAX_VALUE)) {
+                throw new IOException(segment + " is not a valid journal segment");
+            }
+            final MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if ((header.getInt(0) != MAGIC) || (header.getShort(6) != RECORD_SIZE)) {
+                throw new IOException(segment + " is not a valid journal segment");
+            }
+            return Math.max(0, Math.min(header.getInt(COUNT), (int)((size - HEADER_SIZE) / RECORD_SIZE)));
+        }
+    }
+
+    /**
+     * Reads the records in the range [from, to) of a segment, mapping read
+     * only just that range; no objects are created per record.
+     *
+     * @param segment the segment file - NOT NULL
+     * @param from the first record
+     * @param to the record after the last one (see count())
+     * @param handler who gets the records, in order - NOT NULL
+     *
+     * @throws IOException if the segment can not be read
+     */
+    public static void scan(final Path segment, int from, int to, final RecordHandler handler) throws IOException {
+        if ((from < 0) || (to < from)) {
+            throw new IllegalArgumentException("invalid range [" + from + ", " + to + ")");
+        }
+        if (from == to) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            final MappedByteBuffer map = channel.map(
+                FileChannel.MapMode.READ_ONLY,
+                HEADER_SIZE + (long)from * RECORD_SIZE, (long)(to - from) * RECORD_SIZE
+            );
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            for (int at=0; at<map.capacity(); at+=RECORD_SIZE) {
+                handler.record(
+                    map.getLong(at), map.get(at + 8), map.get(at + 9), map.get(at + 10), map.get(at + 11)
+                );
+            }
+        }
+    }
+
+    /**
+     * Forces the records appended since the previous flush to disk, so that
+     * no more than what was recorded in between can be lost on a power cut.
+     * It does nothing if nothing was appended or the journal is not open.
+     * The segment is forced without holding the journal, so that appends are
+     * not held up by a slow card in the meanwhile.
+     *
+     * @return the number of records forced to disk
+     */
+    public int flush() {
+        final MappedByteBuffer current;
+        final int records;
+        synchronized (this) {
+            if ((buffer == null) || (count == flushed)) {
+                return 0;
+            }
+            current = buffer;
+            records = count - flushed;
+            flushed = count;
+        }
+        current.force();  // still mapped even if rolled over or closed in the meanwhile
+
+        return records;
+    }
+
+    /**
+     * Forces the current segment to disk and unmaps it
+     */
+    @Override
+    public synchronized void close() {
+        if (buffer != null) {
+            buffer.force();
+            buffer = null;
+        }
+    }
+
+    // ----------------------------------------------------------- RecordHandler
+
+    public static interface RecordHandler {
+        public void record(long time, int key, byte type, byte detail, int source);
+    }
+
+    // --------------------------------------------------------- private methods
+
+    /**
+     * Starts a new segment carrying over the last play times and tiers of
+     * the current one (if any) and deletes the segments beyond retention
+     */
+    private void roll(final MappedByteBuffer current) throws IOException {
+        final Path file = dir.resolve(String.format("%s%08d%s", PREFIX, segment + 1, SUFFIX));
+        final MappedByteBuffer next = map(file, segmentSize);
+
+        next.putInt(0, MAGIC);
+        next.putShort(4, VERSION);
+        next.putShort(6, (short)RECORD_SIZE);
+        next.putInt(COUNT, 0);
+        for (int i=0; i<MAX_KEYS; ++i) {
+            next.putLong(LAST_PLAYED + i*8, (current == null) ? 0 : current.getLong(LAST_PLAYED + i*8));
+            next.put(TIERS + i, (current == null) ? 0 : current.get(TIERS + i));
+        }
+        if (current != null) {
+            current.force();
+        }
+
+        buffer = next; segment += 1; count = flushed = 0;
+        capacity = (segmentSize - HEADER_SIZE) / RECORD_SIZE;
+
+        final List<Path> all = getSegments();
+        for (int i=0; i<all.size()-segments; ++i) {
+            Files.deleteIfExists(all.get(i));
+        }
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.fine("journal rolled over to " + file);
+        }
+    }
+
+    private MappedByteBuffer map(final Path file, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(
+                file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE
+        )) {
+            final MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            return map;
+        }
+    }
+
+    private static int number(final Path file) {
+        final String name = file.getFileName().toString();
+        try {
+            return Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (RuntimeException x) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+/**
+ * Fixed point gains for the software mixer, with UNITY meaning 1.0; the
+ * largest gain (2.0) times a 16 bits sample fits an int.
+ *
+ * Fades follow a precomputed table going from silence to UNITY along a
+ * -60dB..0dB curve, which sounds linear to the ear; it is computed once so
+ * that applying a fade only takes a lookup and a multiplication per frame.
+ */
+public final class Gain {
+
+    public static final int SHIFT = 14;
+    public static final int UNITY = 1 << SHIFT;
+    public static final int MAX = 2 * UNITY;
+
+    public static final int FADE_STEPS = 256;
+
+    private static final double FADE_RANGE_DB = 60d;
+    private static final int[] FADE = new int[FADE_STEPS];
+
+    static {
+        for (int i=1; i<FADE_STEPS; ++i) {
+            final double db = (i / (double)(FADE_STEPS - 1) - 1d) * FADE_RANGE_DB;
+            FADE[i] = (int)Math.round(UNITY * Math.pow(10d, db / 20d));
+        }
+        FADE[0] = 0;
+    }
+
+    /**
+     * @param volume linear volume in the range [0, 2]
+     *
+     * @return the fixed point gain of the given volume
+     */
+    public static int of(double volume) {
+        if (volume < 0d || volume > 2d) {
+            throw new IllegalArgumentException("invalid volume " + volume + " - it must in range (0.0, 2.0)");
+        }
+        return (int)Math.round(volume * UNITY);
+    }
+
+    /**
+     * @return the linear volume of the given fixed point gain
+     */
+    public static double volume(int gain) {
+        return gain / (double)UNITY;
+    }
+
+    /**
+     * @param step how far in the fade, in the range [0, length]
+     * @param length the length of the fade
+     *
+     * @return the fixed point gain at the given step of a fade in of the given
+     *         length (for a fade out, count the steps backwards)
+     */
+    public static int fade(long step, long length) {
+        return (step >= length) ? UNITY : FADE[(int)(step * (FADE_STEPS - 1) / length)];
+    }
+
+    /**
+     * @return the product of two fixed point gains
+     */
+    public static int multiply(int a, int b) {
+        return (int)(((long)a * b) >> SHIFT);
+    }
+
+    private Gain() {
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Aggregations over the motion history recorded in an EventJournal: motions
+ * per hour of day and per weekday, how many were played and how many muted
+ * (and why) and how long it takes birds to come back after a play, i.e. the
+ * time from a play to the first motion that follows it on the same pin.
+ * <p>
+ * Memory is fixed whatever the number of records. The journal is scanned in
+ * chunks, each aggregated in parallel into its own partial; partials are
+ * merged in journal order as they complete, carrying over per pin what is
+ * needed to account the returns that span two chunks. No more than WINDOW
+ * chunks per thread are in flight at a time, so that the partials held do
+ * not grow with the journal.
+ */
+public class JournalStats implements EventJournal.RecordHandler {
+
+    public static final int CHUNK = 16 * 1024;  // records
+    public static final int WINDOW = 2;         // chunks in flight per thread
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    public final ZoneId zone;
+
+    public final long[] hours = new long[24];
+    public final long[] weekdays = new long[7];  // Monday first
+    public final LatencyHistogram returns = new LatencyHistogram("returns");
+
+    private long records, edges, played, night, cooldown;
+    private long first, last;
+
+    private final long[] awaiting = new long[EventJournal.MAX_KEYS];  // last play with no motion after it yet
+    private final long[] firsts = new long[EventJournal.MAX_KEYS];    // first motion
+
+    private long hourStart = 0, hourEnd = 0;
+    private int hour, weekday;
+
+    public JournalStats(final ZoneId zone) {
+        if (zone == null) {
+            throw new IllegalArgumentException("zone can not be null");
+        }
+        this.zone = zone;
+    }
+
+    /**
+     * Scans the given segments with the given number of threads.
+     *
+     * @param segments the segments, oldest first - NOT NULL
+     * @param zone the time zone of hours and weekdays - NOT NULL
+     * @param threads the number of threads (at least 1)
+     *
+     * @return the aggregations
+     *
+     * @throws IOException if a segment can not be read
+     */
+    public static JournalStats scan(final List<Path> segments, final ZoneId zone, int threads)
+    throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be greater than 0");
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final JournalStats stats = new JournalStats(zone);
+            final Deque<Future<JournalStats>> partials = new ArrayDeque<>();
+            for (final Path segment: segments) {
+                final int count = EventJournal.count(segment);
+                for (int from=0; from<count; from+=CHUNK) {
+                    final int start = from, end = Math.min(count, from + CHUNK);
+                    partials.add(executor.submit(new Callable<JournalStats>() {
+                        @Override
+                        public JournalStats call() throws IOException {
+                            final JournalStats partial = new JournalStats(zone);
+                            EventJournal.scan(segment, start, end, partial);
+                            return partial;
+                        }
+                    }));
+                    if (partials.size() >= WINDOW * threads) {
+                        stats.merge(partials.poll().get());
+                    }
+                }
+            }
+            while (!partials.isEmpty()) {
+                stats.merge(partials.poll().get());
+            }
+            return stats;
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new IOException("scan interrupted", x);
+        } catch (ExecutionException x) {
+            if (x.getCause() instanceof IOException) {
+                throw (IOException)x.getCause();
+            }
+            throw new IOException(x.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    public void record(long time, int key, byte type, byte detail, int source) {
+        records += 1;
+        if (first == 0) {
+            first = time;
+        }
+        last = time;
+
+        if (type == EventJournal.EDGE) {
+            edges += 1; return;
+        }
+        if (type == EventJournal.PLAYED) {
+            played += 1;
+        } else if (type == EventJournal.MUTED) {
+            if (detail == EventJournal.NIGHT) {
+                night += 1;
+            } else {
+                cooldown += 1;
+            }
+        } else {
+            return;
+        }
+
+        if ((time < hourStart) || (time >= hourEnd)) {
+            final ZonedDateTime at = Instant.ofEpochMilli(time).atZone(zone);
+            hour = at.getHour(); weekday = at.getDayOfWeek().getValue() - 1;
+            hourStart = at.truncatedTo(ChronoUnit.HOURS).toInstant().toEpochMilli();
+            hourEnd = hourStart + HOUR;
+        }
+        hours[hour] += 1; weekdays[weekday] += 1;
+
+        if (firsts[key] == 0) {
+            firsts[key] = time;
+        }
+        if (awaiting[key] != 0) {
+            returns.record((time - awaiting[key]) * 1000000L);
+        }
+        awaiting[key] = (type == EventJournal.PLAYED) ? time : 0;
+    }
+
+    /**
+     * Adds the aggregations of the records that follow the ones of this
+     * instance in the journal.
+     *
+     * @param next the aggregations of the following records - NOT NULL
+     */
+    public void merge(final JournalStats next) {
+        for (int i=0; i<hours.length; ++i) {
+            hours[i] += next.hours[i];
+        }
+        for (int i=0; i<weekdays.length; ++i) {
+            weekdays[i] += next.weekdays[i];
+        }
+        returns.add(next.returns);
+
+        records += next.records; edges += next.edges;
+        played += next.played; night += next.night; cooldown += next.cooldown;
+        if (first == 0) {
+            first = next.first;
+        }
+        if (next.last != 0) {
+            last = next.last;
+        }
+
+        for (int key=0; key<EventJournal.MAX_KEYS; ++key) {
+            if (next.firsts[key] == 0) {
+                continue;  // no motions on this pin in next
+            }
+            if (awaiting[key] != 0) {
+                returns.record((next.firsts[key] - awaiting[key]) * 1000000L);
+            }
+            if (firsts[key] == 0) {
+                firsts[key] = next.firsts[key];
+            }
+            awaiting[key] = next.awaiting[key];
+        }
+    }
+
+    public long getRecords() {
+        return records;
+    }
+
+    public long getEdges() {
+        return edges;
+    }
+
+    /**
+     * @return the motions, played or muted
+     */
+    public long getMotions() {
+        return played + night + cooldown;
+    }
+
+    public long getPlayed() {
+        return played;
+    }
+
+    public long getMutedAtNight() {
+        return night;
+    }
+
+    public long getMutedInCooldown() {
+        return cooldown;
+    }
+
+    /**
+     * @return the time of the first record (epoch millis), 0 if none
+     */
+    public long getFirst() {
+        return first;
+    }
+
+    /**
+     * @return the time of the last record (epoch millis), 0 if none
+     */
+    public long getLast() {
+        return last;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-memory histogram of latencies in microseconds. Values below 32us
+ * have their own bucket; above that every power of two is split in 16
+ * buckets, which keeps the error of any percentile within ~6% up to ~19
+ * hours. Recording is lock-free and does not allocate, so it can be done
+ * from the trigger and audio threads.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB = 1 << SUB_BITS;     // buckets per power of 2
+    private static final int LINEAR = SUB << 1;       // values with their own bucket
+    private static final int MAX_EXP = 36;            // 2^36us ~ 19 hours
+    private static final int BUCKETS = LINEAR + (MAX_EXP - SUB_BITS) * SUB;
+
+    public final String name;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * @param nanos the latency in nanoseconds; negative values are taken as 0
+     */
+    public void record(long nanos) {
+        final long micros = Math.max(0, nanos / 1000);
+
+        counts.incrementAndGet(index(micros));
+        count.incrementAndGet();
+        sum.addAndGet(micros);
+
+        long m = max.get();
+        while ((micros > m) && !max.compareAndSet(m, micros)) {
+            m = max.get();
+        }
+    }
+
+    /**
+     * @param percentile the percentile in the range [0, 100]
+     *
+     * @return the highest value of the bucket the given percentile falls in
+     *         (in microseconds) or 0 if nothing has been recorded
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be in the range [0, 100]");
+        }
+
+        final long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long)Math.ceil(total * percentile / 100d));
+        long seen = 0;
+        for (int i=0; i<BUCKETS; ++i) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return (i == BUCKETS - 1) ? max.get() : Math.min(highest(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getMean() {
+        final long total = count.get();
+        return (total == 0) ? 0 : sum.get() / total;
+    }
+
+    /**
+     * Adds the values recorded by another histogram to this one, e.g. to
+     * merge histograms filled in parallel.
+     *
+     * @param other the other histogram - NOT NULL
+     */
+    public void add(final LatencyHistogram other) {
+        for (int i=0; i<BUCKETS; ++i) {
+            counts.addAndGet(i, other.counts.get(i));
+        }
+        count.addAndGet(other.count.get());
+        sum.addAndGet(other.sum.get());
+
+        final long micros = other.max.get();
+        long m = max.get();
+        while ((micros > m) && !max.compareAndSet(m, micros)) {
+            m = max.get();
+        }
+    }
+
+    public void reset() {
+        for (int i=0; i<BUCKETS; ++i) {
+            counts.set(i, 0);
+        }
+        count.set(0); sum.set(0); max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "%s: count=%d p50=%dus p99=%dus max=%dus",
+            name, getCount(), getPercentile(50), getPercentile(99), getMax()
+        );
+    }
+
+    // --------------------------------------------------------- Private methods
+
+    private static int index(long micros) {
+        if (micros < LINEAR) {
+            return (int)micros;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(micros);
+        if (exp >= MAX_EXP + 1) {
+            return BUCKETS - 1;
+        }
+        int shift = exp - SUB_BITS;
+        return LINEAR + (exp - SUB_BITS - 1) * SUB + (int)((micros >>> shift) - SUB);
+    }
+
+    private static long highest(int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+        int exp = (index - LINEAR) / SUB + SUB_BITS + 1;
+        int shift = exp - SUB_BITS;
+        long mantissa = SUB + (index - LINEAR) % SUB;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -15,33 +15,105 @@
  */
 package ste.falco;
 
+import com.pi4j.io.gpio.GpioController;
 import com.pi4j.io.gpio.GpioFactory;
 import com.pi4j.io.gpio.GpioPinDigitalInput;
+import com.pi4j.io.gpio.Pin;
 import com.pi4j.io.gpio.PinPullResistance;
+import com.pi4j.io.gpio.PinState;
 import com.pi4j.io.gpio.RaspiPin;
 import com.pi4j.io.gpio.event.GpioPinDigitalStateChangeEvent;
 import com.pi4j.io.gpio.event.GpioPinListenerDigital;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import javax.sound.sampled.Mixer;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 
 /**
+ * Listens to the pin of a PIR and keeps track of its health (see PinHealth):
+ * a pin that is stuck high or chatters is quarantined, i.e. it is not
+ * listened to any more, and probed again after a while, backing off from
+ * probe to maxProbe each time it turns out to be still faulty.
  *
+ * A dead pin (no edges for long, see PinHealth) or a pin that can not be
+ * listened to any more is reported to the supervisor, if any, which
+ * provisions it again in place (see reprovision()): nothing else is
+ * restarted.
  */
 public class MotionDetector
        extends SoundMotionDetector
        implements GpioPinListenerDigital {
 
+    /**
+     * The address (WiringPi numbering) of the pin the PIR is connected to by
+     * default, i.e. GPIO_04
+     */
+    public static final int DEFAULT_PIN = 4;
+
+    public static final long DEFAULT_HEALTH_CHECK = 1000;           // milliseconds
+    public static final long DEFAULT_PROBE = 60 * 1000;             // milliseconds
+    public static final long DEFAULT_MAX_PROBE = 60 * 60 * 1000;    // milliseconds
+
+    public final Pin pin;
+
     private GpioPinDigitalInput PIN = null;
+    private volatile EdgeFilter filter = new EdgeFilter();
+    private volatile boolean rawEdges = false;
+
+    private volatile PinHealth health = new PinHealth();
+    private long checkNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_HEALTH_CHECK);
+    private long probeNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_PROBE);
+    private long maxProbeNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_PROBE);
+    private Scheduler scheduler = Scheduler.getInstance();
+    private Scheduler.Task checker = null;
+
+    private volatile boolean quarantined = false;  // edges are ignored
+    private boolean listening = false;             // guarded by health checks
+    private boolean asleep = false;                // guarded by health checks
+    private int reason = PinHealth.HEALTHY;        // why the pin was quarantined
+    private long backoffNanos = probeNanos;
+    private long probeAt = 0, probedAt = 0;
+    private final AtomicLong quarantines = new AtomicLong();
+    private final Supervisor.Component gpio = new PinComponent();
 
     public MotionDetector(final String sound) {
-        super(sound);
+        this(sound, null);
+    }
+
+    public MotionDetector(final String sound, final Mixer mixer) {
+        this(sound, mixer, DEFAULT_PIN);
+    }
+
+    /**
+     * @param sound the resource path of the sound to play - NOT BLANK
+     * @param mixer the mixer to play through; if null SoundUtils.getMixer()
+     * @param pin the address (WiringPi numbering) of the pin the PIR is
+     *        connected to
+     *
+     * @throws IllegalArgumentException if pin is not a valid address
+     */
+    public MotionDetector(final String sound, final Mixer mixer, int pin) {
+        super(sound, mixer);
+        this.pin = RaspiPin.getPinByAddress(pin);
+        if (this.pin == null) {
+            throw new IllegalArgumentException("invalid pin " + pin);
+        }
     }
 
     @Override
     public void startup() throws Exception {
         super.startup();
         PIN = GpioFactory.getInstance()
-                         .provisionDigitalInputPin(RaspiPin.GPIO_04, "Motion sensor", PinPullResistance.PULL_DOWN);
-        PIN.addListener(this);
+                         .provisionDigitalInputPin(pin, "Motion sensor", PinPullResistance.PULL_DOWN);
+
+        synchronized (this) {
+            health.reset(System.nanoTime(), isHigh(PIN));
+            quarantined = false; reason = PinHealth.HEALTHY;
+            backoffNanos = probeNanos;
+            listen(PIN); listening = true; asleep = false;
+        }
+        startHealthChecks();
     }
 
     /**
@@ -50,18 +122,185 @@ public class MotionDetector
      */
     @Override
     public void shutdown() {
-        if (PIN != null) {
-            GpioFactory.getInstance().unprovisionPin(PIN);
-            PIN = null;
+        stopHealthChecks();
+        synchronized (this) {
+            if (PIN != null) {
+                if (listening) {
+                    unlisten(PIN); listening = false;
+                }
+                GpioFactory.getInstance().unprovisionPin(PIN);
+                PIN = null;
+            }
         }
+        super.shutdown();
     }
 
-    public void handleGpioPinDigitalStateChangeEvent(GpioPinDigitalStateChangeEvent event) {
-        // display pin state on console
-        System.out.println(" --> GPIO PIN STATE CHANGE: " + event.getPin() + " = " + event.getState());
-        if (event.getState().isHigh()) {
-            moved();
+    /**
+     * Besides closing the clip, stops listening to the pin (which stays
+     * provisioned) and checking its health, so that no edges wake the
+     * process up during the muted hours.
+     */
+    @Override
+    public void sleep() {
+        if (isDormant()) {
+            return;
+        }
+        stopHealthChecks();
+        synchronized (this) {
+            if ((PIN != null) && listening) {
+                unlisten(PIN); listening = false;
+            }
+            asleep = true;  // a health check already running must not probe
+        }
+        super.sleep();
+    }
+
+    /**
+     * Besides reopening the clip, listens to the pin again with a fresh
+     * health (a quarantine in place when going dormant is over).
+     */
+    @Override
+    public void wake() throws Exception {
+        if (!isDormant()) {
+            return;
+        }
+        super.wake();
+        synchronized (this) {
+            asleep = false;
+            if (PIN == null) {
+                return;
+            }
+            health.reset(System.nanoTime(), isHigh(PIN));
+            quarantined = false; reason = PinHealth.HEALTHY;
+            if (!listening) {
+                listen(PIN); listening = true;
+            }
+        }
+        startHealthChecks();
+    }
+
+    /**
+     * @param filter the filter PIR edges go through before becoming triggers
+     *
+     * @throws IllegalArgumentException if filter is null
+     */
+    public void setEdgeFilter(final EdgeFilter filter) {
+        if (filter == null) {
+            throw new IllegalArgumentException("filter can not be null");
+        }
+        this.filter = filter;
+    }
+
+    public EdgeFilter getEdgeFilter() {
+        return filter;
+    }
+
+    /**
+     * @param rawEdges true to journal also the edges the edge filter drops as
+     *        bounces (flagged EventJournal.DROPPED), e.g. to look into a
+     *        bouncing sensor; false (the default) to journal only the edges
+     *        that pass the debounce
+     */
+    public void setRawEdges(boolean rawEdges) {
+        this.rawEdges = rawEdges;
+    }
+
+    public boolean isRawEdges() {
+        return rawEdges;
+    }
+
+    /**
+     * @param health the health tracker of the pin; it takes effect at the
+     *        next startup()
+     *
+     * @throws IllegalArgumentException if health is null
+     */
+    public void setHealth(final PinHealth health) {
+        if (health == null) {
+            throw new IllegalArgumentException("health can not be null");
         }
+        this.health = health;
+    }
+
+    public PinHealth getHealth() {
+        return health;
+    }
+
+    /**
+     * Sets how the pin health is checked; changes take effect at the next
+     * startup().
+     *
+     * @param check how often (in milliseconds) the health of the pin is checked
+     * @param probe how long (in milliseconds) a pin is quarantined the first
+     *        time
+     * @param maxProbe the longest quarantine (in milliseconds); it doubles
+     *        from probe each time the pin is found faulty again
+     *
+     * @throws IllegalArgumentException if check or probe are not positive or
+     *         maxProbe is less than probe
+     */
+    public void setHealthChecks(long check, long probe, long maxProbe) {
+        if (check <= 0) {
+            throw new IllegalArgumentException("check must be greater than 0");
+        }
+        if (probe <= 0) {
+            throw new IllegalArgumentException("probe must be greater than 0");
+        }
+        if (maxProbe < probe) {
+            throw new IllegalArgumentException("maxProbe can not be less than probe");
+        }
+        checkNanos = TimeUnit.MILLISECONDS.toNanos(check);
+        probeNanos = TimeUnit.MILLISECONDS.toNanos(probe);
+        maxProbeNanos = TimeUnit.MILLISECONDS.toNanos(maxProbe);
+    }
+
+    /**
+     * @param scheduler the scheduler the health checks run on; it takes
+     *        effect at the next startup() (default: Scheduler.getInstance())
+     *
+     * @throws IllegalArgumentException if scheduler is null
+     */
+    public void setScheduler(final Scheduler scheduler) {
+        if (scheduler == null) {
+            throw new IllegalArgumentException("scheduler can not be null");
+        }
+        this.scheduler = scheduler;
+    }
+
+    public Scheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * @return true if the pin is quarantined, i.e. its edges are ignored
+     */
+    public boolean isQuarantined() {
+        return quarantined;
+    }
+
+    /**
+     * @return how many times the pin has been quarantined
+     */
+    public long getQuarantines() {
+        return quarantines.get();
+    }
+
+    /**
+     * @return the milliseconds before the quarantined pin is probed again, 0
+     *         if not quarantined
+     */
+    public synchronized long getProbeMillis() {
+        return (quarantined && !listening)
+             ? Math.max(0, TimeUnit.NANOSECONDS.toMillis(probeAt - System.nanoTime()))
+             : 0;
+    }
+
+    /**
+     * Runs on the Pi4J listener thread: it only debounces the edge and
+     * publishes the trigger, the rest happens on the dispatcher thread.
+     */
+    public void handleGpioPinDigitalStateChangeEvent(GpioPinDigitalStateChangeEvent event) {
+        edge(System.nanoTime(), event.getState().isHigh());
     }
 
     @Override
@@ -98,6 +337,203 @@ public class MotionDetector
         return super.isLive() && (PIN != null);
     }
 
+    // ------------------------------------------------------- protected methods
+
+    /**
+     * Starts watching the just provisioned pin; by default with a Pi4J
+     * listener.
+     */
+    protected void listen(final GpioPinDigitalInput pin) {
+        pin.addListener(this);
+    }
+
+    /**
+     * Stops watching the pin, right before it is unprovisioned
+     */
+    protected void unlisten(final GpioPinDigitalInput pin) {
+        pin.removeListener(this);
+    }
+
+    /**
+     * Debounces an edge of the pin and publishes the trigger if it is a new
+     * motion.
+     *
+     * @param stamp the time of the edge (System.nanoTime())
+     * @param high true for a rising edge, false for a falling edge
+     */
+    protected void edge(long stamp, boolean high) {
+        if (quarantined) {
+            return;
+        }
+        if (health.edge(stamp, high) == PinHealth.CHATTERING) {
+            //
+            // stop the edges right away; the listener is removed at the next
+            // health check, not from the listener thread
+            //
+            quarantined = true;
+            return;
+        }
+        final int verdict = filter.filter(stamp, high);
+        final byte edge = high ? EventJournal.RISING : 0;
+        if (verdict != EdgeFilter.BOUNCE) {
+            record(getClock().millis(), EventJournal.EDGE, edge, TriggerSource.GPIO);
+        } else if (rawEdges) {
+            record(getClock().millis(), EventJournal.EDGE, (byte)(edge | EventJournal.DROPPED), TriggerSource.GPIO);
+        }
+        if (verdict == EdgeFilter.EVENT) {
+            trigger(stamp, TriggerSource.GPIO);
+        }
+    }
+
+    /**
+     * Checks the health of the pin, quarantining it if stuck or chattering
+     * and probing it again when its quarantine is over.
+     */
+    protected synchronized void checkHealth() {
+        final GpioPinDigitalInput pin = PIN;
+        if ((pin == null) || asleep) {
+            return;
+        }
+
+        final long now = System.nanoTime();
+        try {
+            if (listening) {
+                final int state = health.check(now);
+                if (quarantined || (state == PinHealth.STUCK) || (state == PinHealth.CHATTERING)) {
+                    quarantine(pin, now, quarantined ? PinHealth.CHATTERING : state);
+                } else if (state == PinHealth.DEAD) {
+                    failed(null);
+                } else if ((backoffNanos > probeNanos) && (now - probedAt > maxProbeNanos)) {
+                    backoffNanos = probeNanos;  // healthy long enough after the last probe
+                }
+                return;
+            }
+
+            if (now - probeAt >= 0) {
+                probe(pin, now);
+            }
+        } catch (RuntimeException x) {
+            failed(x);
+        }
+    }
+
+    /**
+     * Provisions the pin again after a failure and listens to it with a fresh
+     * health; it does nothing if the detector has been shut down or is
+     * dormant in the meantime.
+     *
+     * @throws Exception if the pin can not be provisioned
+     */
+    protected synchronized void reprovision() throws Exception {
+        if ((PIN == null) || asleep) {
+            return;
+        }
+        final GpioController controller = GpioFactory.getInstance();
+        if (listening) {
+            listening = false;
+            try {
+                unlisten(PIN);
+            } catch (RuntimeException x) {
+                // gone with the pin
+            }
+        }
+        if (controller.getProvisionedPins().contains(PIN)) {
+            controller.unprovisionPin(PIN);
+        }
+        PIN = controller.provisionDigitalInputPin(pin, "Motion sensor", PinPullResistance.PULL_DOWN);
+
+        health.reset(System.nanoTime(), isHigh(PIN));
+        quarantined = false; reason = PinHealth.HEALTHY;
+        backoffNanos = probeNanos;
+        listen(PIN); listening = true;
+    }
+
+    // --------------------------------------------------------- private methods
+
+    /**
+     * Reports a failure of the pin to the supervisor, if any
+     */
+    private void failed(final Throwable cause) {
+        final Supervisor s = getSupervisor();
+        if (s != null) {
+            s.failed(Supervisor.GPIO, gpio, cause);
+        } else if ((cause != null) && LOG.isLoggable(Level.SEVERE)) {
+            LOG.log(Level.SEVERE, "pin " + pin.getAddress() + " failed", cause);
+        }
+    }
+
+    private synchronized void startHealthChecks() {
+        if (checker != null) {
+            checker.cancel();
+        }
+        checker = scheduler.scheduleWithFixedDelay("health of pin " + pin.getAddress(), new Runnable() {
+            @Override
+            public void run() {
+                checkHealth();
+            }
+        }, checkNanos, checkNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private synchronized void stopHealthChecks() {
+        if (checker != null) {
+            checker.cancel();
+            checker = null;
+        }
+    }
+
+    private void quarantine(final GpioPinDigitalInput pin, long now, int state) {
+        quarantined = true; reason = state;
+        unlisten(pin); listening = false;
+        quarantines.incrementAndGet();
+        probeAt = now + backoffNanos;
+
+        if (LOG.isLoggable(Level.WARNING)) {
+            LOG.warning(
+                "pin " + pin.getPin().getAddress() + " is " + PinHealth.name(state)
+                + ", quarantined for " + TimeUnit.NANOSECONDS.toSeconds(backoffNanos) + " seconds"
+            );
+        }
+        backoffNanos = Math.min(backoffNanos << 1, maxProbeNanos);
+    }
+
+    private void probe(final GpioPinDigitalInput pin, long now) {
+        final boolean high = isHigh(pin);
+        if ((reason == PinHealth.STUCK) && high) {
+            //
+            // still stuck, no need to listen to know
+            //
+            probeAt = now + backoffNanos;
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.fine("pin " + pin.getPin().getAddress() + " still stuck");
+            }
+            backoffNanos = Math.min(backoffNanos << 1, maxProbeNanos);
+            return;
+        }
+
+        health.reset(now, high);
+        probedAt = now;
+        quarantined = false; reason = PinHealth.HEALTHY;
+        listen(pin); listening = true;
+
+        if (LOG.isLoggable(Level.INFO)) {
+            LOG.info("pin " + pin.getPin().getAddress() + " probed again after quarantine");
+        }
+    }
+
+    protected static boolean isHigh(final GpioPinDigitalInput pin) {
+        final PinState state = pin.getState();
+        return (state != null) && state.isHigh();  // null if the provider does not know the pin
+    }
+
+    // ------------------------------------------------------------ PinComponent
+
+    private class PinComponent implements Supervisor.Component {
+        @Override
+        public void recover() throws Exception {
+            reprovision();
+        }
+    }
+
     // ----------------------------------------------------------- AutoCloseable
 
     @Override
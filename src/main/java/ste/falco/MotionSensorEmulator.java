@@ -1,14 +1,555 @@
 /*
- * To change this license header, choose License Headers in Project Properties.
- * To change this template file, choose Tools | Templates
- * and open the template in the editor.
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
  */
 package ste.falco;
 
+import com.pi4j.io.gpio.Pin;
+import com.pi4j.io.gpio.PinMode;
+import com.pi4j.io.gpio.PinState;
+import com.pi4j.io.gpio.RaspiPin;
+import com.pi4j.io.gpio.SimulatedGpioProvider;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.lang3.StringUtils;
+
 /**
+ * Emulates PIR sensors for soak and throughput tests: a simulated GPIO
+ * provider whose input pins are driven by synthetic or recorded traffic from
+ * a generator thread, so that the whole pipeline (GPIO events, edge filter,
+ * dispatcher, playback) runs as with real sensors. It must be the default
+ * provider before the GPIO controller is created:
+ *
+ * <pre>
+ * MotionSensorEmulator emulator = new MotionSensorEmulator(4, 5);
+ * GpioFactory.setDefaultProvider(emulator);
+ * ...
+ * emulator.start(MotionSensorEmulator.Traffic.parse("poisson,rate=20"));
+ * </pre>
+ *
+ * Traffic is given as one of
+ *
+ * <pre>
+ * poisson,rate=PER_SECOND[,pulse=MILLIS][,seed=N]
+ * burst,rate=PER_SECOND[,size=N][,gap=MILLIS][,pulse=MILLIS][,seed=N]
+ * stuck[,pin=N]
+ * replay,journal=DIR[,speed=N]
+ * </pre>
  *
- * @author ste
+ * poisson raises a random emulated pin at exponentially distributed intervals
+ * for pulse milliseconds (a pin raised while already high just stays high
+ * longer, as a PIR does); burst does the same with groups of size pulses gap
+ * milliseconds apart; stuck keeps a pin high until stopped; replay plays the
+ * edges recorded in a journal (see EventJournal) speed times faster.
  */
-public class MotionSensorEmulator {
-    
+public class MotionSensorEmulator extends SimulatedGpioProvider {
+
+    public static final long DEFAULT_PULSE = 100;  // milliseconds
+    public static final int DEFAULT_SIZE = 5;      // pulses per burst
+    public static final long DEFAULT_GAP = 200;    // milliseconds
+
+    private static final Logger LOG = Logger.getLogger("ste.falco");
+
+    private final Pin[] pins;
+
+    private volatile Thread generator;
+    private volatile Traffic traffic;
+    private final AtomicLong rises = new AtomicLong();
+    private volatile long start = 0, end = 0;  // nanos
+
+    /**
+     * @param pins the addresses (WiringPi numbering) of the emulated PIRs; if
+     *        none, MotionDetector.DEFAULT_PIN
+     *
+     * @throws IllegalArgumentException if a pin is not a valid address
+     */
+    public MotionSensorEmulator(int... pins) {
+        if ((pins == null) || (pins.length == 0)) {
+            pins = new int[] { MotionDetector.DEFAULT_PIN };
+        }
+        this.pins = new Pin[pins.length];
+        for (int i=0; i<pins.length; ++i) {
+            this.pins[i] = RaspiPin.getPinByAddress(pins[i]);
+            if (this.pins[i] == null) {
+                throw new IllegalArgumentException("invalid pin " + pins[i]);
+            }
+            export(this.pins[i], PinMode.DIGITAL_INPUT);
+            setState(this.pins[i], PinState.LOW);
+        }
+    }
+
+    @Override
+    public String getName() {
+        //
+        // NOTE: this name is required by GPIO otherwise it throws an error...
+        //
+        return "RaspberryPi GPIO Provider";
+    }
+
+    public void up(int pin) {
+        set(pin(pin), true);
+    }
+
+    public void down(int pin) {
+        set(pin(pin), false);
+    }
+
+    public boolean isHigh(int pin) {
+        return getState(pin(pin)).isHigh();
+    }
+
+    /**
+     * Starts generating the given traffic on a new thread; the traffic runs
+     * until stop() is called or, for replay, until the end of the journal.
+     *
+     * @param traffic the traffic to generate - NOT NULL
+     *
+     * @throws IllegalArgumentException if traffic is null
+     * @throws IllegalStateException if some traffic is already running
+     */
+    public synchronized void start(final Traffic traffic) {
+        if (traffic == null) {
+            throw new IllegalArgumentException("traffic can not be null");
+        }
+        if (generator != null) {
+            throw new IllegalStateException("already generating " + this.traffic);
+        }
+
+        this.traffic = traffic;
+        rises.set(0); start = System.nanoTime(); end = 0;
+
+        final Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                generate(traffic);
+            }
+        }, "falco-emulator");
+        t.setDaemon(true);
+        generator = t;
+        t.start();
+
+        if (LOG.isLoggable(Level.INFO)) {
+            LOG.info("emulating " + traffic);
+        }
+    }
+
+    /**
+     * Stops the traffic and waits for the generator to leave all pins low
+     */
+    public void stop() {
+        final Thread t;
+        synchronized (this) {
+            t = generator;
+            generator = null;
+        }
+        if (t != null) {
+            LockSupport.unpark(t);
+            try {
+                t.join(1000);
+            } catch (InterruptedException x) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public boolean isRunning() {
+        return generator != null;
+    }
+
+    /**
+     * @return the traffic being (or last) generated, null if none
+     */
+    public Traffic getTraffic() {
+        return traffic;
+    }
+
+    /**
+     * @return the number of low to high transitions of the emulated pins
+     *         since the traffic was started
+     */
+    public long getRises() {
+        return rises.get();
+    }
+
+    /**
+     * @return the rises per second since the traffic was started (until it
+     *         stopped), 0 if never started
+     */
+    public double getRate() {
+        if (start == 0) {
+            return 0;
+        }
+        final long elapsed = ((end == 0) ? System.nanoTime() : end) - start;
+        return (elapsed <= 0) ? 0 : rises.get() * 1e9 / elapsed;
+    }
+
+    // ------------------------------------------------------- protected methods
+
+    /**
+     * Waits until the given time, returning early if the traffic is stopped
+     *
+     * @param deadline System.nanoTime() based
+     *
+     * @return true if the deadline has been reached, false if the traffic
+     *         has been stopped
+     */
+    protected boolean until(long deadline) {
+        final Thread self = Thread.currentThread();
+        while (generator == self) {
+            final long wait = deadline - System.nanoTime();
+            if (wait <= 0) {
+                return true;
+            }
+            LockSupport.parkNanos(this, wait);
+        }
+        return false;
+    }
+
+    /**
+     * Changes the state of the given pin, if different; the simulated
+     * provider notifies listeners even when the state does not change, while
+     * a PIR raised again while high simply stays high.
+     */
+    protected void set(final Pin pin, boolean high) {
+        if (getState(pin).isHigh() == high) {
+            return;
+        }
+        if (high) {
+            rises.incrementAndGet();
+        }
+        setState(pin, high ? PinState.HIGH : PinState.LOW);
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private void generate(final Traffic traffic) {
+        try {
+            traffic.run(this, pins);
+        } catch (CancellationException x) {
+            //
+            // stopped while replaying
+            //
+        } catch (Exception x) {
+            if (LOG.isLoggable(Level.SEVERE)) {
+                LOG.log(Level.SEVERE, "traffic " + traffic + " aborted", x);
+            }
+        } finally {
+            for (Pin pin: pins) {
+                set(pin, false);
+            }
+            end = System.nanoTime();
+            synchronized (this) {
+                if (generator == Thread.currentThread()) {
+                    generator = null;
+                }
+            }
+            if (LOG.isLoggable(Level.INFO)) {
+                LOG.info(String.format("emulation of %s ended after %d rises", traffic, rises.get()));
+            }
+        }
+    }
+
+    private Pin pin(int address) {
+        for (Pin pin: pins) {
+            if (pin.getAddress() == address) {
+                return pin;
+            }
+        }
+        throw new IllegalArgumentException("pin " + address + " is not emulated");
+    }
+
+    // ----------------------------------------------------------------- Traffic
+
+    public static abstract class Traffic {
+
+        private final String spec;
+
+        protected Traffic(final String spec) {
+            this.spec = spec;
+        }
+
+        /**
+         * Drives the given pins until done or until emulator.until() returns
+         * false.
+         *
+         * @param emulator the emulator - NOT NULL
+         * @param pins the emulated pins - NOT EMPTY
+         *
+         * @throws IOException if recorded traffic can not be read
+         */
+        protected abstract void run(MotionSensorEmulator emulator, Pin[] pins) throws IOException;
+
+        public static Traffic poisson(double rate, long pulse, long seed) {
+            return new Pulses(
+                String.format("poisson,rate=%s,pulse=%d,seed=%d", rate, pulse, seed),
+                rate, 1, 0, pulse, seed
+            );
+        }
+
+        public static Traffic burst(double rate, int size, long gap, long pulse, long seed) {
+            if (size < 1) {
+                throw new IllegalArgumentException("size must be greater than 0");
+            }
+            if (gap < 0) {
+                throw new IllegalArgumentException("gap can not be negative");
+            }
+            return new Pulses(
+                String.format("burst,rate=%s,size=%d,gap=%d,pulse=%d,seed=%d", rate, size, gap, pulse, seed),
+                rate, size, gap, pulse, seed
+            );
+        }
+
+        /**
+         * @param pin the pin to keep high; if UNSET the first emulated one
+         */
+        public static Traffic stuck(int pin) {
+            return new Stuck((pin == Zone.UNSET) ? "stuck" : ("stuck,pin=" + pin), pin);
+        }
+
+        public static Traffic replay(final Path journal, double speed) {
+            if (journal == null) {
+                throw new IllegalArgumentException("journal can not be null");
+            }
+            if (!(speed > 0)) {
+                throw new IllegalArgumentException("speed must be greater than 0");
+            }
+            return new Replay(String.format("replay,journal=%s,speed=%s", journal, speed), journal, speed);
+        }
+
+        /**
+         * @param spec the traffic specification (see above)
+         *
+         * @return the traffic described by spec
+         *
+         * @throws IllegalArgumentException if spec is not valid
+         */
+        public static Traffic parse(final String spec) {
+            if (StringUtils.isBlank(spec)) {
+                throw new IllegalArgumentException("traffic can not be blank or null");
+            }
+
+            final String[] parts = spec.split(",");
+            final String kind = parts[0].trim();
+
+            double rate = 0, speed = 1;
+            long pulse = DEFAULT_PULSE, gap = DEFAULT_GAP, seed = System.nanoTime();
+            int size = DEFAULT_SIZE, pin = Zone.UNSET;
+            String journal = null;
+
+            for (int i=1; i<parts.length; ++i) {
+                final String key = StringUtils.substringBefore(parts[i], "=").trim();
+                final String value = StringUtils.substringAfter(parts[i], "=").trim();
+
+                if ("rate".equals(key)) {
+                    rate = decimal(kind, key, value);
+                } else if ("pulse".equals(key)) {
+                    pulse = number(kind, key, value);
+                } else if ("gap".equals(key)) {
+                    gap = number(kind, key, value);
+                } else if ("seed".equals(key)) {
+                    seed = number(kind, key, value);
+                } else if ("size".equals(key)) {
+                    size = (int)number(kind, key, value);
+                } else if ("pin".equals(key)) {
+                    pin = (int)number(kind, key, value);
+                } else if ("speed".equals(key)) {
+                    speed = decimal(kind, key, value);
+                } else if ("journal".equals(key)) {
+                    journal = value;
+                } else {
+                    throw new IllegalArgumentException("unknown setting '" + key + "' in traffic " + kind);
+                }
+            }
+
+            if ("poisson".equals(kind)) {
+                return poisson(rate, pulse, seed);
+            } else if ("burst".equals(kind)) {
+                return burst(rate, size, gap, pulse, seed);
+            } else if ("stuck".equals(kind)) {
+                return stuck(pin);
+            } else if ("replay".equals(kind)) {
+                if (StringUtils.isBlank(journal)) {
+                    throw new IllegalArgumentException("missing journal in traffic replay");
+                }
+                return replay(Paths.get(journal), speed);
+            }
+            throw new IllegalArgumentException("unknown traffic '" + kind + "'");
+        }
+
+        @Override
+        public String toString() {
+            return spec;
+        }
+
+        private static long number(final String kind, final String key, final String value) {
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException x) {
+                throw new IllegalArgumentException("invalid " + key + " '" + value + "' in traffic " + kind);
+            }
+        }
+
+        private static double decimal(final String kind, final String key, final String value) {
+            try {
+                return Double.parseDouble(value);
+            } catch (NumberFormatException x) {
+                throw new IllegalArgumentException("invalid " + key + " '" + value + "' in traffic " + kind);
+            }
+        }
+    }
+
+    /**
+     * Groups of size pulses, gap apart, with groups arriving as a Poisson
+     * process; poisson is a burst of size 1.
+     */
+    private static class Pulses extends Traffic {
+
+        private final double rate;
+        private final int size;
+        private final long gap, pulse;  // nanos
+        private final long seed;
+
+        Pulses(final String spec, double rate, int size, long gap, long pulse, long seed) {
+            super(spec);
+            if (!(rate > 0)) {
+                throw new IllegalArgumentException("rate must be greater than 0");
+            }
+            if (pulse < 0) {
+                throw new IllegalArgumentException("pulse can not be negative");
+            }
+            this.rate = rate;
+            this.size = size;
+            this.gap = TimeUnit.MILLISECONDS.toNanos(gap);
+            this.pulse = TimeUnit.MILLISECONDS.toNanos(pulse);
+            this.seed = seed;
+        }
+
+        @Override
+        protected void run(MotionSensorEmulator emulator, Pin[] pins) {
+            final Random random = new Random(seed);
+            final long[] downs = new long[pins.length];  // when each pin goes low, 0 if low
+
+            long time = System.nanoTime();
+            for (int n=0; ; n=(n+1)%size) {
+                time += (n == 0)
+                      ? (long)(-Math.log(1 - random.nextDouble()) / rate * 1e9)
+                      : gap;
+                final int i = random.nextInt(pins.length);
+
+                //
+                // first the pulses ending before this one starts
+                //
+                for (int next = first(downs, time); next >= 0; next = first(downs, time)) {
+                    if (!emulator.until(downs[next])) {
+                        return;
+                    }
+                    emulator.set(pins[next], false); downs[next] = 0;
+                }
+                if (!emulator.until(time)) {
+                    return;
+                }
+
+                emulator.set(pins[i], true);
+                if (pulse == 0) {
+                    emulator.set(pins[i], false);
+                } else {
+                    downs[i] = time + pulse;
+                }
+            }
+        }
+
+        private static int first(final long[] downs, long before) {
+            int ret = -1;
+            for (int i=0; i<downs.length; ++i) {
+                if ((downs[i] != 0) && (downs[i] <= before) && ((ret < 0) || (downs[i] < downs[ret]))) {
+                    ret = i;
+                }
+            }
+            return ret;
+        }
+    }
+
+    private static class Stuck extends Traffic {
+
+        private final int pin;
+
+        Stuck(final String spec, int pin) {
+            super(spec);
+            this.pin = pin;
+        }
+
+        @Override
+        protected void run(MotionSensorEmulator emulator, Pin[] pins) {
+            emulator.set((pin == Zone.UNSET) ? pins[0] : emulator.pin(pin), true);
+            emulator.until(Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Replays the EDGE records of a journal, streaming one chunk of records
+     * at a time; edges of pins not emulated are skipped.
+     */
+    private static class Replay extends Traffic {
+
+        private final Path journal;
+        private final double speed;
+
+        Replay(final String spec, final Path journal, double speed) {
+            super(spec);
+            this.journal = journal;
+            this.speed = speed;
+        }
+
+        @Override
+        protected void run(final MotionSensorEmulator emulator, final Pin[] pins) throws IOException {
+            final long origin = System.nanoTime();
+            final long[] first = new long[1];
+
+            final EventJournal.RecordHandler handler = new EventJournal.RecordHandler() {
+                @Override
+                public void record(long time, int key, byte type, byte detail, int source) {
+                    if (type != EventJournal.EDGE) {
+                        return;
+                    }
+                    if (first[0] == 0) {
+                        first[0] = time;
+                    }
+                    if (!emulator.until(origin + (long)((time - first[0]) * 1e6 / speed))) {
+                        throw new CancellationException();
+                    }
+                    for (Pin pin: pins) {
+                        if (pin.getAddress() == key) {
+                            emulator.set(pin, (detail & EventJournal.RISING) != 0);
+                        }
+                    }
+                }
+            };
+
+            for (Path segment: new EventJournal(journal).getSegments()) {
+                final int count = EventJournal.count(segment);
+                for (int from=0; from<count; from+=JournalStats.CHUNK) {
+                    EventJournal.scan(segment, from, Math.min(count, from + JournalStats.CHUNK), handler);
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the health of a PIR from the edges of its pin:
+ *
+ * <ul>
+ *   <li><i>stuck</i>: the pin has been high for longer than <i>stuck</i>
+ *       (a PIR holds the output high for a few seconds after a motion);</li>
+ *   <li><i>chattering</i>: the last <i>edges</i> intervals between edges add
+ *       up to less than <i>chatter</i>, i.e. the pin oscillates;</li>
+ *   <li><i>dead</i>: no edges for longer than <i>dead</i>.</li>
+ * </ul>
+ *
+ * The intervals are kept in a ring of primitive longs allocated once, with
+ * their running sum, so that edge() costs the same whatever the window. Edges
+ * come from the listener thread and checks from a timer, hence the methods
+ * are synchronized; they are short and practically uncontended.
+ */
+public class PinHealth {
+
+    public static final int HEALTHY = 0;
+    public static final int STUCK = 1;
+    public static final int CHATTERING = 2;
+    public static final int DEAD = 3;
+
+    private static final String[] NAMES = { "healthy", "stuck", "chattering", "dead" };
+
+    public static final long DEFAULT_STUCK = 10 * 60 * 1000;        // milliseconds
+    public static final int DEFAULT_CHATTER_EDGES = 16;
+    public static final long DEFAULT_CHATTER = 2000;                // milliseconds
+    public static final long DEFAULT_DEAD = 24 * 60 * 60 * 1000;    // milliseconds
+
+    private final long stuckNanos, chatterNanos, deadNanos;
+
+    private final long[] intervals;
+    private int next = 0, count = 0;
+    private long sum = 0;
+
+    private long lastEdge;
+    private boolean high = false;
+    private long edges = 0;
+    private volatile int state = HEALTHY;
+
+    /**
+     * @param stuck how long (in milliseconds) the pin can stay high
+     * @param edges how many intervals between edges make up the chatter window
+     * @param chatter the shortest time (in milliseconds) edges intervals can
+     *        add up to
+     * @param dead how long (in milliseconds) the pin can stay without edges
+     *
+     * @throws IllegalArgumentException if any threshold is not positive
+     */
+    public PinHealth(long stuck, int edges, long chatter, long dead) {
+        if (stuck <= 0 || chatter <= 0 || dead <= 0) {
+            throw new IllegalArgumentException("stuck, chatter and dead must be greater than 0");
+        }
+        if (edges <= 0) {
+            throw new IllegalArgumentException("edges must be greater than 0");
+        }
+        this.stuckNanos = TimeUnit.MILLISECONDS.toNanos(stuck);
+        this.chatterNanos = TimeUnit.MILLISECONDS.toNanos(chatter);
+        this.deadNanos = TimeUnit.MILLISECONDS.toNanos(dead);
+        this.intervals = new long[edges];
+        this.lastEdge = System.nanoTime();
+    }
+
+    public PinHealth() {
+        this(DEFAULT_STUCK, DEFAULT_CHATTER_EDGES, DEFAULT_CHATTER, DEFAULT_DEAD);
+    }
+
+    /**
+     * Starts over from the given pin level, forgetting the edges seen so far
+     * (e.g. when the pin is provisioned or re-probed)
+     *
+     * @param now the current time (System.nanoTime())
+     * @param high the current level of the pin
+     */
+    public synchronized void reset(long now, boolean high) {
+        next = count = 0; sum = 0;
+        lastEdge = now;
+        this.high = high;
+        state = HEALTHY;
+    }
+
+    /**
+     * @param stamp the time of the edge (System.nanoTime())
+     * @param high true for a rising edge, false for a falling edge
+     *
+     * @return the state after this edge: CHATTERING as soon as the pin
+     *         oscillates, HEALTHY otherwise (an edge ends stuck and dead)
+     */
+    public synchronized int edge(long stamp, boolean high) {
+        final long interval = Math.max(0, stamp - lastEdge);
+        if (count == intervals.length) {
+            sum -= intervals[next];
+        } else {
+            ++count;
+        }
+        intervals[next] = interval; sum += interval;
+        next = (next + 1) % intervals.length;
+
+        lastEdge = Math.max(lastEdge, stamp);
+        this.high = high;
+        ++edges;
+
+        return state = chattering() ? CHATTERING : HEALTHY;
+    }
+
+    /**
+     * @param now the current time (System.nanoTime())
+     *
+     * @return the state of the pin at the given time
+     */
+    public synchronized int check(long now) {
+        final long quiet = now - lastEdge;
+        if (high && (quiet > stuckNanos)) {
+            return state = STUCK;
+        }
+        if (quiet > deadNanos) {
+            return state = DEAD;
+        }
+        if (chattering()) {
+            return state = CHATTERING;
+        }
+        return state = HEALTHY;
+    }
+
+    /**
+     * @return the state as of the last edge or check
+     */
+    public int getState() {
+        return state;
+    }
+
+    /**
+     * @return the number of edges seen
+     */
+    public synchronized long getEdges() {
+        return edges;
+    }
+
+    /**
+     * @return the edges per second over the intervals in the ring, 0 if no
+     *         edges
+     */
+    public synchronized double getEdgeRate() {
+        return ((count == 0) || (sum == 0)) ? 0 : count * 1e9 / sum;
+    }
+
+    public static String name(int state) {
+        return NAMES[state];
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private boolean chattering() {
+        return (count == intervals.length) && (sum < chatterNanos);
+    }
+}
@@ -0,0 +1,531 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * When a motion makes a sound: the active hours of each weekday and the
+ * cooldown after a play, possibly overridden for a trigger source. A policy
+ * is given as a list of entries separated by ';', each in the form
+ * [source:]key=value, where key is:
+ *
+ * <ul>
+ *   <li><i>hours</i> or a set of weekdays (e.g. mon, mon-fri, sat+sun) and
+ *       the value is the active hours in those days: always, never, daylight
+ *       (from sunrise to sunset, see location) or a comma separated list of
+ *       windows as START-END (e.g. 8-12,14:30-20); a window ending before
+ *       its start wraps around midnight of the same day;</li>
+ *   <li><i>location</i> and the value is the latitude and longitude in
+ *       degrees (e.g. 45.46,9.19) of the place where sunrise and sunset are
+ *       computed for daylight; it applies to all sources;</li>
+ *   <li><i>cooldown</i> and the value is the minutes after a play a motion
+ *       is muted; more comma separated values are tiers (e.g. 10,20,60):
+ *       when a play comes within twice the cooldown of the previous one the
+ *       next tier applies, otherwise it is back to the first.</li>
+ * </ul>
+ *
+ * Entries with a source (gpio or jmx) apply only to the triggers from that
+ * source, the others to all; later entries override earlier ones. Without
+ * hours the sound is always active, without cooldown it is 0.
+ *
+ * The entries are compiled when the policy is created into a table with a bit
+ * for each minute of the week and an array of cooldowns per source, so that a
+ * decision is a few arithmetic operations with no allocations. The time is
+ * taken in epoch millis and the offset of the time zone is cached until its
+ * next transition (e.g. DST); sunrise and sunset are computed once a day and
+ * cached, so that daylight is two more comparisons. The state of the cooldown
+ * (the time of the last play and the tier) is packed in a long kept by the
+ * caller, so that it can be updated with a single CAS and a policy can be
+ * shared.
+ */
+public class PlayPolicy {
+
+    /**
+     * The default policy: active from 8:00 to 20:00 every day with a cooldown
+     * of SoundMotionDetector.DEFAULT_COOLDOWN minutes
+     */
+    public static final String DEFAULT = "hours=8-20;cooldown=" + SoundMotionDetector.DEFAULT_COOLDOWN;
+
+    public static final int MAX_TIERS = 16;
+
+    private static final String[] DAYS = {"mon", "tue", "wed", "thu", "fri", "sat", "sun"};
+    private static final int DAY_MINUTES = 24 * 60;
+    private static final int WEEK_MINUTES = 7 * DAY_MINUTES;
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+    private static final int SOURCES = 2;  // gpio and jmx; warm-ups go by gpio
+    private static final int TIER_BITS = 4;
+
+    public final String spec;
+
+    private final long[][] minutes = new long[SOURCES][];   // a bit per minute of the week from Monday 00:00
+    private final long[][] cooldowns = new long[SOURCES][]; // millis, a tier each
+    private final int[] daylight = new int[SOURCES];         // a bit per weekday from Monday
+    private SolarCalculator sun;
+
+    private volatile Offset offset = new Offset(null, 0, 0, 0);
+    private volatile Daylight today = new Daylight(Long.MIN_VALUE, 0, 0);
+
+    private PlayPolicy(final String spec) {
+        this.spec = spec;
+        for (int s=0; s<SOURCES; ++s) {
+            minutes[s] = new long[(WEEK_MINUTES + 63) / 64];
+            set(minutes[s], 0, WEEK_MINUTES);
+            cooldowns[s] = new long[] { 0 };
+        }
+    }
+
+    /**
+     * @param spec the policy (see above) - NOT BLANK
+     *
+     * @return the compiled policy
+     *
+     * @throws IllegalArgumentException if spec is not valid
+     */
+    public static PlayPolicy compile(final String spec) {
+        if (StringUtils.isBlank(spec)) {
+            throw new IllegalArgumentException("policy can not be blank or null");
+        }
+
+        final PlayPolicy policy = new PlayPolicy(spec.trim());
+        for (String entry: spec.split(";")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            if (!entry.contains("=")) {
+                throw new IllegalArgumentException("invalid policy entry '" + entry + "', expected [source:]key=value");
+            }
+            String key = StringUtils.substringBefore(entry, "=").trim();
+            final String value = StringUtils.substringAfter(entry, "=").trim();
+
+            int from = 0, to = SOURCES;
+            if (key.contains(":")) {
+                final int source = TriggerSource.parse(StringUtils.substringBefore(key, ":").trim());
+                if (source >= SOURCES) {
+                    throw new IllegalArgumentException("invalid source '" + TriggerSource.name(source) + "' in policy");
+                }
+                from = source; to = source + 1;
+                key = StringUtils.substringAfter(key, ":").trim();
+            }
+
+            if ("location".equals(key)) {
+                if (to - from < SOURCES) {
+                    throw new IllegalArgumentException("location can not be given per source in policy");
+                }
+                policy.sun = location(value);
+            } else if ("cooldown".equals(key)) {
+                final long[] tiers = tiers(value);
+                for (int s=from; s<to; ++s) {
+                    policy.cooldowns[s] = tiers;
+                }
+            } else {
+                final boolean[] days = days(key);
+                for (int s=from; s<to; ++s) {
+                    policy.daylight[s] = hours(policy.minutes[s], policy.daylight[s], days, value);
+                }
+            }
+        }
+        for (int s=0; (policy.sun == null) && (s<SOURCES); ++s) {
+            if (policy.daylight[s] != 0) {
+                throw new IllegalArgumentException("daylight requires a location in policy");
+            }
+        }
+
+        return policy;
+    }
+
+    /**
+     * @param entries more entries (see above) - NOT NULL
+     *
+     * @return a new policy made of the entries of this policy followed by the
+     *         given ones
+     */
+    public PlayPolicy with(final String entries) {
+        return compile(spec + ';' + entries);
+    }
+
+    /**
+     * @param cooldown the minutes of the first tier of the cooldown
+     *
+     * @return a new policy where the cooldown of the sources without one of
+     *         their own starts with the given minutes; the other tiers and
+     *         the cooldowns given per source are kept, so that the spec does
+     *         not grow at each change
+     */
+    public PlayPolicy withCooldown(int cooldown) {
+        if (cooldown < 0) {
+            throw new IllegalArgumentException("cooldown can not be negative");
+        }
+
+        final String[] entries = spec.split(";");
+        int last = -1;  // the source-less cooldown in effect, if any
+        for (int i=0; i<entries.length; ++i) {
+            if ("cooldown".equals(StringUtils.substringBefore(entries[i], "=").trim())) {
+                last = i;
+            }
+        }
+
+        String tiers = String.valueOf(cooldown);
+        if ((last >= 0) && entries[last].contains(",")) {
+            tiers += "," + StringUtils.substringAfter(entries[last], ",").trim();
+        }
+
+        //
+        // the new entry takes the place of the one in effect; the cooldowns
+        // before it were overridden by it and are dropped
+        //
+        final StringBuilder sb = new StringBuilder();
+        for (int i=0; i<entries.length; ++i) {
+            final String entry = entries[i].trim();
+            String key = StringUtils.substringBefore(entry, "=").trim();
+            if (key.contains(":")) {
+                key = StringUtils.substringAfter(key, ":").trim();
+            }
+            if (i == Math.max(last, 0)) {
+                sb.append(";cooldown=").append(tiers);
+            }
+            if (entry.isEmpty() || ((i <= last) && "cooldown".equals(key))) {
+                continue;
+            }
+            sb.append(';').append(entry);
+        }
+
+        return compile(sb.substring(1));
+    }
+
+    /**
+     * @param millis the time (epoch millis)
+     * @param zone the time zone of the active hours - NOT NULL
+     * @param source the trigger source (see TriggerSource)
+     *
+     * @return true if a motion at the given time is in the active hours
+     */
+    public boolean isActive(long millis, final ZoneId zone, int source) {
+        final long local = millis + offset(millis, zone);
+        final long days = Math.floorDiv(local, DAY);
+        final int weekday = (int)Math.floorMod(days + 3, 7L);  // 1970-01-01 was a Thursday
+        final int s = index(source);
+
+        if ((daylight[s] & (1 << weekday)) != 0) {
+            final Daylight d = daylight(days);
+            return (millis >= d.sunrise) && (millis < d.sunset);
+        }
+
+        final int minute = (int)(weekday * DAY_MINUTES + Math.floorMod(local, DAY) / MINUTE);
+        return (minutes[s][minute >>> 6] & (1L << minute)) != 0;
+    }
+
+    /**
+     * Looks for the next time a motion goes from the active to the muted
+     * hours or the other way round, minute by minute up to a week and a day
+     * (i.e. a full week even across a DST change). It is not meant for the
+     * trigger path, but to schedule what depends on the active hours.
+     *
+     * @param millis the time to start from (epoch millis)
+     * @param zone the time zone of the active hours - NOT NULL
+     * @param source the trigger source (see TriggerSource)
+     *
+     * @return the first minute (epoch millis) after the given time when
+     *         isActive() changes, Long.MAX_VALUE if it never does
+     */
+    public long next(long millis, final ZoneId zone, int source) {
+        final boolean active = isActive(millis, zone, source);
+        long time = millis - Math.floorMod(millis, MINUTE);
+        for (int i=0; i<WEEK_MINUTES + DAY_MINUTES; ++i) {
+            time += MINUTE;
+            if (isActive(time, zone, source) != active) {
+                return time;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * @return where sunrise and sunset are computed, null if not given
+     */
+    public SolarCalculator getLocation() {
+        return sun;
+    }
+
+    /**
+     * @param state the state of the cooldown (see state())
+     * @param millis the time of the motion (epoch millis)
+     * @param zone the time zone of the active hours - NOT NULL
+     * @param source the trigger source (see TriggerSource)
+     *
+     * @return 0 if a motion at the given time shall play, the reason why it
+     *         is muted otherwise (EventJournal.NIGHT or EventJournal.COOLDOWN)
+     */
+    public byte muted(long state, long millis, final ZoneId zone, int source) {
+        if (!isActive(millis, zone, source)) {
+            return EventJournal.NIGHT;
+        }
+        return (millis - cooldown(source, tier(state)) > lastPlayed(state)) ? 0 : EventJournal.COOLDOWN;
+    }
+
+    /**
+     * @param state the state of the cooldown before the play
+     * @param millis the time of the play (epoch millis)
+     * @param source the trigger source (see TriggerSource)
+     *
+     * @return the state of the cooldown after a play at the given time
+     */
+    public long played(long state, long millis, int source) {
+        final int tier = tier(state);
+        final long[] tiers = cooldowns[index(source)];
+        final boolean soon = (millis - lastPlayed(state)) < 2 * cooldown(source, tier);
+
+        return state(millis, soon ? Math.min(tier + 1, tiers.length - 1) : 0);
+    }
+
+    /**
+     * @param source the trigger source (see TriggerSource)
+     * @param tier the tier
+     *
+     * @return the cooldown in millis of the given tier (the last one if there
+     *         are less tiers)
+     */
+    public long cooldown(int source, int tier) {
+        final long[] tiers = cooldowns[index(source)];
+        return tiers[Math.min(tier, tiers.length - 1)];
+    }
+
+    /**
+     * @return the cooldown state of a last play at the given time and tier
+     */
+    public static long state(long lastPlayed, int tier) {
+        return (lastPlayed << TIER_BITS) | (tier & (MAX_TIERS - 1));
+    }
+
+    public static long lastPlayed(long state) {
+        return state >> TIER_BITS;
+    }
+
+    public static int tier(long state) {
+        return (int)(state & (MAX_TIERS - 1));
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private static int index(int source) {
+        final int s = TriggerSource.source(source);
+        return (s < SOURCES) ? s : TriggerSource.GPIO;
+    }
+
+    /**
+     * @return the offset in millis of the given zone at the given time,
+     *         recomputed only when the cached one does not apply
+     */
+    private long offset(long millis, final ZoneId zone) {
+        Offset o = offset;
+        if ((millis < o.from) || (millis >= o.until) || !zone.equals(o.zone)) {
+            final ZoneRules rules = zone.getRules();
+            final Instant instant = Instant.ofEpochMilli(millis);
+            final ZoneOffsetTransition previous = rules.previousTransition(instant);
+            final ZoneOffsetTransition next = rules.nextTransition(instant);
+            o = offset = new Offset(
+                zone,
+                (previous == null) ? Long.MIN_VALUE : previous.getInstant().toEpochMilli(),
+                (next == null) ? Long.MAX_VALUE : next.getInstant().toEpochMilli(),
+                TimeUnit.SECONDS.toMillis(rules.getOffset(instant).getTotalSeconds())
+            );
+        }
+        return o.millis;
+    }
+
+    /**
+     * @return sunrise and sunset of the given (local) day, computed only when
+     *         the cached ones are of another day
+     */
+    private Daylight daylight(long day) {
+        Daylight d = today;
+        if (d.day != day) {
+            d = today = new Daylight(day, sun.sunrise(day), sun.sunset(day));
+        }
+        return d;
+    }
+
+    private static SolarCalculator location(final String value) {
+        try {
+            return new SolarCalculator(
+                Double.parseDouble(StringUtils.substringBefore(value, ",").trim()),
+                Double.parseDouble(StringUtils.substringAfter(value, ",").trim())
+            );
+        } catch (IllegalArgumentException x) {  // NumberFormatException too
+            throw new IllegalArgumentException("invalid location '" + value + "' in policy, expected LATITUDE,LONGITUDE in degrees");
+        }
+    }
+
+    private static long[] tiers(final String value) {
+        final String[] values = value.split(",");
+        if (values.length > MAX_TIERS) {
+            throw new IllegalArgumentException("too many cooldown tiers in policy (max " + MAX_TIERS + ")");
+        }
+        final long[] tiers = new long[values.length];
+        for (int i=0; i<values.length; ++i) {
+            try {
+                tiers[i] = Integer.parseInt(values[i].trim()) * MINUTE;
+            } catch (NumberFormatException x) {
+                tiers[i] = -1;
+            }
+            if (tiers[i] < 0) {
+                throw new IllegalArgumentException("invalid cooldown '" + values[i].trim() + "' in policy");
+            }
+        }
+        return tiers;
+    }
+
+    /**
+     * @return the days selected by the given key (hours or e.g. mon-fri+sun)
+     */
+    private static boolean[] days(final String key) {
+        final boolean[] days = new boolean[7];
+        if ("hours".equals(key)) {
+            for (int d=0; d<7; ++d) {
+                days[d] = true;
+            }
+            return days;
+        }
+        for (String range: key.split("\\+")) {
+            final int first = day(StringUtils.substringBefore(range, "-"));
+            final int last = range.contains("-") ? day(StringUtils.substringAfter(range, "-")) : first;
+            for (int d=first; ; d=(d + 1) % 7) {
+                days[d] = true;
+                if (d == last) {
+                    break;
+                }
+            }
+        }
+        return days;
+    }
+
+    private static int day(String name) {
+        name = name.trim();
+        for (int d=0; d<DAYS.length; ++d) {
+            if (DAYS[d].equals(name)) {
+                return d;
+            }
+        }
+        throw new IllegalArgumentException("unknown key or day '" + name + "' in policy");
+    }
+
+    /**
+     * @return the given daylight days updated with the given days
+     */
+    private static int hours(final long[] bits, int daylight, final boolean[] days, final String value) {
+        for (int d=0; d<7; ++d) {
+            if (!days[d]) {
+                continue;
+            }
+            final int day = d * DAY_MINUTES;
+            clear(bits, day, day + DAY_MINUTES);
+            daylight &= ~(1 << d);
+            if ("daylight".equals(value)) {
+                daylight |= (1 << d);
+            } else if ("always".equals(value)) {
+                set(bits, day, day + DAY_MINUTES);
+            } else if (!"never".equals(value)) {
+                for (String window: value.split(",")) {
+                    final int start = time(StringUtils.substringBefore(window, "-"));
+                    final int end = window.contains("-") ? time(StringUtils.substringAfter(window, "-")) : -1;
+                    if ((end < 0) || (start == end)) {
+                        throw new IllegalArgumentException("invalid window '" + window.trim() + "' in policy");
+                    }
+                    if (start < end) {
+                        set(bits, day + start, day + end);
+                    } else {
+                        set(bits, day + start, day + DAY_MINUTES); set(bits, day, day + end);
+                    }
+                }
+            }
+        }
+        return daylight;
+    }
+
+    /**
+     * @return the minute of the day of the given time as H or H:MM (0-24:00)
+     */
+    private static int time(String value) {
+        value = value.trim();
+        try {
+            final int hours = Integer.parseInt(StringUtils.substringBefore(value, ":"));
+            final int minutes = value.contains(":") ? Integer.parseInt(StringUtils.substringAfter(value, ":")) : 0;
+            final int time = hours * 60 + minutes;
+            if ((hours >= 0) && (minutes >= 0) && (minutes < 60) && (time <= DAY_MINUTES)) {
+                return time;
+            }
+        } catch (NumberFormatException x) {
+            // invalid, see below
+        }
+        throw new IllegalArgumentException("invalid time '" + value + "' in policy");
+    }
+
+    private static void set(final long[] bits, int from, int to) {
+        for (int i=from; i<to; ++i) {
+            bits[i >>> 6] |= (1L << i);
+        }
+    }
+
+    private static void clear(final long[] bits, int from, int to) {
+        for (int i=from; i<to; ++i) {
+            bits[i >>> 6] &= ~(1L << i);
+        }
+    }
+
+    // ---------------------------------------------------------------- Daylight
+
+    /**
+     * Sunrise and sunset of a day
+     */
+    private static final class Daylight {
+        final long day, sunrise, sunset;
+
+        Daylight(long day, long sunrise, long sunset) {
+            this.day = day;
+            this.sunrise = sunrise;
+            this.sunset = sunset;
+        }
+    }
+
+    // ------------------------------------------------------------------ Offset
+
+    /**
+     * The offset of a zone, valid in [from, until)
+     */
+    private static final class Offset {
+        final ZoneId zone;
+        final long from, until, millis;
+
+        Offset(final ZoneId zone, long from, long until, long millis) {
+            this.zone = zone;
+            this.from = from;
+            this.until = until;
+            this.millis = millis;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import ste.falco.sound.MemoryMixer;
+
+/**
+ * Runs the play policy of a SoundMotionDetector (active hours and cooldown,
+ * or a given PlayPolicy) against a timeline of motions in virtual time, with the audio stubbed out,
+ * so that a month of recorded activity goes through the policy in seconds
+ * and policy changes can be evaluated offline.
+ * <p>
+ * The motions of one pin are taken from the PLAYED and MUTED records of a
+ * journal (whatever the policy in place when recorded) or given one by one
+ * with motion(). The result is what the policy would have done: plays, mutes
+ * at night and in cooldown and the coverage, i.e. the share of the active
+ * hours in the timeline spent within the effect time after a play.
+ */
+public class PolicySimulator implements AutoCloseable {
+
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    public final int pin;
+    public final int cooldown;
+    public final long effect;  // millis
+    public final VirtualClock clock;
+
+    private PlayPolicy policy;
+    private SimulatedDetector detector;
+    private long motions, played, night, muted;
+    private long first, last, covered, coveredUntil;
+
+    /**
+     * @param pin the pin whose motions are simulated (0-31)
+     * @param cooldown the cooldown of the policy in minutes
+     * @param effect for how long a play keeps birds away, in minutes; used
+     *        to compute the coverage
+     * @param zone the time zone of the active hours - NOT NULL
+     */
+    public PolicySimulator(int pin, int cooldown, int effect, final ZoneId zone) {
+        if ((pin < 0) || (pin >= EventJournal.MAX_KEYS)) {
+            throw new IllegalArgumentException("pin must be in the range [0, " + (EventJournal.MAX_KEYS - 1) + "]");
+        }
+        if ((cooldown < 0) || (effect < 0)) {
+            throw new IllegalArgumentException("cooldown and effect can not be negative");
+        }
+        this.pin = pin;
+        this.cooldown = cooldown;
+        this.effect = effect * MINUTE;
+        this.clock = new VirtualClock(0, zone);
+    }
+
+    /**
+     * @param policy the policy to simulate instead of the default one with
+     *        the cooldown given at construction; it must be set before the
+     *        first motion - NOT NULL
+     */
+    public void setPolicy(final PlayPolicy policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException("policy can not be null");
+        }
+        if (detector != null) {
+            throw new IllegalStateException("the policy must be set before the first motion");
+        }
+        this.policy = policy;
+    }
+
+    public PlayPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Goes through the motions of the pin recorded in the given journal
+     * segments, streaming one chunk of records at a time.
+     *
+     * @param segments the segments, oldest first - NOT NULL
+     *
+     * @throws IOException if a segment can not be read
+     */
+    public void replay(final List<Path> segments) throws IOException {
+        final EventJournal.RecordHandler handler = new EventJournal.RecordHandler() {
+            @Override
+            public void record(long time, int key, byte type, byte detail, int source) {
+                if ((key == pin) && ((type == EventJournal.PLAYED) || (type == EventJournal.MUTED))) {
+                    motion(time, source);
+                }
+            }
+        };
+        for (Path segment: segments) {
+            final int count = EventJournal.count(segment);
+            for (int from=0; from<count; from+=JournalStats.CHUNK) {
+                EventJournal.scan(segment, from, Math.min(count, from + JournalStats.CHUNK), handler);
+            }
+        }
+    }
+
+    /**
+     * Makes the policy decide about a motion at the given time; motions must
+     * be given in time order.
+     *
+     * @param time the time of the motion (epoch millis)
+     */
+    public void motion(long time) {
+        motion(time, TriggerSource.GPIO);
+    }
+
+    /**
+     * Like motion(time), for a motion triggered by the given source, which
+     * matters to policies with per-source entries.
+     *
+     * @param time the time of the motion (epoch millis)
+     * @param source the trigger source (see TriggerSource)
+     */
+    public void motion(long time, int source) {
+        if (time < last) {
+            throw new IllegalArgumentException("motions must be given in time order");
+        }
+        clock.set(time);
+        if (detector == null) {
+            detector = new SimulatedDetector();
+            if (policy != null) {
+                detector.setPolicy(policy);
+            } else {
+                detector.setCooldown(cooldown);
+            }
+            detector.setClock(clock);
+            try {
+                detector.startup();
+            } catch (Exception x) {
+                throw new IllegalStateException("unable to start the simulated detector", x);
+            }
+            first = time;
+        }
+        last = time;
+        motions += 1;
+        detector.moved(System.nanoTime(), source);
+    }
+
+    public long getMotions() {
+        return motions;
+    }
+
+    public long getPlayed() {
+        return played;
+    }
+
+    public long getMutedAtNight() {
+        return night;
+    }
+
+    public long getMutedInCooldown() {
+        return muted;
+    }
+
+    /**
+     * @return the time of the first motion (epoch millis), 0 if none
+     */
+    public long getFirst() {
+        return first;
+    }
+
+    /**
+     * @return the time of the last motion (epoch millis), 0 if none
+     */
+    public long getLast() {
+        return last;
+    }
+
+    /**
+     * @return the share (0-1) of the active time between the day of the first
+     *         motion and the day of the last one that falls within the effect
+     *         time after a play; it is approximated to the minute
+     */
+    public double getCoverage() {
+        if (detector == null) {
+            return 0;
+        }
+        final ZoneId zone = clock.getZone();
+        final long start = Instant.ofEpochMilli(first).atZone(zone).toLocalDate()
+                                  .atStartOfDay(zone).toInstant().toEpochMilli();
+        final long end = Instant.ofEpochMilli(last).atZone(zone).toLocalDate().plusDays(1)
+                                .atStartOfDay(zone).toInstant().toEpochMilli();
+        long active = 0;
+        for (long t = start; t < end; t += MINUTE) {
+            clock.set(t);
+            if (detector.isActiveTime()) {
+                active += MINUTE;
+            }
+        }
+        clock.set(last);
+        return (active == 0) ? 0 : Math.min(1d, (double)covered / active);
+    }
+
+    @Override
+    public void close() {
+        if (detector != null) {
+            detector.shutdown();
+        }
+    }
+
+    // ------------------------------------------------------- SimulatedDetector
+
+    /**
+     * A detector that counts the decisions of the policy instead of playing
+     * and recording them; the clip it opens on a MemoryMixer is never
+     * started.
+     */
+    private class SimulatedDetector extends SoundMotionDetector {
+
+        SimulatedDetector() {
+            super(Zone.DEFAULT_SOUND, new MemoryMixer());
+        }
+
+        @Override
+        protected void play(boolean muted) {
+        }
+
+        @Override
+        protected void record(long millis, byte type, byte detail, int source) {
+            if (type == EventJournal.PLAYED) {
+                played += 1;
+                covered += Math.max(0, (millis + effect) - Math.max(millis, coveredUntil));
+                coveredUntil = Math.max(coveredUntil, millis + effect);
+            } else if (detail == EventJournal.NIGHT) {
+                night += 1;
+            } else {
+                muted += 1;
+            }
+        }
+    }
+}
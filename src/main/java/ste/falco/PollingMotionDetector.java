@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import com.pi4j.io.gpio.GpioPinDigitalInput;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import javax.sound.sampled.Mixer;
+
+/**
+ * A MotionDetector that samples the pin from a thread of its own instead of
+ * relying on Pi4J interrupts (which misbehave on some kernels). The sampling
+ * interval adapts to the activity: it is the fast one for a while after the
+ * last edge and then it backs off, doubling at every quiet sample, up to the
+ * slow one. During muted hours sampling is suspended altogether, until the
+ * play policy says the active hours start again (checking it again at least
+ * every SUSPENDED_CHECK, or as soon as the policy is changed).
+ * <p>
+ * Edges go through the same filter and trigger path of the listener based
+ * detector. They are stamped with the time of the previous sample, i.e. the
+ * earliest the edge may have happened, so that the trigger latencies include
+ * the worst case sampling delay.
+ */
+public class PollingMotionDetector extends MotionDetector {
+
+    public static final long DEFAULT_FAST = 10;      // milliseconds
+    public static final long DEFAULT_SLOW = 250;     // milliseconds
+    public static final long DEFAULT_HOLD = 30000;   // milliseconds
+    public static final long SUSPENDED_CHECK = 15 * 60000; // milliseconds
+
+    private volatile long fastNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_FAST);
+    private volatile long slowNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_SLOW);
+    private volatile long holdNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_HOLD);
+
+    private volatile Thread poller;
+    private volatile long intervalNanos = 0;   // 0 when suspended or not polling
+    private final AtomicLong samples = new AtomicLong();
+
+    public PollingMotionDetector(final String sound) {
+        super(sound);
+    }
+
+    public PollingMotionDetector(final String sound, final Mixer mixer) {
+        super(sound, mixer);
+    }
+
+    public PollingMotionDetector(final String sound, final Mixer mixer, int pin) {
+        super(sound, mixer, pin);
+    }
+
+    /**
+     * @param fast the sampling interval right after an edge in milliseconds
+     * @param slow the sampling interval when idle in milliseconds
+     * @param hold for how long after an edge the fast interval is used in
+     *        milliseconds
+     *
+     * @throws IllegalArgumentException if fast is not greater than 0, slow is
+     *         less than fast or hold is negative
+     */
+    public void setIntervals(long fast, long slow, long hold) {
+        if (fast <= 0) {
+            throw new IllegalArgumentException("fast must be greater than 0");
+        }
+        if (slow < fast) {
+            throw new IllegalArgumentException("slow can not be less than fast");
+        }
+        if (hold < 0) {
+            throw new IllegalArgumentException("hold can not be negative");
+        }
+        fastNanos = TimeUnit.MILLISECONDS.toNanos(fast);
+        slowNanos = TimeUnit.MILLISECONDS.toNanos(slow);
+        holdNanos = TimeUnit.MILLISECONDS.toNanos(hold);
+    }
+
+    /**
+     * @return the current sampling interval in milliseconds, 0 if sampling is
+     *         suspended or not started
+     */
+    public long getIntervalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(intervalNanos);
+    }
+
+    /**
+     * @return the number of samples taken so far
+     */
+    public long getSamples() {
+        return samples.get();
+    }
+
+    /**
+     * @return the CPU time used by the polling thread in milliseconds, -1 if
+     *         not polling or not supported by the JVM
+     */
+    public long getCpuMillis() {
+        final Thread t = poller;
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if ((t == null) || !threads.isThreadCpuTimeSupported()) {
+            return -1;
+        }
+        final long nanos = threads.getThreadCpuTime(t.getId());
+        return (nanos < 0) ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * Also wakes up the poller if suspended, so that it goes by the new policy
+     * right away
+     */
+    @Override
+    public void setPolicy(final PlayPolicy policy) {
+        super.setPolicy(policy);
+        final Thread t = poller;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    // ------------------------------------------------------- protected methods
+
+    @Override
+    protected void listen(final GpioPinDigitalInput pin) {
+        final Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                poll(pin);
+            }
+        }, "falco-poller");
+        t.setDaemon(true);
+        poller = t;
+        t.start();
+    }
+
+    @Override
+    protected void unlisten(final GpioPinDigitalInput pin) {
+        final Thread t = poller;
+        if (t == null) {
+            return;
+        }
+        poller = null;
+        LockSupport.unpark(t);
+        if (t != Thread.currentThread()) {
+            try {
+                t.join(1000);
+            } catch (InterruptedException x) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        intervalNanos = 0;
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private void poll(final GpioPinDigitalInput pin) {
+        final Thread self = Thread.currentThread();
+
+        boolean last = isHigh(pin);
+        long previous = System.nanoTime();
+        long activity = previous - holdNanos;
+        long interval = slowNanos;
+
+        while (poller == self) {
+            try {
+                if (!isActiveTime()) {
+                    if ((intervalNanos != 0) && LOG.isLoggable(Level.FINE)) {
+                        LOG.fine("muted hours, polling suspended");
+                    }
+                    intervalNanos = 0;
+                    LockSupport.parkNanos(this, suspension());
+
+                    //
+                    // whatever happened while suspended is not an edge
+                    //
+                    last = isHigh(pin);
+                    previous = System.nanoTime(); interval = slowNanos;
+                    continue;
+                }
+            } catch (RuntimeException x) {
+                sampleFailed(x);
+                LockSupport.parkNanos(this, slowNanos);
+                continue;
+            }
+
+            final long now = System.nanoTime();
+            final boolean high;
+            try {
+                high = isHigh(pin);
+            } catch (RuntimeException x) {
+                sampleFailed(x);
+                previous = now; interval = slowNanos;
+                LockSupport.parkNanos(this, interval);
+                continue;
+            }
+            samples.incrementAndGet();
+
+            final boolean changed = (high != last);
+            if (changed) {
+                last = high; activity = now;
+            }
+
+            interval = (now - activity < holdNanos)
+                     ? fastNanos
+                     : Math.min(slowNanos, Math.max(fastNanos, interval << 1));
+            intervalNanos = interval;
+
+            //
+            // the interval is published before the edge so that whoever sees
+            // the trigger sees the fast interval too
+            //
+            if (changed) {
+                try {
+                    edge(previous, high);
+                } catch (RuntimeException x) {
+                    sampleFailed(x);
+                }
+            }
+            previous = now;
+
+            LockSupport.parkNanos(this, interval);
+        }
+    }
+
+    /**
+     * @return how long to suspend sampling for in nanoseconds: until the
+     *         active hours start again, but no longer than SUSPENDED_CHECK
+     */
+    private long suspension() {
+        final Clock clock = getClock();
+        final long now = clock.millis();
+        final long next = getPolicy().next(now, clock.getZone(), TriggerSource.GPIO);
+
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(1, Math.min(next - now, SUSPENDED_CHECK)));
+    }
+
+    /**
+     * The poller does not die of a failure, it logs it and keeps polling
+     */
+    private void sampleFailed(final RuntimeException x) {
+        if (LOG.isLoggable(Level.WARNING)) {
+            LOG.log(Level.WARNING, "unable to sample the pin, polling goes on", x);
+        }
+    }
+}
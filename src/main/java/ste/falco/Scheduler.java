@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Process-wide scheduling service: the periodic and delayed tasks of falco
+ * (heartbeat, play window changes, pin health checks, journal flushes) all
+ * run on the same few daemon threads, created once for the whole life of the
+ * process, instead of a thread (and a schedule) for each startup. Whoever
+ * schedules a task owns it and must cancel it when shut down; the scheduler
+ * itself is not shut down by a recycle.
+ *
+ * How late tasks start compared with when they were due (the lag) is
+ * recorded in <code>lag</code>: a growing lag means the threads are too few
+ * or a task takes too long. A task that throws is logged and keeps its
+ * schedule (a plain ScheduledExecutorService would silently drop it).
+ */
+public class Scheduler {
+
+    public static final int DEFAULT_THREADS = 2;
+
+    private static final Scheduler INSTANCE = new Scheduler(
+        "falco-scheduler", Integer.getInteger("ste.falco.scheduler.threads", DEFAULT_THREADS)
+    );
+
+    protected final Logger LOG = Logger.getLogger("ste.falco");
+
+    public final String name;
+
+    /**
+     * how late the tasks started, compared with when they were due
+     */
+    public final LatencyHistogram lag = new LatencyHistogram("lag");
+
+    private final ScheduledThreadPoolExecutor executor;
+    private final Set<Task> tasks = Collections.newSetFromMap(new ConcurrentHashMap<Task, Boolean>());
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    /**
+     * @param name the name of the threads (followed by their number)
+     * @param threads how many threads run the tasks (at least 1)
+     */
+    public Scheduler(final String name, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be greater than 0");
+        }
+        this.name = name;
+
+        final AtomicInteger number = new AtomicInteger();
+        executor = new ScheduledThreadPoolExecutor(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, name + "-" + number.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    public static Scheduler getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Runs the given task once after the given delay
+     *
+     * @param name the name of the task (for logs and JMX)
+     * @param task the task - NOT NULL
+     * @param delay the delay
+     * @param unit the unit of delay - NOT NULL
+     *
+     * @return the scheduled task, to cancel it
+     *
+     * @throws RejectedExecutionException if the scheduler is shut down
+     */
+    public Task schedule(final String name, final Runnable task, long delay, final TimeUnit unit) {
+        final Task t = new Task(name, task, unit.toNanos(delay), 0);
+        try {
+            t.future = executor.schedule(t, delay, unit);
+        } catch (RejectedExecutionException x) {
+            tasks.remove(t);  // shut down
+            throw x;
+        }
+        return t;
+    }
+
+    /**
+     * Runs the given task every period, going by when it was due (like
+     * ScheduledExecutorService.scheduleAtFixedRate())
+     */
+    public Task scheduleAtFixedRate(final String name, final Runnable task, long delay, long period, final TimeUnit unit) {
+        final Task t = new Task(name, task, unit.toNanos(delay), unit.toNanos(period));
+        try {
+            t.future = executor.scheduleAtFixedRate(t, delay, period, unit);
+        } catch (RejectedExecutionException x) {
+            tasks.remove(t);  // shut down
+            throw x;
+        }
+        return t;
+    }
+
+    /**
+     * Runs the given task with the given delay between the end of a run and
+     * the start of the next one (like
+     * ScheduledExecutorService.scheduleWithFixedDelay())
+     */
+    public Task scheduleWithFixedDelay(final String name, final Runnable task, long delay, long period, final TimeUnit unit) {
+        final Task t = new Task(name, task, unit.toNanos(delay), -unit.toNanos(period));
+        try {
+            t.future = executor.scheduleWithFixedDelay(t, delay, period, unit);
+        } catch (RejectedExecutionException x) {
+            tasks.remove(t);  // shut down
+            throw x;
+        }
+        return t;
+    }
+
+    /**
+     * @return the number of threads running the tasks so far (they are
+     *         created as needed up to the given threads)
+     */
+    public int getThreads() {
+        return executor.getPoolSize();
+    }
+
+    /**
+     * @return the number of tasks scheduled and not cancelled nor done
+     */
+    public int getTasks() {
+        return tasks.size();
+    }
+
+    /**
+     * @return the tasks scheduled and not cancelled nor done
+     */
+    public List<Task> getScheduled() {
+        return new ArrayList<>(tasks);
+    }
+
+    /**
+     * @return how many times a task has been run
+     */
+    public long getRuns() {
+        return runs.get();
+    }
+
+    /**
+     * @return how many times a task has thrown an exception
+     */
+    public long getErrors() {
+        return errors.get();
+    }
+
+    /**
+     * Cancels all tasks and stops the threads; nothing can be scheduled any
+     * more. Not meant for the process-wide instance.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        tasks.clear();
+    }
+
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    // -------------------------------------------------------------------- Task
+
+    public class Task implements Runnable {
+
+        public final String name;
+
+        private final Runnable task;
+        private final long period;      // nanoseconds: > 0 fixed rate, < 0 fixed delay, 0 once
+        private volatile long due;      // System.nanoTime()
+        private volatile ScheduledFuture<?> future;
+        private final AtomicLong runs = new AtomicLong();
+        private final AtomicLong maxLag = new AtomicLong();
+
+        private Task(final String name, final Runnable task, long delay, long period) {
+            if (task == null) {
+                throw new IllegalArgumentException("task can not be null");
+            }
+            this.name = name;
+            this.task = task;
+            this.period = period;
+            this.due = System.nanoTime() + delay;
+            tasks.add(this);
+        }
+
+        /**
+         * Cancels the task; a run in progress completes.
+         */
+        public void cancel() {
+            tasks.remove(this);
+            final ScheduledFuture<?> f = future;
+            if (f != null) {
+                f.cancel(false);
+            }
+        }
+
+        public boolean isCancelled() {
+            final ScheduledFuture<?> f = future;
+            return (f != null) && f.isCancelled();
+        }
+
+        /**
+         * @return how many times the task has been run
+         */
+        public long getRuns() {
+            return runs.get();
+        }
+
+        /**
+         * @return how late the task started at most, in microseconds
+         */
+        public long getMaxLag() {
+            return maxLag.get();
+        }
+
+        @Override
+        public void run() {
+            final long start = System.nanoTime();
+            final long late = Math.max(0, start - due);
+            lag.record(late);
+            if (late / 1000 > maxLag.get()) {
+                maxLag.set(late / 1000);  // only this task updates it, one run at a time
+            }
+            runs.incrementAndGet(); Scheduler.this.runs.incrementAndGet();
+
+            try {
+                task.run();
+            } catch (RuntimeException x) {
+                errors.incrementAndGet();
+                if (LOG.isLoggable(Level.SEVERE)) {
+                    LOG.log(Level.SEVERE, "task " + name + " failed", x);
+                }
+            } finally {
+                if (period > 0) {
+                    due += period;
+                } else if (period < 0) {
+                    due = System.nanoTime() - period;
+                } else {
+                    tasks.remove(this);
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Offline sunrise and sunset at a given place, with the NOAA solar
+ * calculator equations (accurate to a minute or so between +/-72 degrees of
+ * latitude). The sun is taken as risen when its upper limb is above the
+ * horizon, refraction included (zenith of 90.833 degrees).
+ */
+public class SolarCalculator {
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+    private static final double ZENITH = Math.toRadians(90.833);
+    private static final double JD_EPOCH = 2440587.5;  // the Julian day of 1970-01-01T00:00Z
+    private static final double JD_2000 = 2451545.0;   // the Julian day of 2000-01-01T12:00Z
+
+    public final double latitude, longitude;
+
+    /**
+     * @param latitude the latitude in degrees, north positive
+     * @param longitude the longitude in degrees, east positive
+     */
+    public SolarCalculator(double latitude, double longitude) {
+        if (!(latitude >= -90 && latitude <= 90)) {
+            throw new IllegalArgumentException("latitude must be in the range [-90, 90]");
+        }
+        if (!(longitude >= -180 && longitude <= 180)) {
+            throw new IllegalArgumentException("longitude must be in the range [-180, 180]");
+        }
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    /**
+     * @param epochDay the day (as in LocalDate.toEpochDay())
+     *
+     * @return the sunrise of the given day (epoch millis); Long.MIN_VALUE if
+     *         the sun does not set that day, the solar noon if it does not rise
+     */
+    public long sunrise(long epochDay) {
+        return time(epochDay, -1);
+    }
+
+    /**
+     * @param epochDay the day (as in LocalDate.toEpochDay())
+     *
+     * @return the sunset of the given day (epoch millis); Long.MAX_VALUE if
+     *         the sun does not set that day, the solar noon if it does not rise
+     */
+    public long sunset(long epochDay) {
+        return time(epochDay, 1);
+    }
+
+    @Override
+    public String toString() {
+        return latitude + "," + longitude;
+    }
+
+    // --------------------------------------------------------- private methods
+
+    /**
+     * @param sign -1 for the sunrise, 1 for the sunset
+     */
+    private long time(long epochDay, int sign) {
+        //
+        // Julian centuries since J2000 at the local noon of the day
+        //
+        final double t = (JD_EPOCH + epochDay + 0.5 - longitude / 360 - JD_2000) / 36525;
+
+        final double l0 = Math.toRadians((280.46646 + t * (36000.76983 + t * 0.0003032)) % 360);  // mean longitude
+        final double m = Math.toRadians(357.52911 + t * (35999.05029 - t * 0.0001537));          // mean anomaly
+        final double e = 0.016708634 - t * (0.000042037 + t * 0.0000001267);                     // eccentricity
+        final double c = Math.sin(m) * (1.914602 - t * (0.004817 + t * 0.000014))
+                       + Math.sin(2 * m) * (0.019993 - t * 0.000101)
+                       + Math.sin(3 * m) * 0.000289;                                              // equation of center
+        final double omega = Math.toRadians(125.04 - 1934.136 * t);
+        final double lambda = Math.toRadians(280.46646 + t * (36000.76983 + t * 0.0003032) + c - 0.00569 - 0.00478 * Math.sin(omega));
+        final double epsilon = Math.toRadians(
+            23 + (26 + (21.448 - t * (46.815 + t * (0.00059 - t * 0.001813))) / 60) / 60 + 0.00256 * Math.cos(omega)
+        );                                                                                         // obliquity
+        final double declination = Math.asin(Math.sin(epsilon) * Math.sin(lambda));
+
+        final double y = Math.pow(Math.tan(epsilon / 2), 2);
+        final double equation = 4 * Math.toDegrees(
+            y * Math.sin(2 * l0) - 2 * e * Math.sin(m) + 4 * e * y * Math.sin(m) * Math.cos(2 * l0)
+            - 0.5 * y * y * Math.sin(4 * l0) - 1.25 * e * e * Math.sin(2 * m)
+        );                                                                                         // minutes
+
+        final double noon = 720 - 4 * longitude - equation;  // minutes from midnight UTC
+        final double phi = Math.toRadians(latitude);
+        final double cos = Math.cos(ZENITH) / (Math.cos(phi) * Math.cos(declination)) - Math.tan(phi) * Math.tan(declination);
+        if (cos < -1) {
+            return (sign < 0) ? Long.MIN_VALUE : Long.MAX_VALUE;  // the sun does not set
+        }
+
+        final double minutes = (cos > 1) ? noon : noon + sign * 4 * Math.toDegrees(Math.acos(cos));
+        return epochDay * DAY + Math.round(minutes * MINUTE);
+    }
+}
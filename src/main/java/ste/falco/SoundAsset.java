@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import java.io.ByteArrayInputStream;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+
+/**
+ * A decoded sound: its PCM samples and the format they are in. Instances are
+ * immutable and shared, do not modify the content of pcm.
+ */
+public class SoundAsset {
+
+    public final AudioFormat format;
+    public final byte[] pcm;
+    public final long frames;
+
+    public SoundAsset(final AudioFormat format, final byte[] pcm) {
+        if (format == null) {
+            throw new IllegalArgumentException("format can not be null");
+        }
+        if (pcm == null) {
+            throw new IllegalArgumentException("pcm can not be null");
+        }
+        this.format = format;
+        this.pcm = pcm;
+        this.frames = pcm.length / format.getFrameSize();
+    }
+
+    /**
+     * @return a new stream over the cached samples; no decoding is involved
+     */
+    public AudioInputStream stream() {
+        return new AudioInputStream(new ByteArrayInputStream(pcm), format, frames);
+    }
+
+    public int size() {
+        return pcm.length;
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Process-wide cache of decoded sounds, keyed by resource path (and format,
+ * for sounds converted to the format of the device). A sound is read from the
+ * classpath, decoded to PCM and converted the first time it is requested;
+ * after that callers get the same in-memory samples back, so (re)opening a
+ * line never touches the classpath, the decoder or the converter again.
+ *
+ * The cache holds at most <code>budget</code> bytes of PCM; when a new sound
+ * does not fit, the least recently used ones are evicted. A sound bigger than
+ * the whole budget is decoded and returned but not cached.
+ */
+public class SoundCache {
+
+    public static final long DEFAULT_BUDGET = 16 * 1024 * 1024; // 16MB
+
+    private static final SoundCache INSTANCE = new SoundCache(
+        Long.getLong("ste.falco.soundcache.budget", DEFAULT_BUDGET)
+    );
+
+    private final Logger LOG = Logger.getLogger("ste.falco");
+
+    private final LinkedHashMap<String, SoundAsset> assets = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long budget, size;
+    private long hits, misses, evictions;
+
+    public SoundCache(long budget) {
+        if (budget < 0) {
+            throw new IllegalArgumentException("budget can not be negative");
+        }
+        this.budget = budget;
+    }
+
+    public static SoundCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the decoded PCM of the given resource, loading it if not cached
+     * yet.
+     *
+     * @param sound the resource path of the sound - NOT BLANK
+     *
+     * @return the decoded sound
+     *
+     * @throws IOException if the resource can not be read
+     * @throws UnsupportedAudioFileException if the resource is not a supported audio file
+     */
+    public synchronized SoundAsset get(final String sound)
+    throws IOException, UnsupportedAudioFileException {
+        SoundAsset asset = assets.get(sound);
+        if (asset != null) {
+            ++hits; return asset;
+        }
+
+        ++misses;
+        return put(sound, decode(sound));
+    }
+
+    /**
+     * Returns the given resource converted to the given format (see
+     * SoundConverter), loading and converting it if not cached yet. Each
+     * format is cached separately.
+     *
+     * @param sound the resource path of the sound - NOT BLANK
+     * @param format the format to convert the sound to - NOT NULL
+     *
+     * @return the sound in the given format
+     *
+     * @throws IOException if the resource can not be read
+     * @throws UnsupportedAudioFileException if the resource is not a supported audio file
+     * @throws IllegalArgumentException if the sound can not be converted to the given format
+     */
+    public synchronized SoundAsset get(final String sound, final AudioFormat format)
+    throws IOException, UnsupportedAudioFileException {
+        if (format == null) {
+            throw new IllegalArgumentException("format can not be null");
+        }
+
+        final String key = sound + '@' + format;
+        SoundAsset asset = assets.get(key);
+        if (asset != null) {
+            ++hits; return asset;
+        }
+
+        ++misses;
+        SoundAsset decoded = assets.get(sound);
+        if (decoded == null) {
+            decoded = decode(sound);
+        }
+        return put(key, SoundConverter.convert(decoded, format));
+    }
+
+    public synchronized void setBudget(long budget) {
+        if (budget < 0) {
+            throw new IllegalArgumentException("budget can not be negative");
+        }
+        this.budget = budget;
+        evict();
+    }
+
+    public synchronized long getBudget() {
+        return budget;
+    }
+
+    /**
+     * @return the number of PCM bytes currently held
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized boolean contains(final String sound) {
+        return assets.containsKey(sound);
+    }
+
+    public synchronized void clear() {
+        assets.clear(); size = 0;
+    }
+
+    // --------------------------------------------------------- Private methods
+
+    private SoundAsset decode(final String sound)
+    throws IOException, UnsupportedAudioFileException {
+        AudioInputStream in = AudioSystem.getAudioInputStream(
+            new ByteArrayInputStream(IOUtils.resourceToByteArray(sound))
+        );
+
+        AudioFormat format = in.getFormat();
+        if (!AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding())
+        &&  !AudioFormat.Encoding.PCM_UNSIGNED.equals(format.getEncoding())) {
+            in = AudioSystem.getAudioInputStream(AudioFormat.Encoding.PCM_SIGNED, in);
+            format = in.getFormat();
+        }
+
+        try {
+            return new SoundAsset(format, IOUtils.toByteArray(in));
+        } finally {
+            in.close();
+        }
+    }
+
+    private SoundAsset put(final String key, final SoundAsset asset) {
+        if (asset.size() <= budget) {
+            assets.put(key, asset); size += asset.size();
+            evict();
+        } else if (LOG.isLoggable(Level.INFO)) {
+            LOG.info(String.format("%s (%d bytes) exceeds the sound cache budget, not cached", key, asset.size()));
+        }
+
+        return asset;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, SoundAsset>> i = assets.entrySet().iterator();
+        while ((size > budget) && i.hasNext()) {
+            SoundAsset asset = i.next().getValue();
+            i.remove(); size -= asset.size(); ++evictions;
+        }
+    }
+}
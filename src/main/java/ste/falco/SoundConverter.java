@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Converts decoded sounds between integer PCM formats: sample size (8 to 32
+ * bits), signedness, endianness, number of channels and sample rate. It is
+ * meant to be used once, when a sound is loaded, so that what is played is
+ * already in the format of the device and no conversion happens on play.
+ *
+ * Channels are mapped by duplicating mono into all output channels or by
+ * averaging all input channels into mono; otherwise missing channels repeat
+ * the last input channel and extra ones are dropped. Resampling is done by
+ * linear interpolation, which is fine for the kind of sounds played here.
+ *
+ * Sounds can also be scaled by a gain, so that a clip plays at the wanted
+ * volume whatever the controls of the device.
+ */
+public class SoundConverter {
+
+    /**
+     * @param asset the sound to convert - NOT NULL
+     * @param target the format to convert to - NOT NULL, integer PCM with
+     *        sample rate, sample size and channels specified
+     *
+     * @return the converted sound or asset itself if already in the target
+     *         format
+     *
+     * @throws IllegalArgumentException if either format is not supported
+     */
+    public static SoundAsset convert(final SoundAsset asset, final AudioFormat target) {
+        if (asset == null) {
+            throw new IllegalArgumentException("asset can not be null");
+        }
+        if (target == null) {
+            throw new IllegalArgumentException("target can not be null");
+        }
+        check(asset.format, "source");
+        check(target, "target");
+
+        if (matches(asset.format, target)) {
+            return asset;
+        }
+
+        final float[] samples = remix(decode(asset), asset.format.getChannels(), target.getChannels());
+        return new SoundAsset(target, encode(samples, asset.format.getSampleRate(), target));
+    }
+
+    /**
+     * @param asset the sound to scale - NOT NULL, integer PCM
+     * @param gain the fixed point gain to apply (see Gain)
+     *
+     * @return a copy of the given sound with every sample multiplied by the
+     *         given gain and clipped, or asset itself if gain is Gain.UNITY
+     *
+     * @throws IllegalArgumentException if the format is not supported
+     */
+    public static SoundAsset scale(final SoundAsset asset, int gain) {
+        if (asset == null) {
+            throw new IllegalArgumentException("asset can not be null");
+        }
+        check(asset.format, "source");
+
+        if (gain == Gain.UNITY) {
+            return asset;
+        }
+
+        final AudioFormat format = asset.format;
+        final int bytes = format.getSampleSizeInBits() / 8;
+        final boolean signed = AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding());
+        final boolean bigEndian = format.isBigEndian();
+        final int shift = 64 - 8 * bytes;
+        final long max = (1L << (8 * bytes - 1)) - 1, min = -max - 1;
+
+        final byte[] pcm = new byte[asset.pcm.length];
+        for (int p=0; p+bytes<=pcm.length; p+=bytes) {
+            long value = 0;
+            for (int b=0; b<bytes; ++b) {
+                value = (value << 8) | (asset.pcm[bigEndian ? p + b : p + bytes - 1 - b] & 0xFF);
+            }
+            value = signed ? ((value << shift) >> shift) : (value - max - 1);
+            value = Math.max(min, Math.min(max, (value * gain) >> Gain.SHIFT));
+            if (!signed) {
+                value += max + 1;
+            }
+            for (int k=0; k<bytes; ++k) {
+                pcm[p + (bigEndian ? bytes - 1 - k : k)] = (byte)(value >>> (8 * k));
+            }
+        }
+
+        return new SoundAsset(format, pcm);
+    }
+
+    // --------------------------------------------------------- Private methods
+
+    private static void check(final AudioFormat format, final String which) {
+        if (!AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding())
+        &&  !AudioFormat.Encoding.PCM_UNSIGNED.equals(format.getEncoding())) {
+            throw new IllegalArgumentException(which + " format not supported (not integer PCM): " + format);
+        }
+        final int bits = format.getSampleSizeInBits();
+        if ((bits < 8) || (bits > 32) || (bits % 8 != 0)
+        ||  (format.getChannels() <= 0)
+        ||  (format.getSampleRate() <= 0)
+        ||  (format.getFrameSize() != format.getChannels() * bits / 8)) {
+            throw new IllegalArgumentException(which + " format not supported: " + format);
+        }
+    }
+
+    private static boolean matches(final AudioFormat source, final AudioFormat target) {
+        return source.getEncoding().equals(target.getEncoding())
+            && (source.getSampleRate() == target.getSampleRate())
+            && (source.getSampleSizeInBits() == target.getSampleSizeInBits())
+            && (source.getChannels() == target.getChannels())
+            && ((source.getSampleSizeInBits() == 8) || (source.isBigEndian() == target.isBigEndian()));
+    }
+
+    /**
+     * @return the samples of the given sound, interleaved, in [-1, 1)
+     */
+    private static float[] decode(final SoundAsset asset) {
+        final AudioFormat format = asset.format;
+        final int bytes = format.getSampleSizeInBits() / 8;
+        final boolean signed = AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding());
+        final boolean bigEndian = format.isBigEndian();
+        final int shift = 32 - 8 * bytes;
+        final double scale = 1d / (1L << (8 * bytes - 1));
+
+        final float[] samples = new float[(int)asset.frames * format.getChannels()];
+        for (int i=0, p=0; i<samples.length; ++i, p+=bytes) {
+            int v = 0;
+            for (int b=0; b<bytes; ++b) {
+                v = (v << 8) | (asset.pcm[bigEndian ? p + b : p + bytes - 1 - b] & 0xFF);
+            }
+            long value = signed ? ((v << shift) >> shift) : ((v & 0xFFFFFFFFL) - (1L << (8 * bytes - 1)));
+            samples[i] = (float)(value * scale);
+        }
+
+        return samples;
+    }
+
+    private static float[] remix(final float[] samples, final int in, final int out) {
+        if (in == out) {
+            return samples;
+        }
+
+        final int frames = samples.length / in;
+        final float[] remixed = new float[frames * out];
+        for (int f=0; f<frames; ++f) {
+            if (out == 1) {
+                float sum = 0;
+                for (int c=0; c<in; ++c) {
+                    sum += samples[f*in + c];
+                }
+                remixed[f] = sum / in;
+            } else {
+                for (int c=0; c<out; ++c) {
+                    remixed[f*out + c] = samples[f*in + Math.min(c, in - 1)];
+                }
+            }
+        }
+        return remixed;
+    }
+
+    private static byte[] encode(final float[] samples, final float rate, final AudioFormat format) {
+        final int channels = format.getChannels();
+        final int bytes = format.getSampleSizeInBits() / 8;
+        final boolean signed = AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding());
+        final boolean bigEndian = format.isBigEndian();
+        final long max = (1L << (8 * bytes - 1)) - 1, min = -max - 1;
+
+        final int inFrames = samples.length / channels;
+        final double step = rate / format.getSampleRate();
+        final int outFrames = (inFrames == 0) ? 0 : (int)Math.ceil(inFrames / step);
+
+        final byte[] pcm = new byte[outFrames * format.getFrameSize()];
+        for (int f=0, p=0; f<outFrames; ++f) {
+            final double position = f * step;
+            final int i = (int)position, j = Math.min(i + 1, inFrames - 1);
+            final float fraction = (float)(position - i);
+
+            for (int c=0; c<channels; ++c) {
+                final float a = samples[i*channels + c], b = samples[j*channels + c];
+                long value = Math.round((a + (b - a) * fraction) * (max + 1));
+                value = Math.max(min, Math.min(max, value));
+                if (!signed) {
+                    value += max + 1;
+                }
+                for (int k=0; k<bytes; ++k, ++p) {
+                    final int octet = bigEndian ? bytes - 1 - k : k;
+                    pcm[p] = (byte)(value >>> (8 * octet));
+                }
+            }
+        }
+
+        return pcm;
+    }
+}
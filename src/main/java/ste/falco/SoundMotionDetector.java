@@ -15,13 +15,17 @@
  */
 package ste.falco;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.time.Clock;
-import java.time.LocalDateTime;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.Clip;
 import javax.sound.sampled.CompoundControl;
 import javax.sound.sampled.Control;
@@ -33,21 +37,103 @@ import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 
 /**
+ * Plays a sound when a motion is detected, unless muted (night or cooldown).
  *
+ * Whether a motion plays is decided by a PlayPolicy (by default
+ * PlayPolicy.DEFAULT), going by the detector's clock.
+ *
+ * moved() can be called concurrently by the dispatcher thread, JMX and the
+ * supervisor, and shutdown() and setVolume() can race with it, so the state
+ * shared among them is lock-free: the cooldown state is claimed with a CAS
+ * (so that exactly one of concurrent motions plays), the clip is taken out
+ * with an atomic swap by shutdown(), the sound the clip is loaded with is an
+ * immutable snapshot swapped with a CAS and every method works on the line
+ * and the snapshot it read once. The detector's monitor is not used, so that
+ * a volume change, a warm-up and the health checks of MotionDetector never
+ * wait for each other.
  */
 public class SoundMotionDetector implements AutoCloseable {
 
+    /**
+     * Priority of the deterrent sound when played through a shared output:
+     * it wins over anything else (e.g. the heartbeat)
+     */
+    public static final int VOICE_PRIORITY = 10;
+
+    /**
+     * Minimum time between two plays, in minutes
+     */
+    public static final int DEFAULT_COOLDOWN = 10;
+
     public final String sound;
 
     protected Mixer mixer;
-    protected Clip clip;
+    protected volatile Clip clip;
+    protected volatile SoundAsset asset;
+    protected volatile SoundAsset playing;  // what the clip is loaded with (see load())
+    protected AudioOutput output;
 
     protected final Logger LOG = Logger.getLogger("ste.falco");
 
-    private final Clock CLOCK = Clock.systemDefaultZone();
-    private LocalDateTime lastMoved = LocalDateTime.now(CLOCK).minusHours(24); // just to make sure the first ervent is capture
+    private final MotionTriggerHandler handler = new MotionTriggerHandler();
+    private final MotionOutputListener outputListener = new MotionOutputListener();
+    private final MotionClipListener clipListener = new MotionClipListener();
+    private final AudioComponent audio = new AudioComponent();
+
+    protected TriggerDispatcher dispatcher = new TriggerDispatcher("falco-dispatcher", handler);
+    private int zone = 0;              // the index of the zone in a shared dispatcher
+    private boolean shared = false;    // true if the dispatcher is shared with other zones
+
+    /**
+     * trigger (e.g. PIR edge) to moved(), moved() to sound start and trigger
+     * to sound start latencies
+     */
+    public final LatencyHistogram dispatchLatency = new LatencyHistogram("dispatch");
+    public final LatencyHistogram startLatency = new LatencyHistogram("start");
+    public final LatencyHistogram triggerLatency = new LatencyHistogram("trigger");
+
+    private volatile double volume = 1d;
+    private volatile FloatControl gain;  // the clip's MASTER_GAIN, null if it has none
+    private volatile PlayPolicy policy = PlayPolicy.compile(PlayPolicy.DEFAULT);
+    private volatile EventJournal journal;
+    private volatile Supervisor supervisor;
+    private int journalKey = 0;
+    private volatile boolean warming = false;
+    private volatile boolean dormant = false;
+    private volatile long warmupNanos = 0;
+    private volatile CountDownLatch warmups;
+    private SoundAsset silence;          // what is played while warming up
+    private volatile int touched;        // keeps the samples' touching from being optimized away
+    private volatile long triggerNanos = 0, playNanos = 0;
+
+    //
+    // set by the dispatcher right before moved() and read by moved() only if
+    // on the same thread, so that a direct call does not take them
+    //
+    private int pendingSource = -1;
+    private long pendingTriggerNanos = 0;
+    private volatile Thread pendingThread = null;
+
+    private volatile Clock CLOCK = Clock.systemDefaultZone();
+    private volatile long played = PlayPolicy.state(CLOCK.millis() - DAY, 0); // just to make sure the first ervent is capture
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    private static final AtomicLongFieldUpdater<SoundMotionDetector> PLAYED =
+        AtomicLongFieldUpdater.newUpdater(SoundMotionDetector.class, "played");
+    private static final AtomicReferenceFieldUpdater<SoundMotionDetector, Clip> CLIP =
+        AtomicReferenceFieldUpdater.newUpdater(SoundMotionDetector.class, Clip.class, "clip");
+    private static final AtomicReferenceFieldUpdater<SoundMotionDetector, SoundAsset> PLAYING =
+        AtomicReferenceFieldUpdater.newUpdater(SoundMotionDetector.class, SoundAsset.class, "playing");
 
     public SoundMotionDetector(final String sound) {
+        this(sound, null);
+    }
+
+    /**
+     * @param sound the resource path of the sound to play - NOT BLANK
+     * @param mixer the mixer to play through; if null SoundUtils.getMixer()
+     */
+    public SoundMotionDetector(final String sound, final Mixer mixer) {
         if (StringUtils.isBlank(sound)) {
             throw new IllegalArgumentException("sound can not be blank or null");
         }
@@ -61,83 +147,723 @@ public class SoundMotionDetector implements AutoCloseable {
         }
         this.sound = sound;
 
-        mixer = AudioSystem.getMixer(null);
+        this.mixer = (mixer != null) ? mixer : SoundUtils.getMixer();
+    }
+
+    /**
+     * Plays through the given streaming output instead of opening a Clip of
+     * its own. The output is not owned by the detector: it must be opened
+     * before startup() and closed by the caller. To be called before startup().
+     *
+     * @param output the output to play through; null to use a Clip
+     */
+    public void setOutput(final AudioOutput output) {
+        this.output = output;
+    }
+
+    public AudioOutput getOutput() {
+        return output;
+    }
+
+    /**
+     * Dispatches triggers through the given router's dispatcher, shared with
+     * other zones, instead of a dispatcher of its own. The dispatcher is
+     * started by startup() but it is not stopped by shutdown(): it is owned
+     * by the caller. To be called before startup().
+     *
+     * @param router the router of the shared dispatcher - NOT NULL
+     */
+    public void setRouter(final ZoneRouter router) {
+        if (router == null) {
+            throw new IllegalArgumentException("router can not be null");
+        }
+        zone = router.add(handler);
+        dispatcher = router.dispatcher;
+        shared = true;
+    }
+
+    /**
+     * @param cooldown the minimum time between two plays in minutes (the
+     *        first tier of the cooldown of the current policy); sources with
+     *        a cooldown of their own keep it
+     */
+    public void setCooldown(int cooldown) {
+        if (cooldown < 0) {
+            throw new IllegalArgumentException("cooldown can not be negative");
+        }
+        policy = policy.withCooldown(cooldown);
+    }
+
+    /**
+     * @return the cooldown (of the first tier, for motions from the sensor)
+     *         in minutes
+     */
+    public int getCooldown() {
+        return (int)TimeUnit.MILLISECONDS.toMinutes(policy.cooldown(TriggerSource.GPIO, 0));
+    }
+
+    /**
+     * @param policy when motions play - NOT NULL
+     */
+    public void setPolicy(final PlayPolicy policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException("policy can not be null");
+        }
+        this.policy = policy;
+    }
+
+    public PlayPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @param millis the time of the last play (epoch millis); the cooldown
+     *        goes back to its first tier
+     */
+    public void setLastPlayed(long millis) {
+        setLastPlayed(millis, 0);
+    }
+
+    /**
+     * @param millis the time of the last play (epoch millis)
+     * @param tier the cooldown tier the last play left the cooldown at
+     */
+    public void setLastPlayed(long millis, int tier) {
+        played = PlayPolicy.state(millis, tier);
+    }
+
+    /**
+     * @return the time of the last play (epoch millis)
+     */
+    public long getLastPlayed() {
+        return PlayPolicy.lastPlayed(played);
+    }
+
+    /**
+     * Records motion events in the given journal and restores the cooldown
+     * state from it at startup. To be called before startup().
+     *
+     * @param journal the journal; null to not record events
+     * @param key the key (pin) the events are recorded with
+     */
+    public void setJournal(final EventJournal journal, int key) {
+        if ((key < 0) || (key >= EventJournal.MAX_KEYS)) {
+            throw new IllegalArgumentException("key must be in the range [0, " + (EventJournal.MAX_KEYS - 1) + "]");
+        }
+        this.journal = journal;
+        this.journalKey = key;
+    }
+
+    public EventJournal getJournal() {
+        return journal;
     }
 
+    /**
+     * Reports the failures of the clip (e.g. closed underneath) to the given
+     * supervisor, which reopens it in place from the loaded sound (and of the
+     * pin, see MotionDetector). Through an output, the output reports its own
+     * failures (see AudioOutput).
+     *
+     * @param supervisor the supervisor; null to just reopen the clip at the
+     *        next play
+     */
+    public void setSupervisor(final Supervisor supervisor) {
+        this.supervisor = supervisor;
+    }
+
+    public Supervisor getSupervisor() {
+        return supervisor;
+    }
+
+    /**
+     * Sets the clock the play policy (active hours and cooldown) and the
+     * journal records go by, e.g. a VirtualClock to run the policy in
+     * simulated time. The last play is reset to 24 hours before the clock's
+     * now, as at construction.
+     *
+     * @param clock the clock - NOT NULL
+     */
+    public void setClock(final Clock clock) {
+        if (clock == null) {
+            throw new IllegalArgumentException("clock can not be null");
+        }
+        CLOCK = clock;
+        setLastPlayed(clock.millis() - DAY);
+    }
+
+    public Clock getClock() {
+        return CLOCK;
+    }
+
+    /**
+     * Loads the sound already converted to the native format of the device
+     * (or of the output, if set), so that nothing is converted when playing,
+     * and opens the clip.
+     */
     public void startup() throws Exception {
-        clip = SoundUtils.getClip(mixer);
-        clip.addLineListener(new MotionClipListener());
-        clip.open(
-            AudioSystem.getAudioInputStream(
-                new ByteArrayInputStream(IOUtils.resourceToByteArray(sound))
-            )
-        );
+        if (output != null) {
+            if (!output.isOpen()) {
+                throw new IllegalStateException("the output must be open before startup()");
+            }
+            asset = SoundCache.getInstance().get(sound, output.getFormat());
+            output.addListener(outputListener);
+        } else {
+            final AudioFormat format = SoundUtils.getNativeFormat(mixer);
+            asset = SoundCache.getInstance().get(sound, format);
+            final Clip c = SoundUtils.getClip(mixer, format);
+            c.addLineListener(clipListener);
+            c.open(load(c, asset).stream());
+            final Clip old = CLIP.getAndSet(this, c);
+            if (old != null) {
+                old.close();  // started up again without a shutdown
+            }
+        }
+        if ((output != null) && (volume != 1d)) {
+            output.setVolume(volume);
+        }
+        dormant = false;
+        restore();
+        dispatcher.start();
     }
 
     /**
-     * Close the clip and null its reference (i.e. islive() returns false() )
+     * Stop the dispatcher (unless shared), close the clip and null its
+     * reference (i.e. islive() returns false() )
      */
     public void shutdown() {
-        clip.close();
-        clip = null;
+        if (!shared) {
+            dispatcher.stop();
+        }
+        if (output != null) {
+            output.removeListener(outputListener);
+        }
+        final Clip c = CLIP.getAndSet(this, null);
+        if (c != null) {
+            c.close();  // only one of concurrent shutdowns gets it
+        }
+        asset = playing = null;
+        dormant = false;
     }
 
     /**
-     * Returns true when there is a valid clip to play
+     * Returns true when there is a valid clip or output to play and the
+     * detector is not warming up; a dormant detector is live.
      *
-     * @return true when there is a valid clip to play, false otherwise
+     * @return true when there is a valid clip or output to play, false otherwise
      */
     public boolean isLive() {
-        return (clip != null);
+        return hasLine() && !warming;
+    }
+
+    /**
+     * Goes dormant for the muted hours: the clip is closed, releasing the
+     * audio line, but the sound stays loaded so that wake() (or a motion that
+     * must play in the meantime, e.g. from JMX) reopens it without going back
+     * to the classpath. Through an output nothing is released here, the
+     * output is owned by whoever opened it. sleep() and wake() are meant to
+     * be called by one thread at a time (e.g. a scheduler).
+     */
+    public void sleep() {
+        if (dormant) {
+            return;
+        }
+        dormant = true;
+        final Clip c = clip;
+        if (c != null) {
+            c.close();
+        }
+        if (LOG.isLoggable(Level.INFO)) {
+            LOG.info("dormant until the play window reopens");
+        }
+    }
+
+    /**
+     * Wakes up from dormancy, reopening the clip and rewinding it so that the
+     * next play starts right away.
+     *
+     * @throws Exception if the clip can not be opened again
+     */
+    public void wake() throws Exception {
+        if (!dormant) {
+            return;
+        }
+        final Clip c = clip;
+        final SoundAsset a = playing;
+        if ((c != null) && (a != null) && !c.isOpen()) {
+            try {
+                c.open(a.stream());
+            } catch (IllegalStateException x) {
+                // reopened by play() in the meantime
+            }
+            if (clip != c) {
+                c.close();  // shutdown() in the meantime: do not leak it
+            } else {
+                c.setFramePosition(0);
+            }
+        }
+        dormant = false;
+        if (LOG.isLoggable(Level.INFO)) {
+            LOG.info("awake, the play window is about to open");
+        }
+    }
+
+    /**
+     * @return true if dormant (see sleep())
+     */
+    public boolean isDormant() {
+        return dormant;
+    }
+
+    /**
+     * Primes the detection and playback path before going live: the sound's
+     * samples are touched and the given number of warm-up triggers go through
+     * the dispatcher, moved() and play() like real ones, but muted. Through an
+     * output a period of silence is mixed and written to the line; a clip is
+     * started muted through its gain control, or from its end (i.e. playing
+     * nothing) if it has none, and stopped and rewound when done. Warm-up
+     * triggers do not count as motions (no cooldown, no latencies). isLive()
+     * returns false until done.
+     *
+     * @param plays the number of warm-up plays
+     *
+     * @throws IllegalStateException if called before startup()
+     * @throws InterruptedException if interrupted while waiting for the plays
+     */
+    public void warmup(int plays) throws InterruptedException {
+        if (plays <= 0) {
+            throw new IllegalArgumentException("plays must be greater than 0");
+        }
+        if (!hasLine() || !dispatcher.isRunning()) {
+            throw new IllegalStateException("warmup() called before the instance is started up; make sure to call startup()");
+        }
+
+        final long start = System.nanoTime();
+        warming = true;
+        try {
+            int sum = 0;
+            for (int i=0; i<asset.pcm.length; i+=4096) {
+                sum += asset.pcm[i];  // bring the samples' pages in
+            }
+            touched = sum;
+            if (output != null) {
+                silence = new SoundAsset(
+                    output.getFormat(), new byte[output.periodFrames * output.getFormat().getFrameSize()]
+                );
+            } else {
+                final FloatControl g = gain;
+                if (g != null) {
+                    g.setValue(g.getMinimum());  // the clip is started for real, muted
+                }
+            }
+
+            warmups = new CountDownLatch(plays);
+            for (int i=0; i<plays; ++i) {
+                while (!dispatcher.publish(System.nanoTime(), TriggerSource.of(TriggerSource.WARMUP, zone))) {
+                    Thread.sleep(1);  // the ring is full
+                }
+            }
+            if (!warmups.await(Math.max(5, plays), TimeUnit.SECONDS) && LOG.isLoggable(Level.WARNING)) {
+                LOG.warning("warm-up not completed in time, going live anyway");
+            }
+        } finally {
+            warming = false;  // no muted starts from here on
+            if (output == null) {
+                final Clip c = clip;
+                if (c != null) {
+                    c.stop(); c.setFramePosition(0);
+                }
+                final FloatControl g = gain;
+                if (g != null) {
+                    gain(g);  // a setVolume() in the meantime left it muted
+                }
+            }
+        }
+        warmupNanos = System.nanoTime() - start;
+
+        if (LOG.isLoggable(Level.INFO)) {
+            LOG.info(String.format("warm-up of %d plays done in %dms", plays, getWarmupMillis()));
+        }
+    }
+
+    /**
+     * @return the duration of the last warm-up in milliseconds, 0 if none
+     */
+    public long getWarmupMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(warmupNanos);
+    }
+
+    /**
+     * Signals a motion from the given source. Once the detector is started
+     * up, this only queues the trigger for the dispatcher thread, which calls
+     * moved(); it never blocks the caller on logging or on the audio device.
+     * When not started up, moved() is called directly.
+     *
+     * @param stamp the time of the trigger (System.nanoTime())
+     * @param source the source of the trigger (see TriggerSource)
+     *
+     * @return false if the trigger was dropped because too many are pending
+     */
+    public boolean trigger(long stamp, int source) {
+        if (dispatcher.isRunning() && hasLine()) {
+            return dispatcher.publish(stamp, TriggerSource.of(source, zone));
+        }
+        moved();
+        return true;
+    }
+
+    public boolean trigger(int source) {
+        return trigger(System.nanoTime(), source);
+    }
+
+    public TriggerDispatcher getDispatcher() {
+        return dispatcher;
     }
 
     public void moved() {
-        if (clip == null) {
+        if (!hasLine()) {
             throw new IllegalStateException("moved() called before the instance is started up; make sure to call startup()");
         }
 
-        if (LOG.isLoggable(Level.INFO)) {
-            LOG.info("motion detected");
+        final long now = System.nanoTime();
+        long trigger = now;
+        int source = TriggerSource.JMX;
+        if (pendingThread == Thread.currentThread()) {
+            trigger = pendingTriggerNanos; source = pendingSource;
+            pendingThread = null;
         }
-        if (shallPlay()) {
-            lastMoved = LocalDateTime.now(CLOCK);
-            clip.setFramePosition(0);
-            clip.start();
+        final boolean warmup = (source == TriggerSource.WARMUP);
+
+        if (warmup) {
+            rehearse();
+            play(true);
+            warmups.countDown();
+            return;
+        }
+
+        final long millis = CLOCK.millis();
+        final long claimed = claim(millis, source);
+        if (claimed >= 0) {
+            if (LOG.isLoggable(Level.INFO)) {
+                LOG.info("motion detected");
+            }
+            record(millis, EventJournal.PLAYED, (byte)PlayPolicy.tier(claimed), source);
+            triggerNanos = trigger; playNanos = now;
+            play();
         } else {
+            record(millis, EventJournal.MUTED, (byte)-claimed, source);
             if (LOG.isLoggable(Level.INFO)) {
                 LOG.info("too early or not in day light - I am muted");
             }
         }
     }
 
+    /**
+     * Like moved(), for a trigger from the given source at the given time
+     *
+     * @param stamp the time of the trigger (System.nanoTime())
+     * @param source the trigger source (see TriggerSource)
+     */
+    protected void moved(long stamp, int source) {
+        pendingTriggerNanos = stamp; pendingSource = source;
+        pendingThread = Thread.currentThread();
+        moved();
+    }
+
+    /**
+     * Sets the volume of the sound; nothing is reopened nor stopped. When
+     * playing through an output it is the output's volume, applied in
+     * software from the next period on. A clip's MASTER_GAIN control is used
+     * if the device has one; otherwise the clip is loaded with a copy of the
+     * sound scaled in software the next time it is opened (e.g. at wake()):
+     * on such devices play through an output for the volume to apply right
+     * away. The volume is remembered anyway.
+     *
+     * @param volume linear volume in the range [0, 2]: 0 is silence, 1 the
+     *        natural volume of the sound
+     */
     public void setVolume(double volume) {
-        if (volume < 0d || volume > 2d) {
-            throw new IllegalArgumentException("invalid volume " + volume + " - it must in range (0.0, 2.0)");
+        Gain.of(volume);  // range check
+        this.volume = volume;
+
+        if (output != null) {
+            output.setVolume(volume);
+            return;
         }
-        FloatControl gain = (FloatControl) clip.getControl(FloatControl.Type.MASTER_GAIN);
-        gain.setValue((float)(20d * Math.log10(volume)));
-    }
 
-    public double getVolume() {
-        FloatControl gain = (FloatControl) clip.getControl(FloatControl.Type.MASTER_GAIN);
+        final FloatControl g = gain;
+        if (g != null) {
+            if (!warming) {
+                gain(g);  // else applied at the end of the warm-up
+            }
+            return;
+        }
 
         //
-        // rounding to 2 decimals
+        // a new snapshot at the volume read after the current snapshot: of
+        // concurrent changes the last one wins
         //
-        return Math.round(Math.pow(10d, gain.getValue() / 20d)*100)/100d;
+        for (;;) {
+            final SoundAsset p = playing, a = asset;
+            if ((p == null) || (a == null)) {
+                return;  // applied at startup()
+            }
+            if (PLAYING.compareAndSet(this, p, SoundConverter.scale(a, Gain.of(this.volume)))) {
+                return;
+            }
+        }
+    }
+
+    public double getVolume() {
+        return volume;
+    }
+
+    // ------------------------------------------------------- Protected methods
+
+    /**
+     * Rewinds and starts the already open clip. If the line has been closed
+     * underneath us (see https://github.com/stefanofornari/falco/issues/6), it
+     * is reopened from the cached PCM, without going back to the classpath.
+     */
+    protected void play() {
+        play(false);
+    }
+
+    /**
+     * @param muted true to go through the playback path without making any
+     *        sound (see warmup())
+     */
+    protected void play(boolean muted) {
+        final SoundAsset a = (output != null) ? asset : playing;
+        if (a == null) {
+            return;  // shut down in the meantime
+        }
+        if (output != null) {
+            if (!output.isOpen()) {
+                if (LOG.isLoggable(Level.FINE)) {
+                    LOG.fine("output closed while dormant, not playing");
+                }
+                return;
+            }
+            if (muted) {
+                output.play(silence, 0f, VOICE_PRIORITY);
+                return;
+            }
+            if (LOG.isLoggable(Level.FINEST)) {
+                LOG.finest("playing " + sound);
+            }
+            output.play(a, 1f, VOICE_PRIORITY);
+            return;
+        }
+
+        final Clip c = clip;
+        if ((c == null) || (muted && !warming)) {
+            return;  // a warm-up trigger left over after the warm-up
+        }
+        if (!c.isOpen()) {
+            try {
+                c.open(a.stream());
+            } catch (Exception x) {
+                if (LOG.isLoggable(Level.SEVERE)) {
+                    LOG.throwing(SoundMotionDetector.class.getName(), "play", x);
+                }
+                failed(x);
+                return;
+            }
+            if (clip != c) {
+                c.close();  // shutdown() closed it while reopening: do not leak it
+                return;
+            }
+        }
+        c.setFramePosition(0);
+        if (!muted) {
+            c.start();
+            return;
+        }
+        if (gain == null) {
+            c.setFramePosition(c.getFrameLength());  // nothing to mute it with
+        }
+        c.start();
+        if (!warming) {
+            //
+            // a warm-up trigger left over after a warm-up that timed out,
+            // whose end unmuted the clip in the meantime
+            //
+            c.stop(); c.setFramePosition(0);
+        }
+    }
+
+    /**
+     * Reopens the clip after a failure, in place and from the loaded sound;
+     * if the clip can not be opened again, a new one is taken from the mixer.
+     * It does nothing if the clip is open, or if the detector has been shut
+     * down or is dormant in the meantime.
+     *
+     * @throws Exception if no clip can be opened
+     */
+    protected void recoverAudio() throws Exception {
+        final Clip c = clip;
+        final SoundAsset a = playing, cached = asset;
+        if ((c == null) || (a == null) || (cached == null) || dormant || c.isOpen()) {
+            return;
+        }
+        Clip recovered = c;
+        try {
+            c.open(a.stream());
+        } catch (IllegalStateException x) {
+            return;  // reopened by play() in the meantime
+        } catch (Exception x) {
+            //
+            // the line is gone for good, get a new one
+            //
+            recovered = SoundUtils.getClip(mixer, a.format);
+            recovered.addLineListener(clipListener);
+            recovered.open(load(recovered, cached).stream());
+            if (!CLIP.compareAndSet(this, c, recovered)) {
+                recovered.close();  // shutdown() in the meantime: do not leak it
+                return;
+            }
+        }
+        if (clip != recovered) {
+            recovered.close();  // shutdown() in the meantime: do not leak it
+            return;
+        }
+        recovered.setFramePosition(0);
+    }
+
+    /**
+     * @return true if now is within the hours a motion makes a sound, false
+     *         during muted hours
+     */
+    protected boolean isActiveTime() {
+        final Clock clock = CLOCK;
+        return policy.isActive(clock.millis(), clock.getZone(), TriggerSource.GPIO);
+    }
+
+    /**
+     * Appends an event to the journal, if any
+     *
+     * @param millis the time of the event (epoch millis), the one the policy
+     *        decided about the motion with
+     */
+    protected void record(long millis, byte type, byte detail, int source) {
+        final EventJournal j = journal;
+        if (j != null) {
+            j.append(millis, journalKey, type, detail, source);
+        }
     }
 
     // --------------------------------------------------------- Private methods
 
-    private boolean shallPlay() {
-        LocalDateTime now = LocalDateTime.now(CLOCK);
-        int hour = now.getHour();
+    /**
+     * Records start and end to end latencies of the play in progress, if any;
+     * to be called when the sound actually starts.
+     */
+    private void started(long nanos) {
+        final long play = playNanos;
+        if (play != 0) {
+            playNanos = 0;
+            startLatency.record(nanos - play);
+            triggerLatency.record(nanos - triggerNanos);
+        }
+    }
+
+    /**
+     * Reports a failure of the clip to the supervisor, if any
+     */
+    private void failed(final Throwable cause) {
+        final Supervisor s = supervisor;
+        if (s != null) {
+            s.failed(Supervisor.AUDIO, audio, cause);
+        }
+    }
 
-        if ((hour < 20) && (hour > 7)) {
-            return now.minusMinutes(10).isAfter(lastMoved);
+    /**
+     * Picks how the volume applies to the given clip: through its MASTER_GAIN
+     * control, set to the volume, if it has one; in software otherwise.
+     *
+     * @return what the clip shall be loaded with: the given sound, or a copy
+     *         of it scaled by the volume
+     */
+    private SoundAsset load(final Clip c, final SoundAsset a) {
+        final FloatControl g = c.isControlSupported(FloatControl.Type.MASTER_GAIN)
+                             ? (FloatControl)c.getControl(FloatControl.Type.MASTER_GAIN)
+                             : null;
+        if (g != null) {
+            gain(g);
         }
+        gain = g;
+        return playing = (g != null) ? a : SoundConverter.scale(a, Gain.of(volume));
+    }
+
+    /**
+     * Sets the given gain control to the volume, within the range of the
+     * control; if the volume changes in the meantime, it is set again, so
+     * that of concurrent changes the last one wins.
+     */
+    private void gain(final FloatControl g) {
+        double v;
+        do {
+            v = volume;
+            g.setValue(Math.max(g.getMinimum(), Math.min(g.getMaximum(), (float)(20d * Math.log10(v)))));
+        } while (v != volume);
+    }
+
+    private boolean hasLine() {
+        return (clip != null) || ((output != null) && (asset != null) && (output.isOpen() || dormant));
+    }
 
-        return false;
+    /**
+     * Goes through the decision about a motion without claiming the play, so
+     * that a warm-up loads and compiles the same policy code a real motion
+     * runs; the decision itself does not matter.
+     */
+    private void rehearse() {
+        final Clock clock = CLOCK;
+        policy.muted(played, clock.millis(), clock.getZone(), TriggerSource.GPIO);
+    }
+
+    /**
+     * Decides about a motion at the given time and, if it shall play, claims
+     * the play updating the cooldown state; of concurrent motions only one
+     * wins the claim, the others are muted by its cooldown.
+     *
+     * @return the cooldown state after the play if the motion at the given
+     *         time won it, minus the reason why it is muted otherwise
+     *         (EventJournal.NIGHT or EventJournal.COOLDOWN)
+     */
+    private long claim(long millis, int source) {
+        final PlayPolicy p = policy;
+        final ZoneId zone = CLOCK.getZone();
+        for (;;) {
+            final long state = played;
+            final byte muted = p.muted(state, millis, zone, source);
+            if (muted != 0) {
+                return -muted;
+            }
+            final long next = p.played(state, millis, source);
+            if (PLAYED.compareAndSet(this, state, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * Restores the time and the cooldown tier of the last play from the
+     * journal, if any, so that the cooldown survives a recycle
+     */
+    private void restore() {
+        final EventJournal j = journal;
+        if ((j == null) || !j.isOpen()) {
+            return;
+        }
+        final long last = j.getLastPlayed(journalKey);
+        if (last > 0) {
+            final int tier = j.getTier(journalKey);
+            setLastPlayed(last, tier);
+            if (LOG.isLoggable(Level.INFO)) {
+                LOG.info("last played at " + Instant.ofEpochMilli(last).atZone(CLOCK.getZone()) + ", cooldown tier " + tier + " (from the journal)");
+            }
+        }
     }
 
     private void printControl(Control control, String indent) {
@@ -159,11 +885,48 @@ public class SoundMotionDetector implements AutoCloseable {
         // TODOD: maybe close the clip?
     }
 
+    // ---------------------------------------------------- MotionTriggerHandler
+    private class MotionTriggerHandler implements TriggerRing.Handler {
+
+        @Override
+        public void handle(long stamp, int source) {
+            dispatchLatency.record(System.nanoTime() - stamp);
+            if (LOG.isLoggable(Level.FINEST)) {
+                LOG.finest("trigger from " + TriggerSource.name(source));
+            }
+            moved(stamp, source);
+        }
+    }
+
+    // ----------------------------------------------------- MotionOutputListener
+    private class MotionOutputListener implements AudioOutput.Listener {
+
+        @Override
+        public void started(SoundAsset sound, long nanos) {
+            if (sound == asset) {
+                SoundMotionDetector.this.started(nanos);
+            }
+        }
+    }
+
+    // ---------------------------------------------------------- AudioComponent
+    private class AudioComponent implements Supervisor.Component {
+
+        @Override
+        public void recover() throws Exception {
+            recoverAudio();
+        }
+    }
+
     // ------------------------------------------------------ LoggingClipListern
     private class MotionClipListener implements LineListener {
 
         @Override
         public void update(LineEvent e) {
+            if (e.getType() == LineEvent.Type.START) {
+                started(System.nanoTime());
+            }
+
             if (LOG.isLoggable(Level.FINEST)) {
                 if (e.getType() == LineEvent.Type.START) {
                     LOG.finest("playing " + sound);
@@ -172,19 +935,19 @@ public class SoundMotionDetector implements AutoCloseable {
                 }
             }
 
+            //
+            // Keep the line open and just rewind it, ready for the next play
+            //
             if (e.getType() == LineEvent.Type.STOP) {
-                clip.close();
-                try {
-                    clip.open(
-                            AudioSystem.getAudioInputStream(
-                                    new ByteArrayInputStream(IOUtils.resourceToByteArray(sound))
-                            )
-                    );
-                } catch (Exception x) {
-                    if (LOG.isLoggable(Level.SEVERE)) {
-                        LOG.throwing(MotionClipListener.class.getName(), "playing sound", x);
-                    }
-                }
+                ((Clip)e.getLine()).setFramePosition(0);
+            }
+
+            //
+            // closed, but not by shutdown() (which takes the clip out first)
+            // nor by sleep()
+            //
+            if ((e.getType() == LineEvent.Type.CLOSE) && (e.getLine() == clip) && !dormant) {
+                failed(null);
             }
         }
 
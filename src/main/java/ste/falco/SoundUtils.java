@@ -15,18 +15,51 @@
  */
 package ste.falco;
 
+import java.nio.ByteOrder;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.Clip;
 import javax.sound.sampled.DataLine;
+import javax.sound.sampled.Line;
 import javax.sound.sampled.LineUnavailableException;
 import javax.sound.sampled.Mixer;
+import javax.sound.sampled.SourceDataLine;
+import ste.falco.sound.MemoryMixer;
 
 /**
  *
  */
 public class SoundUtils {
-    
+
+    /**
+     * System property selecting the audio device: <code>memory</code> for the
+     * in-memory headless device (see MemoryMixer), anything else or nothing
+     * for the system default mixer
+     */
+    public static final String PROPERTY_AUDIO = "ste.falco.audio";
+    public static final String AUDIO_MEMORY = "memory";
+
+    /**
+     * Sample rate and channels to use when the device does not tell (e.g.
+     * ALSA plug devices); the rate can be set with the system property
+     * ste.falco.audio.rate
+     */
+    public static final float DEFAULT_SAMPLE_RATE = 44100f;
+    public static final int DEFAULT_CHANNELS = 2;
+
+    private static final ConcurrentHashMap<Mixer.Info, AudioFormat> NATIVE_FORMATS = new ConcurrentHashMap<>();
+
+    /**
+     * @return the mixer selected by the system property ste.falco.audio
+     */
+    public static Mixer getMixer() {
+        if (AUDIO_MEMORY.equals(System.getProperty(PROPERTY_AUDIO))) {
+            return AudioSystem.getMixer(MemoryMixer.INFO);
+        }
+        return AudioSystem.getMixer(null);
+    }
+
     public static  Clip getClip(Mixer mixer) throws LineUnavailableException {
         AudioFormat format = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED,
                                              AudioSystem.NOT_SPECIFIED,
@@ -35,5 +68,82 @@ public class SoundUtils {
         DataLine.Info info = new DataLine.Info(Clip.class, format);
         return (Clip)mixer.getLine(info);
     }
-    
+
+    /**
+     * @param mixer the mixer to get the clip from - NOT NULL
+     * @param format the format the clip will be opened in - NOT NULL
+     */
+    public static Clip getClip(Mixer mixer, AudioFormat format) throws LineUnavailableException {
+        return (Clip)mixer.getLine(new DataLine.Info(Clip.class, format));
+    }
+
+    /**
+     * Returns the format sounds shall be in to be played by the given mixer
+     * without any conversion: among the PCM formats its output lines support,
+     * 16 bits signed in the byte order of the platform and stereo are
+     * preferred; what the device does not specify is taken from
+     * DEFAULT_SAMPLE_RATE (or ste.falco.audio.rate) and DEFAULT_CHANNELS.
+     * The device is probed only the first time, the result is reused.
+     *
+     * @param mixer the mixer - NOT NULL
+     *
+     * @return the native format of the mixer, fully specified
+     */
+    public static AudioFormat getNativeFormat(Mixer mixer) {
+        AudioFormat format = NATIVE_FORMATS.get(mixer.getMixerInfo());
+        if (format == null) {
+            format = probe(mixer);
+            NATIVE_FORMATS.put(mixer.getMixerInfo(), format);
+        }
+        return format;
+    }
+
+    public static SourceDataLine getSourceDataLine(Mixer mixer, AudioFormat format)
+    throws LineUnavailableException {
+        DataLine.Info info = new DataLine.Info(SourceDataLine.class, format);
+        return (SourceDataLine)mixer.getLine(info);
+    }
+
+    // --------------------------------------------------------- Private methods
+
+    private static AudioFormat probe(Mixer mixer) {
+        final boolean bigEndian = ByteOrder.nativeOrder().equals(ByteOrder.BIG_ENDIAN);
+
+        AudioFormat best = null;
+        int bestScore = -1;
+        for (Line.Info info: mixer.getSourceLineInfo()) {
+            if (!(info instanceof DataLine.Info)
+            ||  !SourceDataLine.class.isAssignableFrom(info.getLineClass())
+            &&  !Clip.class.isAssignableFrom(info.getLineClass())) {
+                continue;
+            }
+            for (AudioFormat f: ((DataLine.Info)info).getFormats()) {
+                final boolean signed = AudioFormat.Encoding.PCM_SIGNED.equals(f.getEncoding());
+                if (!signed && !AudioFormat.Encoding.PCM_UNSIGNED.equals(f.getEncoding())) {
+                    continue;
+                }
+                final int bits = f.getSampleSizeInBits();
+                final int score = ((signed && ((bits == 16) || (bits == AudioSystem.NOT_SPECIFIED))) ? 4 : 0)
+                                + ((f.isBigEndian() == bigEndian) ? 2 : 0)
+                                + ((f.getChannels() == DEFAULT_CHANNELS) ? 1 : 0);
+                if (score > bestScore) {
+                    best = f; bestScore = score;
+                }
+            }
+        }
+
+        final float rate = ((best != null) && (best.getSampleRate() > 0))
+                         ? best.getSampleRate()
+                         : Float.parseFloat(System.getProperty("ste.falco.audio.rate", String.valueOf(DEFAULT_SAMPLE_RATE)));
+        final int bits = ((best != null) && (best.getSampleSizeInBits() > 0))
+                       ? best.getSampleSizeInBits() : 16;
+        final int channels = ((best != null) && (best.getChannels() > 0))
+                           ? best.getChannels() : DEFAULT_CHANNELS;
+
+        return new AudioFormat(
+            (best != null) ? best.getEncoding() : AudioFormat.Encoding.PCM_SIGNED,
+            rate, bits, channels, channels * ((bits + 7) / 8), rate,
+            (best != null) ? best.isBigEndian() : bigEndian
+        );
+    }
 }
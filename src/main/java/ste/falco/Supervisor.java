@@ -0,0 +1,339 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Recovers failed components in place: the component that detects a failure
+ * (e.g. an audio line closed underneath, a dead GPIO pin, a heartbeat that
+ * can not play) reports it with failed() and the supervisor thread, blocked
+ * until then, calls its recover() - only the failed component is restarted,
+ * with the sounds already loaded, nothing else is torn down. A recovery that
+ * fails is retried backing off from retry to maxRetry; after the given number
+ * of attempts the failure is escalated (e.g. to a full recycle).
+ *
+ * The time from the failure to the component being recovered is recorded
+ * per kind of component in recoveryTimes.
+ */
+public class Supervisor {
+
+    public static final int AUDIO = 0;
+    public static final int GPIO = 1;
+    public static final int HEARTBEAT = 2;
+
+    private static final String[] NAMES = { "audio", "gpio", "heartbeat" };
+
+    public static final long DEFAULT_RETRY = 1000;              // milliseconds
+    public static final long DEFAULT_MAX_RETRY = 60 * 1000;     // milliseconds
+    public static final int DEFAULT_ATTEMPTS = 5;
+
+    protected final Logger LOG = Logger.getLogger("ste.falco");
+
+    public final String name;
+
+    /**
+     * time from the failure to the recovery, per kind of component
+     */
+    public final LatencyHistogram[] recoveryTimes = new LatencyHistogram[NAMES.length];
+
+    private final DelayQueue<Failure> failures = new DelayQueue<>();
+    private final Set<Component> pending = Collections.newSetFromMap(new ConcurrentHashMap<Component, Boolean>());
+    private final AtomicLongArray failed = new AtomicLongArray(NAMES.length);
+    private final AtomicLongArray recovered = new AtomicLongArray(NAMES.length);
+    private final AtomicLong escalations = new AtomicLong();
+    private final String[] lastFailure = new String[NAMES.length];
+
+    private volatile Thread supervisor;
+    private volatile Runnable escalation;
+    private long retryNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_RETRY);
+    private long maxRetryNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_RETRY);
+    private int attempts = DEFAULT_ATTEMPTS;
+
+    public Supervisor(final String name) {
+        this.name = name;
+        for (int i=0; i<NAMES.length; ++i) {
+            recoveryTimes[i] = new LatencyHistogram(NAMES[i]);
+        }
+    }
+
+    /**
+     * Sets how failed recoveries are retried; changes take effect from the
+     * next failure.
+     *
+     * @param retry how long (in milliseconds) to wait before retrying a
+     *        failed recovery the first time
+     * @param maxRetry the longest wait (in milliseconds); it doubles from
+     *        retry at each failed attempt
+     * @param attempts how many recoveries are attempted before escalating
+     *
+     * @throws IllegalArgumentException if retry or attempts are not positive
+     *         or maxRetry is less than retry
+     */
+    public void setRetry(long retry, long maxRetry, int attempts) {
+        if (retry <= 0) {
+            throw new IllegalArgumentException("retry must be greater than 0");
+        }
+        if (maxRetry < retry) {
+            throw new IllegalArgumentException("maxRetry can not be less than retry");
+        }
+        if (attempts <= 0) {
+            throw new IllegalArgumentException("attempts must be greater than 0");
+        }
+        this.retryNanos = TimeUnit.MILLISECONDS.toNanos(retry);
+        this.maxRetryNanos = TimeUnit.MILLISECONDS.toNanos(maxRetry);
+        this.attempts = attempts;
+    }
+
+    /**
+     * @param escalation what to do when a component can not be recovered,
+     *        run on the supervisor thread; null to just give up on it
+     */
+    public void setEscalation(final Runnable escalation) {
+        this.escalation = escalation;
+    }
+
+    /**
+     * Starts the supervisor thread; it does nothing if already started.
+     */
+    public synchronized void start() {
+        if (supervisor != null) {
+            return;
+        }
+        supervisor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                supervise();
+            }
+        }, name);
+        supervisor.setDaemon(true);
+        supervisor.start();
+    }
+
+    /**
+     * Stops the supervisor thread discarding the pending recoveries (a
+     * recovery in progress is interrupted); it does nothing if not started.
+     */
+    public synchronized void stop() {
+        final Thread t = supervisor;
+        if (t == null) {
+            return;
+        }
+        supervisor = null;
+        t.interrupt();
+        if (t != Thread.currentThread()) {
+            try {
+                t.join(1000);
+            } catch (InterruptedException x) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        failures.clear(); pending.clear();
+    }
+
+    public boolean isRunning() {
+        return supervisor != null;
+    }
+
+    /**
+     * Reports the failure of a component, to be recovered as soon as
+     * possible. A component already waiting for its recovery (or being
+     * recovered) is not queued again. It never blocks.
+     *
+     * @param kind the kind of component (AUDIO, GPIO or HEARTBEAT)
+     * @param component the failed component - NOT NULL
+     * @param cause what went wrong - MAY BE NULL
+     *
+     * @return true if the recovery has been queued, false if the component
+     *         is already being recovered or the supervisor is not running
+     */
+    public boolean failed(int kind, final Component component, final Throwable cause) {
+        if ((kind < 0) || (kind >= NAMES.length)) {
+            throw new IllegalArgumentException("invalid kind of component " + kind);
+        }
+        if (component == null) {
+            throw new IllegalArgumentException("component can not be null");
+        }
+        if ((supervisor == null) || !pending.add(component)) {
+            return false;
+        }
+        failed.incrementAndGet(kind);
+        lastFailure[kind] = (cause == null) ? "failed" : String.valueOf(cause);
+        if (LOG.isLoggable(Level.WARNING)) {
+            LOG.log(Level.WARNING, NAMES[kind] + " failed, recovering", cause);
+        }
+        final long now = System.nanoTime();
+        failures.offer(new Failure(kind, component, now, now));
+        return true;
+    }
+
+    /**
+     * @return how many failures of the given kind of component have been
+     *         reported
+     */
+    public long getFailures(int kind) {
+        return failed.get(kind);
+    }
+
+    /**
+     * @return how many components of the given kind have been recovered
+     */
+    public long getRecoveries(int kind) {
+        return recovered.get(kind);
+    }
+
+    /**
+     * @return how many failures could not be recovered and were escalated
+     */
+    public long getEscalations() {
+        return escalations.get();
+    }
+
+    /**
+     * @return the number of components waiting for (or in) recovery
+     */
+    public int getPending() {
+        return pending.size();
+    }
+
+    /**
+     * @return the last failure of the given kind of component, null if none
+     */
+    public String getLastFailure(int kind) {
+        return lastFailure[kind];
+    }
+
+    public static String name(int kind) {
+        return NAMES[kind];
+    }
+
+    // --------------------------------------------------------- Private methods
+
+    private void supervise() {
+        final Thread self = Thread.currentThread();
+        while (supervisor == self) {
+            final Failure f;
+            try {
+                f = failures.take();
+            } catch (InterruptedException x) {
+                continue;  // stopped
+            }
+            recover(f);
+        }
+    }
+
+    private void recover(final Failure f) {
+        try {
+            f.component.recover();
+        } catch (Exception x) {
+            if (supervisor != Thread.currentThread()) {
+                return;  // stopped while recovering
+            }
+            final int attempt = f.attempt + 1;
+            if (attempt < attempts) {
+                final long backoff = (f.attempt < 30)
+                                   ? Math.min(retryNanos << f.attempt, maxRetryNanos)
+                                   : maxRetryNanos;
+                if (LOG.isLoggable(Level.WARNING)) {
+                    LOG.log(
+                        Level.WARNING,
+                        "unable to recover " + NAMES[f.kind] + ", trying again in "
+                        + TimeUnit.NANOSECONDS.toMillis(backoff) + "ms", x
+                    );
+                }
+                lastFailure[f.kind] = String.valueOf(x);
+                failures.offer(new Failure(f.kind, f.component, f.since, System.nanoTime() + backoff, attempt));
+                return;
+            }
+
+            pending.remove(f.component);
+            escalations.incrementAndGet();
+            if (LOG.isLoggable(Level.SEVERE)) {
+                LOG.log(Level.SEVERE, "unable to recover " + NAMES[f.kind] + " after " + attempt + " attempts", x);
+            }
+            final Runnable e = escalation;
+            if (e != null) {
+                e.run();
+            }
+            return;
+        }
+
+        pending.remove(f.component);
+        recoveryTimes[f.kind].record(System.nanoTime() - f.since);
+        recovered.incrementAndGet(f.kind);
+        if (LOG.isLoggable(Level.INFO)) {
+            LOG.info(
+                NAMES[f.kind] + " recovered in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - f.since) + "ms"
+            );
+        }
+    }
+
+    // --------------------------------------------------------------- Component
+
+    public static interface Component {
+        /**
+         * Restarts the component in place, reusing what is already loaded.
+         * Called on the supervisor thread; it shall do nothing if the
+         * component has been shut down or recovered in the meantime.
+         *
+         * @throws Exception if the component can not be recovered (yet)
+         */
+        public void recover() throws Exception;
+    }
+
+    // ----------------------------------------------------------------- Failure
+
+    private static final class Failure implements Delayed {
+        final int kind;
+        final Component component;
+        final long since;     // when the failure was reported (System.nanoTime())
+        final long due;       // when to attempt the recovery (System.nanoTime())
+        final int attempt;
+
+        Failure(int kind, final Component component, long since, long due) {
+            this(kind, component, since, due, 0);
+        }
+
+        Failure(int kind, final Component component, long since, long due, int attempt) {
+            this.kind = kind;
+            this.component = component;
+            this.since = since;
+            this.due = due;
+            this.attempt = attempt;
+        }
+
+        @Override
+        public long getDelay(final TimeUnit unit) {
+            return unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(final Delayed o) {
+            final long d = due - ((Failure)o).due;
+            return (d < 0) ? -1 : ((d > 0) ? 1 : 0);
+        }
+    }
+}
@@ -0,0 +1,427 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Hands triggers over from any thread (the Pi4J listener, JMX, ...) to a
+ * single dispatcher thread through a TriggerRing. Publishing never blocks
+ * and never allocates.
+ *
+ * Admission is bounded: each source (per zone) can be rate limited with a
+ * token bucket, so that an oscillating PIR or a looping JMX client can not
+ * flood the dispatcher; when the ring is full the overflow policy decides
+ * whether the new trigger is dropped (DROP_NEWEST) or makes room evicting the
+ * oldest one (DROP_OLDEST). With COALESCE a source has at most one trigger
+ * pending: more triggers from it before it is dispatched are merged into the
+ * pending one. Warm-up triggers are never limited, coalesced nor evicted
+ * (if the oldest one is a warm-up, the new trigger is dropped instead). Every
+ * outcome is counted.
+ */
+public class TriggerDispatcher implements TriggerRing.Handler {
+
+    public static final int DEFAULT_CAPACITY = 64;
+
+    public static final int DROP_NEWEST = 0;
+    public static final int DROP_OLDEST = 1;
+    public static final int COALESCE = 2;
+
+    private static final String[] OVERFLOWS = { "drop-newest", "drop-oldest", "coalesce" };
+
+    /**
+     * Lanes for coalescing and rate limits: a lane per source of each of
+     * TriggerSource.MAX_ZONES zones
+     */
+    private static final int LANES = TriggerSource.MAX_ZONES << 2;
+    private static final int SOURCES = 1 << 8;
+
+    /**
+     * What DROP_OLDEST can evict: anything but warm-ups, which must reach the
+     * detector to leave the audio path ready
+     */
+    private static final TriggerRing.Filter EVICTABLE = new TriggerRing.Filter() {
+        @Override
+        public boolean accept(long stamp, int source) {
+            return TriggerSource.source(source) != TriggerSource.WARMUP;
+        }
+    };
+
+    protected final Logger LOG = Logger.getLogger("ste.falco");
+
+    public final String name;
+
+    private final TriggerRing ring;
+    private final TriggerRing.Handler handler;
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong limited = new AtomicLong();
+    private final AtomicLong dispatched = new AtomicLong();
+
+    private volatile int overflow = DROP_NEWEST;
+    private final AtomicIntegerArray pending = new AtomicIntegerArray(LANES);  // 1 if a trigger is pending (COALESCE)
+    private final AtomicLongArray arrivals = new AtomicLongArray(LANES);      // theoretical arrival times (nanos)
+    private final AtomicLongArray intervals = new AtomicLongArray(SOURCES);   // nanos between tokens, 0 if unlimited
+    private final AtomicLongArray tolerances = new AtomicLongArray(SOURCES);  // burst allowance (nanos)
+
+    private volatile Thread consumer;
+
+    public TriggerDispatcher(final String name, final TriggerRing.Handler handler) {
+        this(name, handler, DEFAULT_CAPACITY);
+    }
+
+    public TriggerDispatcher(final String name, final TriggerRing.Handler handler, int capacity) {
+        if (handler == null) {
+            throw new IllegalArgumentException("handler can not be null");
+        }
+        this.name = name;
+        this.handler = handler;
+        this.ring = new TriggerRing(capacity);
+    }
+
+    /**
+     * Starts the dispatcher thread; it does nothing if already started.
+     */
+    public synchronized void start() {
+        if (consumer != null) {
+            return;
+        }
+        consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        }, name);
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    /**
+     * Stops the dispatcher thread discarding any pending trigger; it does
+     * nothing if not started.
+     */
+    public synchronized void stop() {
+        Thread t = consumer;
+        if (t == null) {
+            return;
+        }
+        consumer = null;
+        LockSupport.unpark(t);
+        if (t != Thread.currentThread()) {
+            try {
+                t.join(1000);
+            } catch (InterruptedException x) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        while (ring.poll(null));
+        clearPending();
+    }
+
+    public boolean isRunning() {
+        return consumer != null;
+    }
+
+    /**
+     * Queues a trigger for the dispatcher thread, if admitted.
+     *
+     * @param stamp the time of the trigger (System.nanoTime())
+     * @param source the source of the trigger
+     *
+     * @return true if the trigger was queued or coalesced into a pending one,
+     *         false if it was rate limited or dropped
+     */
+    public boolean publish(long stamp, int source) {
+        published.incrementAndGet();
+
+        final int lane = lane(source);
+        final boolean warmup = (TriggerSource.source(source) == TriggerSource.WARMUP);
+        final int policy = overflow;
+
+        if (!warmup) {
+            if (!admit(lane, TriggerSource.source(source), stamp)) {
+                limited.incrementAndGet();
+                return false;
+            }
+            if ((policy == COALESCE) && !pending.compareAndSet(lane, 0, 1)) {
+                coalesced.incrementAndGet();
+                return true;
+            }
+        }
+
+        boolean queued = ring.offer(stamp, source);
+        if (!queued && (policy == DROP_OLDEST)) {
+            while (!queued && ring.poll(null, EVICTABLE)) {
+                evicted.incrementAndGet();
+                queued = ring.offer(stamp, source);
+            }
+        }
+        if (!queued) {
+            if ((policy == COALESCE) && !warmup) {
+                pending.set(lane, 0);
+            }
+            dropped.incrementAndGet();
+            return false;
+        }
+
+        admitted.incrementAndGet();
+        LockSupport.unpark(consumer);
+        return true;
+    }
+
+    /**
+     * @param overflow what to do when the ring is full: DROP_NEWEST,
+     *        DROP_OLDEST or COALESCE
+     */
+    public void setOverflow(int overflow) {
+        if ((overflow < 0) || (overflow >= OVERFLOWS.length)) {
+            throw new IllegalArgumentException("invalid overflow policy " + overflow);
+        }
+        this.overflow = overflow;
+        clearPending();
+    }
+
+    public int getOverflow() {
+        return overflow;
+    }
+
+    /**
+     * Limits the triggers of the given source (in each zone) to the given
+     * rate, allowing bursts of up to burst triggers.
+     *
+     * @param source the source (e.g. TriggerSource.GPIO), without zone
+     * @param rate the triggers per second; 0 for no limit
+     * @param burst how many triggers can be admitted at once (at least 1)
+     */
+    public void setRateLimit(int source, double rate, int burst) {
+        if ((source < 0) || (source >= SOURCES)) {
+            throw new IllegalArgumentException("invalid source " + source);
+        }
+        if (!(rate >= 0) || Double.isInfinite(rate)) {
+            throw new IllegalArgumentException("rate can not be negative");
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("burst must be greater than 0");
+        }
+        final long interval = (rate == 0) ? 0 : Math.max(1, (long)(1e9 / rate));
+        tolerances.set(source, (burst - 1) * interval);
+        intervals.set(source, interval);
+    }
+
+    /**
+     * @return the rate limit (triggers per second) of the given source, 0 if
+     *         unlimited
+     */
+    public double getRateLimit(int source) {
+        final long interval = intervals.get(source);
+        return (interval == 0) ? 0 : 1e9 / interval;
+    }
+
+    /**
+     * @return the burst allowed to the given source
+     */
+    public int getBurst(int source) {
+        final long interval = intervals.get(source);
+        return (interval == 0) ? 1 : (int)(tolerances.get(source) / interval) + 1;
+    }
+
+    /**
+     * @param name the name of an overflow policy (drop-newest, drop-oldest or
+     *        coalesce)
+     *
+     * @return the overflow policy with the given name
+     *
+     * @throws IllegalArgumentException if there is no such policy
+     */
+    public static int parseOverflow(final String name) {
+        for (int i=0; i<OVERFLOWS.length; ++i) {
+            if (OVERFLOWS[i].equals(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("unknown overflow policy '" + name + "'");
+    }
+
+    public static String overflowName(int overflow) {
+        return OVERFLOWS[overflow];
+    }
+
+    public int getQueueDepth() {
+        return ring.size();
+    }
+
+    public int getCapacity() {
+        return ring.capacity;
+    }
+
+    public long getPublished() {
+        return published.get();
+    }
+
+    /**
+     * @return the triggers queued
+     */
+    public long getAdmitted() {
+        return admitted.get();
+    }
+
+    /**
+     * @return the triggers dropped because the ring was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the pending triggers evicted to make room for new ones
+     */
+    public long getEvicted() {
+        return evicted.get();
+    }
+
+    /**
+     * @return the triggers merged into a pending one of the same source
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return the triggers refused by the rate limit of their source
+     */
+    public long getLimited() {
+        return limited.get();
+    }
+
+    public long getDispatched() {
+        return dispatched.get();
+    }
+
+    // ----------------------------------------------------- TriggerRing.Handler
+
+    @Override
+    public void handle(long stamp, int source) {
+        dispatched.incrementAndGet();
+        if (pending.get(lane(source)) != 0) {
+            pending.set(lane(source), 0);  // from now on a new trigger is queued again
+        }
+        try {
+            handler.handle(stamp, source);
+        } catch (Throwable t) {
+            if (LOG.isLoggable(Level.SEVERE)) {
+                LOG.log(Level.SEVERE, "error dispatching a trigger from " + TriggerSource.name(source), t);
+            }
+        }
+    }
+
+    // --------------------------------------------------------- Private methods
+
+    /**
+     * Generic cell rate algorithm: a token bucket kept in a single long per
+     * lane, the time the next trigger would be admitted at the given rate
+     */
+    private boolean admit(int lane, int source, long now) {
+        final long interval = intervals.get(source);
+        if (interval == 0) {
+            return true;
+        }
+        final long tolerance = tolerances.get(source);
+        for (;;) {
+            final long arrival = arrivals.get(lane);
+            final long start = ((arrival == 0) || (arrival - now < 0)) ? now : arrival;
+            if (start - now > tolerance) {
+                return false;
+            }
+            if (arrivals.compareAndSet(lane, arrival, start + interval)) {
+                return true;
+            }
+        }
+    }
+
+    private static int lane(int source) {
+        return ((TriggerSource.zone(source) << 2) | (TriggerSource.source(source) & 3)) & (LANES - 1);
+    }
+
+    private void clearPending() {
+        for (int i=0; i<LANES; ++i) {
+            pending.set(i, 0);
+        }
+    }
+
+    private void dispatch() {
+        final Thread self = Thread.currentThread();
+        while (consumer == self) {
+            if (!ring.poll(this)) {
+                LockSupport.park(this);
+            }
+        }
+    }
+
+    // --------------------------------------------------------------- RateLimit
+
+    /**
+     * A rate limit for a source, given as source=RATE[/BURST] (e.g. gpio=5/10,
+     * RATE in triggers per second, BURST 1 by default)
+     */
+    public static class RateLimit {
+        public final int source;
+        public final double rate;
+        public final int burst;
+
+        public RateLimit(int source, double rate, int burst) {
+            if (!(rate >= 0) || Double.isInfinite(rate)) {
+                throw new IllegalArgumentException("rate can not be negative");
+            }
+            if (burst < 1) {
+                throw new IllegalArgumentException("burst must be greater than 0");
+            }
+            this.source = source;
+            this.rate = rate;
+            this.burst = burst;
+        }
+
+        public static RateLimit parse(final String spec) {
+            if (StringUtils.isBlank(spec) || !spec.contains("=")) {
+                throw new IllegalArgumentException("invalid rate limit '" + spec + "', expected SOURCE=RATE[/BURST]");
+            }
+            final String rate = StringUtils.substringAfter(spec, "=").trim();
+            try {
+                return new RateLimit(
+                    TriggerSource.parse(StringUtils.substringBefore(spec, "=").trim()),
+                    Double.parseDouble(StringUtils.substringBefore(rate, "/").trim()),
+                    rate.contains("/") ? Integer.parseInt(StringUtils.substringAfter(rate, "/").trim()) : 1
+                );
+            } catch (NumberFormatException x) {
+                throw new IllegalArgumentException("invalid rate limit '" + spec + "', expected SOURCE=RATE[/BURST]");
+            }
+        }
+
+        @Override
+        public String toString() {
+            return TriggerSource.name(source) + '=' + rate + '/' + burst;
+        }
+    }
+}
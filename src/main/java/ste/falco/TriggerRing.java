@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free queue of triggers, each made of a timestamp and an int
+ * source. It is an array based queue where every slot carries a sequence
+ * number telling producers and consumers whose turn it is (D. Vyukov's bounded
+ * MPMC queue); entries are stored in primitive arrays allocated once, so
+ * neither offer() nor poll() allocate.
+ *
+ * Any number of threads can offer and poll concurrently.
+ */
+public class TriggerRing {
+
+    public final int capacity;
+
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final long[] stamps;
+    private final int[] sources;
+
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity the maximum number of pending triggers - it must be a
+     *        power of 2
+     */
+    public TriggerRing(int capacity) {
+        if ((capacity <= 0) || ((capacity & (capacity - 1)) != 0)) {
+            throw new IllegalArgumentException("capacity must be a power of 2 greater than 0");
+        }
+
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.sequences = new AtomicLongArray(capacity);
+        this.stamps = new long[capacity];
+        this.sources = new int[capacity];
+        for (int i=0; i<capacity; ++i) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Adds a trigger to the ring.
+     *
+     * @param stamp the time of the trigger (System.nanoTime())
+     * @param source the source of the trigger
+     *
+     * @return true if the trigger was added, false if the ring is full
+     */
+    public boolean offer(long stamp, int source) {
+        long pos = tail.get();
+        int i;
+        for (;;) {
+            i = (int)(pos & mask);
+            long diff = sequences.get(i) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+
+        stamps[i] = stamp; sources[i] = source;
+        sequences.lazySet(i, pos + 1);
+
+        return true;
+    }
+
+    /**
+     * Removes the oldest trigger and hands it over to the given handler.
+     *
+     * @param handler the handler to give the trigger to; if null the trigger
+     *        is just discarded
+     *
+     * @return true if a trigger was removed, false if the ring is empty
+     */
+    public boolean poll(Handler handler) {
+        return poll(handler, null);
+    }
+
+    /**
+     * Removes the oldest trigger, if the given filter accepts it, and hands
+     * it over to the given handler; a trigger not accepted stays where it is.
+     *
+     * @param handler the handler to give the trigger to; if null the trigger
+     *        is just discarded
+     * @param filter which triggers can be removed; if null any trigger
+     *
+     * @return true if a trigger was removed, false if the ring is empty or
+     *         the oldest trigger was not accepted
+     */
+    public boolean poll(Handler handler, Filter filter) {
+        long pos = head.get();
+        int i;
+        long stamp;
+        int source;
+        for (;;) {
+            i = (int)(pos & mask);
+            long diff = sequences.get(i) - (pos + 1);
+            if (diff == 0) {
+                //
+                // the slot can not be reused before we release it, so what
+                // we read now is what we get if we win the slot
+                //
+                stamp = stamps[i]; source = sources[i];
+                if ((filter != null) && !filter.accept(stamp, source)) {
+                    return false;
+                }
+                if (head.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = head.get();
+            }
+        }
+
+        sequences.lazySet(i, pos + capacity);
+
+        if (handler != null) {
+            handler.handle(stamp, source);
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the number of pending triggers; under concurrent access this is
+     *         only an estimate
+     */
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int)Math.max(0, Math.min(size, capacity));
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    // ----------------------------------------------------------------- Handler
+
+    public static interface Handler {
+        public void handle(long stamp, int source);
+    }
+
+    // ------------------------------------------------------------------ Filter
+
+    public static interface Filter {
+        public boolean accept(long stamp, int source);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+/**
+ * Where a trigger comes from. Sources are plain ints so that they can travel
+ * through a TriggerRing without allocations; when triggers of more zones go
+ * through the same ring (see ZoneRouter), the zone index is carried in the
+ * bits above the source.
+ */
+public final class TriggerSource {
+
+    public static final int GPIO = 0;
+    public static final int JMX  = 1;
+    public static final int WARMUP = 2;  // not a real motion, see SoundMotionDetector.warmup()
+
+    public static final int MAX_ZONES = 1 << 8;  // what TriggerDispatcher has lanes for
+
+    private static final int ZONE_SHIFT = 8;
+    private static final int SOURCE_MASK = (1 << ZONE_SHIFT) - 1;
+
+    private static final String[] NAMES = { "gpio", "jmx", "warmup" };
+
+    public static String name(int source) {
+        final int zone = zone(source);
+        source = source(source);
+
+        final String name = (source < NAMES.length) ? NAMES[source] : String.valueOf(source);
+        return (zone == 0) ? name : (name + '@' + zone);
+    }
+
+    /**
+     * @param name the name of a source (e.g. gpio)
+     *
+     * @return the source with the given name
+     *
+     * @throws IllegalArgumentException if there is no such source
+     */
+    public static int parse(final String name) {
+        for (int i=0; i<NAMES.length; ++i) {
+            if (NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("unknown source '" + name + "'");
+    }
+
+    /**
+     * @return the given source tagged with the given zone index
+     */
+    public static int of(int source, int zone) {
+        return (zone << ZONE_SHIFT) | source;
+    }
+
+    /**
+     * @return the source without the zone
+     */
+    public static int source(int source) {
+        return source & SOURCE_MASK;
+    }
+
+    /**
+     * @return the zone index the source is tagged with, 0 if none
+     */
+    public static int zone(int source) {
+        return source >>> ZONE_SHIFT;
+    }
+
+    private TriggerSource() {}
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+
+/**
+ * A clock that stands still until it is set or advanced, to run time based
+ * logic (e.g. the play policy of SoundMotionDetector) in simulated time, as
+ * fast as the events can be processed.
+ */
+public class VirtualClock extends Clock {
+
+    private final ZoneId zone;
+    private volatile long millis;
+
+    /**
+     * @param millis the initial time (epoch millis)
+     * @param zone the time zone - NOT NULL
+     */
+    public VirtualClock(long millis, final ZoneId zone) {
+        if (zone == null) {
+            throw new IllegalArgumentException("zone can not be null");
+        }
+        this.millis = millis;
+        this.zone = zone;
+    }
+
+    /**
+     * @param millis the new time (epoch millis); it can go backwards
+     */
+    public void set(long millis) {
+        this.millis = millis;
+    }
+
+    /**
+     * @param millis how much to move the time forward (epoch millis)
+     */
+    public void advance(long millis) {
+        this.millis += millis;
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    /**
+     * @return a clock with the same time in the given zone; it does not
+     *         follow this one when set or advanced
+     */
+    @Override
+    public Clock withZone(final ZoneId zone) {
+        return new VirtualClock(millis, zone);
+    }
+
+    @Override
+    public long millis() {
+        return millis;
+    }
+
+    @Override
+    public Instant instant() {
+        return Instant.ofEpochMilli(millis);
+    }
+
+    @Override
+    public String toString() {
+        return "VirtualClock[" + instant() + "," + zone + "]";
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import com.pi4j.io.gpio.RaspiPin;
+import java.io.IOException;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * An area watched by a PIR: the pin the sensor is connected to, the sound to
+ * play and the debounce and cooldown policy. Zones are given on the command
+ * line as
+ *
+ * <pre>
+ * name[,pin=N][,sound=/sounds/...][,debounce=MILLIS][,coalesce=MILLIS][,cooldown=MINUTES]
+ * </pre>
+ *
+ * e.g. roof,pin=5,cooldown=5. Debounce and coalesce are UNSET (-1) when not
+ * given, meaning the global ones apply.
+ */
+public class Zone {
+
+    public static final int UNSET = -1;
+    public static final String DEFAULT_SOUND = "/sounds/red-tailed-hawk-sound.wav";
+
+    public final String name;
+    public final int pin;
+    public final String sound;
+    public final int debounce;
+    public final int coalesce;
+    public final int cooldown;
+
+    /**
+     * @param name the name of the zone - [A-Za-z0-9_-]+
+     * @param pin the address (WiringPi numbering) of the pin of the PIR
+     * @param sound the resource path of the sound to play - NOT BLANK
+     * @param debounce debounce in milliseconds or UNSET
+     * @param coalesce burst window in milliseconds or UNSET
+     * @param cooldown minimum time between two plays in minutes
+     *
+     * @throws IllegalArgumentException if any of the above is not valid
+     */
+    public Zone(
+        final String name, int pin, final String sound,
+        int debounce, int coalesce, int cooldown
+    ) {
+        if ((name == null) || !name.matches("[A-Za-z0-9_-]+")) {
+            throw new IllegalArgumentException("invalid zone name '" + name + "'");
+        }
+        if (RaspiPin.getPinByAddress(pin) == null) {
+            throw new IllegalArgumentException("invalid pin " + pin + " in zone " + name);
+        }
+        if (StringUtils.isBlank(sound)) {
+            throw new IllegalArgumentException("sound can not be blank or null in zone " + name);
+        }
+        try {
+            IOUtils.resourceToURL(sound);
+        } catch (IOException x) {
+            throw new IllegalArgumentException(
+                String.format("'%s' not found in classpath in zone %s", sound, name)
+            );
+        }
+        if ((debounce < UNSET) || (coalesce < UNSET) || (cooldown < 0)) {
+            throw new IllegalArgumentException("debounce, coalesce and cooldown can not be negative in zone " + name);
+        }
+
+        this.name = name;
+        this.pin = pin;
+        this.sound = sound;
+        this.debounce = debounce;
+        this.coalesce = coalesce;
+        this.cooldown = cooldown;
+    }
+
+    /**
+     * The zone of a single PIR on the default pin, with the default sound and
+     * cooldown.
+     */
+    public Zone(final String name) {
+        this(name, MotionDetector.DEFAULT_PIN, DEFAULT_SOUND, UNSET, UNSET, SoundMotionDetector.DEFAULT_COOLDOWN);
+    }
+
+    /**
+     * @param spec the zone specification (see above)
+     *
+     * @return the zone described by spec
+     *
+     * @throws IllegalArgumentException if spec is not valid
+     */
+    public static Zone parse(final String spec) {
+        if (StringUtils.isBlank(spec)) {
+            throw new IllegalArgumentException("zone can not be blank or null");
+        }
+
+        final String[] parts = spec.split(",");
+        final String name = parts[0].trim();
+
+        int pin = MotionDetector.DEFAULT_PIN, debounce = UNSET, coalesce = UNSET,
+            cooldown = SoundMotionDetector.DEFAULT_COOLDOWN;
+        String sound = DEFAULT_SOUND;
+
+        for (int i=1; i<parts.length; ++i) {
+            final String key = StringUtils.substringBefore(parts[i], "=").trim();
+            final String value = StringUtils.substringAfter(parts[i], "=").trim();
+
+            if ("sound".equals(key)) {
+                sound = value;
+            } else if ("pin".equals(key)) {
+                pin = number(name, key, value);
+            } else if ("debounce".equals(key)) {
+                debounce = number(name, key, value);
+            } else if ("coalesce".equals(key)) {
+                coalesce = number(name, key, value);
+            } else if ("cooldown".equals(key)) {
+                cooldown = number(name, key, value);
+            } else {
+                throw new IllegalArgumentException("unknown setting '" + key + "' in zone " + name);
+            }
+        }
+
+        return new Zone(name, pin, sound, debounce, coalesce, cooldown);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "%s,pin=%d,sound=%s,debounce=%d,coalesce=%d,cooldown=%d",
+            name, pin, sound, debounce, coalesce, cooldown
+        );
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private static int number(final String zone, final String key, final String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException x) {
+            throw new IllegalArgumentException("invalid " + key + " '" + value + "' in zone " + zone);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * One dispatcher thread for many zones: each zone registers its handler and
+ * gets a zone index to tag its triggers with (see TriggerSource.of()); the
+ * router hands every trigger to the handler of its zone, with the zone index
+ * stripped. Zones are expected to be added before the dispatcher starts.
+ */
+public class ZoneRouter implements TriggerRing.Handler {
+
+    protected final Logger LOG = Logger.getLogger("ste.falco");
+
+    public final TriggerDispatcher dispatcher;
+
+    private volatile TriggerRing.Handler[] handlers = new TriggerRing.Handler[0];
+
+    public ZoneRouter(final String name) {
+        this(name, TriggerDispatcher.DEFAULT_CAPACITY);
+    }
+
+    public ZoneRouter(final String name, int capacity) {
+        dispatcher = new TriggerDispatcher(name, this, capacity);
+    }
+
+    /**
+     * @param handler the handler of the zone's triggers - NOT NULL
+     *
+     * @return the index of the new zone
+     *
+     * @throws IllegalArgumentException if handler is null or there are too
+     *         many zones already
+     */
+    public synchronized int add(final TriggerRing.Handler handler) {
+        if (handler == null) {
+            throw new IllegalArgumentException("handler can not be null");
+        }
+        if (handlers.length >= TriggerSource.MAX_ZONES) {
+            throw new IllegalArgumentException("too many zones, max is " + TriggerSource.MAX_ZONES);
+        }
+        final TriggerRing.Handler[] h = Arrays.copyOf(handlers, handlers.length + 1);
+        h[handlers.length] = handler;
+        handlers = h;
+
+        return handlers.length - 1;
+    }
+
+    public int size() {
+        return handlers.length;
+    }
+
+    // ----------------------------------------------------- TriggerRing.Handler
+
+    @Override
+    public void handle(long stamp, int source) {
+        final TriggerRing.Handler[] h = handlers;
+        final int zone = TriggerSource.zone(source);
+
+        if (zone < h.length) {
+            h[zone].handle(stamp, TriggerSource.source(source));
+        } else if (LOG.isLoggable(Level.WARNING)) {
+            LOG.warning("trigger from unknown zone " + zone + ", ignored");
+        }
+    }
+}
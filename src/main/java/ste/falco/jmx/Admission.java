@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco.jmx;
+
+import ste.falco.TriggerDispatcher;
+import ste.falco.TriggerSource;
+
+/**
+ * The admission of a dispatcher; zones have one each only when there is one
+ * zone, more zones share the dispatcher of their router (see ZoneRouter),
+ * so that one MBean covers the triggers of all of them.
+ */
+public class Admission implements AdmissionMBean {
+
+    private final TriggerDispatcher dispatcher;
+
+    public Admission(TriggerDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    @Override
+    public int getCapacity() {
+        return dispatcher.getCapacity();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return dispatcher.getQueueDepth();
+    }
+
+    @Override
+    public String getOverflow() {
+        return TriggerDispatcher.overflowName(dispatcher.getOverflow());
+    }
+
+    @Override
+    public void setOverflow(String overflow) {
+        dispatcher.setOverflow(TriggerDispatcher.parseOverflow(overflow));
+    }
+
+    @Override
+    public long getPublished() {
+        return dispatcher.getPublished();
+    }
+
+    @Override
+    public long getAdmitted() {
+        return dispatcher.getAdmitted();
+    }
+
+    @Override
+    public long getLimited() {
+        return dispatcher.getLimited();
+    }
+
+    @Override
+    public long getCoalesced() {
+        return dispatcher.getCoalesced();
+    }
+
+    @Override
+    public long getDropped() {
+        return dispatcher.getDropped();
+    }
+
+    @Override
+    public long getEvicted() {
+        return dispatcher.getEvicted();
+    }
+
+    @Override
+    public long getDispatched() {
+        return dispatcher.getDispatched();
+    }
+
+    @Override
+    public String getRateLimits() {
+        final StringBuilder sb = new StringBuilder();
+        for (int source: new int[] { TriggerSource.GPIO, TriggerSource.JMX }) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(TriggerSource.name(source)).append('=');
+            if (dispatcher.getRateLimit(source) == 0) {
+                sb.append("unlimited");
+            } else {
+                sb.append(String.format("%.1f/%d", dispatcher.getRateLimit(source), dispatcher.getBurst(source)));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param limit SOURCE=RATE[/BURST]; a RATE of 0 removes the limit
+     */
+    @Override
+    public void limitRate(String limit) {
+        final TriggerDispatcher.RateLimit l = TriggerDispatcher.RateLimit.parse(limit);
+        dispatcher.setRateLimit(l.source, l.rate, l.burst);
+    }
+}
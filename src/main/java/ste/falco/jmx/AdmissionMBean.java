@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco.jmx;
+
+/**
+ * What happened to the triggers published to the dispatcher: queued
+ * (Admitted), refused by the rate limit of their source (Limited), merged
+ * into a pending one (Coalesced), dropped because too many were pending
+ * (Dropped) or evicted to make room for newer ones (Evicted)
+ */
+public interface AdmissionMBean {
+
+    public int getCapacity();
+    public int getQueueDepth();
+
+    public String getOverflow();
+    public void setOverflow(String overflow);
+
+    public long getPublished();
+    public long getAdmitted();
+    public long getLimited();
+    public long getCoalesced();
+    public long getDropped();
+    public long getEvicted();
+    public long getDispatched();
+
+    public String getRateLimits();
+    public void limitRate(String limit);
+}
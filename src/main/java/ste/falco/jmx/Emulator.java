@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco.jmx;
+
+import ste.falco.MotionSensorEmulator;
+
+public class Emulator implements EmulatorMBean {
+
+    private final MotionSensorEmulator emulator;
+
+    public Emulator(MotionSensorEmulator emulator) {
+        this.emulator = emulator;
+    }
+
+    @Override
+    public String getTraffic() {
+        return String.valueOf(emulator.getTraffic());
+    }
+
+    @Override
+    public boolean isRunning() {
+        return emulator.isRunning();
+    }
+
+    @Override
+    public long getRises() {
+        return emulator.getRises();
+    }
+
+    @Override
+    public double getRate() {
+        return emulator.getRate();
+    }
+
+    /**
+     * Replaces the current traffic with the given one
+     *
+     * @param traffic the traffic specification (see --emulate)
+     */
+    @Override
+    public void start(String traffic) {
+        final MotionSensorEmulator.Traffic t = MotionSensorEmulator.Traffic.parse(traffic);
+        emulator.stop();
+        emulator.start(t);
+    }
+
+    @Override
+    public void stop() {
+        emulator.stop();
+    }
+}
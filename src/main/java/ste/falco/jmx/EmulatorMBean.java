@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco.jmx;
+
+/**
+ * The traffic of the PIR emulator (see --emulate) and the rises generated
+ * so far, to be compared with the edges and events of the Sensors MBeans
+ * to find the highest rate the pipeline sustains; the traffic can be
+ * changed on the fly.
+ */
+public interface EmulatorMBean {
+
+    public String getTraffic();
+    public boolean isRunning();
+    public long getRises();
+    public double getRate();
+
+    public void start(String traffic);
+    public void stop();
+}
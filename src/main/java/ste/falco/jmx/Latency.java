@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco.jmx;
+
+import java.util.List;
+import ste.falco.LatencyHistogram;
+import ste.falco.SoundMotionDetector;
+
+/**
+ * The latencies of all zones: counts and percentiles are computed over the
+ * merged histograms of the given detectors, reset() resets them all.
+ */
+public class Latency implements LatencyMBean {
+
+    private static final int TRIGGER = 0;
+    private static final int DISPATCH = 1;
+    private static final int START = 2;
+
+    private final List<SoundMotionDetector> detectors;
+
+    /**
+     * @param detectors the detectors of the zones - NOT NULL, NOT EMPTY
+     */
+    public Latency(List<SoundMotionDetector> detectors) {
+        if ((detectors == null) || detectors.isEmpty()) {
+            throw new IllegalArgumentException("detectors can not be null or empty");
+        }
+        this.detectors = detectors;
+    }
+
+    @Override
+    public long getTriggerCount() {
+        return histogram(TRIGGER).getCount();
+    }
+
+    @Override
+    public long getTriggerP50() {
+        return histogram(TRIGGER).getPercentile(50);
+    }
+
+    @Override
+    public long getTriggerP99() {
+        return histogram(TRIGGER).getPercentile(99);
+    }
+
+    @Override
+    public long getTriggerMax() {
+        return histogram(TRIGGER).getMax();
+    }
+
+    @Override
+    public long getDispatchP50() {
+        return histogram(DISPATCH).getPercentile(50);
+    }
+
+    @Override
+    public long getDispatchP99() {
+        return histogram(DISPATCH).getPercentile(99);
+    }
+
+    @Override
+    public long getDispatchMax() {
+        return histogram(DISPATCH).getMax();
+    }
+
+    @Override
+    public long getStartP50() {
+        return histogram(START).getPercentile(50);
+    }
+
+    @Override
+    public long getStartP99() {
+        return histogram(START).getPercentile(99);
+    }
+
+    @Override
+    public long getStartMax() {
+        return histogram(START).getMax();
+    }
+
+    @Override
+    public void reset() {
+        for (SoundMotionDetector detector: detectors) {
+            detector.dispatchLatency.reset();
+            detector.startLatency.reset();
+            detector.triggerLatency.reset();
+        }
+    }
+
+    // --------------------------------------------------------- private methods
+
+    /**
+     * @return the histogram of the given kind of the only zone, or the
+     *         merge of the ones of all zones
+     */
+    private LatencyHistogram histogram(int kind) {
+        if (detectors.size() == 1) {
+            return histogram(detectors.get(0), kind);
+        }
+        final LatencyHistogram merged = new LatencyHistogram(histogram(detectors.get(0), kind).name);
+        for (SoundMotionDetector detector: detectors) {
+            merged.add(histogram(detector, kind));
+        }
+        return merged;
+    }
+
+    private static LatencyHistogram histogram(SoundMotionDetector detector, int kind) {
+        switch (kind) {
+            case TRIGGER:  return detector.triggerLatency;
+            case DISPATCH: return detector.dispatchLatency;
+            default:       return detector.startLatency;
+        }
+    }
+}
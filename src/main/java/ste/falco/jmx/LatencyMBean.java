@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco.jmx;
+
+/**
+ * Latencies in microseconds from the motion trigger (e.g. the PIR edge)
+ * to the detector (Dispatch), from the detector to the sound actually
+ * starting (Start) and end to end (Trigger).
+ */
+public interface LatencyMBean {
+
+    public long getTriggerCount();
+    public long getTriggerP50();
+    public long getTriggerP99();
+    public long getTriggerMax();
+
+    public long getDispatchP50();
+    public long getDispatchP99();
+    public long getDispatchMax();
+
+    public long getStartP50();
+    public long getStartP99();
+    public long getStartMax();
+
+    public void reset();
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco.jmx;
+
+import ste.falco.Supervisor;
+
+public class Recovery implements RecoveryMBean {
+
+    private final Supervisor supervisor;
+    private final int kind;
+
+    public Recovery(Supervisor supervisor, int kind) {
+        this.supervisor = supervisor;
+        this.kind = kind;
+    }
+
+    @Override
+    public long getFailures() {
+        return supervisor.getFailures(kind);
+    }
+
+    @Override
+    public long getRecoveries() {
+        return supervisor.getRecoveries(kind);
+    }
+
+    @Override
+    public long getEscalations() {
+        return supervisor.getEscalations();
+    }
+
+    @Override
+    public int getPending() {
+        return supervisor.getPending();
+    }
+
+    @Override
+    public String getLastFailure() {
+        return supervisor.getLastFailure(kind);
+    }
+
+    @Override
+    public long getRecoveryP50() {
+        return supervisor.recoveryTimes[kind].getPercentile(50);
+    }
+
+    @Override
+    public long getRecoveryP99() {
+        return supervisor.recoveryTimes[kind].getPercentile(99);
+    }
+
+    @Override
+    public long getRecoveryMax() {
+        return supervisor.recoveryTimes[kind].getMax();
+    }
+}
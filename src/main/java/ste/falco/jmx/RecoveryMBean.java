@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco.jmx;
+
+/**
+ * Failures of a kind of component (audio line, GPIO pin or heartbeat)
+ * reported to the supervisor, how many were recovered in place and how
+ * long, in microseconds, from the failure to the recovery; failures that
+ * could not be recovered and led to a full recycle (Escalations)
+ */
+public interface RecoveryMBean {
+
+    public long getFailures();
+    public long getRecoveries();
+    public long getEscalations();
+    public int getPending();
+    public String getLastFailure();
+
+    public long getRecoveryP50();
+    public long getRecoveryP99();
+    public long getRecoveryMax();
+}
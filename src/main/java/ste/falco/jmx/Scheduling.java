@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco.jmx;
+
+import ste.falco.Scheduler;
+
+public class Scheduling implements SchedulingMBean {
+
+    private final Scheduler scheduler;
+
+    public Scheduling(Scheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public int getThreads() {
+        return scheduler.getThreads();
+    }
+
+    @Override
+    public int getTasks() {
+        return scheduler.getTasks();
+    }
+
+    @Override
+    public String getScheduled() {
+        final StringBuilder sb = new StringBuilder();
+        for (Scheduler.Task task: scheduler.getScheduled()) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(task.name).append(" (max lag ").append(task.getMaxLag()).append("us)");
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public long getRuns() {
+        return scheduler.getRuns();
+    }
+
+    @Override
+    public long getErrors() {
+        return scheduler.getErrors();
+    }
+
+    @Override
+    public long getLagP50() {
+        return scheduler.lag.getPercentile(50);
+    }
+
+    @Override
+    public long getLagP99() {
+        return scheduler.lag.getPercentile(99);
+    }
+
+    @Override
+    public long getLagMax() {
+        return scheduler.lag.getMax();
+    }
+
+    @Override
+    public void reset() {
+        scheduler.lag.reset();
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco.jmx;
+
+/**
+ * The process-wide scheduler: how many threads run the tasks, the tasks
+ * scheduled (heartbeat, dormancy check, pin health checks, journal flush)
+ * and how late, in microseconds, tasks started compared with when they
+ * were due (Lag)
+ */
+public interface SchedulingMBean {
+
+    public int getThreads();
+    public int getTasks();
+    public String getScheduled();
+    public long getRuns();
+    public long getErrors();
+
+    public long getLagP50();
+    public long getLagP99();
+    public long getLagMax();
+
+    public void reset();
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco.jmx;
+
+import ste.falco.EdgeFilter;
+import ste.falco.MotionDetector;
+import ste.falco.PinHealth;
+import ste.falco.PollingMotionDetector;
+import ste.falco.SoundMotionDetector;
+
+public class Sensors implements SensorsMBean {
+
+    private final EdgeFilter edges;
+    private final PollingMotionDetector poller;
+    private final MotionDetector pir;
+
+    public Sensors(EdgeFilter edges, SoundMotionDetector detector) {
+        this.edges = edges;
+        this.poller = (detector instanceof PollingMotionDetector)
+                    ? (PollingMotionDetector)detector : null;
+        this.pir = (detector instanceof MotionDetector)
+                 ? (MotionDetector)detector : null;
+    }
+
+    @Override
+    public long getEdges() {
+        return edges.getEdges();
+    }
+
+    @Override
+    public long getBounces() {
+        return edges.getBounces();
+    }
+
+    @Override
+    public long getCoalesced() {
+        return edges.getCoalesced();
+    }
+
+    @Override
+    public long getEvents() {
+        return edges.getEvents();
+    }
+
+    @Override
+    public long getDebounceMillis() {
+        return edges.getDebounceMillis();
+    }
+
+    @Override
+    public long getCoalesceMillis() {
+        return edges.getWindowMillis();
+    }
+
+    @Override
+    public long getSamples() {
+        return (poller == null) ? 0 : poller.getSamples();
+    }
+
+    @Override
+    public long getPollMillis() {
+        return (poller == null) ? 0 : poller.getIntervalMillis();
+    }
+
+    @Override
+    public long getPollerCpuMillis() {
+        return (poller == null) ? -1 : poller.getCpuMillis();
+    }
+
+    @Override
+    public String getHealth() {
+        return (pir == null) ? "unknown" : PinHealth.name(pir.getHealth().getState());
+    }
+
+    @Override
+    public double getEdgeRate() {
+        return (pir == null) ? 0 : pir.getHealth().getEdgeRate();
+    }
+
+    @Override
+    public boolean isQuarantined() {
+        return (pir != null) && pir.isQuarantined();
+    }
+
+    @Override
+    public long getQuarantines() {
+        return (pir == null) ? 0 : pir.getQuarantines();
+    }
+
+    @Override
+    public long getProbeMillis() {
+        return (pir == null) ? 0 : pir.getProbeMillis();
+    }
+
+    @Override
+    public void reset() {
+        edges.reset();
+    }
+}
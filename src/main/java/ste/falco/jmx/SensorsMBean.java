@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco.jmx;
+
+/**
+ * PIR edges received versus motion events let through by the edge filter;
+ * with --polling, the samples taken, the current sampling interval
+ * (0 when suspended) and the CPU time of the polling thread (-1 if not
+ * polling); the health of the pin (healthy, stuck, chattering or dead,
+ * unknown without GPIO), whether it is quarantined and for how long still
+ */
+public interface SensorsMBean {
+
+    public long getEdges();
+    public long getBounces();
+    public long getCoalesced();
+    public long getEvents();
+
+    public long getDebounceMillis();
+    public long getCoalesceMillis();
+
+    public long getSamples();
+    public long getPollMillis();
+    public long getPollerCpuMillis();
+
+    public String getHealth();
+    public double getEdgeRate();
+    public boolean isQuarantined();
+    public long getQuarantines();
+    public long getProbeMillis();
+
+    public void reset();
+}
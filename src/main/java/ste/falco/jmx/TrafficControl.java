@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco.jmx;
+
+import ste.falco.TriggerSource;
+import ste.falco.ui.FalcoCLI;
+
+public class TrafficControl implements TrafficControlMBean {
+
+    private final FalcoCLI falco;
+
+    public TrafficControl(FalcoCLI falco) {
+        this.falco = falco;
+    }
+
+    @Override
+    public void move() {
+        falco.moctor.trigger(TriggerSource.JMX);
+    }
+
+    @Override
+    public void moveZone(String zone) {
+        for (int i=0; i<falco.zones.size(); ++i) {
+            if (falco.zones.get(i).name.equals(zone)) {
+                falco.detectors.get(i).trigger(TriggerSource.JMX);
+                return;
+            }
+        }
+        throw new IllegalArgumentException("no zone " + zone);
+    }
+
+    @Override
+    public void play() {
+        falco.play();
+    }
+
+    @Override
+    public void reinit() {
+        falco.shutdown();
+    }
+
+    @Override
+    public void setVolume(double volume) {
+        falco.moctor.setVolume(volume);
+    }
+
+    @Override
+    public double getVolume() {
+        return falco.moctor.getVolume();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return falco.moctor.getDispatcher().getQueueDepth();
+    }
+
+    @Override
+    public long getDroppedTriggers() {
+        return falco.moctor.getDispatcher().getDropped();
+    }
+
+    @Override
+    public long getWarmupMillis() {
+        return falco.moctor.getWarmupMillis();
+    }
+
+    @Override
+    public String getPolicy() {
+        return falco.getPolicy();
+    }
+
+    @Override
+    public void setPolicy(String policy) {
+        falco.setPolicy(policy);
+    }
+
+    @Override
+    public boolean isDormant() {
+        return falco.isDormant();
+    }
+
+}
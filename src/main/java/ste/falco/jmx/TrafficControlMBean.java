@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco.jmx;
+
+public interface TrafficControlMBean {
+
+    public void move();
+
+    public void moveZone(String zone);
+
+    public void play();
+
+    public void reinit();
+
+    public void setVolume(double volume);
+
+    public double getVolume();
+
+    public int getQueueDepth();
+
+    public long getDroppedTriggers();
+
+    public long getWarmupMillis();
+
+    public String getPolicy();
+
+    public void setPolicy(String policy);
+
+    public boolean isDormant();
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco.sound;
+
+import java.io.IOException;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Clip;
+import javax.sound.sampled.LineEvent;
+import javax.sound.sampled.LineUnavailableException;
+
+/**
+ * A Clip that only keeps track of the length of its sound: start() renders
+ * from the current position to the end at once (after the mixer's latency,
+ * if any), firing START and STOP like a real clip would.
+ */
+class MemoryClip extends MemoryLine implements Clip {
+
+    private static final AudioFormat DEFAULT_FORMAT = new AudioFormat(44100f, 16, 2, true, false);
+
+    private int frames;
+    private int loops;
+    private long sequence;  // invalidates scheduled plays on stop()
+
+    MemoryClip(final MemoryMixer mixer) {
+        super(mixer, Clip.class);
+    }
+
+    // -------------------------------------------------------------------- Clip
+
+    @Override
+    public void open(AudioFormat format, byte[] data, int offset, int bufferSize)
+    throws LineUnavailableException {
+        opened(format, bufferSize);
+        synchronized (this) {
+            frames = bufferSize / format.getFrameSize();
+        }
+    }
+
+    @Override
+    public void open(AudioInputStream stream) throws LineUnavailableException, IOException {
+        final byte[] buf = new byte[8192];
+        long size = 0;
+        for (int n; (n = stream.read(buf)) >= 0;) {
+            size += n;
+        }
+        opened(stream.getFormat(), (int)size);
+        synchronized (this) {
+            frames = (int)(size / stream.getFormat().getFrameSize());
+        }
+    }
+
+    @Override
+    public void open() throws LineUnavailableException {
+        opened(DEFAULT_FORMAT, 0);
+    }
+
+    @Override
+    public synchronized int getFrameLength() {
+        return open ? frames : AudioSystem.NOT_SPECIFIED;
+    }
+
+    @Override
+    public synchronized long getMicrosecondLength() {
+        return open ? (long)(frames * 1000000d / format.getFrameRate()) : AudioSystem.NOT_SPECIFIED;
+    }
+
+    @Override
+    public synchronized void setFramePosition(int frames) {
+        position = Math.max(0, Math.min(frames, this.frames));
+    }
+
+    @Override
+    public synchronized void setMicrosecondPosition(long microseconds) {
+        setFramePosition((int)(microseconds * format.getFrameRate() / 1000000d));
+    }
+
+    @Override
+    public void setLoopPoints(int start, int end) {
+    }
+
+    /**
+     * Renders the clip count+1 times; a continuous loop renders it once and
+     * keeps the clip running until stop()
+     */
+    @Override
+    public void loop(int count) {
+        synchronized (this) {
+            loops = count;
+        }
+        start();
+    }
+
+    // ---------------------------------------------------------------- DataLine
+
+    @Override
+    public void start() {
+        final long play;
+        synchronized (this) {
+            if (!open || running) {
+                return;
+            }
+            running = true;
+            play = ++sequence;
+        }
+
+        final long latency = mixer.latencyNanos();
+        if (latency == 0) {
+            play(play);
+        } else {
+            mixer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    play(play);
+                }
+            }, latency);
+        }
+    }
+
+    @Override
+    public void stop() {
+        synchronized (this) {
+            ++sequence;
+        }
+        super.stop();
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            ++sequence;
+        }
+        super.close();
+    }
+
+    // --------------------------------------------------------- Private methods
+
+    private void play(long play) {
+        synchronized (this) {
+            if (play != sequence) {
+                return;
+            }
+        }
+        notify(LineEvent.Type.START);
+
+        final boolean continuous;
+        final long rendered;
+        synchronized (this) {
+            if (play != sequence) {
+                return;
+            }
+            continuous = (loops == LOOP_CONTINUOUSLY);
+            rendered = (frames - position) + (continuous ? 0 : (long)loops * frames);
+            position = frames; loops = 0;
+            running = continuous;
+        }
+        mixer.rendered(this, System.nanoTime(), rendered);
+        if (continuous) {
+            return;
+        }
+        notify(LineEvent.Type.STOP);
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco.sound;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Control;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.FloatControl;
+import javax.sound.sampled.LineEvent;
+import javax.sound.sampled.LineListener;
+
+/**
+ * Common state of MemoryMixer's lines: format, position, running state,
+ * listeners and a MASTER_GAIN control (which is only stored, as nothing is
+ * actually heard). Events are always fired without holding the line's lock,
+ * so listeners can call back into the line from any thread.
+ */
+abstract class MemoryLine implements DataLine {
+
+    public static final int DEFAULT_BUFFER_SIZE = 4096;
+
+    protected final MemoryMixer mixer;
+    protected final Class<? extends DataLine> type;
+
+    private final CopyOnWriteArrayList<LineListener> listeners = new CopyOnWriteArrayList<>();
+    private final FloatControl gain = new FloatControl(
+        FloatControl.Type.MASTER_GAIN, -80f, 6.0206f, 0.01f, -1, 0f, "dB"
+    ) {};
+
+    protected AudioFormat format;
+    protected int bufferSize;
+    protected long position;   // frames
+    protected boolean open, running;
+
+    protected MemoryLine(final MemoryMixer mixer, final Class<? extends DataLine> type) {
+        this.mixer = mixer;
+        this.type = type;
+    }
+
+    // ---------------------------------------------------------------- DataLine
+
+    @Override
+    public void drain() {
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void start() {
+        boolean started;
+        synchronized (this) {
+            started = open && !running;
+            running = running || open;
+        }
+        if (started) {
+            notify(LineEvent.Type.START);
+        }
+    }
+
+    @Override
+    public void stop() {
+        boolean stopped;
+        synchronized (this) {
+            stopped = running;
+            running = false;
+        }
+        if (stopped) {
+            notify(LineEvent.Type.STOP);
+        }
+    }
+
+    @Override
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public synchronized boolean isActive() {
+        return running;
+    }
+
+    @Override
+    public synchronized AudioFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public synchronized int getBufferSize() {
+        return bufferSize;
+    }
+
+    @Override
+    public synchronized int available() {
+        return bufferSize;
+    }
+
+    @Override
+    public synchronized int getFramePosition() {
+        return (int)position;
+    }
+
+    @Override
+    public synchronized long getLongFramePosition() {
+        return position;
+    }
+
+    @Override
+    public synchronized long getMicrosecondPosition() {
+        return (format == null || format.getFrameRate() == AudioSystem.NOT_SPECIFIED)
+             ? 0 : (long)(position * 1000000d / format.getFrameRate());
+    }
+
+    @Override
+    public float getLevel() {
+        return AudioSystem.NOT_SPECIFIED;
+    }
+
+    // -------------------------------------------------------------------- Line
+
+    @Override
+    public Info getLineInfo() {
+        return new DataLine.Info(type, format);
+    }
+
+    @Override
+    public void close() {
+        boolean closed;
+        synchronized (this) {
+            closed = open;
+            open = running = false;
+            if (closed) {
+                mixer.closed(this);  // in step with open, see opened()
+            }
+        }
+        if (closed) {
+            notify(LineEvent.Type.CLOSE);
+        }
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public Control[] getControls() {
+        return new Control[] { gain };
+    }
+
+    @Override
+    public boolean isControlSupported(Control.Type control) {
+        return FloatControl.Type.MASTER_GAIN.equals(control);
+    }
+
+    @Override
+    public Control getControl(Control.Type control) {
+        if (!isControlSupported(control)) {
+            throw new IllegalArgumentException("unsupported control type: " + control);
+        }
+        return gain;
+    }
+
+    @Override
+    public void addLineListener(LineListener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    @Override
+    public void removeLineListener(LineListener listener) {
+        listeners.remove(listener);
+    }
+
+    // ------------------------------------------------------- Protected methods
+
+    /**
+     * Marks the line open in the given format; to be called by subclasses'
+     * open() methods
+     */
+    protected void opened(final AudioFormat format, final int bufferSize) {
+        synchronized (this) {
+            if (open) {
+                throw new IllegalStateException("line already open");
+            }
+            this.format = format;
+            this.bufferSize = bufferSize;
+            this.position = 0;
+            this.open = true;
+            //
+            // under the line's lock, or a close() in between would leave a
+            // closed line in the mixer's open lines
+            //
+            mixer.opened(this);
+        }
+        notify(LineEvent.Type.OPEN);
+    }
+
+    protected void notify(final LineEvent.Type type) {
+        final long at;
+        synchronized (this) {
+            at = position;
+        }
+        for (LineListener l: listeners) {
+            l.update(new LineEvent(this, type, at));
+        }
+    }
+}
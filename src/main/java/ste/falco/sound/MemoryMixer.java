@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco.sound;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Clip;
+import javax.sound.sampled.Control;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.LineListener;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.Mixer;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * Headless audio device: a Mixer giving out Clips and SourceDataLines that
+ * render in memory instead of on a sound card. Sounds are rendered at full
+ * speed, i.e. as soon as they are started or written, optionally after a
+ * simulated device latency; every render is recorded with its timestamp so
+ * that tests and load tests can check what would have been heard and when.
+ *
+ * The device latency is taken from the system property
+ * <code>ste.falco.audio.latency</code> (in milliseconds, 0 by default) and
+ * can be changed with setLatency(). With no latency a clip plays (START and
+ * STOP events included) synchronously in start(); otherwise it plays on a
+ * device thread once the latency has elapsed. A SourceDataLine waits the
+ * latency on the first write after being started or flushed.
+ *
+ * The last HISTORY renders are kept, plus the total count of rendered frames.
+ */
+public class MemoryMixer implements Mixer {
+
+    public static final Info INFO = new Info(
+        "Falco Memory Mixer", "ste.falco", "In-memory headless audio device", "1.0"
+    ) {};
+
+    public static final int HISTORY = 1024;
+
+    private static final AudioFormat[] FORMATS = new AudioFormat[] {
+        new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED, true),
+        new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED, false),
+        new AudioFormat(AudioFormat.Encoding.PCM_UNSIGNED, AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED, true),
+        new AudioFormat(AudioFormat.Encoding.PCM_UNSIGNED, AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED, false)
+    };
+
+    private static final Line.Info[] SOURCES = new Line.Info[] {
+        new DataLine.Info(Clip.class, FORMATS, AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED),
+        new DataLine.Info(SourceDataLine.class, FORMATS, AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED)
+    };
+
+    private final List<MemoryLine> lines = new ArrayList<>();  // open lines
+    private final ArrayDeque<Render> renders = new ArrayDeque<>(HISTORY);
+
+    private volatile long latency;  // nanoseconds
+    private long renderedFrames;
+    private ScheduledExecutorService device;
+
+    public MemoryMixer() {
+        latency = TimeUnit.MILLISECONDS.toNanos(Long.getLong("ste.falco.audio.latency", 0));
+    }
+
+    /**
+     * @param latency the simulated time between a line being started and the
+     *        sound actually coming out of the device, in milliseconds
+     */
+    public void setLatency(long latency) {
+        if (latency < 0) {
+            throw new IllegalArgumentException("latency can not be negative");
+        }
+        this.latency = TimeUnit.MILLISECONDS.toNanos(latency);
+    }
+
+    public long getLatency() {
+        return TimeUnit.NANOSECONDS.toMillis(latency);
+    }
+
+    /**
+     * @return the most recent renders, oldest first
+     */
+    public synchronized List<Render> getRenders() {
+        return new ArrayList<>(renders);
+    }
+
+    /**
+     * @return the total number of frames rendered since creation or reset()
+     */
+    public synchronized long getRenderedFrames() {
+        return renderedFrames;
+    }
+
+    /**
+     * Forgets the recorded renders
+     */
+    public synchronized void reset() {
+        renders.clear(); renderedFrames = 0;
+    }
+
+    // ------------------------------------------------------------------- Mixer
+
+    @Override
+    public Mixer.Info getMixerInfo() {
+        return INFO;
+    }
+
+    @Override
+    public Line.Info[] getSourceLineInfo() {
+        return SOURCES.clone();
+    }
+
+    @Override
+    public Line.Info[] getTargetLineInfo() {
+        return new Line.Info[0];
+    }
+
+    @Override
+    public Line.Info[] getSourceLineInfo(Line.Info info) {
+        return isLineSupported(info) ? new Line.Info[] { info } : new Line.Info[0];
+    }
+
+    @Override
+    public Line.Info[] getTargetLineInfo(Line.Info info) {
+        return new Line.Info[0];
+    }
+
+    @Override
+    public boolean isLineSupported(Line.Info info) {
+        for (Line.Info source: SOURCES) {
+            if (info.matches(source)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Line getLine(Line.Info info) throws LineUnavailableException {
+        if (!isLineSupported(info)) {
+            throw new IllegalArgumentException("line not supported: " + info);
+        }
+        return Clip.class.isAssignableFrom(info.getLineClass())
+             ? new MemoryClip(this)
+             : new MemorySourceDataLine(this);
+    }
+
+    @Override
+    public int getMaxLines(Line.Info info) {
+        return isLineSupported(info) ? AudioSystem.NOT_SPECIFIED : 0;
+    }
+
+    @Override
+    public synchronized Line[] getSourceLines() {
+        return lines.toArray(new Line[lines.size()]);
+    }
+
+    @Override
+    public Line[] getTargetLines() {
+        return new Line[0];
+    }
+
+    @Override
+    public void synchronize(Line[] lines, boolean maintainSync) {
+        throw new IllegalArgumentException("synchronization not supported");
+    }
+
+    @Override
+    public void unsynchronize(Line[] lines) {
+        throw new IllegalArgumentException("synchronization not supported");
+    }
+
+    @Override
+    public boolean isSynchronizationSupported(Line[] lines, boolean maintainSync) {
+        return false;
+    }
+
+    // -------------------------------------------------------------------- Line
+
+    @Override
+    public Line.Info getLineInfo() {
+        return new Line.Info(Mixer.class);
+    }
+
+    /**
+     * The mixer itself is always open; lines are opened individually.
+     */
+    @Override
+    public void open() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
+    @Override
+    public Control[] getControls() {
+        return new Control[0];
+    }
+
+    @Override
+    public boolean isControlSupported(Control.Type control) {
+        return false;
+    }
+
+    @Override
+    public Control getControl(Control.Type control) {
+        throw new IllegalArgumentException("unsupported control type: " + control);
+    }
+
+    @Override
+    public void addLineListener(LineListener listener) {
+    }
+
+    @Override
+    public void removeLineListener(LineListener listener) {
+    }
+
+    // ----------------------------------------------------------- Package access
+
+    long latencyNanos() {
+        return latency;
+    }
+
+    synchronized void opened(final MemoryLine line) {
+        lines.add(line);
+    }
+
+    synchronized void closed(final MemoryLine line) {
+        lines.remove(line);
+    }
+
+    synchronized void rendered(final Line line, final long nanos, final long frames) {
+        if (renders.size() == HISTORY) {
+            renders.removeFirst();
+        }
+        renders.addLast(new Render(line, nanos, frames));
+        renderedFrames += frames;
+    }
+
+    /**
+     * Runs the given task on the device thread after the given delay
+     */
+    synchronized void schedule(final Runnable task, final long nanos) {
+        if (device == null) {
+            device = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "falco-memory-device");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        device.schedule(task, nanos, TimeUnit.NANOSECONDS);
+    }
+
+    // ------------------------------------------------------------------ Render
+
+    /**
+     * A chunk of sound that came out of the device
+     */
+    public static class Render {
+        public final Line line;
+        public final long nanos;   // System.nanoTime() when rendered
+        public final long frames;
+
+        Render(final Line line, final long nanos, final long frames) {
+            this.line = line;
+            this.nanos = nanos;
+            this.frames = frames;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                "%s: %d frames at %d", line.getLineInfo().getLineClass().getSimpleName(), frames, nanos
+            );
+        }
+    }
+}
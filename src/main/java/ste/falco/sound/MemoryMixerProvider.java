@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco.sound;
+
+import javax.sound.sampled.Mixer;
+import javax.sound.sampled.spi.MixerProvider;
+
+/**
+ * Makes MemoryMixer available through AudioSystem (it is registered in
+ * META-INF/services). It is never the default mixer: it must be asked for
+ * with AudioSystem.getMixer(MemoryMixer.INFO) or selected with the system
+ * property <code>ste.falco.audio=memory</code> (see SoundUtils.getMixer()).
+ * All lookups return the same mixer.
+ */
+public class MemoryMixerProvider extends MixerProvider {
+
+    private static final MemoryMixer MIXER = new MemoryMixer();
+
+    @Override
+    public Mixer.Info[] getMixerInfo() {
+        return new Mixer.Info[] { MemoryMixer.INFO };
+    }
+
+    @Override
+    public Mixer getMixer(Mixer.Info info) {
+        if (MemoryMixer.INFO.equals(info)) {
+            return MIXER;
+        }
+        throw new IllegalArgumentException("mixer not supported: " + info);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco.sound;
+
+import java.util.concurrent.locks.LockSupport;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * A SourceDataLine that renders whatever is written right away; the first
+ * write after start() or flush() waits for the mixer's latency, as the first
+ * period written to a real device does.
+ */
+class MemorySourceDataLine extends MemoryLine implements SourceDataLine {
+
+    private boolean primed;
+
+    MemorySourceDataLine(final MemoryMixer mixer) {
+        super(mixer, SourceDataLine.class);
+    }
+
+    // ---------------------------------------------------------- SourceDataLine
+
+    @Override
+    public void open(AudioFormat format, int bufferSize) throws LineUnavailableException {
+        opened(format, (bufferSize > 0) ? bufferSize : DEFAULT_BUFFER_SIZE);
+    }
+
+    @Override
+    public void open(AudioFormat format) throws LineUnavailableException {
+        open(format, DEFAULT_BUFFER_SIZE);
+    }
+
+    @Override
+    public void open() throws LineUnavailableException {
+        throw new IllegalArgumentException("the format of the line must be given");
+    }
+
+    @Override
+    public int write(byte[] b, int off, int len) {
+        final long latency;
+        synchronized (this) {
+            if (!open) {
+                return 0;
+            }
+            if (len % format.getFrameSize() != 0) {
+                throw new IllegalArgumentException("illegal request to write non-integral number of frames");
+            }
+            latency = primed ? 0 : mixer.latencyNanos();
+            primed = true;
+        }
+
+        if (latency > 0) {
+            final long end = System.nanoTime() + latency;
+            for (long left = latency; left > 0; left = end - System.nanoTime()) {
+                LockSupport.parkNanos(this, left);
+            }
+        }
+
+        final long frames = len / format.getFrameSize();
+        synchronized (this) {
+            position += frames;
+        }
+        mixer.rendered(this, System.nanoTime(), frames);
+
+        return len;
+    }
+
+    // ---------------------------------------------------------------- DataLine
+
+    @Override
+    public void start() {
+        synchronized (this) {
+            primed = false;
+        }
+        super.start();
+    }
+
+    @Override
+    public void flush() {
+        synchronized (this) {
+            primed = false;
+        }
+    }
+}
@@ -15,32 +15,58 @@
  */
 package ste.falco.ui;
 
-import java.io.ByteArrayInputStream;
+import com.pi4j.io.gpio.GpioFactory;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.lang.management.ManagementFactory;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.management.InstanceAlreadyExistsException;
-import javax.management.InstanceNotFoundException;
-import javax.management.MBeanRegistrationException;
-import javax.management.MalformedObjectNameException;
-import javax.management.NotCompliantMBeanException;
+import javax.management.JMException;
 import javax.management.ObjectName;
-import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.Clip;
 import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.Mixer;
 import javax.sound.sampled.UnsupportedAudioFileException;
-import org.apache.commons.io.IOUtils;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
+import picocli.CommandLine.ITypeConverter;
+import picocli.CommandLine.Model.CommandSpec;
 import picocli.CommandLine.Option;
+import picocli.CommandLine.ParameterException;
+import picocli.CommandLine.Spec;
+import ste.falco.AudioOutput;
+import ste.falco.EdgeFilter;
+import ste.falco.EventJournal;
 import ste.falco.MotionDetector;
+import ste.falco.MotionSensorEmulator;
+import ste.falco.PlayPolicy;
+import ste.falco.PollingMotionDetector;
+import ste.falco.Scheduler;
+import ste.falco.SoundAsset;
+import ste.falco.SoundCache;
 import ste.falco.SoundMotionDetector;
 import ste.falco.SoundUtils;
+import ste.falco.Supervisor;
+import ste.falco.TriggerDispatcher;
+import ste.falco.TriggerSource;
+import ste.falco.Zone;
+import ste.falco.ZoneRouter;
+import ste.falco.jmx.Admission;
+import ste.falco.jmx.Emulator;
+import ste.falco.jmx.Latency;
+import ste.falco.jmx.Recovery;
+import ste.falco.jmx.Scheduling;
+import ste.falco.jmx.Sensors;
+import ste.falco.jmx.TrafficControl;
 
 /**
  *
@@ -50,11 +76,42 @@ public class FalcoCLI implements AutoCloseable {
     private static final int DEFAULT_HEARTBEAT_PERIOD = 5 * 60 * 1000; // 5 minutes in milliseconds
     private static Logger LOG = Logger.getLogger("ste.falco");
 
-    private Heartbeat heartbeatTask;
+    /**
+     * How long before the play window reopens dormant zones are woken up
+     */
+    public static final long WAKE_LEAD = 60 * 1000;                  // milliseconds
+    public static final long MAX_DORMANCY_CHECK = 60 * 60 * 1000;    // milliseconds
+    public static final long JOURNAL_FLUSH = 60 * 1000;              // milliseconds
 
-    public        final SoundMotionDetector moctor;
+    private Heartbeat heartbeatTask;
+    private AudioOutput output;
+    private final int warmup;
+    private final boolean dormancy;
+
+    private final Scheduler scheduler;
+    private Scheduler.Task beats, dormancyCheck, flushes;
+    private volatile boolean started = false;
+    private volatile boolean dormant = false;
+
+    private final Supervisor supervisor = new Supervisor("falco-supervisor");
+    private final AtomicBoolean stopping = new AtomicBoolean();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    private ZoneRouter router;
+    private EventJournal journal;
+    private MotionSensorEmulator emulator;
+    private final List<ObjectName> registered = new ArrayList<>();
+
+    public        final SoundMotionDetector moctor;   // the detector of the first zone
+    public        final List<Zone> zones;
+    public        final List<SoundMotionDetector> detectors;
+    public        final List<EdgeFilter> filters;
     public static final String SOUND = "/sounds/red-tailed-hawk-sound.wav";
 
+    private static final int[] COMPONENTS = {
+        Supervisor.AUDIO, Supervisor.GPIO, Supervisor.HEARTBEAT
+    };
+
     public static void main(String... args) {
         System.out.println("Welcome to Falco");
 
@@ -74,22 +131,42 @@ public class FalcoCLI implements AutoCloseable {
         }
         */
 
-        if ((status != 0) || cli.isUsageHelpRequested()) {
+        if ((status != 0) || cli.isUsageHelpRequested() || cli.getParseResult().hasSubcommand()) {
             return;
         }
 
+        //
+        // the emulator must be the GPIO provider before the GPIO controller
+        // is created and it stays the same (with its traffic) across recycles
+        //
+        MotionSensorEmulator emulator = null;
+        if (options.emulate != null) {
+            final int[] pins = new int[Math.max(1, options.zones.size())];
+            pins[0] = MotionDetector.DEFAULT_PIN;
+            for (int i=0; i<options.zones.size(); ++i) {
+                pins[i] = options.zones.get(i).pin;
+            }
+            emulator = new MotionSensorEmulator(pins);
+            GpioFactory.setDefaultProvider(emulator);
+        }
+
         System.out.println("-- started");
         while (true) {
             try (FalcoCLI falco = new FalcoCLI(options)) {
                 falco.startup();
+                if (emulator != null) {
+                    falco.emulate(emulator, options.emulate);
+                }
 
                 if (LOG.isLoggable(Level.INFO)) {
                     LOG.info("falco started");
                 }
 
-                while (falco.moctor.isLive()) {
-                    Thread.sleep(250);
-                }
+                //
+                // failed components are recovered in place by the supervisor;
+                // only a JMX reinit or a failure it can not recover recycles
+                //
+                falco.awaitShutdown();
 
                 if (LOG.isLoggable(Level.INFO)) {
                     LOG.info("falco recycled");
@@ -116,13 +193,99 @@ public class FalcoCLI implements AutoCloseable {
      * @throws Exception same as startup()
      */
     public FalcoCLI(FalcoCLI.FalcoOptions options) {
-        moctor = (options.noGPIO) ? new SoundMotionDetector(SOUND)
-                                  : new MotionDetector(SOUND);
+        this(options, Scheduler.getInstance());
+    }
+
+    /**
+     * @param options the options
+     * @param scheduler the scheduler heartbeat, play window changes, health
+     *        checks and journal flushes run on; it is not owned by the
+     *        instance, which only cancels its tasks at shutdown - NOT NULL
+     */
+    public FalcoCLI(FalcoCLI.FalcoOptions options, Scheduler scheduler) {
+        if (scheduler == null) {
+            throw new IllegalArgumentException("scheduler can not be null");
+        }
+        this.scheduler = scheduler;
         heartbeatTask = null;
+        warmup = options.warmup;
+        dormancy = options.dormant;
+
+        zones = options.zones.isEmpty()
+              ? Collections.singletonList(new Zone("default"))
+              : Collections.unmodifiableList(new ArrayList<>(options.zones));
+
+        //
+        // More zones share the same dispatcher thread and the same output
+        //
+        if (options.streaming || (zones.size() > 1)) {
+            output = new AudioOutput(SoundUtils.getMixer());
+            output.setFades(AudioOutput.DECLICK_MILLIS, AudioOutput.DECLICK_MILLIS);
+        }
+        if (zones.size() > 1) {
+            router = new ZoneRouter("falco-dispatcher");
+        }
+        if (options.journal != null) {
+            journal = new EventJournal(Paths.get(options.journal), options.journalSegmentSize, options.journalSegments);
+        }
+        if (output != null) {
+            output.setSupervisor(supervisor);
+        }
+        supervisor.setEscalation(new Runnable() {
+            @Override
+            public void run() {
+                shutdown();  // recycle
+            }
+        });
+
+        final List<SoundMotionDetector> d = new ArrayList<>();
+        final List<EdgeFilter> f = new ArrayList<>();
+        for (Zone zone: zones) {
+            final EdgeFilter filter = new EdgeFilter(
+                (zone.debounce == Zone.UNSET) ? options.debounce : zone.debounce,
+                (zone.coalesce == Zone.UNSET) ? options.coalesce : zone.coalesce
+            );
+            final SoundMotionDetector detector = (options.noGPIO)
+                                               ? new SoundMotionDetector(zone.sound)
+                                               : (options.polling)
+                                               ? new PollingMotionDetector(zone.sound, null, zone.pin)
+                                               : new MotionDetector(zone.sound, null, zone.pin);
+            if (detector instanceof MotionDetector) {
+                ((MotionDetector)detector).setEdgeFilter(filter);
+                ((MotionDetector)detector).setScheduler(scheduler);
+                ((MotionDetector)detector).setRawEdges(options.journalRawEdges);
+            }
+            detector.setPolicy(policy(zone, options.policy));
+            if (output != null) {
+                detector.setOutput(output);
+            }
+            if (router != null) {
+                detector.setRouter(router);
+            }
+            if (journal != null) {
+                detector.setJournal(journal, zone.pin);
+            }
+            detector.setSupervisor(supervisor);
+            d.add(detector); f.add(filter);
+        }
+        detectors = Collections.unmodifiableList(d);
+        filters = Collections.unmodifiableList(f);
+        moctor = detectors.get(0);
+
+        //
+        // All zones share the same dispatcher when more than one
+        //
+        moctor.getDispatcher().setOverflow(options.overflow);
+        for (TriggerDispatcher.RateLimit limit: options.rateLimits) {
+            moctor.getDispatcher().setRateLimit(limit.source, limit.rate, limit.burst);
+        }
 
         if (!options.noHeartbeat) {
             try {
-                heartbeatTask = new Heartbeat(DEFAULT_HEARTBEAT_PERIOD);
+                heartbeatTask = (output != null)
+                              ? new Heartbeat(DEFAULT_HEARTBEAT_PERIOD, output)
+                              : new Heartbeat(DEFAULT_HEARTBEAT_PERIOD);
+                heartbeatTask.setSupervisor(supervisor);
             } catch (Exception x) {
                 //
                 // The heartbeat won't start...
@@ -136,56 +299,337 @@ public class FalcoCLI implements AutoCloseable {
 
     public void startup() throws Exception {
         jmxSetup();
+        supervisor.start();
+
+        if (output != null) {
+            output.open(SoundUtils.getNativeFormat(output.mixer));
+        }
+        if (journal != null) {
+            journal.open();
+        }
+        for (SoundMotionDetector detector: detectors) {
+            detector.startup();
+        }
 
-        moctor.startup();
+        synchronized (this) {
+            started = true;
+            if (heartbeatTask != null) {
+                beats = scheduler.scheduleAtFixedRate(
+                    "heartbeat", heartbeatTask, 0, heartbeatTask.period, TimeUnit.MILLISECONDS
+                );
+            }
+            if (journal != null) {
+                flushes = scheduler.scheduleWithFixedDelay("journal flush", new Runnable() {
+                    @Override
+                    public void run() {
+                        journal.flush();
+                    }
+                }, JOURNAL_FLUSH, JOURNAL_FLUSH, TimeUnit.MILLISECONDS);
+            }
+        }
 
-        ScheduledExecutorService ses = Executors.newSingleThreadScheduledExecutor();
+        if (warmup > 0) {
+            for (SoundMotionDetector detector: detectors) {
+                detector.warmup(warmup);
+            }
+        }
 
-        if (heartbeatTask != null) {
-            ses.scheduleAtFixedRate(heartbeatTask, 0, heartbeatTask.period, TimeUnit.MILLISECONDS);
+        if (dormancy) {
+            checkDormancy();
         }
     }
 
-    //
-    //  TODO: close hearthbeat
-    //
+    /**
+     * @return true if all zones are dormant (see --dormant), false otherwise
+     */
+    public boolean isDormant() {
+        return dormant;
+    }
+
+    /**
+     * Blocks until shutdown() is called, e.g. by a JMX reinit or because the
+     * supervisor could not recover a failed component.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitShutdown() throws InterruptedException {
+        stopped.await();
+    }
+
+    public Supervisor getSupervisor() {
+        return supervisor;
+    }
+
+    public Scheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * @return true if all zones are live, false otherwise
+     */
+    public boolean isLive() {
+        for (SoundMotionDetector detector: detectors) {
+            if (!detector.isLive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Cancels the tasks of the instance on the scheduler (which stays up for
+     * the next instance), stops the supervisor and shuts all components down.
+     * Only the first call does it, even if more threads (e.g. a JMX reinit
+     * and close()) call it at the same time.
+     */
     public void shutdown() {
+        if (!stopping.compareAndSet(false, true)) {
+            return;  // already shut down or shutting down
+        }
+        supervisor.stop();
+        synchronized (this) {
+            started = false;
+            for (Scheduler.Task task: new Scheduler.Task[] { dormancyCheck, beats, flushes }) {
+                if (task != null) {
+                    task.cancel();
+                }
+            }
+            dormancyCheck = beats = flushes = null;
+            if (heartbeatTask != null) {
+                heartbeatTask.sleep();  // releases its clip, if any
+            }
+        }
         try {
-            moctor.shutdown();
+            for (SoundMotionDetector detector: detectors) {
+                detector.shutdown();
+            }
+            if (router != null) {
+                router.dispatcher.stop();
+            }
+            if (journal != null) {
+                journal.close();
+            }
+            if (output != null) {
+                output.close();
+            }
             jmxShutdown();
         } catch (Exception x) {
             x.printStackTrace();
+        } finally {
+            stopped.countDown();
+        }
+    }
+
+    /**
+     * Drives the PIRs with the given emulator, which must be the GPIO
+     * provider, starting the given traffic unless some is already running,
+     * and exposes it as the Emulator MBean.
+     *
+     * @param emulator the emulator - NOT NULL
+     * @param traffic the traffic to start - NOT NULL
+     *
+     * @throws Exception in case of JMX errors
+     */
+    public void emulate(final MotionSensorEmulator emulator, final MotionSensorEmulator.Traffic traffic)
+    throws Exception {
+        if (this.emulator == null) {
+            register(new Emulator(emulator), "ste.falco.jmx:name=Emulator");
+        }
+        this.emulator = emulator;
+        if (!emulator.isRunning()) {
+            emulator.start(traffic);
         }
     }
 
+    /**
+     * Changes the play policy of all zones: the given entries apply on top
+     * of the default policy with the cooldown of each zone.
+     *
+     * @param spec the policy entries (see PlayPolicy) - MAY BE NULL
+     *
+     * @throws IllegalArgumentException if spec is not valid
+     */
+    public void setPolicy(final String spec) {
+        final PlayPolicy policy = ((spec == null) || spec.trim().isEmpty()) ? null : PlayPolicy.compile(spec);
+        final PlayPolicy[] policies = new PlayPolicy[zones.size()];
+        for (int i=0; i<policies.length; ++i) {
+            policies[i] = policy(zones.get(i), policy);
+        }
+        for (int i=0; i<policies.length; ++i) {
+            detectors.get(i).setPolicy(policies[i]);
+        }
+        if (dormancy) {
+            checkDormancy();
+        }
+    }
+
+    /**
+     * @return the play policy of the first zone
+     */
+    public String getPolicy() {
+        return moctor.getPolicy().spec;
+    }
+
     // ---------------------------------------------------------- friend methods
+
+    /**
+     * Puts to sleep the zones whose play window is closed and wakes up the
+     * ones whose window is open or opens within WAKE_LEAD; when all zones are
+     * dormant the shared output is closed and the heartbeat stopped too. It
+     * then schedules itself at the next change of any window (at most after
+     * MAX_DORMANCY_CHECK).
+     */
+    synchronized void checkDormancy() {
+        if (dormancyCheck != null) {
+            dormancyCheck.cancel();
+            dormancyCheck = null;
+        }
+        if (!started || scheduler.isShutdown()) {
+            return;
+        }
+
+        long delay = MAX_DORMANCY_CHECK;
+        final boolean[] awake = new boolean[detectors.size()];
+        boolean any = false;
+        for (int i=0; i<awake.length; ++i) {
+            final SoundMotionDetector detector = detectors.get(i);
+            final PlayPolicy policy = detector.getPolicy();
+            final Clock clock = detector.getClock();
+            final long now = clock.millis();
+            final long next = policy.next(now, clock.getZone(), TriggerSource.GPIO);
+
+            if (policy.isActive(now, clock.getZone(), TriggerSource.GPIO) || (next - now <= WAKE_LEAD)) {
+                awake[i] = true; any = true;
+                delay = Math.min(delay, next - now);
+            } else {
+                delay = Math.min(delay, next - now - WAKE_LEAD);
+            }
+        }
+
+        try {
+            if (any && dormant) {
+                if (output != null) {
+                    output.open(SoundUtils.getNativeFormat(output.mixer));
+                }
+                if (heartbeatTask != null) {
+                    beats = scheduler.scheduleAtFixedRate(
+                        "heartbeat", heartbeatTask, 0, heartbeatTask.period, TimeUnit.MILLISECONDS
+                    );
+                }
+                dormant = false;
+            }
+            for (int i=0; i<awake.length; ++i) {
+                if (awake[i]) {
+                    detectors.get(i).wake();
+                } else {
+                    detectors.get(i).sleep();
+                }
+            }
+            if (!any && !dormant) {
+                if (beats != null) {
+                    beats.cancel();
+                    beats = null;
+                }
+                if (heartbeatTask != null) {
+                    heartbeatTask.sleep();
+                }
+                if (output != null) {
+                    output.close();
+                }
+                dormant = true;
+            }
+        } catch (Exception x) {
+            if (LOG.isLoggable(Level.SEVERE)) {
+                LOG.log(Level.SEVERE, "unable to wake up, trying again in a minute", x);
+            }
+            delay = Math.min(delay, WAKE_LEAD);
+        }
+
+        dormancyCheck = scheduler.schedule("dormancy check", new Runnable() {
+            @Override
+            public void run() {
+                checkDormancy();
+            }
+        }, Math.max(1000, delay), TimeUnit.MILLISECONDS);
+    }
     /**
      * This is trick (maybe dirty) to be able to call super.moved() from the JMX
      * bean.
      */
-    void play() {
+    public void play() {
         moctor.moved();
     }
 
     // --------------------------------------------------------- private methods
-    private void jmxSetup()
-            throws MalformedObjectNameException, InstanceAlreadyExistsException,
-            MBeanRegistrationException, NotCompliantMBeanException {
-        ManagementFactory
-                .getPlatformMBeanServer()
-                .registerMBean(
-                        new TrafficControl(this),
-                        new ObjectName("ste.falco.jmx:name=TrafficControl")
-                );
+    private static PlayPolicy policy(final Zone zone, final PlayPolicy policy) {
+        return PlayPolicy.compile(
+            PlayPolicy.DEFAULT + ";cooldown=" + zone.cooldown + ((policy == null) ? "" : ";" + policy.spec)
+        );
     }
 
-    private void jmxShutdown()
-            throws MalformedObjectNameException, InstanceNotFoundException, MBeanRegistrationException {
-        ManagementFactory
-                .getPlatformMBeanServer()
-                .unregisterMBean(
-                        new ObjectName("ste.falco.jmx:name=TrafficControl")
+    private void jmxSetup() throws JMException {
+        try {
+            register(new TrafficControl(this), "ste.falco.jmx:name=TrafficControl");
+            register(new Latency(detectors), "ste.falco.jmx:name=Latency");
+            register(
+                new Admission((router == null) ? moctor.getDispatcher() : router.dispatcher),
+                "ste.falco.jmx:name=Admission"
+            );
+            for (int i=0; i<zones.size(); ++i) {
+                register(
+                    new Sensors(filters.get(i), detectors.get(i)),
+                    "ste.falco.jmx:name=Sensors,zone=" + zones.get(i).name
+                );
+            }
+            register(new Scheduling(scheduler), "ste.falco.jmx:name=Scheduler");
+            for (int kind: COMPONENTS) {
+                register(
+                    new Recovery(supervisor, kind),
+                    "ste.falco.jmx:name=Supervisor,component=" + Supervisor.name(kind)
                 );
+            }
+        } catch (JMException x) {
+            //
+            // do not leave behind the MBeans registered so far, or the next
+            // instance would not be able to register its own
+            //
+            jmxShutdown();
+            throw x;
+        }
+    }
+
+    /**
+     * Registers the given MBean and records its name, so that jmxShutdown()
+     * unregisters what was actually registered.
+     */
+    private void register(final Object bean, final String name) throws JMException {
+        final ObjectName objectName = new ObjectName(name);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(bean, objectName);
+        synchronized (registered) {
+            registered.add(objectName);
+        }
+    }
+
+    /**
+     * Unregisters all MBeans registered by this instance; a failure does not
+     * stop the others from being unregistered.
+     */
+    private void jmxShutdown() {
+        final ObjectName[] names;
+        synchronized (registered) {
+            names = registered.toArray(new ObjectName[registered.size()]);
+            registered.clear();
+        }
+        for (int i=names.length-1; i>=0; --i) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(names[i]);
+            } catch (JMException x) {
+                if (LOG.isLoggable(Level.WARNING)) {
+                    LOG.log(Level.WARNING, "unable to unregister " + names[i], x);
+                }
+            }
+        }
+        emulator = null;
     }
 
     @Override
@@ -194,45 +638,156 @@ public class FalcoCLI implements AutoCloseable {
     }
 
     // ----------------------------------------------------------- HeartbeatTask
-    protected static class Heartbeat implements Runnable {
+    protected static class Heartbeat implements Runnable, Supervisor.Component {
+
+        public static final String HEARTBEAT_SOUND = "/sounds/heartbeat.wav";
+
+        /**
+         * Priority of the heartbeat when played through a shared output: any
+         * other sound wins over it
+         */
+        public static final int VOICE_PRIORITY = 0;
 
         public final long period;
 
         private Clip clip;
+        private Mixer mixer;
+        private AudioOutput output;
+        private volatile SoundAsset asset;
+        private volatile Supervisor supervisor;
 
         /**
+         * Plays the heartbeat with a clip of its own
+         *
          * @param period the delay in milliseconds between to beats
          */
         public Heartbeat(long period)
                 throws LineUnavailableException, UnsupportedAudioFileException, IOException {
             this.period = period;
-            clip = SoundUtils.getClip(AudioSystem.getMixer(null));
-            clip.open(
-                    AudioSystem.getAudioInputStream(
-                            new ByteArrayInputStream(IOUtils.resourceToByteArray("/sounds/heartbeat.wav"))
-                    ));
+            mixer = SoundUtils.getMixer();
+            final AudioFormat format = SoundUtils.getNativeFormat(mixer);
+            clip = SoundUtils.getClip(mixer, format);
+            asset = SoundCache.getInstance().get(HEARTBEAT_SOUND, format);
+            clip.open(asset.stream());
+        }
+
+        /**
+         * Plays the heartbeat as a low priority voice on the given output,
+         * sharing the line with the other sounds. The output may be opened
+         * later, but before the first beat.
+         *
+         * @param period the delay in milliseconds between to beats
+         * @param output the output to play through - NOT NULL
+         */
+        public Heartbeat(long period, AudioOutput output) {
+            if (output == null) {
+                throw new IllegalArgumentException("output can not be null");
+            }
+            this.period = period;
+            this.output = output;
+        }
+
+        /**
+         * @param supervisor the supervisor the failures to play the heartbeat
+         *        are reported to; null to just try again at the next beat
+         */
+        public void setSupervisor(final Supervisor supervisor) {
+            this.supervisor = supervisor;
         }
 
         @Override
-        public void run() {
+        public synchronized void run() {
             if (LOG.isLoggable(Level.FINEST)) {
                 LOG.finest("heartbeat");
             }
 
+            if (output != null) {
+                try {
+                    if (asset == null) {
+                        asset = SoundCache.getInstance().get(HEARTBEAT_SOUND, output.getFormat());
+                    }
+                    output.play(asset, 1f, VOICE_PRIORITY);
+                } catch (Exception x) {
+                    failed(x);
+                }
+                return;
+            }
+
+            if (!clip.isOpen()) {
+                try {
+                    clip.open(asset.stream());
+                } catch (Exception x) {
+                    failed(x);
+                    return;
+                }
+            }
             clip.setFramePosition(0);
             clip.start();
         }
+
+        /**
+         * Gets ready to beat again after a failure: through an output the
+         * sound is taken again (from the cache) in the format of the output,
+         * which must have been recovered already; otherwise the clip is
+         * replaced by a new one opened from the loaded sound.
+         *
+         * @throws Exception if the heartbeat can not be played yet
+         */
+        @Override
+        public synchronized void recover() throws Exception {
+            if (output != null) {
+                if (!output.isOpen()) {
+                    throw new IllegalStateException("the output is not open");
+                }
+                asset = SoundCache.getInstance().get(HEARTBEAT_SOUND, output.getFormat());
+                return;
+            }
+
+            if (clip.isOpen()) {
+                return;
+            }
+            final Clip c = SoundUtils.getClip(mixer, asset.format);
+            c.open(asset.stream());
+            clip.close();
+            clip = c;
+        }
+
+        /**
+         * Releases the clip of its own, if any, until the next beat (see
+         * --dormant)
+         */
+        public synchronized void sleep() {
+            if (clip != null) {
+                clip.close();
+            }
+        }
+
+        private void failed(final Exception x) {
+            final Supervisor s = supervisor;
+            if (s != null) {
+                s.failed(Supervisor.HEARTBEAT, this, x);
+            } else if (LOG.isLoggable(Level.SEVERE)) {
+                LOG.log(Level.SEVERE, "unable to play the heartbeat", x);
+            }
+        }
     }
 
     // ------------------------------------------------------------ FalcoOptions
     @Command(
             name = "ste.falco.FalcoCLI",
-            description = "A pigeon dissuader that plays the sound of a red tailed hawk"
+            description = "A pigeon dissuader that plays the sound of a red tailed hawk",
+            subcommands = { StatsCommand.class, SimulateCommand.class }
     )
     protected static class FalcoOptions implements Runnable {
 
         public static final boolean DEFAULT_NOGPIO = false;
         public static final boolean DEFAULT_NOHEARTBEAT = false;
+        public static final boolean DEFAULT_STREAMING = false;
+        public static final boolean DEFAULT_POLLING = false;
+        public static final boolean DEFAULT_DORMANT = false;
+        public static final int DEFAULT_WARMUP = 0;
+        public static final int DEFAULT_DEBOUNCE = 20;     // milliseconds
+        public static final int DEFAULT_COALESCE = 2000;   // milliseconds
 
         @Option(
                 names = {"--help", "-h"},
@@ -247,75 +802,187 @@ public class FalcoCLI implements AutoCloseable {
         )
         public boolean noHeartbeat = DEFAULT_NOHEARTBEAT;
 
+        @Option(
+                names = {"--dormant"},
+                description = "Go dormant during the muted hours: stop listening to the PIRs, close the audio lines and stop the heartbeat, getting everything back a minute before the play window reopens"
+        )
+        public boolean dormant = DEFAULT_DORMANT;
+
         @Option(
                 names = {"--nogpio"},
                 description = "Do not use GPIO"
         )
         public boolean noGPIO = DEFAULT_NOGPIO;
 
+        @Option(
+                names = {"--streaming"},
+                description = "Play all sounds (heartbeat included) through a single, software mixed, streaming line instead of a clip each (lower latency and memory)"
+        )
+        public boolean streaming = DEFAULT_STREAMING;
 
-        protected FalcoOptions(boolean noGPIO, boolean noHeartbeat) {
-            this.noGPIO = noGPIO;
-            this.noHeartbeat = noHeartbeat;
-        }
+        @Option(
+                names = {"--polling"},
+                description = "Sample the PIR pins instead of relying on GPIO interrupts; sampling is faster right after a motion and suspended during muted hours"
+        )
+        public boolean polling = DEFAULT_POLLING;
 
-        protected FalcoOptions() {
-            this(DEFAULT_NOGPIO, DEFAULT_NOHEARTBEAT);
-        }
+        @Option(
+                names = {"--warmup"},
+                paramLabel = "N",
+                description = "Go through the detection and playback path N times, muted, before going live (default: no warm-up)"
+        )
+        public int warmup = DEFAULT_WARMUP;
 
-        @Override
-        public void run() {
-        }
-    }
+        @Option(
+                names = {"--debounce"},
+                paramLabel = "MILLIS",
+                description = "Ignore PIR edges closer than MILLIS to the previous one (default: " + DEFAULT_DEBOUNCE + ")"
+        )
+        public int debounce = DEFAULT_DEBOUNCE;
 
-    // ---------------------------------------------------------- TrafficControl
+        @Option(
+                names = {"--coalesce"},
+                paramLabel = "MILLIS",
+                description = "Take PIR rising edges as one motion until the sensor is quiet for MILLIS (default: " + DEFAULT_COALESCE + ")"
+        )
+        public int coalesce = DEFAULT_COALESCE;
 
-    public static interface TrafficControlMBean {
+        @Option(
+                names = {"--journal"},
+                paramLabel = "DIR",
+                description = "Record motion events in a binary journal in DIR; the cooldown state is restored from it when falco starts"
+        )
+        public String journal = null;
 
-        public void move();
+        @Option(
+                names = {"--journal-segment-size"},
+                paramLabel = "BYTES",
+                description = "The size of a journal segment (default: " + EventJournal.DEFAULT_SEGMENT_SIZE + ")"
+        )
+        public int journalSegmentSize = EventJournal.DEFAULT_SEGMENT_SIZE;
 
-        public void play();
+        @Option(
+                names = {"--journal-segments"},
+                paramLabel = "N",
+                description = "How many journal segments to retain, the oldest ones are deleted (default: " + EventJournal.DEFAULT_SEGMENTS + ")"
+        )
+        public int journalSegments = EventJournal.DEFAULT_SEGMENTS;
 
-        public void reinit();
+        @Option(
+                names = {"--journal-raw-edges"},
+                description = "Record in the journal also the PIR edges ignored as bounces (see --debounce), flagged as dropped"
+        )
+        public boolean journalRawEdges = false;
 
-        public void setVolume(double volume);
+        @Option(
+                names = {"--emulate"},
+                paramLabel = "TRAFFIC",
+                converter = TrafficConverter.class,
+                description = "Drive the PIR pins with emulated traffic instead of real sensors (soak and throughput tests); TRAFFIC is one of poisson,rate=PER_SECOND[,pulse=MILLIS][,seed=N], burst,rate=PER_SECOND[,size=N][,gap=MILLIS][,pulse=MILLIS][,seed=N], stuck[,pin=N] or replay,journal=DIR[,speed=N]"
+        )
+        public MotionSensorEmulator.Traffic emulate = null;
 
-        public void getVolume();
-    };
+        @Option(
+                names = {"--overflow"},
+                paramLabel = "POLICY",
+                converter = OverflowConverter.class,
+                description = "What to do with a trigger when too many are pending: drop-newest (drop it), drop-oldest (drop the oldest pending one) or coalesce (keep at most one pending trigger per source and zone) (default: drop-newest)"
+        )
+        public int overflow = TriggerDispatcher.DROP_NEWEST;
 
-    public static class TrafficControl implements TrafficControlMBean {
+        @Option(
+                names = {"--rate-limit"},
+                paramLabel = "LIMIT",
+                converter = RateLimitConverter.class,
+                description = "Admit at most RATE triggers per second, in bursts of up to BURST, from a source (gpio or jmx) of each zone, given as SOURCE=RATE[/BURST]; repeat it for more sources (default: no limits)"
+        )
+        public List<TriggerDispatcher.RateLimit> rateLimits = new ArrayList<>();
 
-        private final FalcoCLI falco;
+        @Option(
+                names = {"--policy"},
+                paramLabel = "SPEC",
+                converter = PolicyConverter.class,
+                description = "When motions play, as entries [source:]key=value separated by ';' applied on top of the default policy (" + PlayPolicy.DEFAULT + ") and of the cooldown of the zones; key is hours or days (e.g. mon-fri, sat+sun) with value always, never, daylight or windows START-END (e.g. 7-9,17:30-21), cooldown with value MINUTES or tiers (e.g. 10,20,60), or location with value LATITUDE,LONGITUDE (for daylight); source is gpio or jmx"
+        )
+        public PlayPolicy policy = null;
+
+        @Option(
+                names = {"--zone"},
+                paramLabel = "ZONE",
+                converter = ZoneConverter.class,
+                description = "Watch a zone given as name[,pin=N][,sound=/sounds/...][,debounce=MILLIS][,coalesce=MILLIS][,cooldown=MINUTES]; repeat it for more zones, which then share one dispatcher thread and one streaming line (default: one zone on GPIO_04)"
+        )
+        public List<Zone> zones = new ArrayList<>();
+
+        @Spec
+        CommandSpec spec;
 
-        public TrafficControl(FalcoCLI falco) {
-            this.falco = falco;
+        protected FalcoOptions(boolean noGPIO, boolean noHeartbeat) {
+            this.noGPIO = noGPIO;
+            this.noHeartbeat = noHeartbeat;
         }
 
-        @Override
-        public void move() {
-            falco.moctor.moved();
+        protected FalcoOptions() {
+            this(DEFAULT_NOGPIO, DEFAULT_NOHEARTBEAT);
         }
 
         @Override
-        public void play() {
-            falco.play();
+        public void run() {
+            if ((emulate != null) && noGPIO) {
+                throw new ParameterException(spec.commandLine(), "--emulate can not be used with --nogpio");
+            }
+            if (journalSegmentSize < EventJournal.HEADER_SIZE + EventJournal.RECORD_SIZE) {
+                throw new ParameterException(spec.commandLine(), "--journal-segment-size must be at least " + (EventJournal.HEADER_SIZE + EventJournal.RECORD_SIZE));
+            }
+            if (journalSegments < 1) {
+                throw new ParameterException(spec.commandLine(), "--journal-segments must be greater than 0");
+            }
+            final List<String> names = new ArrayList<>();
+            final List<Integer> pins = new ArrayList<>();
+            for (Zone zone: zones) {
+                if (names.contains(zone.name)) {
+                    throw new ParameterException(spec.commandLine(), "duplicated zone " + zone.name);
+                }
+                if (pins.contains(zone.pin)) {
+                    throw new ParameterException(spec.commandLine(), "pin " + zone.pin + " used by more zones");
+                }
+                names.add(zone.name); pins.add(zone.pin);
+            }
         }
+    }
 
+    protected static class ZoneConverter implements ITypeConverter<Zone> {
         @Override
-        public void reinit() {
-            falco.shutdown();
+        public Zone convert(String value) {
+            return Zone.parse(value);
         }
+    }
 
+    protected static class TrafficConverter implements ITypeConverter<MotionSensorEmulator.Traffic> {
         @Override
-        public void setVolume(double volume) {
-            falco.moctor.setVolume(volume);
+        public MotionSensorEmulator.Traffic convert(String value) {
+            return MotionSensorEmulator.Traffic.parse(value);
         }
+    }
 
+    protected static class OverflowConverter implements ITypeConverter<Integer> {
         @Override
-        public void getVolume() {
-            throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+        public Integer convert(String value) {
+            return TriggerDispatcher.parseOverflow(value);
         }
+    }
 
-    };
+    protected static class RateLimitConverter implements ITypeConverter<TriggerDispatcher.RateLimit> {
+        @Override
+        public TriggerDispatcher.RateLimit convert(String value) {
+            return TriggerDispatcher.RateLimit.parse(value);
+        }
+    }
 
+    protected static class PolicyConverter implements ITypeConverter<PlayPolicy> {
+        @Override
+        public PlayPolicy convert(String value) {
+            return PlayPolicy.compile(value);
+        }
+    }
 }
@@ -5,6 +5,7 @@ import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.Clip;
 import javax.sound.sampled.DataLine;
 import javax.sound.sampled.Mixer;
+import ste.falco.SoundUtils;
 
 /**
  *
@@ -29,6 +30,10 @@ public class PlaySound {
             System.out.println();
         }
 
+        if ((mixer == null) && SoundUtils.AUDIO_MEMORY.equals(System.getProperty(SoundUtils.PROPERTY_AUDIO))) {
+            mixer = SoundUtils.getMixer();
+        }
+
         Clip clip = (mixer != null)
                   ? (Clip)mixer.getLine(new DataLine.Info(Clip.class, null))
                   : AudioSystem.getClip();  // defatul
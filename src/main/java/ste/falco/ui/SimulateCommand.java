@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco.ui;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.ExecutionException;
+import picocli.CommandLine.Model.CommandSpec;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.ParameterException;
+import picocli.CommandLine.Spec;
+import ste.falco.EventJournal;
+import ste.falco.MotionDetector;
+import ste.falco.PlayPolicy;
+import ste.falco.PolicySimulator;
+import ste.falco.SoundMotionDetector;
+
+@Command(
+        name = "simulate",
+        description = "Replay the motions recorded with --journal through the play policy in virtual time, with no audio, and print what the policy would have done"
+)
+class SimulateCommand implements Runnable {
+
+    private static Logger LOG = Logger.getLogger("ste.falco");
+
+    @Option(
+            names = {"--help", "-h"},
+            description = "This help message",
+            usageHelp = true
+    )
+    public boolean helpRequested;
+
+    @Option(
+            names = {"--journal"},
+            paramLabel = "DIR",
+            required = true,
+            description = "The journal directory"
+    )
+    public String journal;
+
+    @Option(
+            names = {"--pin"},
+            paramLabel = "N",
+            description = "The pin whose motions are replayed (default: " + MotionDetector.DEFAULT_PIN + ")"
+    )
+    public int pin = MotionDetector.DEFAULT_PIN;
+
+    @Option(
+            names = {"--cooldown"},
+            paramLabel = "MINUTES",
+            description = "The cooldown of the simulated policy (default: " + SoundMotionDetector.DEFAULT_COOLDOWN + ")"
+    )
+    public int cooldown = SoundMotionDetector.DEFAULT_COOLDOWN;
+
+    @Option(
+            names = {"--policy"},
+            paramLabel = "SPEC",
+            converter = FalcoCLI.PolicyConverter.class,
+            description = "The simulated policy, as entries [source:]key=value separated by ';' applied on top of the default policy and of --cooldown (see falco --help)"
+    )
+    public PlayPolicy policy = null;
+
+    @Option(
+            names = {"--effect"},
+            paramLabel = "MINUTES",
+            description = "For how long a play keeps birds away, to compute the coverage (default: " + SoundMotionDetector.DEFAULT_COOLDOWN + ")"
+    )
+    public int effect = SoundMotionDetector.DEFAULT_COOLDOWN;
+
+    @Spec
+    CommandSpec spec;
+
+    @Override
+    public void run() {
+        final PolicySimulator simulator;
+        try {
+            simulator = new PolicySimulator(pin, cooldown, effect, ZoneId.systemDefault());
+            if (policy != null) {
+                simulator.setPolicy(PlayPolicy.compile(
+                    PlayPolicy.DEFAULT + ";cooldown=" + cooldown + ";" + policy.spec
+                ));
+            }
+        } catch (IllegalArgumentException x) {
+            throw new ParameterException(spec.commandLine(), x.getMessage());
+        }
+
+        //
+        // every motion would be logged otherwise
+        //
+        final Level level = LOG.getLevel();
+        LOG.setLevel(Level.WARNING);
+
+        final long start = System.nanoTime();
+        try {
+            simulator.replay(new EventJournal(Paths.get(journal)).getSegments());
+        } catch (IOException x) {
+            throw new ExecutionException(spec.commandLine(), "unable to read the journal: " + x.getMessage(), x);
+        } finally {
+            simulator.close();
+            LOG.setLevel(level);
+        }
+        final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        final PrintWriter out = spec.commandLine().getOut();
+        if (simulator.getMotions() == 0) {
+            out.println("no motions of pin " + pin + " recorded in " + journal);
+            out.flush();
+            return;
+        }
+
+        final ZoneId zone = simulator.clock.getZone();
+        out.printf("motions: %d of pin %d from %s to %s%n",
+            simulator.getMotions(), pin,
+            Instant.ofEpochMilli(simulator.getFirst()).atZone(zone).toLocalDateTime(),
+            Instant.ofEpochMilli(simulator.getLast()).atZone(zone).toLocalDateTime()
+        );
+        out.printf("played: %d (%.1f%%), muted: %d (night: %d, cooldown: %d) with %s%n",
+            simulator.getPlayed(), 100d * simulator.getPlayed() / simulator.getMotions(),
+            simulator.getMutedAtNight() + simulator.getMutedInCooldown(),
+            simulator.getMutedAtNight(), simulator.getMutedInCooldown(),
+            (policy == null) ? "a cooldown of " + cooldown + " minutes" : "the policy " + simulator.getPolicy()
+        );
+        out.printf("coverage: %.1f%% of the active hours within %d minutes after a play%n",
+            100d * simulator.getCoverage(), effect
+        );
+        out.printf("simulated in %dms%n", elapsed);
+        out.flush();
+    }
+}
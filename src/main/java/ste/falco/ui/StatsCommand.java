@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco.ui;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneId;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.ExecutionException;
+import picocli.CommandLine.Model.CommandSpec;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.ParameterException;
+import picocli.CommandLine.Spec;
+import ste.falco.EventJournal;
+import ste.falco.JournalStats;
+
+@Command(
+        name = "stats",
+        description = "Print when motions happened, how many were muted and how fast birds come back after a play, from the motions recorded with --journal"
+)
+class StatsCommand implements Runnable {
+
+    private static final String[] WEEKDAYS = {"Mon", "Tue", "Wed", "Thu", "Fri", "Sat", "Sun"};
+    private static final int BAR = 40;
+
+    @Option(
+            names = {"--help", "-h"},
+            description = "This help message",
+            usageHelp = true
+    )
+    public boolean helpRequested;
+
+    @Option(
+            names = {"--journal"},
+            paramLabel = "DIR",
+            required = true,
+            description = "The journal directory"
+    )
+    public String journal;
+
+    @Option(
+            names = {"--threads"},
+            paramLabel = "N",
+            description = "Scan the journal with N threads (default: the number of processors)"
+    )
+    public int threads = Runtime.getRuntime().availableProcessors();
+
+    @Spec
+    CommandSpec spec;
+
+    @Override
+    public void run() {
+        if (threads < 1) {
+            throw new ParameterException(spec.commandLine(), "threads must be greater than 0");
+        }
+
+        final JournalStats stats;
+        try {
+            stats = JournalStats.scan(
+                new EventJournal(Paths.get(journal)).getSegments(), ZoneId.systemDefault(), threads
+            );
+        } catch (IOException x) {
+            throw new ExecutionException(spec.commandLine(), "unable to read the journal: " + x.getMessage(), x);
+        }
+
+        final PrintWriter out = spec.commandLine().getOut();
+        if (stats.getRecords() == 0) {
+            out.println("no motions recorded in " + journal);
+            out.flush();
+            return;
+        }
+
+        out.printf("records: %d (%d edges) from %s to %s%n",
+            stats.getRecords(), stats.getEdges(),
+            Instant.ofEpochMilli(stats.getFirst()).atZone(stats.zone).toLocalDateTime(),
+            Instant.ofEpochMilli(stats.getLast()).atZone(stats.zone).toLocalDateTime()
+        );
+        out.printf("motions: %d, played: %d, muted: %d (night: %d, cooldown: %d)%n",
+            stats.getMotions(), stats.getPlayed(),
+            stats.getMutedAtNight() + stats.getMutedInCooldown(),
+            stats.getMutedAtNight(), stats.getMutedInCooldown()
+        );
+        out.printf("back after a play (minutes): count=%d p50=%.1f p90=%.1f max=%.1f%n",
+            stats.returns.getCount(),
+            minutes(stats.returns.getPercentile(50)),
+            minutes(stats.returns.getPercentile(90)),
+            minutes(stats.returns.getMax())
+        );
+
+        out.println("motions per hour:");
+        for (int i=0; i<stats.hours.length; ++i) {
+            out.printf("  %02d %7d %s%n", i, stats.hours[i], bar(stats.hours[i], stats.hours));
+        }
+        out.println("motions per weekday:");
+        for (int i=0; i<stats.weekdays.length; ++i) {
+            out.printf("  %s %6d %s%n", WEEKDAYS[i], stats.weekdays[i], bar(stats.weekdays[i], stats.weekdays));
+        }
+        out.flush();
+    }
+
+    private static double minutes(long micros) {
+        return micros / 60000000d;
+    }
+
+    private static String bar(long value, long[] values) {
+        long max = 0;
+        for (long v: values) {
+            max = Math.max(max, v);
+        }
+        final StringBuilder sb = new StringBuilder();
+        for (long i=0, n=(max == 0) ? 0 : (value * BAR + max - 1) / max; i<n; ++i) {
+            sb.append('#');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,450 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.Mixer;
+import javax.sound.sampled.SourceDataLine;
+import static org.assertj.core.api.AssertionsForClassTypes.fail;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Test;
+import ste.xtest.concurrent.Condition;
+import ste.xtest.concurrent.WaitFor;
+
+/**
+ *
+ */
+public class BugFreeAudioOutput {
+
+    private static final AudioFormat FORMAT = new AudioFormat(8000f, 16, 1, true, false);
+
+    @Test
+    public void open_starts_the_line_once_close_closes_it() throws Exception {
+        LineRecorder rec = new LineRecorder();
+        AudioOutput out = new AudioOutput(rec.mixer(), 16);
+
+        then(out.isOpen()).isFalse();
+        out.open(FORMAT);
+        then(out.isOpen()).isTrue();
+        then(out.getFormat()).isSameAs(FORMAT);
+        then(rec.calls).containsExactly("open", "start");
+
+        try {
+            out.open(FORMAT);
+            fail("output opened twice");
+        } catch (IllegalStateException x) {
+            then(x).hasMessage("output already open");
+        }
+
+        out.close();
+        then(out.isOpen()).isFalse();
+        then(rec.calls).containsExactly("open", "start", "stop", "flush", "close");
+
+        out.close(); // nothing happens
+    }
+
+    @Test
+    public void play_streams_the_whole_sound() throws Exception {
+        LineRecorder rec = new LineRecorder();
+        byte[] pcm = new byte[100];
+        for (int i=0; i<pcm.length; ++i) {
+            pcm[i] = (byte)i;
+        }
+
+        try (AudioOutput out = new AudioOutput(rec.mixer(), 16)) {
+            out.open(FORMAT);
+            out.play(new SoundAsset(FORMAT, pcm));
+
+            waitWritten(rec, pcm.length);
+            then(rec.data.toByteArray()).isEqualTo(pcm);
+
+            out.play(new SoundAsset(FORMAT, pcm));
+            waitWritten(rec, 2*pcm.length);
+        }
+    }
+
+    @Test
+    public void voices_are_mixed_with_their_gain() throws Exception {
+        LineRecorder rec = new LineRecorder(); rec.gate = new Semaphore(0);
+
+        try (AudioOutput out = new AudioOutput(rec.mixer(), 16)) {
+            out.open(FORMAT);
+            out.play(sound(32, 1000));
+            waitCalls(rec, 1);  // the first period is being written
+
+            out.play(sound(16, 500), 2f, AudioOutput.DEFAULT_PRIORITY);
+            out.play(sound(8, 30000), 0.5f, AudioOutput.DEFAULT_PRIORITY);
+            rec.gate.release(100);
+
+            waitWritten(rec, 64);
+            then(samples(rec)).containsExactly(
+                1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000,
+                17000, 17000, 17000, 17000, 17000, 17000, 17000, 17000, 2000, 2000, 2000, 2000, 2000, 2000, 2000, 2000
+            );
+        }
+    }
+
+    @Test
+    public void mixed_samples_are_clipped() throws Exception {
+        LineRecorder rec = new LineRecorder(); rec.gate = new Semaphore(0);
+
+        try (AudioOutput out = new AudioOutput(rec.mixer(), 4)) {
+            out.open(FORMAT);
+            out.play(sound(8, 0));
+            waitCalls(rec, 1);
+
+            out.play(sound(2, 30000), 2f, AudioOutput.DEFAULT_PRIORITY);
+            out.play(sound(2, -30000), 2f, AudioOutput.DEFAULT_PRIORITY);
+            out.play(sound(4, -20000));
+            rec.gate.release(100);
+
+            waitWritten(rec, 16);
+            then(samples(rec)).containsExactly(0, 0, 0, 0, -20000, -20000, -20000, -20000);
+
+            rec.data.reset();
+            out.play(sound(2, 30000), 2f, AudioOutput.DEFAULT_PRIORITY);
+            waitWritten(rec, 4);
+            out.play(sound(2, -30000), 2f, AudioOutput.DEFAULT_PRIORITY);
+            waitWritten(rec, 8);
+            then(samples(rec)).containsExactly(32767, 32767, -32768, -32768);
+        }
+    }
+
+    @Test
+    public void lowest_priority_voices_are_replaced_or_dropped() throws Exception {
+        LineRecorder rec = new LineRecorder(); rec.gate = new Semaphore(0);
+
+        try (AudioOutput out = new AudioOutput(rec.mixer(), 2, 1)) {
+            out.open(FORMAT);
+            out.play(sound(4, 1), 1f, 5);
+            waitCalls(rec, 1);
+
+            out.play(sound(2, 2), 1f, 4);  // dropped, priority is lower
+            out.play(sound(2, 3), 1f, 5);  // replaces the first one
+            rec.gate.release(100);
+
+            waitWritten(rec, 8);
+            then(samples(rec)).containsExactly(1, 1, 3, 3);
+            then(out.isPlaying()).isFalse();
+        }
+    }
+
+    @Test
+    public void voices_are_preallocated_and_reused() throws Exception {
+        LineRecorder rec = new LineRecorder(); rec.gate = new Semaphore(0);
+
+        try (AudioOutput out = new AudioOutput(rec.mixer(), 2, 1)) {
+            out.open(FORMAT);
+            out.play(sound(2, 1));
+            waitCalls(rec, 1);
+
+            for (int i=0; i<AudioOutput.PENDING + 10; ++i) {
+                out.play(sound(2, 2));  // the ones beyond the free voices are dropped
+            }
+            out.play(sound(2, 3), 1f, AudioOutput.DEFAULT_PRIORITY + 1);  // dropped too, no voices left
+            rec.gate.release(1000);
+
+            waitWritten(rec, 8);
+            then(samples(rec)).containsExactly(1, 1, 2, 2);
+
+            //
+            // voices played to the end are taken again
+            //
+            for (int i=1; i<=3*AudioOutput.PENDING; ++i) {
+                out.play(sound(2, 4));
+                waitWritten(rec, 8 + i*4);
+            }
+            then(rec.data.size()).isEqualTo(8 + 3*AudioOutput.PENDING*4);
+        }
+    }
+
+    @Test
+    public void master_volume_applies_from_the_next_period() throws Exception {
+        LineRecorder rec = new LineRecorder(); rec.gate = new Semaphore(0);
+
+        try (AudioOutput out = new AudioOutput(rec.mixer(), 4)) {
+            out.open(FORMAT);
+            then(out.getVolume()).isEqualTo(1.0);
+
+            out.play(sound(12, 1000));
+            waitCalls(rec, 1);
+
+            out.setVolume(0.5);
+            then(out.getVolume()).isEqualTo(0.5);
+            rec.gate.release(100);
+
+            waitWritten(rec, 24);
+            then(samples(rec)).containsExactly(
+                1000, 1000, 1000, 1000,
+                1000, 875, 750, 625,   // ramp
+                500, 500, 500, 500
+            );
+        }
+    }
+
+    @Test
+    public void fade_in_and_out() throws Exception {
+        LineRecorder rec = new LineRecorder();
+
+        try (AudioOutput out = new AudioOutput(rec.mixer(), 16)) {
+            out.open(FORMAT);   // 8000 frames/s: 1 ms is 8 frames
+            out.setFades(1, 1);
+            out.play(sound(32, 10000));
+
+            waitWritten(rec, 64);
+            List<Integer> samples = samples(rec);
+            then(samples.get(0)).isZero();
+            then(samples.subList(0, 8)).isSorted();
+            then(samples.subList(8, 24)).containsOnly(10000);
+            then(samples.get(31)).isZero();
+        }
+
+        try {
+            new AudioOutput(rec.mixer()).setFades(-1, 0);
+            fail("missing fades check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("fades can not be negative");
+        }
+    }
+
+    @Test
+    public void play_before_open_or_with_wrong_format() throws Exception {
+        AudioOutput out = new AudioOutput(new LineRecorder().mixer());
+        try {
+            out.play(new SoundAsset(FORMAT, new byte[2]));
+            fail("play before open");
+        } catch (IllegalStateException x) {
+            then(x).hasMessage("play() called before the output is open; make sure to call open()");
+        }
+
+        out.open(FORMAT);
+        try {
+            out.play(new SoundAsset(new AudioFormat(44100f, 16, 2, true, false), new byte[4]));
+            fail("missing format check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessageStartingWith("sound format");
+        } finally {
+            out.close();
+        }
+    }
+
+    @Test
+    public void invalid_arguments() {
+        try {
+            new AudioOutput(null);
+            fail("missing mixer check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("mixer can not be null");
+        }
+        try {
+            new AudioOutput(new LineRecorder().mixer(), 0);
+            fail("missing period check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("periodFrames must be greater than 0");
+        }
+    }
+
+    @Test
+    public void all_listeners_are_notified() throws Exception {
+        final List<String> started = Collections.synchronizedList(new ArrayList<String>());
+        final SoundAsset sound = sound(8, 100);
+
+        AudioOutput.Listener one = new AudioOutput.Listener() {
+            @Override
+            public void started(SoundAsset s, long nanos) {
+                started.add("one " + (s == sound));
+            }
+        };
+        AudioOutput.Listener two = new AudioOutput.Listener() {
+            @Override
+            public void started(SoundAsset s, long nanos) {
+                started.add("two " + (s == sound));
+            }
+        };
+
+        LineRecorder rec = new LineRecorder();
+        try (AudioOutput out = new AudioOutput(rec.mixer(), 16)) {
+            out.addListener(one); out.addListener(two);
+            out.open(FORMAT);
+
+            //
+            // listeners are called after the period has been written: wait
+            // for the last one
+            //
+            out.play(sound); waitWritten(rec, 16);
+            waitStarted(started, "two true");
+            then(started).containsExactly("one true", "two true");
+
+            started.clear(); out.removeListener(one); out.removeListener(one);
+            out.play(sound); waitWritten(rec, 32);
+            waitStarted(started, "two true");
+            then(started).containsExactly("two true");
+        }
+
+        try {
+            new AudioOutput(rec.mixer()).addListener(null);
+            fail("missing listener check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("listener can not be null");
+        }
+    }
+
+    @Test
+    public void failed_line_is_recovered_in_place() throws Exception {
+        final List<String> started = Collections.synchronizedList(new ArrayList<String>());
+        final SoundAsset sound = sound(8, 100);
+        final Supervisor supervisor = new Supervisor("test-supervisor");
+
+        LineRecorder rec = new LineRecorder();
+        try (AudioOutput out = new AudioOutput(rec.mixer(), 16)) {
+            out.addListener(new AudioOutput.Listener() {
+                @Override
+                public void started(SoundAsset s, long nanos) {
+                    started.add("started");
+                }
+            });
+            out.setSupervisor(supervisor);
+            supervisor.start();
+            out.open(FORMAT);
+
+            rec.broken = true;
+            out.play(sound);
+            long end = System.currentTimeMillis() + 2500;
+            while ((supervisor.getRecoveries(Supervisor.AUDIO) == 0) && (System.currentTimeMillis() < end)) {
+                Thread.sleep(10);
+            }
+            then(supervisor.getFailures(Supervisor.AUDIO)).isEqualTo(1);
+            then(supervisor.getRecoveries(Supervisor.AUDIO)).isEqualTo(1);
+            then(rec.calls).containsExactly("open", "start", "isOpen", "isOpen", "stop", "flush", "close", "open", "start");
+            then(out.isOpen()).isTrue();
+            then(started).isEmpty();
+
+            rec.broken = false;
+            out.play(sound); waitWritten(rec, 16);
+            then(started).containsExactly("started");
+        } finally {
+            supervisor.stop();
+        }
+        then(supervisor.getFailures(Supervisor.AUDIO)).isEqualTo(1);  // close() is not a failure
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private SoundAsset sound(int frames, int value) {
+        byte[] pcm = new byte[frames * 2];
+        for (int i=0; i<pcm.length; i+=2) {
+            pcm[i] = (byte)value; pcm[i+1] = (byte)(value >> 8);
+        }
+        return new SoundAsset(FORMAT, pcm);
+    }
+
+    private List<Integer> samples(LineRecorder rec) {
+        byte[] data = rec.data.toByteArray();
+        List<Integer> samples = new ArrayList<>();
+        for (int i=0; i<data.length; i+=2) {
+            samples.add((int)(short)((data[i+1] << 8) | (data[i] & 0xFF)));
+        }
+        return samples;
+    }
+
+    private void waitCalls(LineRecorder rec, int writes) throws Exception {
+        long end = System.currentTimeMillis() + 2500;
+        while ((rec.writes.get() < writes) && (System.currentTimeMillis() < end)) {
+            Thread.sleep(10);
+        }
+    }
+
+    private void waitStarted(final List<String> started, final String last) {
+        new WaitFor(2500, new Condition() {
+            @Override
+            public boolean check() {
+                return started.contains(last);
+            }
+        });
+    }
+
+    private void waitWritten(LineRecorder rec, int size) throws Exception {
+        long end = System.currentTimeMillis() + 2500;
+        while ((rec.data.size() < size) && (System.currentTimeMillis() < end)) {
+            Thread.sleep(10);
+        }
+        then(rec.data.size()).isEqualTo(size);
+    }
+
+    // ------------------------------------------------------------ LineRecorder
+
+    /**
+     * A mixer that gives out a SourceDataLine recording the calls made to it
+     * and the bytes written.
+     */
+    public static class LineRecorder {
+        public final List<String> calls = Collections.synchronizedList(new ArrayList<>());
+        public final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        public final AtomicInteger writes = new AtomicInteger();
+        public Semaphore gate = null;  // if set, each write waits for a permit
+        public volatile boolean broken = false;  // if set, nothing is written
+
+        public Mixer mixer() {
+            final SourceDataLine line = (SourceDataLine)Proxy.newProxyInstance(
+                SourceDataLine.class.getClassLoader(),
+                new Class<?>[] { SourceDataLine.class },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object o, Method m, Object[] args) throws Throwable {
+                        if ("write".equals(m.getName())) {
+                            writes.incrementAndGet();
+                            if (gate != null) {
+                                gate.acquire();
+                            }
+                            if (broken) {
+                                return 0;
+                            }
+                            synchronized (data) {
+                                data.write((byte[])args[0], (Integer)args[1], (Integer)args[2]);
+                            }
+                            return args[2];
+                        }
+                        calls.add(m.getName());
+                        return (m.getReturnType() == boolean.class) ? false : null;
+                    }
+                }
+            );
+
+            return (Mixer)Proxy.newProxyInstance(
+                Mixer.class.getClassLoader(),
+                new Class<?>[] { Mixer.class },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object o, Method m, Object[] args) throws Throwable {
+                        if ("getLine".equals(m.getName())) {
+                            return line;
+                        }
+                        throw new UnsupportedOperationException(m.getName());
+                    }
+                }
+            );
+        }
+    }
+}
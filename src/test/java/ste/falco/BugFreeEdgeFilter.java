@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import static org.assertj.core.api.AssertionsForClassTypes.fail;
+import static org.assertj.core.api.BDDAssertions.then;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BugFreeEdgeFilter {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void every_rising_edge_by_default() {
+        EdgeFilter f = new EdgeFilter();
+        final long now = System.nanoTime();
+
+        then(f.accept(now, true)).isTrue();
+        then(f.accept(now, false)).isFalse();
+        then(f.accept(now, true)).isTrue();
+
+        then(f.getEdges()).isEqualTo(3);
+        then(f.getEvents()).isEqualTo(2);
+        then(f.getBounces()).isZero();
+        then(f.getCoalesced()).isZero();
+    }
+
+    @Test
+    public void bounces_are_ignored() {
+        EdgeFilter f = new EdgeFilter(10, 0);
+        final long now = System.nanoTime();
+
+        then(f.accept(now, true)).isTrue();
+        then(f.accept(now + 2*MS, false)).isFalse();
+        then(f.accept(now + 4*MS, true)).isFalse();
+        then(f.accept(now + 20*MS, false)).isFalse();
+        then(f.accept(now + 40*MS, true)).isTrue();
+
+        then(f.toString()).isEqualTo("edges=5 bounces=2 coalesced=0 events=2");
+    }
+
+    @Test
+    public void tell_bounces_from_edges_and_events() {
+        EdgeFilter f = new EdgeFilter(10, 100);
+        final long now = System.nanoTime();
+
+        then(f.filter(now, true)).isEqualTo(EdgeFilter.EVENT);
+        then(f.filter(now + 2*MS, false)).isEqualTo(EdgeFilter.BOUNCE);
+        then(f.filter(now + 20*MS, false)).isEqualTo(EdgeFilter.EDGE);
+        then(f.filter(now + 40*MS, true)).isEqualTo(EdgeFilter.EDGE);  // coalesced
+        then(f.filter(now + 300*MS, true)).isEqualTo(EdgeFilter.EVENT);
+
+        then(f.toString()).isEqualTo("edges=5 bounces=1 coalesced=1 events=2");
+    }
+
+    @Test
+    public void bursts_are_coalesced_until_quiet() {
+        EdgeFilter f = new EdgeFilter(0, 100);
+        final long now = System.nanoTime();
+
+        then(f.accept(now, true)).isTrue();
+        //
+        // each rising edge within the window extends the burst
+        //
+        for (int i=1; i<=10; ++i) {
+            then(f.accept(now + i*50*MS, true)).isFalse();
+        }
+        then(f.accept(now + 599*MS, true)).isFalse();
+
+        //
+        // quiet for the window, a new burst
+        //
+        then(f.accept(now + 700*MS, true)).isTrue();
+
+        then(f.getEvents()).isEqualTo(2);
+        then(f.getCoalesced()).isEqualTo(11);
+    }
+
+    @Test
+    public void first_edge_goes_through() {
+        then(new EdgeFilter(50, 5000).accept(System.nanoTime(), true)).isTrue();
+    }
+
+    @Test
+    public void reset_counters() {
+        EdgeFilter f = new EdgeFilter(10, 100);
+        f.accept(System.nanoTime(), true);
+        f.reset();
+
+        then(f.toString()).isEqualTo("edges=0 bounces=0 coalesced=0 events=0");
+        then(f.getDebounceMillis()).isEqualTo(10);
+        then(f.getWindowMillis()).isEqualTo(100);
+    }
+
+    @Test
+    public void invalid_arguments() {
+        try {
+            new EdgeFilter(-1, 0);
+            fail("missing argument check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("debounce and window can not be negative");
+        }
+        try {
+            new EdgeFilter(0, -1);
+            fail("missing argument check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("debounce and window can not be negative");
+        }
+    }
+
+    @Test
+    public void one_event_per_burst_from_many_threads() throws Exception {
+        final EdgeFilter f = new EdgeFilter(0, 60000);
+        final AtomicLong emitted = new AtomicLong();
+        final CountDownLatch go = new CountDownLatch(1), done = new CountDownLatch(4);
+
+        for (int t=0; t<4; ++t) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        go.await();
+                        for (int i=0; i<10000; ++i) {
+                            if (f.accept(System.nanoTime(), true)) {
+                                emitted.incrementAndGet();
+                            }
+                        }
+                    } catch (InterruptedException x) {
+                        // just exit
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        go.countDown(); then(done.await(10, TimeUnit.SECONDS)).isTrue();
+
+        then(emitted.get()).isEqualTo(1);
+        then(f.getEvents()).isEqualTo(1);
+        then(f.getEdges()).isEqualTo(40000);
+        then(f.getCoalesced()).isEqualTo(39999);
+    }
+}
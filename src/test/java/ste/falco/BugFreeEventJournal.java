@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import static org.assertj.core.api.AssertionsForClassTypes.fail;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ */
+public class BugFreeEventJournal {
+
+    private static final int SMALL = EventJournal.HEADER_SIZE + 4 * EventJournal.RECORD_SIZE;
+
+    @Rule
+    public final TemporaryFolder TMP = new TemporaryFolder();
+
+    @Test
+    public void append_fixed_size_records() throws Exception {
+        final Path dir = TMP.getRoot().toPath().resolve("journal");
+
+        try (EventJournal j = new EventJournal(dir, SMALL, 2)) {
+            then(j.isOpen()).isFalse();
+            j.open();
+            then(j.isOpen()).isTrue();
+            then(j.getSegment()).isEqualTo(1);
+
+            j.append(1000L, 4, EventJournal.EDGE, (byte)1, TriggerSource.GPIO);
+            j.append(1001L, 4, EventJournal.PLAYED, (byte)0, TriggerSource.of(TriggerSource.GPIO, 2));
+            j.append(1002L, 5, EventJournal.MUTED, EventJournal.COOLDOWN, TriggerSource.JMX);
+            then(j.getCount()).isEqualTo(3);
+        }
+
+        final ByteBuffer b = ByteBuffer.wrap(
+            Files.readAllBytes(dir.resolve("falco-00000001.journal"))
+        ).order(ByteOrder.LITTLE_ENDIAN);
+
+        then(b.capacity()).isEqualTo(SMALL);
+        then(b.getInt(0)).isEqualTo(EventJournal.MAGIC);
+        then(b.getInt(8)).isEqualTo(3);
+
+        int at = EventJournal.HEADER_SIZE + 2 * EventJournal.RECORD_SIZE;
+        then(b.getLong(at)).isEqualTo(1002L);
+        then(b.get(at + 8)).isEqualTo((byte)5);
+        then(b.get(at + 9)).isEqualTo(EventJournal.MUTED);
+        then(b.get(at + 10)).isEqualTo(EventJournal.COOLDOWN);
+        then(b.get(at + 11)).isEqualTo((byte)TriggerSource.JMX);
+    }
+
+    @Test
+    public void last_played_is_restored_on_open() throws Exception {
+        final Path dir = TMP.getRoot().toPath();
+
+        try (EventJournal j = new EventJournal(dir)) {
+            j.open();
+            then(j.getLastPlayed(4)).isZero();
+            j.append(5000L, 4, EventJournal.PLAYED, (byte)2, TriggerSource.GPIO);
+            j.append(6000L, 4, EventJournal.MUTED, EventJournal.COOLDOWN, TriggerSource.GPIO);
+            j.append(7000L, 7, EventJournal.PLAYED, (byte)0, TriggerSource.GPIO);
+        }
+
+        try (EventJournal j = new EventJournal(dir)) {
+            then(j.getLastPlayed(4)).isZero();  // not open
+            j.open();
+            then(j.getCount()).isEqualTo(3);
+            then(j.getLastPlayed(4)).isEqualTo(5000L);
+            then(j.getTier(4)).isEqualTo(2);
+            then(j.getLastPlayed(7)).isEqualTo(7000L);
+            then(j.getTier(7)).isZero();
+            then(j.getLastPlayed(5)).isZero();
+        }
+    }
+
+    @Test
+    public void segments_roll_over_and_only_the_last_ones_are_retained() throws Exception {
+        final Path dir = TMP.getRoot().toPath();
+
+        try (EventJournal j = new EventJournal(dir, SMALL, 2)) {
+            j.open();
+            j.append(1L, 4, EventJournal.PLAYED, (byte)1, TriggerSource.GPIO);
+            for (int i=2; i<=10; ++i) {
+                j.append(i, 4, EventJournal.EDGE, (byte)1, TriggerSource.GPIO);
+            }
+            then(j.getSegment()).isEqualTo(3);
+            then(j.getCount()).isEqualTo(2);
+            then(j.getLastPlayed(4)).isEqualTo(1L);
+            then(j.getSegments()).containsExactly(
+                dir.resolve("falco-00000002.journal"), dir.resolve("falco-00000003.journal")
+            );
+        }
+
+        //
+        // a full last segment rolls over on open
+        //
+        try (EventJournal j = new EventJournal(dir, SMALL, 2)) {
+            j.open();
+            j.append(11L, 4, EventJournal.EDGE, (byte)0, TriggerSource.GPIO);
+            j.append(12L, 4, EventJournal.EDGE, (byte)0, TriggerSource.GPIO);
+        }
+        try (EventJournal j = new EventJournal(dir, SMALL, 2)) {
+            j.open();
+            then(j.getSegment()).isEqualTo(4);
+            then(j.getCount()).isZero();
+            then(j.getLastPlayed(4)).isEqualTo(1L);
+            then(j.getTier(4)).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void read_records_back() throws Exception {
+        final Path dir = TMP.getRoot().toPath();
+
+        try (EventJournal j = new EventJournal(dir)) {
+            j.open();
+            j.append(1000L, 4, EventJournal.EDGE, (byte)1, TriggerSource.GPIO);
+            j.append(1001L, 4, EventJournal.PLAYED, (byte)0, TriggerSource.GPIO);
+            j.append(1002L, 5, EventJournal.MUTED, EventJournal.NIGHT, TriggerSource.JMX);
+
+            //
+            // readable while the journal is being written
+            //
+            final Path segment = j.getSegments().get(0);
+            then(EventJournal.count(segment)).isEqualTo(3);
+
+            final StringBuilder sb = new StringBuilder();
+            EventJournal.scan(segment, 1, 3, new EventJournal.RecordHandler() {
+                @Override
+                public void record(long time, int key, byte type, byte detail, int source) {
+                    sb.append(String.format("%d,%d,%d,%d,%d;", time, key, type, detail, source));
+                }
+            });
+            then(sb.toString()).isEqualTo("1001,4,2,0,0;1002,5,3,1,1;");
+
+            try {
+                EventJournal.scan(segment, 2, 1, null);
+                fail("missing range check");
+            } catch (IllegalArgumentException x) {
+                then(x).hasMessage("invalid range [2, 1)");
+            }
+        }
+
+        Files.write(dir.resolve("falco-00000009.journal"), new byte[SMALL]);
+        try {
+            EventJournal.count(dir.resolve("falco-00000009.journal"));
+            fail("invalid segment not detected");
+        } catch (IOException x) {
+            then(x).hasMessageEndingWith("falco-00000009.journal is not a valid journal segment");
+        }
+    }
+
+    @Test
+    public void flush_forces_what_was_appended() throws Exception {
+        final Path dir = TMP.getRoot().toPath();
+
+        try (EventJournal j = new EventJournal(dir, SMALL, 2)) {
+            then(j.flush()).isZero();  // not open
+            j.open();
+            then(j.flush()).isZero();
+
+            j.append(1000L, 4, EventJournal.EDGE, (byte)1, TriggerSource.GPIO);
+            j.append(1001L, 4, EventJournal.PLAYED, (byte)0, TriggerSource.GPIO);
+            then(j.flush()).isEqualTo(2);
+            then(j.flush()).isZero();
+
+            j.append(1002L, 4, EventJournal.EDGE, (byte)0, TriggerSource.GPIO);
+            j.append(1003L, 4, EventJournal.EDGE, (byte)1, TriggerSource.GPIO);
+            j.append(1004L, 4, EventJournal.EDGE, (byte)0, TriggerSource.GPIO);  // rolls over
+            then(j.getSegment()).isEqualTo(2);
+            then(j.flush()).isEqualTo(1);
+        }
+
+        try (EventJournal j = new EventJournal(dir, SMALL, 2)) {
+            j.open();
+            then(j.flush()).isZero();  // nothing new since opened
+        }
+    }
+
+    @Test
+    public void not_a_journal() throws Exception {
+        final Path dir = TMP.getRoot().toPath();
+        Files.write(dir.resolve("falco-00000001.journal"), new byte[SMALL]);
+
+        try (EventJournal j = new EventJournal(dir)) {
+            j.open();
+            fail("invalid segment not detected");
+        } catch (IOException x) {
+            then(x).hasMessageEndingWith("falco-00000001.journal is not a valid journal segment");
+        }
+    }
+
+    @Test
+    public void invalid_arguments() throws Exception {
+        try {
+            new EventJournal(null);
+            fail("missing dir check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("dir can not be null");
+        }
+        try {
+            new EventJournal(TMP.getRoot().toPath(), EventJournal.HEADER_SIZE, 1);
+            fail("missing segmentSize check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("segmentSize must be at least 528");
+        }
+        try {
+            new EventJournal(TMP.getRoot().toPath(), SMALL, 0);
+            fail("missing segments check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("segments must be greater than 0");
+        }
+        try (EventJournal j = new EventJournal(TMP.getRoot().toPath())) {
+            j.append(1L, 32, EventJournal.EDGE, (byte)0, TriggerSource.GPIO);
+            fail("missing key check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("key must be in the range [0, 31]");
+        }
+    }
+}
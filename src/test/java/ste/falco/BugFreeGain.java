@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import static org.assertj.core.api.AssertionsForClassTypes.fail;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BugFreeGain {
+
+    @Test
+    public void volume_to_gain_and_back() {
+        then(Gain.of(0)).isZero();
+        then(Gain.of(1)).isEqualTo(Gain.UNITY);
+        then(Gain.of(2)).isEqualTo(Gain.MAX);
+        then(Gain.volume(Gain.of(0.75))).isEqualTo(0.75);
+
+        try {
+            Gain.of(2.1);
+            fail("missing range check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("invalid volume 2.1 - it must in range (0.0, 2.0)");
+        }
+    }
+
+    @Test
+    public void fade_goes_from_silence_to_unity() {
+        then(Gain.fade(0, 100)).isZero();
+        then(Gain.fade(100, 100)).isEqualTo(Gain.UNITY);
+        then(Gain.fade(1000, 100)).isEqualTo(Gain.UNITY);
+
+        int last = -1;
+        for (int i=0; i<=1000; ++i) {
+            int gain = Gain.fade(i, 1000);
+            then(gain).isGreaterThanOrEqualTo(last);
+            last = gain;
+        }
+
+        then(Gain.fade(50, 100)).isBetween(Gain.UNITY / 40, Gain.UNITY / 25);  // about -30dB
+    }
+
+    @Test
+    public void multiply() {
+        then(Gain.multiply(Gain.UNITY, Gain.UNITY)).isEqualTo(Gain.UNITY);
+        then(Gain.multiply(Gain.MAX, Gain.UNITY / 2)).isEqualTo(Gain.UNITY);
+        then(Gain.multiply(Gain.MAX, 0)).isZero();
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import java.nio.file.Path;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.Random;
+import static org.assertj.core.api.AssertionsForClassTypes.fail;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ */
+public class BugFreeJournalStats {
+
+    private static final ZoneId UTC = ZoneId.of("UTC");
+    private static final long MINUTE = 60 * 1000;
+    private static final int SMALL = EventJournal.HEADER_SIZE + 4 * EventJournal.RECORD_SIZE;
+
+    @Rule
+    public final TemporaryFolder TMP = new TemporaryFolder();
+
+    @Test
+    public void aggregations() throws Exception {
+        final long monday = ZonedDateTime.of(2020, 6, 1, 9, 0, 0, 0, UTC).toInstant().toEpochMilli();
+        final long tuesday = monday + 24 * 60 * MINUTE + 13 * 60 * MINUTE;  // 22:00
+
+        try (EventJournal j = new EventJournal(TMP.getRoot().toPath(), SMALL, 10)) {
+            j.open();
+            j.append(monday, 4, EventJournal.EDGE, (byte)1, TriggerSource.GPIO);
+            j.append(monday, 4, EventJournal.PLAYED, (byte)0, TriggerSource.GPIO);
+            j.append(monday + 10 * MINUTE, 4, EventJournal.MUTED, EventJournal.COOLDOWN, TriggerSource.GPIO);
+            j.append(monday + 30 * MINUTE, 4, EventJournal.EDGE, (byte)1, TriggerSource.GPIO);
+            j.append(monday + 30 * MINUTE, 4, EventJournal.PLAYED, (byte)0, TriggerSource.GPIO);
+            j.append(monday + 45 * MINUTE, 4, EventJournal.MUTED, EventJournal.COOLDOWN, TriggerSource.GPIO);
+            j.append(monday + 50 * MINUTE, 4, EventJournal.MUTED, EventJournal.COOLDOWN, TriggerSource.GPIO);
+            j.append(tuesday, 5, EventJournal.MUTED, EventJournal.NIGHT, TriggerSource.GPIO);
+
+            final JournalStats stats = JournalStats.scan(j.getSegments(), UTC, 2);
+
+            then(stats.getRecords()).isEqualTo(8);
+            then(stats.getEdges()).isEqualTo(2);
+            then(stats.getMotions()).isEqualTo(6);
+            then(stats.getPlayed()).isEqualTo(2);
+            then(stats.getMutedInCooldown()).isEqualTo(3);
+            then(stats.getMutedAtNight()).isEqualTo(1);
+            then(stats.getFirst()).isEqualTo(monday);
+            then(stats.getLast()).isEqualTo(tuesday);
+
+            then(stats.hours[9]).isEqualTo(5);
+            then(stats.hours[22]).isEqualTo(1);
+            then(stats.weekdays[0]).isEqualTo(5);
+            then(stats.weekdays[1]).isEqualTo(1);
+
+            //
+            // pin 4 came back 10 minutes after the first play and 15 after
+            // the second one (only the first motion after a play counts); pin
+            // 5 never played
+            //
+            then(stats.returns.getCount()).isEqualTo(2);
+            then(stats.returns.getMax()).isEqualTo(15 * MINUTE * 1000);
+        }
+    }
+
+    @Test
+    public void parallel_scan_is_the_same_as_sequential() throws Exception {
+        final JournalStats expected = new JournalStats(UTC);
+        final Random r = new Random(20200601);
+
+        final Path dir = TMP.getRoot().toPath();
+        try (EventJournal j = new EventJournal(dir, SMALL, 1000)) {
+            j.open();
+            long time = ZonedDateTime.of(2020, 1, 1, 0, 0, 0, 0, UTC).toInstant().toEpochMilli();
+            for (int i=0; i<500; ++i) {
+                time += r.nextInt(180) * MINUTE;
+                final int key = 4 + r.nextInt(3);
+                final byte type = (byte)(1 + r.nextInt(3));
+                final byte detail = (byte)(1 + r.nextInt(2));
+                j.append(time, key, type, detail, TriggerSource.GPIO);
+                expected.record(time, key, type, detail, TriggerSource.GPIO);
+            }
+            then(j.getSegments()).hasSize(125);
+        }
+
+        for (int threads: new int[] {1, 4}) {
+            final JournalStats stats = JournalStats.scan(new EventJournal(dir).getSegments(), UTC, threads);
+
+            then(stats.getRecords()).isEqualTo(500);
+            then(stats.getEdges()).isEqualTo(expected.getEdges());
+            then(stats.getPlayed()).isEqualTo(expected.getPlayed());
+            then(stats.getMutedAtNight()).isEqualTo(expected.getMutedAtNight());
+            then(stats.getMutedInCooldown()).isEqualTo(expected.getMutedInCooldown());
+            then(stats.hours).isEqualTo(expected.hours);
+            then(stats.weekdays).isEqualTo(expected.weekdays);
+            then(stats.returns.getCount()).isEqualTo(expected.returns.getCount());
+            then(stats.returns.getPercentile(50)).isEqualTo(expected.returns.getPercentile(50));
+            then(stats.returns.getMax()).isEqualTo(expected.returns.getMax());
+            then(stats.getFirst()).isEqualTo(expected.getFirst());
+            then(stats.getLast()).isEqualTo(expected.getLast());
+        }
+    }
+
+    @Test
+    public void empty_journal() throws Exception {
+        final JournalStats stats = JournalStats.scan(Collections.<Path>emptyList(), UTC, 1);
+
+        then(stats.getRecords()).isZero();
+        then(stats.getMotions()).isZero();
+        then(stats.returns.getCount()).isZero();
+        then(stats.getFirst()).isZero();
+    }
+
+    @Test
+    public void invalid_arguments() throws Exception {
+        try {
+            new JournalStats(null);
+            fail("missing zone check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("zone can not be null");
+        }
+        try {
+            JournalStats.scan(Collections.<Path>emptyList(), UTC, 0);
+            fail("missing threads check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("threads must be greater than 0");
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import static org.assertj.core.api.AssertionsForClassTypes.fail;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.assertj.core.data.Percentage;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BugFreeLatencyHistogram {
+
+    @Test
+    public void empty_histogram() {
+        LatencyHistogram h = new LatencyHistogram("test");
+
+        then(h.name).isEqualTo("test");
+        then(h.getCount()).isZero();
+        then(h.getPercentile(50)).isZero();
+        then(h.getMax()).isZero();
+        then(h.getMean()).isZero();
+    }
+
+    @Test
+    public void small_values_are_exact() {
+        LatencyHistogram h = new LatencyHistogram("test");
+        for (int i=1; i<=20; ++i) {
+            h.record(i * 1000L);  // 1..20us
+        }
+
+        then(h.getCount()).isEqualTo(20);
+        then(h.getPercentile(50)).isEqualTo(10);
+        then(h.getPercentile(100)).isEqualTo(20);
+        then(h.getMax()).isEqualTo(20);
+        then(h.getMean()).isEqualTo(10);  // 210/20 rounded down
+    }
+
+    @Test
+    public void percentiles_within_precision() {
+        LatencyHistogram h = new LatencyHistogram("test");
+        for (int i=1; i<=10000; ++i) {
+            h.record(i * 1000_000L); // 1..10000ms
+        }
+
+        then((double)h.getPercentile(50)).isCloseTo(5_000_000d, Percentage.withPercentage(7));
+        then((double)h.getPercentile(99)).isCloseTo(9_900_000d, Percentage.withPercentage(7));
+        then(h.getMax()).isEqualTo(10_000_000L);
+        then(h.getPercentile(100)).isEqualTo(h.getMax());
+    }
+
+    @Test
+    public void out_of_range_values() {
+        LatencyHistogram h = new LatencyHistogram("test");
+
+        h.record(-5000);
+        then(h.getMax()).isZero();
+
+        h.record(Long.MAX_VALUE);
+        then(h.getCount()).isEqualTo(2);
+        then(h.getPercentile(100)).isEqualTo(Long.MAX_VALUE / 1000);
+
+        try {
+            h.getPercentile(101);
+            fail("missing percentile check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("percentile must be in the range [0, 100]");
+        }
+    }
+
+    @Test
+    public void add_another_histogram() {
+        LatencyHistogram h1 = new LatencyHistogram("one"), h2 = new LatencyHistogram("two");
+        for (int i=1; i<=10; ++i) {
+            h1.record(i * 1000L); h2.record((i + 10) * 1000L);
+        }
+        h1.add(h2);
+
+        then(h1.getCount()).isEqualTo(20);
+        then(h1.getPercentile(50)).isEqualTo(10);
+        then(h1.getMax()).isEqualTo(20);
+        then(h1.getMean()).isEqualTo(10);
+        then(h2.getCount()).isEqualTo(10);
+
+        h2.add(new LatencyHistogram("empty"));
+        then(h2.getCount()).isEqualTo(10);
+        then(h2.getMax()).isEqualTo(20);
+    }
+
+    @Test
+    public void reset() {
+        LatencyHistogram h = new LatencyHistogram("test");
+        h.record(1000); h.record(2000000);
+        h.reset();
+
+        then(h.getCount()).isZero();
+        then(h.getMax()).isZero();
+        then(h.getPercentile(99)).isZero();
+        then(h.toString()).isEqualTo("test: count=0 p50=0us p99=0us max=0us");
+    }
+}
@@ -21,9 +21,13 @@ import com.pi4j.io.gpio.RaspiPin;
 import com.pi4j.io.gpio.exception.GpioPinExistsException;
 import static org.assertj.core.api.AssertionsForClassTypes.fail;
 import static org.assertj.core.api.BDDAssertions.then;
+import java.util.ArrayList;
+import java.util.List;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.contrib.java.lang.system.SystemOutRule;
+import ste.xtest.concurrent.Condition;
+import ste.xtest.concurrent.WaitFor;
 
 /**
  *
@@ -32,6 +36,8 @@ import org.junit.contrib.java.lang.system.SystemOutRule;
 
 public class BugFreeMotionDetector extends BugFreePIRBase {
 
+    private static final long MS = 1000000L;
+
     @Rule
     public final SystemOutRule STDOUT = new SystemOutRule().enableLog();
 
@@ -177,6 +183,271 @@ public class BugFreeMotionDetector extends BugFreePIRBase {
         }
     }
 
+    @Test
+    public void startup_provisions_the_given_pin() throws Exception {
+        GpioController gpio = GpioFactory.getInstance();
+        try (MotionDetector smd = new MotionDetector("/sounds/test1.wav", null, 5)) {
+            then(smd.pin).isSameAs(RaspiPin.GPIO_05);
+            smd.startup();
+
+            then(gpio.getProvisionedPins()).hasSize(1);
+            then(gpio.getProvisionedPin(RaspiPin.GPIO_05)).isNotNull();
+        }
+        then(gpio.getProvisionedPins()).isEmpty();
+
+        try {
+            new MotionDetector("/sounds/test1.wav", null, 99);
+            fail("missing pin check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("invalid pin 99");
+        }
+    }
+
+    @Test
+    public void quarantine_a_chattering_pin() throws Exception {
+        PIR.down();
+        final GpioController gpio = GpioFactory.getInstance();
+        try (InnerMotionDetector moctor = new InnerMotionDetector()) {
+            moctor.setHealth(new PinHealth(60000, 4, 1000, 60000));
+            moctor.setHealthChecks(10, 200, 400);
+            moctor.startup();
+
+            PIR.up(); PIR.down(); PIR.up(); PIR.down();  // the 4th edge is chattering
+            new WaitFor(1000, new Condition() {
+                @Override
+                public boolean check() {
+                    return gpio.getProvisionedPin(RaspiPin.GPIO_04).getListeners().isEmpty();
+                }
+            });
+            then(moctor.isQuarantined()).isTrue();
+            then(moctor.getQuarantines()).isEqualTo(1);
+            then(moctor.getProbeMillis()).isBetween(1L, 200L);
+            Thread.sleep(50);
+            final int count = moctor.count;  // Pi4J may deliver the edges out of order
+            then(count).isBetween(1, 2);
+
+            PIR.up(); PIR.down(); Thread.sleep(50);
+            then(moctor.count).isEqualTo(count);  // nobody listens
+
+            new WaitFor(1000, new Condition() {
+                @Override
+                public boolean check() {
+                    return !moctor.isQuarantined();
+                }
+            });
+            then(gpio.getProvisionedPin(RaspiPin.GPIO_04).getListeners()).isNotEmpty();
+            then(moctor.getProbeMillis()).isZero();
+            PIR.up(); Thread.sleep(50); then(moctor.count).isEqualTo(count + 1);
+
+            PIR.down(); PIR.up(); PIR.down();  // again, for longer
+            new WaitFor(1000, new Condition() {
+                @Override
+                public boolean check() {
+                    return moctor.getQuarantines() == 2;
+                }
+            });
+            then(moctor.getProbeMillis()).isBetween(201L, 400L);
+        }
+        then(gpio.getProvisionedPins()).isEmpty();
+    }
+
+    @Test
+    public void quarantine_a_stuck_pin() throws Exception {
+        PIR.down();
+        final GpioController gpio = GpioFactory.getInstance();
+        try (InnerMotionDetector moctor = new InnerMotionDetector()) {
+            moctor.setHealth(new PinHealth(200, 16, 10, 60000));
+            moctor.setHealthChecks(10, 100, 400);
+            moctor.startup();
+
+            PIR.up(); Thread.sleep(50); then(moctor.count).isEqualTo(1);
+            then(moctor.isQuarantined()).isFalse();
+
+            new WaitFor(1000, new Condition() {
+                @Override
+                public boolean check() {
+                    return moctor.isQuarantined();
+                }
+            });
+            then(moctor.getHealth().getState()).isEqualTo(PinHealth.STUCK);
+            then(gpio.getProvisionedPin(RaspiPin.GPIO_04).getListeners()).isEmpty();
+
+            Thread.sleep(150);  // probed while still high
+            then(moctor.isQuarantined()).isTrue();
+            then(moctor.getQuarantines()).isEqualTo(1);
+
+            PIR.down();
+            new WaitFor(1000, new Condition() {
+                @Override
+                public boolean check() {
+                    return !moctor.isQuarantined();
+                }
+            });
+            PIR.up(); Thread.sleep(50); then(moctor.count).isEqualTo(2);
+            PIR.down();
+        }
+    }
+
+    @Test
+    public void dormant_detector_does_not_listen() throws Exception {
+        PIR.down();
+        final GpioController gpio = GpioFactory.getInstance();
+        try (InnerMotionDetector moctor = new InnerMotionDetector()) {
+            moctor.setHealth(new PinHealth(200, 16, 10, 60000));
+            moctor.setHealthChecks(10, 100, 400);
+            moctor.startup();
+
+            moctor.sleep(); moctor.sleep();
+            then(moctor.isDormant()).isTrue();
+            then(moctor.isLive()).isTrue();
+            then(gpio.getProvisionedPin(RaspiPin.GPIO_04)).isNotNull();
+            then(gpio.getProvisionedPin(RaspiPin.GPIO_04).getListeners()).isEmpty();
+
+            PIR.up(); Thread.sleep(300);  // it would be stuck if checked
+            then(moctor.count).isZero();
+            then(moctor.isQuarantined()).isFalse();
+            then(gpio.getProvisionedPin(RaspiPin.GPIO_04).getListeners()).isEmpty();
+            PIR.down();
+
+            moctor.wake(); moctor.wake();
+            then(moctor.isDormant()).isFalse();
+            then(gpio.getProvisionedPin(RaspiPin.GPIO_04).getListeners()).hasSize(1);
+            PIR.up(); Thread.sleep(50); then(moctor.count).isEqualTo(1);
+            PIR.down();
+        }
+        then(gpio.getProvisionedPins()).isEmpty();
+    }
+
+    @Test
+    public void dead_pin_is_provisioned_again() throws Exception {
+        PIR.down();
+        final GpioController gpio = GpioFactory.getInstance();
+        final Supervisor supervisor = new Supervisor("test-supervisor");
+        try (InnerMotionDetector moctor = new InnerMotionDetector()) {
+            moctor.setHealth(new PinHealth(60000, 16, 1000, 300));
+            moctor.setHealthChecks(10, 100, 400);
+            moctor.setSupervisor(supervisor);
+            supervisor.start();
+            moctor.startup();
+
+            final Object pin = gpio.getProvisionedPin(RaspiPin.GPIO_04);
+            new WaitFor(2000, new Condition() {
+                @Override
+                public boolean check() {
+                    return supervisor.getRecoveries(Supervisor.GPIO) == 1;
+                }
+            });
+            then(supervisor.getFailures(Supervisor.GPIO)).isEqualTo(1);
+            then(supervisor.recoveryTimes[Supervisor.GPIO].getCount()).isEqualTo(1);
+            then(gpio.getProvisionedPin(RaspiPin.GPIO_04)).isNotNull().isNotSameAs(pin);
+            then(gpio.getProvisionedPin(RaspiPin.GPIO_04).getListeners()).hasSize(1);
+            then(moctor.getHealth().getState()).isEqualTo(PinHealth.HEALTHY);
+            then(moctor.isLive()).isTrue();
+
+            PIR.up(); Thread.sleep(50); then(moctor.count).isEqualTo(1);
+            PIR.down();
+        } finally {
+            supervisor.stop();
+        }
+        then(GpioFactory.getInstance().getProvisionedPins()).isEmpty();
+    }
+
+    @Test
+    public void health_checks_run_on_the_scheduler() throws Exception {
+        PIR.down();
+        final Scheduler scheduler = new Scheduler("test-scheduler", 1);
+        try (InnerMotionDetector moctor = new InnerMotionDetector()) {
+            moctor.setHealthChecks(10, 100, 400);
+            moctor.setScheduler(scheduler);
+            then(moctor.getScheduler()).isSameAs(scheduler);
+            moctor.startup();
+
+            then(scheduler.getTasks()).isEqualTo(1);
+            then(scheduler.getScheduled().get(0).name).isEqualTo("health of pin 4");
+            new WaitFor(1000, new Condition() {
+                @Override
+                public boolean check() {
+                    return scheduler.getRuns() > 2;
+                }
+            });
+
+            moctor.sleep();
+            then(scheduler.getTasks()).isZero();
+            moctor.wake();
+            then(scheduler.getTasks()).isEqualTo(1);
+
+            moctor.shutdown();
+            then(scheduler.getTasks()).isZero();
+            then(scheduler.getThreads()).isEqualTo(1);
+        } finally {
+            scheduler.shutdown();
+        }
+
+        try {
+            new MotionDetector("/sounds/test1.wav").setScheduler(null);
+            fail("missing scheduler check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("scheduler can not be null");
+        }
+    }
+
+    @Test
+    public void invalid_health_checks() {
+        MotionDetector moctor = new MotionDetector("/sounds/test1.wav");
+        try {
+            moctor.setHealth(null);
+            fail("missing health check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("health can not be null");
+        }
+        try {
+            moctor.setHealthChecks(0, 10, 10);
+            fail("missing check check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("check must be greater than 0");
+        }
+        try {
+            moctor.setHealthChecks(10, 0, 10);
+            fail("missing probe check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("probe must be greater than 0");
+        }
+        try {
+            moctor.setHealthChecks(10, 20, 10);
+            fail("missing max probe check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("maxProbe can not be less than probe");
+        }
+    }
+
+    @Test
+    public void journal_the_edges_that_are_not_bounces() throws Exception {
+        final List<Byte> edges = new ArrayList<>();
+        try (InnerMotionDetector moctor = new InnerMotionDetector() {
+            @Override
+            protected void record(long millis, byte type, byte detail, int source) {
+                then(type).isEqualTo(EventJournal.EDGE);
+                edges.add(detail);
+            }
+        }) {
+            moctor.setEdgeFilter(new EdgeFilter(10, 0));
+            then(moctor.isRawEdges()).isFalse();
+
+            final long now = System.nanoTime();
+            moctor.edge(now, true);
+            moctor.edge(now + 2*MS, false);   // bounce
+            moctor.edge(now + 20*MS, false);
+            then(edges).containsExactly(EventJournal.RISING, (byte)0);
+            then(moctor.count).isEqualTo(1);
+
+            edges.clear(); moctor.setRawEdges(true);
+            moctor.edge(now + 40*MS, true);
+            moctor.edge(now + 42*MS, false);  // bounce
+            then(edges).containsExactly(EventJournal.RISING, EventJournal.DROPPED);
+            then(moctor.count).isEqualTo(2);
+        }
+    }
+
     @Test
     public void is_a_SoundMotionDetector() {
         MotionDetector smd = new MotionDetector("/sounds/test1.wav");
@@ -187,7 +458,7 @@ public class BugFreeMotionDetector extends BugFreePIRBase {
     // ----------------------------------------------------- InnerMotionDetector
 
     private class InnerMotionDetector extends MotionDetector {
-        public int count = 0;
+        public volatile int count = 0;
 
         public InnerMotionDetector() {
             super("/sounds/test1.wav");
@@ -22,12 +22,21 @@ import com.pi4j.io.gpio.PinState;
 import com.pi4j.io.gpio.RaspiPin;
 import com.pi4j.io.gpio.event.GpioPinDigitalStateChangeEvent;
 import com.pi4j.io.gpio.event.GpioPinListenerDigital;
+import com.pi4j.io.gpio.event.PinDigitalStateChangeEvent;
+import com.pi4j.io.gpio.event.PinEvent;
+import com.pi4j.io.gpio.event.PinListener;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import static org.assertj.core.api.AssertionsForClassTypes.fail;
 import static org.assertj.core.api.BDDAssertions.then;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ste.falco.MotionSensorEmulator.Traffic;
 
 /**
  *
@@ -35,6 +44,9 @@ import org.junit.Test;
  */
 
 public class BugFreeMotionSensorEmulator extends BugFreePIRBase {
+
+    @Rule
+    public final TemporaryFolder TMP = new TemporaryFolder();
     
     @Before
     public void before() {
@@ -91,5 +103,166 @@ public class BugFreeMotionSensorEmulator extends BugFreePIRBase {
         PIR.down(); Thread.sleep(50); then(EVENTS).containsExactly("HIGH", "LOW");
         
     }
-    
+
+    @Test
+    public void emulator_pins() {
+        MotionSensorEmulator e = new MotionSensorEmulator();
+        then(e.getName()).isEqualTo("RaspberryPi GPIO Provider");
+        then(e.isHigh(4)).isFalse();
+
+        e = new MotionSensorEmulator(5, 6);
+        e.up(6); then(e.isHigh(6)).isTrue(); then(e.isHigh(5)).isFalse();
+        e.down(6); then(e.isHigh(6)).isFalse();
+        then(e.getRises()).isEqualTo(1);
+        then(e.isRunning()).isFalse();
+        then(e.getRate()).isZero();
+
+        try {
+            e.up(4);
+            fail("missing pin check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("pin 4 is not emulated");
+        }
+        try {
+            new MotionSensorEmulator(5, 99);
+            fail("missing pin check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("invalid pin 99");
+        }
+    }
+
+    @Test
+    public void poisson_traffic() throws Exception {
+        final MotionSensorEmulator e = new MotionSensorEmulator(5, 6);
+        final List<String> events = listen(e, 5, 6);
+
+        e.start(Traffic.poisson(200, 1, 20200601));
+        then(e.isRunning()).isTrue();
+        try {
+            e.start(Traffic.stuck(5));
+            fail("running traffic not detected");
+        } catch (IllegalStateException x) {
+            then(x).hasMessage("already generating poisson,rate=200.0,pulse=1,seed=20200601");
+        }
+        Thread.sleep(500);
+        e.stop();
+
+        then(e.isRunning()).isFalse();
+        then(e.isHigh(5)).isFalse(); then(e.isHigh(6)).isFalse();
+        then(e.getRises()).isGreaterThan(20);
+        then(events).contains("GPIO 5:HIGH", "GPIO 6:HIGH");
+        int highs = 0;
+        for (String event: events) {
+            highs += event.endsWith("HIGH") ? 1 : 0;
+        }
+        then((long)highs).isEqualTo(e.getRises());
+
+        final double rate = e.getRate();
+        then(rate).isGreaterThan(40);
+        Thread.sleep(50); then(e.getRate()).isEqualTo(rate); // stopped
+    }
+
+    @Test
+    public void burst_traffic() throws Exception {
+        final MotionSensorEmulator e = new MotionSensorEmulator(5);
+
+        e.start(Traffic.burst(100, 3, 10, 2, 20200601));
+        Thread.sleep(300);
+        e.stop();
+
+        then(e.getRises()).isGreaterThanOrEqualTo(3);
+        then(e.getTraffic()).hasToString("burst,rate=100.0,size=3,gap=10,pulse=2,seed=20200601");
+    }
+
+    @Test
+    public void stuck_sensor() throws Exception {
+        final MotionSensorEmulator e = new MotionSensorEmulator(5, 6);
+
+        e.start(Traffic.stuck(6));
+        Thread.sleep(100);
+        then(e.isHigh(6)).isTrue(); then(e.isHigh(5)).isFalse();
+        then(e.isRunning()).isTrue();
+
+        e.stop();
+        then(e.isHigh(6)).isFalse();
+        then(e.getRises()).isEqualTo(1);
+    }
+
+    @Test
+    public void replay_a_journal_faster() throws Exception {
+        final Path dir = TMP.getRoot().toPath();
+        try (EventJournal j = new EventJournal(dir)) {
+            j.open();
+            j.append(10000L, 5, EventJournal.EDGE, (byte)1, TriggerSource.GPIO);
+            j.append(10000L, 5, EventJournal.PLAYED, (byte)0, TriggerSource.GPIO);
+            j.append(11000L, 7, EventJournal.EDGE, (byte)1, TriggerSource.GPIO);  // not emulated
+            j.append(12000L, 5, EventJournal.EDGE, (byte)0, TriggerSource.GPIO);
+            j.append(14000L, 5, EventJournal.EDGE, (byte)1, TriggerSource.GPIO);
+            j.append(15000L, 5, EventJournal.EDGE, (byte)0, TriggerSource.GPIO);
+        }
+
+        final MotionSensorEmulator e = new MotionSensorEmulator(5);
+        final List<String> events = listen(e, 5);
+
+        final long start = System.currentTimeMillis();
+        e.start(Traffic.replay(dir, 100));  // 5 seconds in 50 millis
+        while (e.isRunning() && (System.currentTimeMillis() - start < 2500)) {
+            Thread.sleep(5);
+        }
+
+        then(e.isRunning()).isFalse();
+        then(System.currentTimeMillis() - start).isGreaterThanOrEqualTo(50);
+        then(events).containsExactly("GPIO 5:HIGH", "GPIO 5:LOW", "GPIO 5:HIGH", "GPIO 5:LOW");
+        then(e.getRises()).isEqualTo(2);
+    }
+
+    @Test
+    public void parse_traffic() {
+        then(Traffic.parse("poisson,rate=2.5,pulse=50,seed=1"))
+            .hasToString("poisson,rate=2.5,pulse=50,seed=1");
+        then(Traffic.parse("burst,rate=1,seed=2"))
+            .hasToString("burst,rate=1.0,size=5,gap=200,pulse=100,seed=2");
+        then(Traffic.parse("stuck")).hasToString("stuck");
+        then(Traffic.parse("stuck,pin=5")).hasToString("stuck,pin=5");
+        then(Traffic.parse("replay,journal=/tmp/j,speed=60"))
+            .hasToString("replay,journal=/tmp/j,speed=60.0");
+
+        final String[][] INVALID = {
+            {"", "traffic can not be blank or null"},
+            {"rain", "unknown traffic 'rain'"},
+            {"poisson", "rate must be greater than 0"},
+            {"poisson,rate=fast", "invalid rate 'fast' in traffic poisson"},
+            {"poisson,rate=1,pulse=-1", "pulse can not be negative"},
+            {"poisson,rate=1,colour=red", "unknown setting 'colour' in traffic poisson"},
+            {"burst,rate=1,size=0", "size must be greater than 0"},
+            {"burst,rate=1,gap=-5", "gap can not be negative"},
+            {"replay", "missing journal in traffic replay"},
+            {"replay,journal=/tmp,speed=0", "speed must be greater than 0"}
+        };
+        for (String[] invalid: INVALID) {
+            try {
+                Traffic.parse(invalid[0]);
+                fail("missing check for '" + invalid[0] + "'");
+            } catch (IllegalArgumentException x) {
+                then(x).hasMessage(invalid[1]);
+            }
+        }
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private List<String> listen(final MotionSensorEmulator emulator, int... pins) {
+        final List<String> events = new CopyOnWriteArrayList<>();
+        for (int pin: pins) {
+            emulator.addListener(RaspiPin.getPinByAddress(pin), new PinListener() {
+                @Override
+                public void handlePinEvent(PinEvent event) {
+                    if (event instanceof PinDigitalStateChangeEvent) {
+                        events.add(event.getPin().getName() + ":" + ((PinDigitalStateChangeEvent)event).getState());
+                    }
+                }
+            });
+        }
+        return events;
+    }
 }
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import static org.assertj.core.api.AssertionsForClassTypes.fail;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BugFreePinHealth {
+
+    private static final long MS = 1000_000L;
+
+    @Test
+    public void healthy_pin() {
+        PinHealth h = new PinHealth(1000, 4, 100, 10000);
+        h.reset(0, false);
+
+        then(h.check(500 * MS)).isEqualTo(PinHealth.HEALTHY);
+        then(h.edge(1000 * MS, true)).isEqualTo(PinHealth.HEALTHY);
+        then(h.edge(1500 * MS, false)).isEqualTo(PinHealth.HEALTHY);
+        then(h.check(5000 * MS)).isEqualTo(PinHealth.HEALTHY);
+        then(h.getState()).isEqualTo(PinHealth.HEALTHY);
+        then(h.getEdges()).isEqualTo(2);
+        then(h.getEdgeRate()).isEqualTo(4d / 3);  // 2 intervals in 1.5s
+    }
+
+    @Test
+    public void stuck_high() {
+        PinHealth h = new PinHealth(1000, 4, 100, 10000);
+        h.reset(0, false);
+
+        h.edge(100 * MS, true);
+        then(h.check(1100 * MS)).isEqualTo(PinHealth.HEALTHY);
+        then(h.check(1101 * MS)).isEqualTo(PinHealth.STUCK);
+        then(h.getState()).isEqualTo(PinHealth.STUCK);
+
+        h.edge(1200 * MS, false);
+        then(h.check(5000 * MS)).isEqualTo(PinHealth.HEALTHY);  // low for long is fine
+
+        h.reset(6000 * MS, true);
+        then(h.check(7001 * MS)).isEqualTo(PinHealth.STUCK);
+    }
+
+    @Test
+    public void chattering() {
+        PinHealth h = new PinHealth(1000, 4, 100, 10000);
+        h.reset(0, false);
+
+        then(h.edge(1000 * MS, true)).isEqualTo(PinHealth.HEALTHY);
+        then(h.edge(1010 * MS, false)).isEqualTo(PinHealth.HEALTHY);
+        then(h.edge(1020 * MS, true)).isEqualTo(PinHealth.HEALTHY);
+        then(h.edge(1030 * MS, false)).isEqualTo(PinHealth.HEALTHY);  // the first interval is 1s
+        then(h.edge(1040 * MS, true)).isEqualTo(PinHealth.CHATTERING);
+        then(h.check(1050 * MS)).isEqualTo(PinHealth.CHATTERING);
+        then(h.getEdgeRate()).isEqualTo(100);
+
+        then(h.edge(1140 * MS, false)).isEqualTo(PinHealth.HEALTHY);  // 130ms over the last 4
+        then(h.getEdges()).isEqualTo(6);
+
+        h.reset(2000 * MS, false);
+        then(h.getEdgeRate()).isZero();
+        then(h.check(2000 * MS)).isEqualTo(PinHealth.HEALTHY);
+    }
+
+    @Test
+    public void dead() {
+        PinHealth h = new PinHealth(1000, 4, 100, 10000);
+        h.reset(0, false);
+
+        then(h.check(10000 * MS)).isEqualTo(PinHealth.HEALTHY);
+        then(h.check(10001 * MS)).isEqualTo(PinHealth.DEAD);
+        then(h.edge(10002 * MS, true)).isEqualTo(PinHealth.HEALTHY);
+        then(h.check(10003 * MS)).isEqualTo(PinHealth.HEALTHY);
+    }
+
+    @Test
+    public void names() {
+        then(PinHealth.name(PinHealth.HEALTHY)).isEqualTo("healthy");
+        then(PinHealth.name(PinHealth.STUCK)).isEqualTo("stuck");
+        then(PinHealth.name(PinHealth.CHATTERING)).isEqualTo("chattering");
+        then(PinHealth.name(PinHealth.DEAD)).isEqualTo("dead");
+    }
+
+    @Test
+    public void invalid_thresholds() {
+        try {
+            new PinHealth(0, 4, 100, 1000);
+            fail("missing stuck check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("stuck, chatter and dead must be greater than 0");
+        }
+        try {
+            new PinHealth(1000, 4, 100, -1);
+            fail("missing dead check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("stuck, chatter and dead must be greater than 0");
+        }
+        try {
+            new PinHealth(1000, 0, 100, 1000);
+            fail("missing edges check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("edges must be greater than 0");
+        }
+    }
+}
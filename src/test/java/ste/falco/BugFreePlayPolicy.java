@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import static org.assertj.core.api.AssertionsForClassTypes.fail;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Test;
+import static ste.falco.TriggerSource.GPIO;
+import static ste.falco.TriggerSource.JMX;
+
+/**
+ *
+ */
+public class BugFreePlayPolicy {
+
+    private static final ZoneId UTC = ZoneId.of("UTC");
+    private static final ZoneId ROME = ZoneId.of("Europe/Rome");
+    private static final long MINUTE = 60 * 1000;
+
+    @Test
+    public void default_policy() {
+        final PlayPolicy p = PlayPolicy.compile(PlayPolicy.DEFAULT);
+
+        then(p).hasToString("hours=8-20;cooldown=10");
+        for (int h=0; h<24; ++h) {
+            then(p.isActive(at(2020, 6, 1, h, 0, UTC), UTC, GPIO)).as("hour " + h).isEqualTo((h > 7) && (h < 20));
+            then(p.isActive(at(2020, 6, 6, h, 59, UTC), UTC, JMX)).as("hour " + h).isEqualTo((h > 7) && (h < 20));
+        }
+        then(p.cooldown(GPIO, 0)).isEqualTo(10 * MINUTE);
+        then(p.cooldown(JMX, 5)).isEqualTo(10 * MINUTE);
+    }
+
+    @Test
+    public void weekday_windows() {
+        final PlayPolicy p = PlayPolicy.compile("mon-fri=7-9,17:30-21;sat+sun=always;wed=never");
+
+        then(p.isActive(at(2020, 6, 1, 6, 59, UTC), UTC, GPIO)).isFalse();   // Monday
+        then(p.isActive(at(2020, 6, 1, 7, 0, UTC), UTC, GPIO)).isTrue();
+        then(p.isActive(at(2020, 6, 1, 9, 0, UTC), UTC, GPIO)).isFalse();
+        then(p.isActive(at(2020, 6, 1, 17, 29, UTC), UTC, GPIO)).isFalse();
+        then(p.isActive(at(2020, 6, 1, 17, 30, UTC), UTC, GPIO)).isTrue();
+        then(p.isActive(at(2020, 6, 1, 20, 59, UTC), UTC, GPIO)).isTrue();
+        then(p.isActive(at(2020, 6, 3, 8, 0, UTC), UTC, GPIO)).isFalse();    // Wednesday
+        then(p.isActive(at(2020, 6, 5, 8, 0, UTC), UTC, GPIO)).isTrue();     // Friday
+        then(p.isActive(at(2020, 6, 6, 3, 0, UTC), UTC, GPIO)).isTrue();     // Saturday
+        then(p.isActive(at(2020, 6, 7, 23, 59, UTC), UTC, GPIO)).isTrue();   // Sunday
+        then(p.isActive(at(1969, 12, 29, 8, 0, UTC), UTC, GPIO)).isTrue();   // a Monday before the epoch
+    }
+
+    @Test
+    public void windows_and_days_wrap() {
+        final PlayPolicy p = PlayPolicy.compile("hours=never;fri-mon=22-6");
+
+        then(p.isActive(at(2020, 6, 5, 22, 0, UTC), UTC, GPIO)).isTrue();    // Friday
+        then(p.isActive(at(2020, 6, 5, 5, 59, UTC), UTC, GPIO)).isTrue();
+        then(p.isActive(at(2020, 6, 5, 12, 0, UTC), UTC, GPIO)).isFalse();
+        then(p.isActive(at(2020, 6, 1, 23, 0, UTC), UTC, GPIO)).isTrue();    // Monday
+        then(p.isActive(at(2020, 6, 2, 1, 0, UTC), UTC, GPIO)).isFalse();    // Tuesday
+        then(p.isActive(at(2020, 6, 4, 23, 0, UTC), UTC, GPIO)).isFalse();   // Thursday
+
+        then(PlayPolicy.compile("cooldown=5").isActive(at(2020, 6, 4, 3, 0, UTC), UTC, GPIO)).isTrue();
+        then(PlayPolicy.compile("hours=20-24").isActive(at(2020, 6, 4, 23, 59, UTC), UTC, GPIO)).isTrue();
+    }
+
+    @Test
+    public void per_source_entries() {
+        final PlayPolicy p = PlayPolicy.compile(PlayPolicy.DEFAULT + ";jmx:hours=always;jmx:cooldown=0");
+        final long night = at(2020, 6, 1, 23, 0, UTC), day = at(2020, 6, 1, 12, 0, UTC);
+        final long state = PlayPolicy.state(day - MINUTE, 0);
+
+        then(p.muted(state, night, UTC, GPIO)).isEqualTo(EventJournal.NIGHT);
+        then(p.muted(state, night, UTC, JMX)).isZero();
+        then(p.muted(state, day, UTC, GPIO)).isEqualTo(EventJournal.COOLDOWN);
+        then(p.muted(state, day, UTC, JMX)).isZero();
+        then(p.muted(state, day, UTC, TriggerSource.WARMUP)).isEqualTo(EventJournal.COOLDOWN);  // as gpio
+        then(p.muted(state, day, UTC, TriggerSource.of(GPIO, 3))).isEqualTo(EventJournal.COOLDOWN);
+        then(p.muted(state, day, UTC, TriggerSource.of(JMX, 3))).isZero();
+
+        then(PlayPolicy.compile("jmx:cooldown=1;cooldown=2").cooldown(JMX, 0)).isEqualTo(2 * MINUTE);
+    }
+
+    @Test
+    public void cooldown_tiers() {
+        final PlayPolicy p = PlayPolicy.compile("cooldown=10,20,60");
+        final long start = at(2020, 6, 1, 12, 0, UTC);
+
+        long state = PlayPolicy.state(start - 24 * 60 * MINUTE, 0);
+        then(p.muted(state, start, UTC, GPIO)).isZero();
+
+        state = p.played(state, start, GPIO);  // long after the previous one
+        then(PlayPolicy.lastPlayed(state)).isEqualTo(start);
+        then(PlayPolicy.tier(state)).isZero();
+        then(p.muted(state, start + 10 * MINUTE, UTC, GPIO)).isEqualTo(EventJournal.COOLDOWN);
+
+        state = p.played(state, start + 11 * MINUTE, GPIO);  // within 2x10 minutes
+        then(PlayPolicy.tier(state)).isEqualTo(1);
+        then(p.muted(state, start + 31 * MINUTE, UTC, GPIO)).isEqualTo(EventJournal.COOLDOWN);
+        then(p.muted(state, start + 32 * MINUTE, UTC, GPIO)).isZero();
+
+        state = p.played(state, start + 32 * MINUTE, GPIO);  // within 2x20 minutes
+        then(PlayPolicy.tier(state)).isEqualTo(2);
+        state = p.played(state, start + 93 * MINUTE, GPIO);  // within 2x60 minutes, last tier
+        then(PlayPolicy.tier(state)).isEqualTo(2);
+        then(p.cooldown(GPIO, PlayPolicy.tier(state))).isEqualTo(60 * MINUTE);
+
+        state = p.played(state, start + 300 * MINUTE, GPIO);  // quiet for a while
+        then(PlayPolicy.tier(state)).isZero();
+    }
+
+    @Test
+    public void with_more_entries() {
+        final PlayPolicy p = PlayPolicy.compile(PlayPolicy.DEFAULT);
+        final PlayPolicy q = p.with("cooldown=5");
+
+        then(q).hasToString(PlayPolicy.DEFAULT + ";cooldown=5");
+        then(q.cooldown(GPIO, 0)).isEqualTo(5 * MINUTE);
+        then(p.cooldown(GPIO, 0)).isEqualTo(10 * MINUTE);
+        then(q.isActive(at(2020, 6, 1, 21, 0, UTC), UTC, GPIO)).isFalse();
+    }
+
+    @Test
+    public void with_a_new_cooldown() {
+        PlayPolicy p = PlayPolicy.compile("hours=8-20;cooldown=10,20,60;jmx:cooldown=0");
+
+        p = p.withCooldown(5);
+        then(p).hasToString("hours=8-20;cooldown=5,20,60;jmx:cooldown=0");
+        then(p.cooldown(GPIO, 0)).isEqualTo(5 * MINUTE);
+        then(p.cooldown(GPIO, 2)).isEqualTo(60 * MINUTE);
+        then(p.cooldown(JMX, 0)).isZero();
+
+        p = p.withCooldown(15);  // the spec does not grow
+        then(p).hasToString("hours=8-20;cooldown=15,20,60;jmx:cooldown=0");
+
+        //
+        // without a cooldown for all sources, it goes before the ones per
+        // source; what was overridden goes away
+        //
+        then(PlayPolicy.compile("jmx:cooldown=0;hours=always").withCooldown(5))
+            .hasToString("cooldown=5;jmx:cooldown=0;hours=always");
+        then(PlayPolicy.compile("jmx:cooldown=0;cooldown=10;gpio:cooldown=1;cooldown=20").withCooldown(5))
+            .hasToString("cooldown=5");
+
+        try {
+            p.withCooldown(-1);
+            fail("missing cooldown check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("cooldown can not be negative");
+        }
+    }
+
+    @Test
+    public void local_time_across_dst() {
+        final PlayPolicy p = PlayPolicy.compile(PlayPolicy.DEFAULT);
+
+        //
+        // in Rome DST starts on 2020-03-29 at 2:00 (+1 -> +2) and ends on
+        // 2020-10-25 at 3:00 (+2 -> +1)
+        //
+        then(p.isActive(at(2020, 3, 28, 19, 59, ROME), ROME, GPIO)).isTrue();
+        then(p.isActive(at(2020, 3, 29, 7, 59, ROME), ROME, GPIO)).isFalse();
+        then(p.isActive(at(2020, 3, 29, 8, 0, ROME), ROME, GPIO)).isTrue();
+        then(p.isActive(at(2020, 3, 29, 19, 59, ROME), ROME, GPIO)).isTrue();
+        then(p.isActive(at(2020, 3, 29, 20, 0, ROME), ROME, GPIO)).isFalse();
+        then(p.isActive(at(2020, 10, 25, 8, 0, ROME), ROME, GPIO)).isTrue();
+        then(p.isActive(at(2020, 10, 25, 7, 59, ROME), ROME, GPIO)).isFalse();
+        then(p.isActive(at(2020, 3, 29, 8, 0, ROME), ROME, GPIO)).isTrue();  // back in time
+
+        //
+        // same instant, different zones
+        //
+        final long noon = at(2020, 6, 1, 12, 0, UTC);
+        then(p.isActive(noon, UTC, GPIO)).isTrue();
+        then(p.isActive(noon, ZoneId.of("Asia/Tokyo"), GPIO)).isFalse();  // 21:00
+        then(p.isActive(noon, UTC, GPIO)).isTrue();
+    }
+
+    @Test
+    public void from_sunrise_to_sunset() {
+        final PlayPolicy p = PlayPolicy.compile("location=45.4642,9.19;hours=daylight;sun=8-20");
+        final long sunrise = p.getLocation().sunrise(LocalDate.of(2020, 6, 22).toEpochDay());
+        final long sunset = p.getLocation().sunset(LocalDate.of(2020, 6, 22).toEpochDay());
+
+        then(p.getLocation()).hasToString("45.4642,9.19");
+        then(p.isActive(sunrise - 1, ROME, GPIO)).isFalse();   // Monday
+        then(p.isActive(sunrise, ROME, GPIO)).isTrue();
+        then(p.isActive(sunset - 1, ROME, GPIO)).isTrue();
+        then(p.isActive(sunset, ROME, GPIO)).isFalse();
+        then(p.isActive(at(2020, 6, 22, 6, 0, ROME), ROME, GPIO)).isTrue();
+        then(p.isActive(at(2020, 12, 21, 7, 30, ROME), ROME, GPIO)).isFalse();  // still dark in winter
+        then(p.isActive(at(2020, 12, 21, 8, 30, ROME), ROME, GPIO)).isTrue();
+        then(p.isActive(at(2020, 12, 21, 17, 0, ROME), ROME, GPIO)).isFalse();
+        then(p.isActive(at(2020, 6, 21, 6, 0, ROME), ROME, GPIO)).isFalse();    // Sunday, 8-20
+        then(p.isActive(at(2020, 6, 22, 6, 0, ROME), ROME, GPIO)).isTrue();     // back to a cached day
+
+        final PlayPolicy svalbard = PlayPolicy.compile("location=78.22,15.65;hours=daylight");
+        then(svalbard.isActive(at(2020, 6, 21, 1, 0, UTC), UTC, GPIO)).isTrue();
+        then(svalbard.isActive(at(2020, 12, 21, 11, 0, UTC), UTC, GPIO)).isFalse();
+
+        then(PlayPolicy.compile("location=0,0;hours=daylight;hours=always").isActive(at(2020, 6, 1, 0, 0, UTC), UTC, GPIO)).isTrue();
+        then(PlayPolicy.compile("location=0,0;jmx:hours=daylight").isActive(at(2020, 6, 1, 0, 0, UTC), UTC, JMX)).isFalse();
+        then(PlayPolicy.compile("location=0,0;jmx:hours=daylight").isActive(at(2020, 6, 1, 0, 0, UTC), UTC, GPIO)).isTrue();
+    }
+
+    @Test
+    public void next_change() {
+        final PlayPolicy p = PlayPolicy.compile("mon-fri=7-9,17:30-21;sat+sun=never");
+
+        then(p.next(at(2020, 6, 1, 6, 0, UTC), UTC, GPIO)).isEqualTo(at(2020, 6, 1, 7, 0, UTC));
+        then(p.next(at(2020, 6, 1, 6, 59, UTC) + 59999, UTC, GPIO)).isEqualTo(at(2020, 6, 1, 7, 0, UTC));
+        then(p.next(at(2020, 6, 1, 7, 0, UTC), UTC, GPIO)).isEqualTo(at(2020, 6, 1, 9, 0, UTC));
+        then(p.next(at(2020, 6, 1, 10, 0, UTC), UTC, GPIO)).isEqualTo(at(2020, 6, 1, 17, 30, UTC));
+        then(p.next(at(2020, 6, 5, 22, 0, UTC), UTC, GPIO)).isEqualTo(at(2020, 6, 8, 7, 0, UTC));   // the weekend
+
+        then(PlayPolicy.compile("hours=always").next(at(2020, 6, 1, 0, 0, UTC), UTC, GPIO)).isEqualTo(Long.MAX_VALUE);
+        then(PlayPolicy.compile("hours=never;jmx:hours=always").next(at(2020, 6, 1, 0, 0, UTC), UTC, JMX)).isEqualTo(Long.MAX_VALUE);
+
+        //
+        // local time, across DST
+        //
+        final PlayPolicy q = PlayPolicy.compile(PlayPolicy.DEFAULT);
+        then(q.next(at(2020, 3, 28, 21, 0, ROME), ROME, GPIO)).isEqualTo(at(2020, 3, 29, 8, 0, ROME));
+        then(q.next(at(2020, 10, 24, 21, 0, ROME), ROME, GPIO)).isEqualTo(at(2020, 10, 25, 8, 0, ROME));
+    }
+
+    @Test
+    public void invalid_policies() {
+        invalid(null, "policy can not be blank or null");
+        invalid("  ", "policy can not be blank or null");
+        invalid("hours", "invalid policy entry 'hours', expected [source:]key=value");
+        invalid("warmup:hours=always", "invalid source 'warmup' in policy");
+        invalid("none:hours=always", "unknown source 'none'");
+        invalid("noon=always", "unknown key or day 'noon' in policy");
+        invalid("mon-xyz=always", "unknown key or day 'xyz' in policy");
+        invalid("hours=8", "invalid window '8' in policy");
+        invalid("hours=8-8", "invalid window '8-8' in policy");
+        invalid("hours=8-25", "invalid time '25' in policy");
+        invalid("hours=8:60-20", "invalid time '8:60' in policy");
+        invalid("hours=a-b", "invalid time 'a' in policy");
+        invalid("cooldown=-1", "invalid cooldown '-1' in policy");
+        invalid("cooldown=10,x", "invalid cooldown 'x' in policy");
+        invalid("cooldown=1,2,3,4,5,6,7,8,9,10,11,12,13,14,15,16,17", "too many cooldown tiers in policy (max 16)");
+        invalid("hours=daylight", "daylight requires a location in policy");
+        invalid("location=45", "invalid location '45' in policy, expected LATITUDE,LONGITUDE in degrees");
+        invalid("location=north,9", "invalid location 'north,9' in policy, expected LATITUDE,LONGITUDE in degrees");
+        invalid("location=91,9", "invalid location '91,9' in policy, expected LATITUDE,LONGITUDE in degrees");
+        invalid("gpio:location=45,9", "location can not be given per source in policy");
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private static long at(int year, int month, int day, int hour, int minute, ZoneId zone) {
+        return ZonedDateTime.of(year, month, day, hour, minute, 0, 0, zone).toInstant().toEpochMilli();
+    }
+
+    private void invalid(final String spec, final String message) {
+        try {
+            PlayPolicy.compile(spec);
+            fail("missing check for " + spec);
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage(message);
+        }
+    }
+}
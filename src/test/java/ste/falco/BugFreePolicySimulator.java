@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import org.assertj.core.data.Offset;
+import static org.assertj.core.api.AssertionsForClassTypes.fail;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ */
+public class BugFreePolicySimulator {
+
+    private static final ZoneId UTC = ZoneId.of("UTC");
+    private static final long MINUTE = 60 * 1000;
+    private static final long DAY = 24 * 60 * MINUTE;
+    private static final long MONDAY = ZonedDateTime.of(2020, 6, 1, 0, 0, 0, 0, UTC).toInstant().toEpochMilli();
+    private static final double ACTIVE_DAY = 12 * 60;  // minutes, 8:00 to 20:00
+
+    @Rule
+    public final TemporaryFolder TMP = new TemporaryFolder();
+
+    @Test
+    public void plays_and_mutes_in_virtual_time() {
+        try (PolicySimulator s = new PolicySimulator(4, 10, 10, UTC)) {
+            then(s.getCoverage()).isZero();
+
+            s.motion(MONDAY + 6 * 60 * MINUTE);              // night
+            s.motion(MONDAY + 9 * 60 * MINUTE);              // played
+            s.motion(MONDAY + 9 * 60 * MINUTE + 5 * MINUTE);  // cooldown
+            s.motion(MONDAY + 9 * 60 * MINUTE + 11 * MINUTE); // played
+            s.motion(MONDAY + 21 * 60 * MINUTE);             // night
+
+            then(s.getMotions()).isEqualTo(5);
+            then(s.getPlayed()).isEqualTo(2);
+            then(s.getMutedAtNight()).isEqualTo(2);
+            then(s.getMutedInCooldown()).isEqualTo(1);
+            then(s.getFirst()).isEqualTo(MONDAY + 6 * 60 * MINUTE);
+            then(s.getLast()).isEqualTo(MONDAY + 21 * 60 * MINUTE);
+            then(s.getCoverage()).isCloseTo(20 / ACTIVE_DAY, Offset.offset(1e-9));
+        }
+    }
+
+    @Test
+    public void a_different_cooldown() {
+        try (PolicySimulator s = new PolicySimulator(4, 0, 10, UTC)) {
+            s.motion(MONDAY + 9 * 60 * MINUTE);
+            s.motion(MONDAY + 9 * 60 * MINUTE + 5 * MINUTE);
+            s.motion(MONDAY + 9 * 60 * MINUTE + 11 * MINUTE);
+
+            then(s.getPlayed()).isEqualTo(3);
+            then(s.getMutedInCooldown()).isZero();
+            then(s.getCoverage()).isCloseTo(21 / ACTIVE_DAY, Offset.offset(1e-9));  // overlapping effects
+        }
+    }
+
+    @Test
+    public void a_different_policy() {
+        try (PolicySimulator s = new PolicySimulator(4, 10, 10, UTC)) {
+            s.setPolicy(PlayPolicy.compile("mon-fri=6-9;sat+sun=never;cooldown=10,30;jmx:hours=always"));
+            then(s.getPolicy()).hasToString("mon-fri=6-9;sat+sun=never;cooldown=10,30;jmx:hours=always");
+
+            s.motion(MONDAY + 6 * 60 * MINUTE);                   // played
+            s.motion(MONDAY + 6 * 60 * MINUTE + 11 * MINUTE);     // played, next tier
+            s.motion(MONDAY + 6 * 60 * MINUTE + 22 * MINUTE);     // cooldown
+            s.motion(MONDAY + 9 * 60 * MINUTE);                   // night
+            s.motion(MONDAY + 9 * 60 * MINUTE, TriggerSource.JMX); // played
+            s.motion(MONDAY + 5 * DAY + 7 * 60 * MINUTE);         // Saturday, night
+
+            then(s.getPlayed()).isEqualTo(3);
+            then(s.getMutedInCooldown()).isEqualTo(1);
+            then(s.getMutedAtNight()).isEqualTo(2);
+
+            try {
+                s.setPolicy(PlayPolicy.compile(PlayPolicy.DEFAULT));
+                fail("missing started check");
+            } catch (IllegalStateException x) {
+                then(x).hasMessage("the policy must be set before the first motion");
+            }
+        }
+    }
+
+    @Test
+    public void replay_a_month_from_the_journal() throws Exception {
+        try (EventJournal j = new EventJournal(TMP.getRoot().toPath())) {
+            j.open();
+            for (int day=0; day<30; ++day) {
+                for (int minute=0; minute<24*60; minute+=30) {  // a motion every 30 minutes
+                    final long time = MONDAY + day * DAY + minute * MINUTE;
+                    j.append(time, 4, EventJournal.EDGE, (byte)1, TriggerSource.GPIO);
+                    j.append(time, 4, EventJournal.MUTED, EventJournal.NIGHT, TriggerSource.GPIO);
+                    j.append(time, 5, EventJournal.PLAYED, (byte)0, TriggerSource.GPIO);
+                }
+            }
+
+            try (PolicySimulator s = new PolicySimulator(4, 45, 30, UTC)) {
+                s.replay(j.getSegments());
+
+                then(s.getMotions()).isEqualTo(30 * 48);
+                then(s.getMutedAtNight()).isEqualTo(30 * 24);
+                then(s.getPlayed()).isEqualTo(30 * 12);       // one every hour
+                then(s.getMutedInCooldown()).isEqualTo(30 * 12);
+                then(s.getCoverage()).isCloseTo(0.5, Offset.offset(1e-9));
+                then(s.getLast()).isEqualTo(MONDAY + 29 * DAY + (24 * 60 - 30) * MINUTE);
+            }
+        }
+    }
+
+    @Test
+    public void invalid_arguments() {
+        try {
+            new PolicySimulator(32, 10, 10, UTC);
+            fail("missing pin check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("pin must be in the range [0, 31]");
+        }
+        try {
+            new PolicySimulator(4, -1, 10, UTC);
+            fail("missing cooldown check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("cooldown and effect can not be negative");
+        }
+        try (PolicySimulator s = new PolicySimulator(4, 10, 10, UTC)) {
+            s.motion(MONDAY);
+            s.motion(MONDAY - 1);
+            fail("missing order check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("motions must be given in time order");
+        }
+        try (PolicySimulator s = new PolicySimulator(4, 10, 10, UTC)) {
+            s.setPolicy(null);
+            fail("missing policy check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("policy can not be null");
+        }
+    }
+}
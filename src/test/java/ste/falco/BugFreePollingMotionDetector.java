@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import com.pi4j.io.gpio.GpioController;
+import com.pi4j.io.gpio.GpioFactory;
+import com.pi4j.io.gpio.RaspiPin;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.assertj.core.api.AssertionsForClassTypes.fail;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BugFreePollingMotionDetector extends BugFreePIRBase {
+
+    @Before
+    public void before() {
+        PIR.down();
+    }
+
+    @Test
+    public void polls_the_pin_instead_of_listening() throws Exception {
+        GpioController gpio = GpioFactory.getInstance();
+        try (InnerPollingMotionDetector moctor = new InnerPollingMotionDetector(false)) {
+            moctor.setIntervals(5, 20, 100);
+            moctor.startup();
+
+            then(gpio.getProvisionedPin(RaspiPin.GPIO_04).getListeners()).isEmpty();
+            then(moctor.isLive()).isTrue();
+
+            PIR.down(); waitSamples(moctor, 2);
+            PIR.up(); waitCount(moctor, 1); then(moctor.count).isEqualTo(1);
+            PIR.down(); Thread.sleep(50);
+            PIR.up(); waitCount(moctor, 2); then(moctor.count).isEqualTo(2);
+
+            then(moctor.getSamples()).isGreaterThan(2);
+            then(moctor.dispatchLatency.getCount()).isEqualTo(2);
+            then(moctor.getEdgeFilter().getEvents()).isEqualTo(2);
+        }
+        then(gpio.getProvisionedPins()).isEmpty();
+    }
+
+    @Test
+    public void interval_is_fast_after_activity_and_slow_when_idle() throws Exception {
+        try (InnerPollingMotionDetector moctor = new InnerPollingMotionDetector(false)) {
+            moctor.setIntervals(5, 80, 200);
+            moctor.startup();
+
+            waitInterval(moctor, 80); then(moctor.getIntervalMillis()).isEqualTo(80);
+
+            PIR.down(); waitSamples(moctor, 1);
+            PIR.up(); waitCount(moctor, 1);
+            then(moctor.getIntervalMillis()).isEqualTo(5);
+
+            waitInterval(moctor, 80); then(moctor.getIntervalMillis()).isEqualTo(80);
+        }
+        then(new InnerPollingMotionDetector(false).getIntervalMillis()).isZero();
+    }
+
+    @Test
+    public void suspended_during_muted_hours() throws Exception {
+        try (InnerPollingMotionDetector moctor = new InnerPollingMotionDetector(true)) {
+            moctor.setIntervals(5, 10, 100);
+            moctor.startup();
+
+            PIR.up(); Thread.sleep(100);
+
+            then(moctor.count).isZero();
+            then(moctor.getSamples()).isZero();
+            then(moctor.getIntervalMillis()).isZero();
+            then(moctor.isLive()).isTrue();
+        }
+    }
+
+    @Test
+    public void resumes_as_soon_as_the_active_hours_start() throws Exception {
+        final VirtualClock clock = new VirtualClock(
+            ZonedDateTime.of(2020, 6, 1, 7, 59, 59, 0, ZoneId.of("UTC")).toInstant().toEpochMilli(), ZoneId.of("UTC")
+        );
+        try (PollingMotionDetector moctor = new PollingMotionDetector("/sounds/test1.wav")) {
+            moctor.setClock(clock);
+            moctor.setPolicy(PlayPolicy.compile("hours=8-20"));
+            moctor.setIntervals(5, 10, 100);
+            moctor.startup();
+
+            Thread.sleep(100);
+            then(moctor.getSamples()).isZero();
+
+            clock.advance(1000);  // the poller wakes up at 08:00, not a minute later
+            waitSamples(moctor, 1);
+            then(moctor.getSamples()).isPositive();
+        }
+    }
+
+    @Test
+    public void keeps_polling_after_a_failure() throws Exception {
+        final AtomicInteger failures = new AtomicInteger();
+        try (InnerPollingMotionDetector moctor = new InnerPollingMotionDetector(false) {
+            @Override
+            protected boolean isActiveTime() {
+                if (failures.incrementAndGet() <= 3) {
+                    throw new IllegalStateException("failure " + failures.get());
+                }
+                return true;
+            }
+        }) {
+            moctor.setIntervals(5, 10, 100);
+            moctor.startup();
+
+            waitSamples(moctor, 2);
+            then(failures.get()).isGreaterThan(3);
+            PIR.up(); waitCount(moctor, 1); then(moctor.count).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void cpu_time_of_the_poller() throws Exception {
+        try (InnerPollingMotionDetector moctor = new InnerPollingMotionDetector(false)) {
+            then(moctor.getCpuMillis()).isEqualTo(-1);
+            moctor.startup();
+            then(moctor.getCpuMillis()).isGreaterThanOrEqualTo(0);
+        }
+    }
+
+    @Test
+    public void invalid_intervals() {
+        PollingMotionDetector moctor = new PollingMotionDetector("/sounds/test1.wav");
+        try {
+            moctor.setIntervals(0, 10, 10);
+            fail("missing fast check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("fast must be greater than 0");
+        }
+        try {
+            moctor.setIntervals(10, 5, 10);
+            fail("missing slow check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("slow can not be less than fast");
+        }
+        try {
+            moctor.setIntervals(10, 10, -1);
+            fail("missing hold check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("hold can not be negative");
+        }
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private void waitCount(InnerPollingMotionDetector moctor, int count) throws Exception {
+        long end = System.currentTimeMillis() + 2500;
+        while ((moctor.count < count) && (System.currentTimeMillis() < end)) {
+            Thread.sleep(1);
+        }
+    }
+
+    private void waitSamples(PollingMotionDetector moctor, int samples) throws Exception {
+        final long target = moctor.getSamples() + samples;
+        long end = System.currentTimeMillis() + 2500;
+        while ((moctor.getSamples() < target) && (System.currentTimeMillis() < end)) {
+            Thread.sleep(1);
+        }
+    }
+
+    private void waitInterval(PollingMotionDetector moctor, long interval) throws Exception {
+        long end = System.currentTimeMillis() + 2500;
+        while ((moctor.getIntervalMillis() != interval) && (System.currentTimeMillis() < end)) {
+            Thread.sleep(5);
+        }
+    }
+
+    // ---------------------------------------------- InnerPollingMotionDetector
+
+    private class InnerPollingMotionDetector extends PollingMotionDetector {
+        public volatile int count = 0;
+        private final boolean muted;
+
+        public InnerPollingMotionDetector(boolean muted) {
+            super("/sounds/test1.wav");
+            this.muted = muted;
+        }
+
+        @Override
+        public void moved() {
+            count += 1;
+        }
+
+        @Override
+        protected boolean isActiveTime() {
+            return !muted;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.assertj.core.api.AssertionsForClassTypes.fail;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Test;
+import ste.xtest.concurrent.Condition;
+import ste.xtest.concurrent.WaitFor;
+
+/**
+ *
+ */
+public class BugFreeScheduler {
+
+    @Test
+    public void tasks_share_the_given_threads() throws Exception {
+        final Scheduler scheduler = new Scheduler("test-scheduler", 2);
+        final AtomicInteger runs = new AtomicInteger();
+        try {
+            then(scheduler.getThreads()).isZero();
+            for (int i=0; i<10; ++i) {
+                scheduler.scheduleAtFixedRate("task " + i, new Counter(runs), 0, 10, TimeUnit.MILLISECONDS);
+            }
+            then(scheduler.getTasks()).isEqualTo(10);
+
+            new WaitFor(1000, new Condition() {
+                @Override
+                public boolean check() {
+                    return runs.get() >= 50;
+                }
+            });
+            then(scheduler.getThreads()).isEqualTo(2);
+            then(scheduler.getRuns()).isGreaterThanOrEqualTo(50);
+            then(scheduler.lag.getCount()).isEqualTo(scheduler.getRuns());
+        } finally {
+            scheduler.shutdown();
+        }
+        then(scheduler.isShutdown()).isTrue();
+        then(scheduler.getTasks()).isZero();
+
+        try {
+            scheduler.schedule("late", new Counter(runs), 0, TimeUnit.MILLISECONDS);
+            fail("scheduled after shutdown");
+        } catch (RejectedExecutionException x) {
+            then(scheduler.getTasks()).isZero();
+        }
+    }
+
+    @Test
+    public void cancelled_and_done_tasks_are_forgotten() throws Exception {
+        final Scheduler scheduler = new Scheduler("test-scheduler", 1);
+        final AtomicInteger runs = new AtomicInteger();
+        try {
+            final Scheduler.Task once = scheduler.schedule("once", new Counter(runs), 10, TimeUnit.MILLISECONDS);
+            final Scheduler.Task delayed = scheduler.scheduleWithFixedDelay("delayed", new Counter(runs), 0, 10, TimeUnit.MILLISECONDS);
+            then(once.name).isEqualTo("once");
+            then(scheduler.getScheduled()).containsOnly(once, delayed);
+
+            new WaitFor(1000, new Condition() {
+                @Override
+                public boolean check() {
+                    return (once.getRuns() == 1) && (delayed.getRuns() >= 3);
+                }
+            });
+            then(scheduler.getScheduled()).containsOnly(delayed);
+            then(once.isCancelled()).isFalse();
+
+            delayed.cancel(); delayed.cancel();
+            then(delayed.isCancelled()).isTrue();
+            then(scheduler.getTasks()).isZero();
+            final long count = delayed.getRuns();
+            Thread.sleep(50);
+            then(delayed.getRuns()).isEqualTo(count);
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void lag_of_tasks_started_late() throws Exception {
+        final Scheduler scheduler = new Scheduler("test-scheduler", 1);
+        final AtomicInteger runs = new AtomicInteger();
+        try {
+            scheduler.schedule("slow", new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException x) {
+                    }
+                }
+            }, 0, TimeUnit.MILLISECONDS);
+            final Scheduler.Task late = scheduler.schedule("late", new Counter(runs), 10, TimeUnit.MILLISECONDS);
+
+            new WaitFor(1000, new Condition() {
+                @Override
+                public boolean check() {
+                    return runs.get() == 1;
+                }
+            });
+            then(late.getMaxLag()).isBetween(50000L, 1000000L);  // ~90ms late
+            then(scheduler.lag.getMax()).isEqualTo(late.getMaxLag());
+            then(scheduler.lag.getCount()).isEqualTo(2);
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void a_failing_task_keeps_its_schedule() throws Exception {
+        final Scheduler scheduler = new Scheduler("test-scheduler", 1);
+        final AtomicInteger runs = new AtomicInteger();
+        try {
+            final Scheduler.Task task = scheduler.scheduleAtFixedRate("failing", new Runnable() {
+                @Override
+                public void run() {
+                    runs.incrementAndGet();
+                    throw new IllegalStateException("failing");
+                }
+            }, 0, 10, TimeUnit.MILLISECONDS);
+
+            new WaitFor(1000, new Condition() {
+                @Override
+                public boolean check() {
+                    return runs.get() >= 3;
+                }
+            });
+            then(scheduler.getErrors()).isGreaterThanOrEqualTo(3);
+            then(task.isCancelled()).isFalse();
+            then(scheduler.getTasks()).isEqualTo(1);
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void invalid_arguments() {
+        try {
+            new Scheduler("test-scheduler", 0);
+            fail("missing threads check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("threads must be greater than 0");
+        }
+
+        final Scheduler scheduler = new Scheduler("test-scheduler", 1);
+        try {
+            scheduler.schedule("null", null, 0, TimeUnit.MILLISECONDS);
+            fail("missing task check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("task can not be null");
+            then(scheduler.getTasks()).isZero();
+        } finally {
+            scheduler.shutdown();
+        }
+
+        then(Scheduler.getInstance()).isSameAs(Scheduler.getInstance());
+    }
+
+    // ----------------------------------------------------------------- Counter
+
+    private static class Counter implements Runnable {
+        private final AtomicInteger runs;
+
+        public Counter(final AtomicInteger runs) {
+            this.runs = runs;
+        }
+
+        @Override
+        public void run() {
+            runs.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import static org.assertj.core.api.AssertionsForClassTypes.fail;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.assertj.core.data.Offset;
+import org.junit.Test;
+
+/**
+ * Expected values are from the NOAA solar calculator and almanacs, rounded to
+ * the minute.
+ */
+public class BugFreeSolarCalculator {
+
+    private static final long MINUTE = 60 * 1000;
+    private static final Offset<Long> ONE_MINUTE = Offset.offset(MINUTE);
+
+    @Test
+    public void sunrise_and_sunset() {
+        final ZoneId ROME = ZoneId.of("Europe/Rome");
+        final SolarCalculator milan = new SolarCalculator(45.4642, 9.19);
+
+        then(milan.latitude).isEqualTo(45.4642);
+        then(milan.longitude).isEqualTo(9.19);
+        then(milan).hasToString("45.4642,9.19");
+
+        then(milan.sunrise(day(2020, 6, 21))).isCloseTo(at(2020, 6, 21, 5, 35, ROME), ONE_MINUTE);
+        then(milan.sunset(day(2020, 6, 21))).isCloseTo(at(2020, 6, 21, 21, 15, ROME), ONE_MINUTE);
+        then(milan.sunrise(day(2020, 12, 21))).isCloseTo(at(2020, 12, 21, 8, 0, ROME), ONE_MINUTE);
+        then(milan.sunset(day(2020, 12, 21))).isCloseTo(at(2020, 12, 21, 16, 43, ROME), ONE_MINUTE);
+
+        final ZoneId NY = ZoneId.of("America/New_York");
+        final SolarCalculator newYork = new SolarCalculator(40.7128, -74.006);
+        then(newYork.sunrise(day(2020, 6, 21))).isCloseTo(at(2020, 6, 21, 5, 25, NY), ONE_MINUTE);
+        then(newYork.sunset(day(2020, 6, 21))).isCloseTo(at(2020, 6, 21, 20, 31, NY), ONE_MINUTE);
+
+        final ZoneId SYDNEY = ZoneId.of("Australia/Sydney");
+        final SolarCalculator sydney = new SolarCalculator(-33.8688, 151.2093);
+        then(sydney.sunrise(day(2020, 6, 21))).isCloseTo(at(2020, 6, 21, 7, 0, SYDNEY), ONE_MINUTE);
+        then(sydney.sunset(day(2020, 6, 21))).isCloseTo(at(2020, 6, 21, 16, 54, SYDNEY), ONE_MINUTE);
+    }
+
+    @Test
+    public void polar_day_and_night() {
+        final SolarCalculator svalbard = new SolarCalculator(78.22, 15.65);
+
+        then(svalbard.sunrise(day(2020, 6, 21))).isEqualTo(Long.MIN_VALUE);
+        then(svalbard.sunset(day(2020, 6, 21))).isEqualTo(Long.MAX_VALUE);
+
+        final long noon = svalbard.sunrise(day(2020, 12, 21));
+        then(svalbard.sunset(day(2020, 12, 21))).isEqualTo(noon);
+        then(noon).isCloseTo(at(2020, 12, 21, 11, 0, ZoneId.of("UTC")), Offset.offset(15 * MINUTE));
+    }
+
+    @Test
+    public void invalid_coordinates() {
+        for (double latitude: new double[] {-90.1, 90.1, Double.NaN}) {
+            try {
+                new SolarCalculator(latitude, 0);
+                fail("missing latitude check");
+            } catch (IllegalArgumentException x) {
+                then(x).hasMessage("latitude must be in the range [-90, 90]");
+            }
+        }
+        for (double longitude: new double[] {-180.1, 180.1, Double.NaN}) {
+            try {
+                new SolarCalculator(0, longitude);
+                fail("missing longitude check");
+            } catch (IllegalArgumentException x) {
+                then(x).hasMessage("longitude must be in the range [-180, 180]");
+            }
+        }
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private static long day(int year, int month, int day) {
+        return LocalDate.of(year, month, day).toEpochDay();
+    }
+
+    private static long at(int year, int month, int day, int hour, int minute, ZoneId zone) {
+        return ZonedDateTime.of(year, month, day, hour, minute, 0, 0, zone).toInstant().toEpochMilli();
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import java.io.IOException;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import static org.assertj.core.api.AssertionsForClassTypes.fail;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BugFreeSoundCache {
+
+    @Test
+    public void decode_once_and_return_the_same_asset() throws Exception {
+        SoundCache cache = new SoundCache(SoundCache.DEFAULT_BUDGET);
+
+        SoundAsset asset = cache.get("/sounds/test1.wav");
+        then(asset.format.getEncoding()).isEqualTo(AudioFormat.Encoding.PCM_SIGNED);
+        then(asset.frames).isEqualTo(asset.size() / asset.format.getFrameSize());
+        then(cache.getMisses()).isEqualTo(1);
+        then(cache.getSize()).isEqualTo(asset.size());
+
+        then(cache.get("/sounds/test1.wav")).isSameAs(asset);
+        then(cache.getHits()).isEqualTo(1);
+        then(cache.getMisses()).isEqualTo(1);
+    }
+
+    @Test
+    public void convert_once_per_format() throws Exception {
+        final AudioFormat LE = new AudioFormat(22050f, 16, 2, true, false);
+        final AudioFormat BE = new AudioFormat(22050f, 16, 2, true, true);
+        SoundCache cache = new SoundCache(SoundCache.DEFAULT_BUDGET);
+
+        SoundAsset asset = cache.get("/sounds/test1.wav", LE);
+        then(asset.format).isSameAs(LE);
+        then(cache.get("/sounds/test1.wav", LE)).isSameAs(asset);
+        then(cache.get("/sounds/test1.wav", BE).format).isSameAs(BE);
+        then(cache.getHits()).isEqualTo(1);
+        then(cache.getMisses()).isEqualTo(2);
+        then(cache.getSize()).isEqualTo(2 * asset.size());
+
+        try {
+            cache.get("/sounds/test1.wav", null);
+            fail("missing format check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("format can not be null");
+        }
+    }
+
+    @Test
+    public void evict_least_recently_used_when_over_budget() throws Exception {
+        SoundCache cache = new SoundCache(SoundCache.DEFAULT_BUDGET);
+        long size1 = cache.get("/sounds/test1.wav").size();
+        long size2 = cache.get("/sounds/red-tailed-hawk-sound.wav").size();
+
+        cache.get("/sounds/test1.wav");  // test1 is now the most recently used
+        cache.setBudget(Math.max(size1, size2));
+
+        then(cache.getEvictions()).isEqualTo(1);
+        then(cache.contains("/sounds/test1.wav")).isTrue();
+        then(cache.contains("/sounds/red-tailed-hawk-sound.wav")).isFalse();
+        then(cache.getSize()).isEqualTo(size1);
+    }
+
+    @Test
+    public void do_not_cache_sounds_bigger_than_the_budget() throws Exception {
+        SoundCache cache = new SoundCache(16);
+
+        SoundAsset asset = cache.get("/sounds/test1.wav");
+        then(asset.pcm).isNotEmpty();
+        then(cache.contains("/sounds/test1.wav")).isFalse();
+        then(cache.getSize()).isZero();
+    }
+
+    @Test
+    public void stream_does_not_consume_the_asset() throws Exception {
+        SoundAsset asset = new SoundCache(SoundCache.DEFAULT_BUDGET).get("/sounds/test1.wav");
+
+        byte[] buf = new byte[asset.size()];
+        then(asset.stream().read(buf)).isEqualTo(asset.size());
+        then(asset.stream().read(buf)).isEqualTo(asset.size());
+        then(asset.stream().getFrameLength()).isEqualTo(asset.frames);
+    }
+
+    @Test
+    public void errors_are_not_cached() throws Exception {
+        SoundCache cache = new SoundCache(SoundCache.DEFAULT_BUDGET);
+
+        try {
+            cache.get("/sounds/test2.invalid");
+            fail("missing check for unsupported formats");
+        } catch (UnsupportedAudioFileException x) {
+            then(x).hasMessage("Stream of unsupported format");
+        }
+
+        try {
+            cache.get("/sounds/none.wav");
+            fail("missing check for missing resources");
+        } catch (IOException x) {
+            then(x).hasMessageContaining("/sounds/none.wav");
+        }
+
+        then(cache.getSize()).isZero();
+    }
+
+    @Test
+    public void budget_can_not_be_negative() {
+        try {
+            new SoundCache(-1);
+            fail("missing check for negative budget");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("budget can not be negative");
+        }
+    }
+}
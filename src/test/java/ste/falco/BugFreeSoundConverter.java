@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import javax.sound.sampled.AudioFormat;
+import static org.assertj.core.api.AssertionsForClassTypes.fail;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BugFreeSoundConverter {
+
+    private static final AudioFormat MONO_16_BE = new AudioFormat(8000f, 16, 1, true, true);
+    private static final AudioFormat STEREO_16_LE = new AudioFormat(8000f, 16, 2, true, false);
+
+    @Test
+    public void same_format_returns_the_asset_itself() {
+        SoundAsset asset = new SoundAsset(MONO_16_BE, new byte[] { 0, 1, 0, 2 });
+
+        then(SoundConverter.convert(asset, new AudioFormat(8000f, 16, 1, true, true))).isSameAs(asset);
+    }
+
+    @Test
+    public void byte_order_and_channels() {
+        SoundAsset asset = new SoundAsset(MONO_16_BE, new byte[] { 0x12, 0x34, (byte)0xFF, (byte)0xFE });
+
+        SoundAsset converted = SoundConverter.convert(asset, STEREO_16_LE);
+        then(converted.format).isSameAs(STEREO_16_LE);
+        then(converted.frames).isEqualTo(2);
+        then(converted.pcm).containsExactly(
+            0x34, 0x12, 0x34, 0x12, (byte)0xFE, (byte)0xFF, (byte)0xFE, (byte)0xFF
+        );
+
+        converted = SoundConverter.convert(converted, MONO_16_BE);
+        then(converted.pcm).containsExactly(asset.pcm);
+    }
+
+    @Test
+    public void stereo_to_mono_averages_the_channels() {
+        SoundAsset asset = new SoundAsset(STEREO_16_LE, new byte[] { 0x00, 0x10, 0x00, 0x20 });
+
+        then(SoundConverter.convert(asset, MONO_16_BE).pcm).containsExactly(0x18, 0x00);
+    }
+
+    @Test
+    public void sample_size_and_sign() {
+        AudioFormat unsigned8 = new AudioFormat(AudioFormat.Encoding.PCM_UNSIGNED, 8000f, 8, 1, 1, 8000f, false);
+        SoundAsset asset = new SoundAsset(unsigned8, new byte[] { 0, (byte)0x80, (byte)0xFF });
+
+        then(SoundConverter.convert(asset, MONO_16_BE).pcm).containsExactly(
+            0x80, 0x00, 0x00, 0x00, 0x7F, 0x00
+        );
+    }
+
+    @Test
+    public void resample_by_linear_interpolation() {
+        SoundAsset asset = new SoundAsset(MONO_16_BE, new byte[] { 0x00, 0x00, 0x10, 0x00 });
+
+        SoundAsset converted = SoundConverter.convert(asset, new AudioFormat(16000f, 16, 1, true, true));
+        then(converted.frames).isEqualTo(4);
+        then(converted.pcm).containsExactly(
+            0x00, 0x00, 0x08, 0x00, 0x10, 0x00, 0x10, 0x00
+        );
+
+        converted = SoundConverter.convert(converted, MONO_16_BE);
+        then(converted.frames).isEqualTo(2);
+        then(converted.pcm).containsExactly(0x00, 0x00, 0x10, 0x00);
+    }
+
+    @Test
+    public void scale_by_a_gain() {
+        SoundAsset asset = new SoundAsset(MONO_16_BE, new byte[] {
+            0x10, 0x00, (byte)0xF0, 0x00, 0x7F, (byte)0xFF
+        });
+
+        then(SoundConverter.scale(asset, Gain.UNITY)).isSameAs(asset);
+        then(SoundConverter.scale(asset, Gain.of(0.5)).pcm).containsExactly(
+            0x08, 0x00, 0xF8, 0x00, 0x3F, 0xFF
+        );
+        then(SoundConverter.scale(asset, Gain.of(2)).pcm).containsExactly(
+            0x20, 0x00, 0xE0, 0x00, 0x7F, 0xFF  // the last one is clipped
+        );
+        then(SoundConverter.scale(asset, 0).pcm).containsExactly(0, 0, 0, 0, 0, 0);
+        then(asset.pcm).containsExactly(0x10, 0x00, 0xF0, 0x00, 0x7F, 0xFF);
+
+        asset = new SoundAsset(STEREO_16_LE, new byte[] { 0x00, 0x10, 0x00, (byte)0xF0 });
+        SoundAsset scaled = SoundConverter.scale(asset, Gain.of(0.5));
+        then(scaled.format).isSameAs(STEREO_16_LE);
+        then(scaled.pcm).containsExactly(0x00, 0x08, 0x00, 0xF8);
+
+        AudioFormat unsigned8 = new AudioFormat(AudioFormat.Encoding.PCM_UNSIGNED, 8000f, 8, 1, 1, 8000f, false);
+        asset = new SoundAsset(unsigned8, new byte[] { 0, (byte)0x80, (byte)0xFF });
+        then(SoundConverter.scale(asset, Gain.of(0.5)).pcm).containsExactly(0x40, 0x80, 0xBF);
+
+        try {
+            SoundConverter.scale(null, Gain.UNITY);
+            fail("missing asset check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("asset can not be null");
+        }
+    }
+
+    @Test
+    public void unsupported_formats() {
+        SoundAsset asset = new SoundAsset(MONO_16_BE, new byte[2]);
+        AudioFormat ulaw = new AudioFormat(AudioFormat.Encoding.ULAW, 8000f, 8, 1, 1, 8000f, false);
+
+        try {
+            SoundConverter.convert(asset, ulaw);
+            fail("missing format check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("target format not supported (not integer PCM): " + ulaw);
+        }
+
+        try {
+            SoundConverter.convert(new SoundAsset(ulaw, new byte[1]), MONO_16_BE);
+            fail("missing format check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessageStartingWith("source format not supported");
+        }
+
+        AudioFormat any = new AudioFormat(-1f, 16, 1, true, true);
+        try {
+            SoundConverter.convert(asset, any);
+            fail("missing format check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("target format not supported: " + any);
+        }
+    }
+}
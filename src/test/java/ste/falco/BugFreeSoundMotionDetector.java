@@ -19,9 +19,13 @@ import java.io.IOException;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.time.Instant;
+import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.List;
 import javax.sound.sampled.Clip;
+import javax.sound.sampled.Control;
+import javax.sound.sampled.FloatControl;
 import javax.sound.sampled.LineEvent;
 import javax.sound.sampled.LineListener;
 import javax.sound.sampled.LineUnavailableException;
@@ -29,11 +33,16 @@ import javax.sound.sampled.Mixer;
 import javax.sound.sampled.UnsupportedAudioFileException;
 import static org.assertj.core.api.AssertionsForClassTypes.fail;
 import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.within;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import static ste.xtest.Constants.BLANKS;
+import ste.falco.sound.MemoryMixer;
 import ste.xtest.concurrent.Condition;
 import ste.xtest.concurrent.WaitFor;
 import ste.xtest.reflect.PrivateAccess;
+import ste.xtest.time.FixedClock;
 
 /**
  *
@@ -42,6 +51,9 @@ import ste.xtest.reflect.PrivateAccess;
 
 public class BugFreeSoundMotionDetector extends BugFreePIRBase {
 
+    @Rule
+    public final TemporaryFolder TMP = new TemporaryFolder();
+
     @Test
     public void resource_in_constructor() {
         SoundMotionDetector smd = new SoundMotionDetector("/sounds/test1.wav");
@@ -67,18 +79,14 @@ public class BugFreeSoundMotionDetector extends BugFreePIRBase {
     }
 
     /**
-     * Here we want to play the sound when moed is invoked. Ideally, we would
-     * load the sound only once, and then we would play it forever rewinding
-     * the stream with setPosition(0). However it seems there is a problem
-     * here as reported in https://github.com/stefanofornari/falco/issues/6:
-     *
-     * After some hours the sound stops playing. The detection and playing logic
-     * is ok, the problem seems in java sound:
-     * - playing with JMX does not play either
-     * - playing with PlaySound plays
+     * Here we want to play the sound when moed is invoked. The sound is loaded
+     * and decoded only once (see SoundCache) and then we play it forever
+     * rewinding the clip with setFramePosition(0).
      *
-     * For this reason we then open the clip at startup and then we close and
-     * reopen it at every play.
+     * In the past we used to close and reopen the clip at every play because
+     * of https://github.com/stefanofornari/falco/issues/6 (after some hours
+     * the sound stops playing). Should the line be found closed, it is now
+     * reopened from the cached PCM instead of reloading the resource.
      *
      * @throws Exception
      */
@@ -103,7 +111,7 @@ public class BugFreeSoundMotionDetector extends BugFreePIRBase {
             };
 
             new WaitFor(2500, c);
-            then(rec.events).containsExactly("Start", "Stop", "Close", "Open");
+            then(rec.events).containsExactly("Start", "Stop");
         }
     }
 
@@ -166,6 +174,138 @@ public class BugFreeSoundMotionDetector extends BugFreePIRBase {
         }
     }
 
+    /**
+     * Many USB and Bluetooth sinks have no MASTER_GAIN control: the volume is
+     * then applied in software by the output.
+     */
+    @Test
+    public void volume_without_master_gain() throws Exception {
+        BugFreeAudioOutput.LineRecorder rec = new BugFreeAudioOutput.LineRecorder();
+        try (
+            AudioOutput out = new AudioOutput(rec.mixer());
+            SoundMotionDetector smd = new SoundMotionDetector("/sounds/test1.wav")
+        ) {
+            out.open(SoundCache.getInstance().get("/sounds/test1.wav").format);
+            smd.setOutput(out);
+            smd.setVolume(0.5);
+            smd.startup();
+
+            then(smd.getVolume()).isEqualTo(0.5);
+            then(out.getVolume()).isEqualTo(0.5);
+
+            smd.setVolume(0);
+            then(smd.getVolume()).isZero();
+            then(out.getVolume()).isZero();
+
+            smd.shutdown();
+        }
+    }
+
+    @Test
+    public void warmup_is_muted_and_does_not_count_as_motion() throws Exception {
+        BugFreeAudioOutput.LineRecorder rec = new BugFreeAudioOutput.LineRecorder();
+        try (
+            AudioOutput out = new AudioOutput(rec.mixer(), 64);
+            SoundMotionDetector smd = new SoundMotionDetector("/sounds/test1.wav")
+        ) {
+            out.open(SoundCache.getInstance().get("/sounds/test1.wav").format);
+            smd.setOutput(out);
+            smd.startup();
+            then(smd.getWarmupMillis()).isZero();
+
+            smd.warmup(10);
+            then(smd.isLive()).isTrue();
+            then(smd.getDispatcher().getDispatched()).isEqualTo(10);
+            then(smd.triggerLatency.getCount()).isZero();
+
+            Thread.sleep(100);
+            byte[] data = rec.data.toByteArray();
+            then(data).isNotEmpty();
+            for (byte b: data) {
+                then(b).isZero();
+            }
+
+            smd.shutdown();
+        }
+    }
+
+    @Test
+    public void warmup_starts_the_clip_muted() throws Exception {
+        final MemoryMixer mixer = new MemoryMixer();
+        final Supervisor supervisor = new Supervisor("test-supervisor");
+        final List<Float> gains = new ArrayList<>();
+        try (SoundMotionDetector smd = new SoundMotionDetector("/sounds/test1.wav", mixer) {
+            @Override
+            protected void play(boolean muted) {
+                super.play(muted);
+                if (muted) {
+                    gains.add(((FloatControl)clip.getControl(FloatControl.Type.MASTER_GAIN)).getValue());
+                }
+            }
+        }) {
+            smd.setSupervisor(supervisor);
+            supervisor.start();
+            smd.setVolume(0.5);
+            smd.startup();
+            final Clip clip = (Clip)PrivateAccess.getInstanceValue(smd, "clip");
+            final FloatControl gain = (FloatControl)clip.getControl(FloatControl.Type.MASTER_GAIN);
+
+            smd.warmup(3);
+            then(smd.isLive()).isTrue();
+            then(smd.getDispatcher().getDispatched()).isEqualTo(3);
+            then(smd.triggerLatency.getCount()).isZero();
+
+            //
+            // the clip was started for real, muted, and it is the same clip
+            // with the same sound, with the volume back
+            //
+            then(gains).containsExactly(gain.getMinimum(), gain.getMinimum(), gain.getMinimum());
+            then(mixer.getRenders()).isNotEmpty();
+            for (MemoryMixer.Render render: mixer.getRenders()) {
+                then(render.line).isSameAs(clip);
+            }
+            then(clip.isOpen()).isTrue();
+            then(clip.isRunning()).isFalse();
+            then(clip.getFramePosition()).isZero();
+            then(clip.getFrameLength()).isEqualTo((int)smd.asset.frames);
+            then(gain.getValue()).isCloseTo((float)(20 * Math.log10(0.5)), within(0.01f));
+            then(PrivateAccess.getInstanceValue(smd, "clip")).isSameAs(clip);
+
+            Thread.sleep(50);
+            then(supervisor.getFailures(Supervisor.AUDIO)).isZero();
+        } finally {
+            supervisor.stop();
+        }
+    }
+
+    @Test
+    public void warmup_plays_nothing_without_a_gain_control() throws Exception {
+        final MemoryMixer mixer = new MemoryMixer();
+        try (SoundMotionDetector smd = new SoundMotionDetector("/sounds/test1.wav", getMixerWithoutControls(mixer))) {
+            smd.startup();
+
+            smd.warmup(3);
+            then(smd.isLive()).isTrue();
+            then(smd.getDispatcher().getDispatched()).isEqualTo(3);
+
+            then(mixer.getRenders()).isNotEmpty();
+            for (MemoryMixer.Render render: mixer.getRenders()) {
+                then(render.frames).isZero();  // started from the end
+            }
+            then(smd.clip.getFramePosition()).isZero();
+        }
+    }
+
+    @Test
+    public void error_if_warmup_is_called_before_startup() throws Exception {
+        try (SoundMotionDetector smd = new SoundMotionDetector("/sounds/test1.wav")) {
+            smd.warmup(1);
+            fail("warmed up when not ready");
+        } catch (IllegalStateException x) {
+            then(x).hasMessage("warmup() called before the instance is started up; make sure to call startup()");
+        }
+    }
+
     @Test
     public void error_if_moved_is_called_before_startup() {
         try (SoundMotionDetector smd = new SoundMotionDetector("/sounds/test1.wav")) {
@@ -199,6 +339,213 @@ public class BugFreeSoundMotionDetector extends BugFreePIRBase {
         then(smd.isLive()).isFalse();
     }
 
+    @Test
+    public void cooldown_tier_is_restored_from_the_journal() throws Exception {
+        final long start = Instant.parse("2020-06-01T10:00:00Z").toEpochMilli();
+        final VirtualClock clock = new VirtualClock(start, ZoneId.of("UTC"));
+        final PlayPolicy policy = PlayPolicy.compile("hours=always;cooldown=1,2,4");
+
+        try (EventJournal journal = new EventJournal(TMP.getRoot().toPath())) {
+            journal.open();
+            try (SoundMotionDetector smd = new SoundMotionDetector("/sounds/test1.wav")) {
+                smd.setClock(clock); smd.setPolicy(policy); smd.setJournal(journal, 4);
+                smd.startup();
+                smd.moved();
+                clock.advance(61 * 1000); smd.moved();  // soon after the cooldown: next tier
+            }
+            then(journal.getTier(4)).isEqualTo(1);
+        }
+
+        clock.advance(90 * 1000);  // past the first tier, not the second one
+        try (EventJournal journal = new EventJournal(TMP.getRoot().toPath())) {
+            journal.open();
+            try (SoundMotionDetector smd = new SoundMotionDetector("/sounds/test1.wav")) {
+                smd.setClock(clock); smd.setPolicy(policy); smd.setJournal(journal, 4);
+                smd.startup();
+                then(smd.getLastPlayed()).isEqualTo(start + 61 * 1000);
+                smd.moved();
+                then(smd.getLastPlayed()).isEqualTo(start + 61 * 1000);  // still cooling down
+            }
+        }
+    }
+
+    @Test
+    public void motions_are_recorded_at_the_time_they_are_decided_at() throws Exception {
+        final VirtualClock clock = new VirtualClock(Instant.parse("2020-06-01T10:00:00Z").toEpochMilli(), ZoneId.of("UTC")) {
+            @Override
+            public long millis() {
+                advance(1000);  // time goes by at every look
+                return super.millis();
+            }
+        };
+        final List<Long> recorded = new ArrayList<>();
+        try (SoundMotionDetector smd = new SoundMotionDetector("/sounds/test1.wav") {
+            @Override
+            protected void record(long millis, byte type, byte detail, int source) {
+                recorded.add(millis);
+            }
+        }) {
+            smd.setClock(clock); smd.setPolicy(PlayPolicy.compile("hours=always;cooldown=0"));
+            smd.startup();
+
+            smd.moved();
+            then(recorded).containsExactly(smd.getLastPlayed());
+        }
+    }
+
+    @Test
+    public void dormant_detector_releases_the_line() throws Exception {
+        ClipEventsRecorder rec = new ClipEventsRecorder();
+        try (SoundMotionDetector smd = new SoundMotionDetector("/sounds/test1.wav")) {
+            smd.sleep();  // not started, nothing to release
+            smd.wake();
+
+            smd.startup();
+            final Clip clip = (Clip)PrivateAccess.getInstanceValue(smd, "clip");
+            clip.addLineListener(rec);
+
+            smd.sleep();
+            then(smd.isDormant()).isTrue();
+            then(smd.isLive()).isTrue();
+            then(clip.isOpen()).isFalse();
+            then(rec.events).containsExactly("Close");
+
+            smd.wake();
+            then(smd.isDormant()).isFalse();
+            then(clip.isOpen()).isTrue();
+            then(clip.getFramePosition()).isZero();
+            then(rec.events).containsExactly("Close", "Open");
+
+            smd.sleep(); rec.events.clear();
+            smd.moved();  // e.g. from JMX while dormant, the line is reopened
+            new WaitFor(2500, new Condition() {
+                @Override
+                public boolean check() {
+                    return rec.events.contains("Stop");
+                }
+            });
+            then(rec.events).containsExactly("Open", "Start", "Stop");
+            then(smd.isDormant()).isTrue();
+
+            smd.shutdown();
+            then(smd.isDormant()).isFalse();
+            then(smd.isLive()).isFalse();
+        }
+    }
+
+    @Test
+    public void closed_clip_is_recovered_in_place() throws Exception {
+        final Supervisor supervisor = new Supervisor("test-supervisor");
+        try (SoundMotionDetector smd = new SoundMotionDetector("/sounds/test1.wav")) {
+            smd.setSupervisor(supervisor);
+            supervisor.start();
+            smd.startup();
+
+            final Clip clip = (Clip)PrivateAccess.getInstanceValue(smd, "clip");
+            final SoundAsset asset = (SoundAsset)PrivateAccess.getInstanceValue(smd, "asset");
+
+            clip.close();  // e.g. by the driver
+            new WaitFor(2500, new Condition() {
+                @Override
+                public boolean check() {
+                    return supervisor.getRecoveries(Supervisor.AUDIO) == 1;
+                }
+            });
+            then(supervisor.getFailures(Supervisor.AUDIO)).isEqualTo(1);
+            then(supervisor.recoveryTimes[Supervisor.AUDIO].getCount()).isEqualTo(1);
+            then(PrivateAccess.getInstanceValue(smd, "clip")).isSameAs(clip);
+            then(PrivateAccess.getInstanceValue(smd, "asset")).isSameAs(asset);
+            then(clip.isOpen()).isTrue();
+            then(smd.isLive()).isTrue();
+
+            //
+            // closing it on purpose is not a failure
+            //
+            smd.sleep(); smd.wake();
+            smd.shutdown();
+            Thread.sleep(50);
+            then(supervisor.getFailures(Supervisor.AUDIO)).isEqualTo(1);
+            then(clip.isOpen()).isFalse();
+        } finally {
+            supervisor.stop();
+        }
+    }
+
+    /**
+     * The volume of a clip goes through its MASTER_GAIN control, if any:
+     * nothing is reopened
+     */
+    @Test
+    public void volume_of_a_clip_with_a_gain_control() throws Exception {
+        final MemoryMixer mixer = new MemoryMixer();
+        final Supervisor supervisor = new Supervisor("test-supervisor");
+        try (SoundMotionDetector smd = new SoundMotionDetector("/sounds/test1.wav", mixer)) {
+            smd.setSupervisor(supervisor);
+            supervisor.start();
+            smd.setVolume(0.5);
+            smd.startup();
+
+            final Clip clip = smd.clip;
+            final FloatControl gain = (FloatControl)clip.getControl(FloatControl.Type.MASTER_GAIN);
+            then(smd.playing).isSameAs(smd.asset);
+            then(gain.getValue()).isCloseTo(-6.02f, within(0.01f));
+
+            final ClipEventsRecorder events = new ClipEventsRecorder();
+            clip.addLineListener(events);
+
+            smd.setVolume(2);
+            then(gain.getValue()).isEqualTo(gain.getMaximum());
+            smd.setVolume(0);
+            then(gain.getValue()).isEqualTo(gain.getMinimum());
+            smd.setVolume(1);
+            then(gain.getValue()).isZero();
+
+            then(events.events).isEmpty();  // not closed nor reopened
+            then(smd.playing).isSameAs(smd.asset);
+            then(clip.isOpen()).isTrue();
+            then(supervisor.getFailures(Supervisor.AUDIO)).isZero();
+        } finally {
+            supervisor.stop();
+        }
+    }
+
+    /**
+     * Without a MASTER_GAIN control the volume of a clip is applied in
+     * software to a copy of the sound, the next time the clip is opened
+     */
+    @Test
+    public void volume_of_a_clip_in_software() throws Exception {
+        final MemoryMixer mixer = new MemoryMixer();
+        try (SoundMotionDetector smd = new SoundMotionDetector("/sounds/test1.wav", getMixerWithoutControls(mixer))) {
+            smd.setVolume(0.5);
+            smd.startup();
+
+            final Clip clip = smd.clip;
+            then(smd.playing.pcm).isEqualTo(SoundConverter.scale(smd.asset, Gain.of(0.5)).pcm);
+            then(clip.getFrameLength()).isEqualTo((int)smd.asset.frames);
+
+            final ClipEventsRecorder events = new ClipEventsRecorder();
+            clip.addLineListener(events);
+
+            smd.setVolume(1);
+            then(smd.playing).isSameAs(smd.asset);
+            smd.setVolume(2);
+            then(smd.playing.pcm).isEqualTo(SoundConverter.scale(smd.asset, Gain.MAX).pcm);
+            then(events.events).isEmpty();  // not closed nor reopened
+            then(clip.isOpen()).isTrue();
+
+            //
+            // the volume applies when the clip is reopened
+            //
+            smd.sleep(); smd.setVolume(0.25);
+            smd.wake();
+            then(clip.isOpen()).isTrue();
+            then(events.events).containsExactly("Close", "Open");
+            then(smd.playing.pcm).isEqualTo(SoundConverter.scale(smd.asset, Gain.of(0.25)).pcm);
+            then(smd.isLive()).isTrue();
+        }
+    }
+
     // --------------------------------------------------------- private methods
 
     private Mixer getMixerWithErrorInGetLine(Mixer mixer) throws Exception {
@@ -237,6 +584,50 @@ public class BugFreeSoundMotionDetector extends BugFreePIRBase {
         );
     }
 
+    /**
+     * @return a mixer whose clips have no controls, as many USB and Bluetooth
+     *         sinks
+     */
+    private Mixer getMixerWithoutControls(Mixer mixer) throws Exception {
+        InvocationHandler handler = new InvocationHandler() {
+            @Override
+            public Object invoke(Object o, Method m, Object[] args) throws Throwable {
+                if ("getLine".equals(m.getName())) {
+                    return getClipWithoutControls((Clip)m.invoke(mixer, args));
+                }
+                return m.invoke(mixer, args);
+            }
+        };
+
+        return (Mixer) Proxy.newProxyInstance(
+                               Mixer.class.getClassLoader(),
+                               new Class<?>[] { Mixer.class },
+                               handler
+        );
+    }
+
+    private Clip getClipWithoutControls(Clip clip) throws Exception {
+        InvocationHandler handler = new InvocationHandler() {
+            @Override
+            public Object invoke(Object o, Method m, Object[] args) throws Throwable {
+                if ("isControlSupported".equals(m.getName())) {
+                    return false;
+                }
+                if ("getControls".equals(m.getName())) {
+                    return new Control[0];
+                }
+                if ("getControl".equals(m.getName())) {
+                    throw new IllegalArgumentException("unsupported control type: " + args[0]);
+                }
+                return m.invoke(clip, args);
+            }
+        };
+
+        return (Clip) Proxy.newProxyInstance(Clip.class.getClassLoader(),
+                                          new Class<?>[] { Clip.class },
+                                          handler);
+    }
+
     private Clip getClipWithErrorInOpen(Clip clip, Throwable t) throws Exception {
 
         InvocationHandler handler = new InvocationHandler() {
@@ -0,0 +1,298 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ste.falco.sound.MemoryMixer;
+
+/**
+ * Stress tests of moved(), shutdown() and setVolume() called from many
+ * threads at once.
+ */
+public class BugFreeSoundMotionDetectorConcurrency {
+
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 500;
+
+    private final Logger LOG = Logger.getLogger("ste.falco");
+    private Level level;
+
+    private final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+    private final MemoryMixer mixer = new MemoryMixer();
+    private static final long START = Instant.parse("2007-12-03T10:00:00.00Z").toEpochMilli();
+
+    private final VirtualClock clock = new VirtualClock(START, ZoneId.of("UTC"));
+
+    @Before
+    public void before() {
+        level = LOG.getLevel(); LOG.setLevel(Level.WARNING);  // moved() logs every motion
+    }
+
+    @After
+    public void after() {
+        LOG.setLevel(level);
+    }
+
+    @Test
+    public void exactly_one_concurrent_motion_plays() throws Exception {
+        final CountingDetector smd = new CountingDetector(mixer);
+        smd.setClock(clock);
+        smd.startup();
+        try {
+            for (int round=1; round<=ROUNDS; ++round) {
+                //
+                // past the cooldown, 40 rounds a day from 10:00 to stay in the active hours
+                //
+                clock.set(
+                    START + TimeUnit.DAYS.toMillis(round / 40)
+                          + TimeUnit.MINUTES.toMillis((round % 40) * (SoundMotionDetector.DEFAULT_COOLDOWN + 1))
+                );
+                final CountDownLatch start = new CountDownLatch(1);
+                final List<Thread> threads = new ArrayList<>();
+                for (int i=0; i<THREADS; ++i) {
+                    threads.add(hammer(start, new Runnable() {
+                        @Override
+                        public void run() {
+                            smd.moved();
+                        }
+                    }, 1));
+                }
+                start.countDown();
+                join(threads);
+
+                then(smd.plays.get()).isEqualTo(round);
+            }
+            then(smd.records.get()).isEqualTo(ROUNDS * THREADS);
+        } finally {
+            smd.shutdown();
+        }
+        then(errors).isEmpty();
+    }
+
+    @Test
+    public void moved_shutdown_and_volume_from_many_threads() throws Exception {
+        final CountingDetector smd = new CountingDetector(mixer);
+        smd.setClock(clock);
+
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<>();
+        for (int i=0; i<THREADS/2; ++i) {
+            threads.add(hammer(start, new Runnable() {
+                @Override
+                public void run() {
+                    while (!done.get()) {
+                        try {
+                            smd.moved();
+                        } catch (IllegalStateException x) {
+                            // not started up at the moment
+                        }
+                    }
+                }
+            }, 1));
+        }
+        for (int i=0; i<THREADS/2; ++i) {
+            final Random random = new Random(i);
+            threads.add(hammer(start, new Runnable() {
+                @Override
+                public void run() {
+                    while (!done.get()) {
+                        smd.setVolume(random.nextDouble() * 2);
+                    }
+                }
+            }, 1));
+        }
+        threads.add(hammer(start, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i=0; i<200; ++i) {
+                        smd.startup(); Thread.yield(); smd.shutdown();
+                    }
+                } catch (Exception x) {
+                    errors.add(x);
+                } finally {
+                    done.set(true);
+                }
+            }
+        }, 1));
+
+        start.countDown();
+        join(threads);
+
+        then(errors).isEmpty();
+        then(smd.isLive()).isFalse();
+        then(mixer.getSourceLines()).isEmpty();  // no clip left open
+        then(smd.plays.get()).isGreaterThan(0);
+
+        smd.startup();
+        then(smd.isLive()).isTrue();
+        smd.shutdown(); smd.shutdown();
+        then(mixer.getSourceLines()).isEmpty();
+    }
+
+    /**
+     * The detector's monitor is taken by MotionDetector's health checks: a
+     * volume change, a warm-up and a motion must not wait for it
+     */
+    @Test
+    public void volume_warmup_and_motions_do_not_wait_for_the_monitor() throws Exception {
+        final CountingDetector smd = new CountingDetector(mixer);
+        smd.setClock(clock);
+        smd.startup();
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<Thread> threads = new ArrayList<>();
+            threads.add(hammer(start, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        smd.setVolume(0.5); smd.warmup(2); smd.moved(); smd.setVolume(1.5);
+                    } catch (InterruptedException x) {
+                        errors.add(x);
+                    }
+                }
+            }, 1));
+            synchronized (smd) {
+                start.countDown();
+                join(threads);
+            }
+            then(smd.isLive()).isTrue();
+            then(smd.plays.get()).isEqualTo(1);
+            then(smd.getVolume()).isEqualTo(1.5);
+        } finally {
+            smd.shutdown();
+        }
+        then(errors).isEmpty();
+    }
+
+    @Test
+    public void direct_motions_do_not_take_dispatched_triggers() throws Exception {
+        final CountingDetector smd = new CountingDetector(mixer);
+        smd.setClock(clock);
+        smd.startup();
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<Thread> threads = new ArrayList<>();
+            for (int i=0; i<THREADS/2; ++i) {
+                threads.add(hammer(start, new Runnable() {
+                    @Override
+                    public void run() {
+                        while (!smd.trigger(TriggerSource.GPIO)) {
+                            Thread.yield();  // the ring is full
+                        }
+                    }
+                }, 100));
+                threads.add(hammer(start, new Runnable() {
+                    @Override
+                    public void run() {
+                        smd.moved();
+                    }
+                }, 100));
+            }
+            start.countDown();
+            join(threads);
+
+            final long end = System.currentTimeMillis() + 2500;
+            while ((smd.gpio.get() < THREADS/2 * 100) && (System.currentTimeMillis() < end)) {
+                Thread.sleep(10);
+            }
+            then(smd.gpio.get()).isEqualTo(THREADS/2 * 100);
+            then(smd.jmx.get()).isEqualTo(THREADS/2 * 100);
+            then(smd.getDispatcher().getDispatched()).isEqualTo(THREADS/2 * 100);
+        } finally {
+            smd.shutdown();
+        }
+        then(errors).isEmpty();
+    }
+
+    // --------------------------------------------------------- private methods
+
+    /**
+     * @return a started thread that waits for start and then runs the given
+     *         task the given number of times, collecting any error
+     */
+    private Thread hammer(final CountDownLatch start, final Runnable task, final int times) {
+        final Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    start.await();
+                    for (int i=0; i<times; ++i) {
+                        task.run();
+                    }
+                } catch (Throwable x) {
+                    errors.add(x);
+                }
+            }
+        });
+        t.start();
+        return t;
+    }
+
+    private void join(final List<Thread> threads) throws InterruptedException {
+        for (Thread t: threads) {
+            t.join(10000);
+            then(t.isAlive()).isFalse();
+        }
+    }
+
+    // -------------------------------------------------------- CountingDetector
+
+    private static class CountingDetector extends SoundMotionDetector {
+        public final AtomicInteger plays = new AtomicInteger();
+        public final AtomicInteger records = new AtomicInteger();
+        public final AtomicInteger gpio = new AtomicInteger();
+        public final AtomicInteger jmx = new AtomicInteger();
+
+        public CountingDetector(final MemoryMixer mixer) {
+            super("/sounds/test1.wav", mixer);
+        }
+
+        @Override
+        protected void play(boolean muted) {
+            if (!muted) {
+                plays.incrementAndGet();
+            }
+            super.play(muted);
+        }
+
+        @Override
+        protected void record(long millis, byte type, byte detail, int source) {
+            records.incrementAndGet();
+            if (TriggerSource.source(source) == TriggerSource.GPIO) {
+                gpio.incrementAndGet();
+            } else if (source == TriggerSource.JMX) {
+                jmx.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteOrder;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Clip;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.Mixer;
+import javax.sound.sampled.SourceDataLine;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Test;
+import ste.falco.sound.MemoryMixer;
+
+/**
+ *
+ */
+public class BugFreeSoundUtils {
+
+    @Test
+    public void native_format_of_a_fixed_format_device() {
+        final AudioFormat S16LE_48K = new AudioFormat(48000f, 16, 2, true, false);
+        final AudioFormat S16BE_48K = new AudioFormat(48000f, 16, 2, true, true);
+        final AudioFormat U8 = new AudioFormat(AudioFormat.Encoding.PCM_UNSIGNED, 48000f, 8, 2, 2, 48000f, false);
+
+        Mixer mixer = mixer(
+            new DataLine.Info(SourceDataLine.class, new AudioFormat[] { U8, S16BE_48K, S16LE_48K }, 0, 1024)
+        );
+
+        AudioFormat format = SoundUtils.getNativeFormat(mixer);
+        then(format.matches(ByteOrder.nativeOrder().equals(ByteOrder.BIG_ENDIAN) ? S16BE_48K : S16LE_48K)).isTrue();
+        then(SoundUtils.getNativeFormat(mixer)).isSameAs(format); // probed once
+    }
+
+    @Test
+    public void native_format_fills_what_the_device_does_not_tell() {
+        AudioFormat format = SoundUtils.getNativeFormat(new MemoryMixer());
+
+        then(format.getEncoding()).isEqualTo(AudioFormat.Encoding.PCM_SIGNED);
+        then(format.getSampleRate()).isEqualTo(SoundUtils.DEFAULT_SAMPLE_RATE);
+        then(format.getSampleSizeInBits()).isEqualTo(16);
+        then(format.getChannels()).isEqualTo(SoundUtils.DEFAULT_CHANNELS);
+        then(format.getFrameSize()).isEqualTo(4);
+        then(format.isBigEndian()).isEqualTo(ByteOrder.nativeOrder().equals(ByteOrder.BIG_ENDIAN));
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private Mixer mixer(final Line.Info... lines) {
+        final Mixer.Info info = new Mixer.Info("test", "ste.falco", "test mixer", "1.0") {};
+        return (Mixer)Proxy.newProxyInstance(
+            Mixer.class.getClassLoader(),
+            new Class<?>[] { Mixer.class },
+            new InvocationHandler() {
+                @Override
+                public Object invoke(Object o, Method m, Object[] args) throws Throwable {
+                    switch (m.getName()) {
+                        case "getMixerInfo": return info;
+                        case "getSourceLineInfo": return lines;
+                        default: throw new UnsupportedOperationException(m.getName());
+                    }
+                }
+            }
+        );
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.assertj.core.api.AssertionsForClassTypes.fail;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Test;
+import ste.xtest.concurrent.Condition;
+import ste.xtest.concurrent.WaitFor;
+
+/**
+ *
+ */
+public class BugFreeSupervisor {
+
+    @Test
+    public void recovers_only_the_failed_component() throws Exception {
+        final Supervisor supervisor = new Supervisor("test-supervisor");
+        final CountingComponent audio = new CountingComponent(0), gpio = new CountingComponent(0);
+
+        then(supervisor.failed(Supervisor.AUDIO, audio, null)).isFalse();  // not started
+        then(supervisor.getFailures(Supervisor.AUDIO)).isZero();
+
+        supervisor.start(); supervisor.start();
+        try {
+            then(supervisor.isRunning()).isTrue();
+            then(supervisor.failed(Supervisor.AUDIO, audio, new IOException("line closed"))).isTrue();
+            new WaitFor(1000, new Condition() {
+                @Override
+                public boolean check() {
+                    return supervisor.getRecoveries(Supervisor.AUDIO) == 1;
+                }
+            });
+            then(audio.recovered.get()).isEqualTo(1);
+            then(gpio.recovered.get()).isZero();
+            then(supervisor.getFailures(Supervisor.AUDIO)).isEqualTo(1);
+            then(supervisor.getLastFailure(Supervisor.AUDIO)).isEqualTo("java.io.IOException: line closed");
+            then(supervisor.getFailures(Supervisor.GPIO)).isZero();
+            then(supervisor.getLastFailure(Supervisor.GPIO)).isNull();
+            then(supervisor.recoveryTimes[Supervisor.AUDIO].getCount()).isEqualTo(1);
+            then(supervisor.recoveryTimes[Supervisor.GPIO].getCount()).isZero();
+            then(supervisor.getPending()).isZero();
+            then(supervisor.getEscalations()).isZero();
+        } finally {
+            supervisor.stop(); supervisor.stop();
+        }
+        then(supervisor.isRunning()).isFalse();
+    }
+
+    @Test
+    public void a_failure_under_recovery_is_not_queued_again() throws Exception {
+        final Supervisor supervisor = new Supervisor("test-supervisor");
+        final CountingComponent heartbeat = new CountingComponent(0);
+        heartbeat.busy = 200;
+
+        supervisor.start();
+        try {
+            then(supervisor.failed(Supervisor.HEARTBEAT, heartbeat, null)).isTrue();
+            then(supervisor.failed(Supervisor.HEARTBEAT, heartbeat, null)).isFalse();
+            then(supervisor.getPending()).isEqualTo(1);
+            then(supervisor.getLastFailure(Supervisor.HEARTBEAT)).isEqualTo("failed");
+
+            new WaitFor(1000, new Condition() {
+                @Override
+                public boolean check() {
+                    return supervisor.getRecoveries(Supervisor.HEARTBEAT) == 1;
+                }
+            });
+            then(heartbeat.recovered.get()).isEqualTo(1);
+            then(supervisor.getFailures(Supervisor.HEARTBEAT)).isEqualTo(1);
+            then(supervisor.recoveryTimes[Supervisor.HEARTBEAT].getMax()).isGreaterThanOrEqualTo(200000L);
+
+            then(supervisor.failed(Supervisor.HEARTBEAT, heartbeat, null)).isTrue();  // recovered, can fail again
+        } finally {
+            supervisor.stop();
+        }
+        then(supervisor.getPending()).isZero();
+    }
+
+    @Test
+    public void failed_recoveries_are_retried_backing_off() throws Exception {
+        final Supervisor supervisor = new Supervisor("test-supervisor");
+        final CountingComponent gpio = new CountingComponent(2);
+        supervisor.setRetry(100, 150, 3);
+
+        supervisor.start();
+        try {
+            final long start = System.nanoTime();
+            supervisor.failed(Supervisor.GPIO, gpio, null);
+            new WaitFor(2000, new Condition() {
+                @Override
+                public boolean check() {
+                    return supervisor.getRecoveries(Supervisor.GPIO) == 1;
+                }
+            });
+            then(System.nanoTime() - start).isGreaterThanOrEqualTo(250000000L);  // 100 + 150ms
+            then(gpio.attempts.get()).isEqualTo(3);
+            then(supervisor.getFailures(Supervisor.GPIO)).isEqualTo(1);
+            then(supervisor.getLastFailure(Supervisor.GPIO)).isEqualTo("java.io.IOException: attempt 2");
+            then(supervisor.recoveryTimes[Supervisor.GPIO].getMax()).isGreaterThanOrEqualTo(250000L);
+            then(supervisor.getEscalations()).isZero();
+        } finally {
+            supervisor.stop();
+        }
+    }
+
+    @Test
+    public void escalate_what_can_not_be_recovered() throws Exception {
+        final Supervisor supervisor = new Supervisor("test-supervisor");
+        final CountingComponent audio = new CountingComponent(Integer.MAX_VALUE);
+        final AtomicInteger escalated = new AtomicInteger();
+        supervisor.setRetry(10, 10, 2);
+        supervisor.setEscalation(new Runnable() {
+            @Override
+            public void run() {
+                escalated.incrementAndGet();
+            }
+        });
+
+        supervisor.start();
+        try {
+            supervisor.failed(Supervisor.AUDIO, audio, null);
+            new WaitFor(1000, new Condition() {
+                @Override
+                public boolean check() {
+                    return escalated.get() == 1;
+                }
+            });
+            then(audio.attempts.get()).isEqualTo(2);
+            then(supervisor.getEscalations()).isEqualTo(1);
+            then(supervisor.getRecoveries(Supervisor.AUDIO)).isZero();
+            then(supervisor.getPending()).isZero();
+        } finally {
+            supervisor.stop();
+        }
+    }
+
+    @Test
+    public void invalid_arguments() {
+        final Supervisor supervisor = new Supervisor("test-supervisor");
+        try {
+            supervisor.setRetry(0, 100, 1);
+            fail("missing retry check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("retry must be greater than 0");
+        }
+        try {
+            supervisor.setRetry(100, 99, 1);
+            fail("missing maxRetry check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("maxRetry can not be less than retry");
+        }
+        try {
+            supervisor.setRetry(100, 100, 0);
+            fail("missing attempts check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("attempts must be greater than 0");
+        }
+        try {
+            supervisor.failed(3, new CountingComponent(0), null);
+            fail("missing kind check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("invalid kind of component 3");
+        }
+        try {
+            supervisor.failed(Supervisor.AUDIO, null, null);
+            fail("missing component check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("component can not be null");
+        }
+
+        then(Supervisor.name(Supervisor.AUDIO)).isEqualTo("audio");
+        then(Supervisor.name(Supervisor.GPIO)).isEqualTo("gpio");
+        then(Supervisor.name(Supervisor.HEARTBEAT)).isEqualTo("heartbeat");
+    }
+
+    // ------------------------------------------------------- CountingComponent
+
+    private static class CountingComponent implements Supervisor.Component {
+        public final AtomicInteger attempts = new AtomicInteger();
+        public final AtomicInteger recovered = new AtomicInteger();
+        public volatile long busy = 0;  // how long a recovery takes
+
+        private final int failures;
+
+        public CountingComponent(int failures) {
+            this.failures = failures;
+        }
+
+        @Override
+        public void recover() throws Exception {
+            final int attempt = attempts.incrementAndGet();
+            if (busy > 0) {
+                Thread.sleep(busy);
+            }
+            if (attempt <= failures) {
+                throw new IOException("attempt " + attempt);
+            }
+            recovered.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.assertj.core.api.AssertionsForClassTypes.fail;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BugFreeTriggerDispatcher {
+
+    @Test
+    public void dispatch_on_the_dispatcher_thread() throws Exception {
+        final List<String> TRIGGERS = Collections.synchronizedList(new ArrayList<>());
+        TriggerDispatcher d = new TriggerDispatcher("test-dispatcher", new TriggerRing.Handler() {
+            @Override
+            public void handle(long stamp, int source) {
+                TRIGGERS.add(Thread.currentThread().getName() + " " + stamp + " " + TriggerSource.name(source));
+            }
+        });
+
+        then(d.isRunning()).isFalse();
+        d.start(); d.start(); // the second does nothing
+        then(d.isRunning()).isTrue();
+
+        then(d.publish(1, TriggerSource.GPIO)).isTrue();
+        then(d.publish(2, TriggerSource.JMX)).isTrue();
+
+        waitFor(TRIGGERS, 2);
+        then(TRIGGERS).containsExactly("test-dispatcher 1 gpio", "test-dispatcher 2 jmx");
+        then(d.getPublished()).isEqualTo(2);
+        then(d.getDispatched()).isEqualTo(2);
+        then(d.getDropped()).isZero();
+        then(d.getQueueDepth()).isZero();
+
+        d.stop(); d.stop();  // the second does nothing
+        then(d.isRunning()).isFalse();
+    }
+
+    @Test
+    public void drop_and_count_when_full() throws Exception {
+        final CountDownLatch busy = new CountDownLatch(1), release = new CountDownLatch(1);
+        TriggerDispatcher d = new TriggerDispatcher("test-dispatcher", new TriggerRing.Handler() {
+            @Override
+            public void handle(long stamp, int source) {
+                busy.countDown();
+                try { release.await(); } catch (InterruptedException x) {}
+            }
+        }, 4);
+
+        d.start();
+        d.publish(0, TriggerSource.GPIO);
+        then(busy.await(1, TimeUnit.SECONDS)).isTrue();  // the consumer is now stuck
+
+        for (int i=1; i<=4; ++i) {
+            then(d.publish(i, TriggerSource.GPIO)).isTrue();
+        }
+        then(d.publish(5, TriggerSource.GPIO)).isFalse();
+        then(d.publish(6, TriggerSource.JMX)).isFalse();
+
+        then(d.getQueueDepth()).isEqualTo(4);
+        then(d.getDropped()).isEqualTo(2);
+        then(d.getPublished()).isEqualTo(7);
+
+        release.countDown(); d.stop();
+        then(d.getQueueDepth()).isZero();
+    }
+
+    @Test
+    public void drop_oldest_when_full() throws Exception {
+        final List<String> TRIGGERS = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch busy = new CountDownLatch(1), release = new CountDownLatch(1);
+        TriggerDispatcher d = new TriggerDispatcher("test-dispatcher", new TriggerRing.Handler() {
+            @Override
+            public void handle(long stamp, int source) {
+                busy.countDown();
+                try { release.await(); } catch (InterruptedException x) {}
+                TRIGGERS.add(String.valueOf(stamp));
+            }
+        }, 4);
+        d.setOverflow(TriggerDispatcher.DROP_OLDEST);
+
+        d.start();
+        d.publish(0, TriggerSource.GPIO);
+        then(busy.await(1, TimeUnit.SECONDS)).isTrue();
+
+        for (int i=1; i<=6; ++i) {
+            then(d.publish(i, TriggerSource.GPIO)).isTrue();
+        }
+        then(d.getQueueDepth()).isEqualTo(4);
+        then(d.getEvicted()).isEqualTo(2);
+        then(d.getDropped()).isZero();
+        then(d.getAdmitted()).isEqualTo(7);
+
+        release.countDown();
+        waitFor(TRIGGERS, 5);
+        then(TRIGGERS).containsExactly("0", "3", "4", "5", "6");
+        d.stop();
+    }
+
+    @Test
+    public void drop_oldest_never_evicts_warmups() throws Exception {
+        final List<String> TRIGGERS = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch busy = new CountDownLatch(1), release = new CountDownLatch(1);
+        TriggerDispatcher d = new TriggerDispatcher("test-dispatcher", new TriggerRing.Handler() {
+            @Override
+            public void handle(long stamp, int source) {
+                busy.countDown();
+                try { release.await(); } catch (InterruptedException x) {}
+                TRIGGERS.add(String.valueOf(stamp));
+            }
+        }, 4);
+        d.setOverflow(TriggerDispatcher.DROP_OLDEST);
+
+        d.start();
+        d.publish(0, TriggerSource.GPIO);
+        then(busy.await(1, TimeUnit.SECONDS)).isTrue();
+
+        then(d.publish(1, TriggerSource.GPIO)).isTrue();
+        then(d.publish(2, TriggerSource.WARMUP)).isTrue();
+        then(d.publish(3, TriggerSource.GPIO)).isTrue();
+        then(d.publish(4, TriggerSource.GPIO)).isTrue();
+
+        then(d.publish(5, TriggerSource.GPIO)).isTrue();     // evicts 1
+        then(d.publish(6, TriggerSource.GPIO)).isFalse();    // 2 is a warm-up
+        then(d.publish(7, TriggerSource.WARMUP)).isFalse();  // not even for another warm-up
+        then(d.getEvicted()).isEqualTo(1);
+        then(d.getDropped()).isEqualTo(2);
+        then(d.getQueueDepth()).isEqualTo(4);
+
+        release.countDown();
+        waitFor(TRIGGERS, 5);
+        then(TRIGGERS).containsExactly("0", "2", "3", "4", "5");
+        d.stop();
+    }
+
+    @Test
+    public void coalesce_pending_triggers_of_the_same_source() throws Exception {
+        final List<String> TRIGGERS = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch busy = new CountDownLatch(1), release = new CountDownLatch(1);
+        TriggerDispatcher d = new TriggerDispatcher("test-dispatcher", new TriggerRing.Handler() {
+            @Override
+            public void handle(long stamp, int source) {
+                busy.countDown();
+                try { release.await(); } catch (InterruptedException x) {}
+                TRIGGERS.add(stamp + " " + TriggerSource.name(source));
+            }
+        }, 4);
+        d.setOverflow(TriggerDispatcher.COALESCE);
+
+        d.start();
+        d.publish(0, TriggerSource.GPIO);
+        then(busy.await(1, TimeUnit.SECONDS)).isTrue();  // 0 is being handled, not pending
+
+        then(d.publish(1, TriggerSource.GPIO)).isTrue();
+        then(d.publish(2, TriggerSource.GPIO)).isTrue();
+        then(d.publish(3, TriggerSource.of(TriggerSource.GPIO, 1))).isTrue();
+        then(d.publish(4, TriggerSource.JMX)).isTrue();
+        then(d.publish(5, TriggerSource.JMX)).isTrue();
+        then(d.publish(6, TriggerSource.WARMUP)).isTrue();
+        then(d.publish(7, TriggerSource.WARMUP)).isFalse(); // warm-ups are never coalesced, the ring is full
+
+        then(d.getQueueDepth()).isEqualTo(4);
+        then(d.getCoalesced()).isEqualTo(2);
+        then(d.getDropped()).isEqualTo(1);
+
+        release.countDown();
+        waitFor(TRIGGERS, 5);
+        then(TRIGGERS).containsExactly("0 gpio", "1 gpio", "3 gpio@1", "4 jmx", "6 warmup");
+
+        then(d.publish(8, TriggerSource.GPIO)).isTrue();  // nothing pending any more
+        waitFor(TRIGGERS, 6);
+        then(TRIGGERS).contains("8 gpio");
+        then(d.getCoalesced()).isEqualTo(2);
+        d.stop();
+    }
+
+    @Test
+    public void rate_limit_per_source_and_zone() throws Exception {
+        TriggerDispatcher d = new TriggerDispatcher("test-dispatcher", new TriggerRing.Handler() {
+            @Override
+            public void handle(long stamp, int source) {
+            }
+        });
+        d.setRateLimit(TriggerSource.GPIO, 10, 2);  // a token every 100ms
+        then(d.getRateLimit(TriggerSource.GPIO)).isEqualTo(10);
+        then(d.getBurst(TriggerSource.GPIO)).isEqualTo(2);
+        then(d.getRateLimit(TriggerSource.JMX)).isZero();
+
+        final long T = 1_000_000_000L;
+        then(d.publish(T, TriggerSource.GPIO)).isTrue();
+        then(d.publish(T, TriggerSource.GPIO)).isTrue();
+        then(d.publish(T, TriggerSource.GPIO)).isFalse();
+        then(d.publish(T, TriggerSource.of(TriggerSource.GPIO, 1))).isTrue();  // other zone
+        then(d.publish(T, TriggerSource.of(TriggerSource.GPIO, TriggerSource.MAX_ZONES - 1))).isTrue();  // the last one, a lane of its own
+        then(d.publish(T, TriggerSource.JMX)).isTrue();                        // not limited
+        then(d.publish(T, TriggerSource.WARMUP)).isTrue();                     // never limited
+        then(d.publish(T + 50_000_000L, TriggerSource.GPIO)).isFalse();
+        then(d.publish(T + 100_000_000L, TriggerSource.GPIO)).isTrue();
+        then(d.publish(T + 100_000_000L, TriggerSource.GPIO)).isFalse();
+        then(d.publish(T + 1_000_000_000L, TriggerSource.GPIO)).isTrue();
+        then(d.publish(T + 1_000_000_000L, TriggerSource.GPIO)).isTrue();
+
+        then(d.getLimited()).isEqualTo(3);
+        then(d.getAdmitted()).isEqualTo(9);
+        then(d.getPublished()).isEqualTo(12);
+
+        d.setRateLimit(TriggerSource.GPIO, 0, 1);
+        for (int i=0; i<10; ++i) {
+            then(d.publish(T, TriggerSource.GPIO)).isTrue();
+        }
+        then(d.getRateLimit(TriggerSource.GPIO)).isZero();
+        then(d.getBurst(TriggerSource.GPIO)).isEqualTo(1);
+    }
+
+    @Test
+    public void overflow_policies_by_name() {
+        then(TriggerDispatcher.parseOverflow("drop-newest")).isEqualTo(TriggerDispatcher.DROP_NEWEST);
+        then(TriggerDispatcher.parseOverflow("drop-oldest")).isEqualTo(TriggerDispatcher.DROP_OLDEST);
+        then(TriggerDispatcher.parseOverflow("coalesce")).isEqualTo(TriggerDispatcher.COALESCE);
+        then(TriggerDispatcher.overflowName(TriggerDispatcher.COALESCE)).isEqualTo("coalesce");
+
+        try {
+            TriggerDispatcher.parseOverflow("drop-all");
+            fail("missing policy check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("unknown overflow policy 'drop-all'");
+        }
+    }
+
+    @Test
+    public void invalid_admission_settings() {
+        TriggerDispatcher d = new TriggerDispatcher("test", new TriggerRing.Handler() {
+            @Override
+            public void handle(long stamp, int source) {
+            }
+        });
+        then(d.getOverflow()).isEqualTo(TriggerDispatcher.DROP_NEWEST);
+
+        try {
+            d.setOverflow(3);
+            fail("missing overflow check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("invalid overflow policy 3");
+        }
+        try {
+            d.setRateLimit(TriggerSource.GPIO, -1, 1);
+            fail("missing rate check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("rate can not be negative");
+        }
+        try {
+            d.setRateLimit(TriggerSource.GPIO, 1, 0);
+            fail("missing burst check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("burst must be greater than 0");
+        }
+        try {
+            d.setRateLimit(-1, 1, 1);
+            fail("missing source check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("invalid source -1");
+        }
+    }
+
+    @Test
+    public void errors_do_not_stop_the_dispatcher() throws Exception {
+        final List<String> TRIGGERS = Collections.synchronizedList(new ArrayList<>());
+        TriggerDispatcher d = new TriggerDispatcher("test-dispatcher", new TriggerRing.Handler() {
+            @Override
+            public void handle(long stamp, int source) {
+                if (stamp == 1) {
+                    throw new IllegalStateException("bad trigger");
+                }
+                TRIGGERS.add(String.valueOf(stamp));
+            }
+        });
+
+        d.start();
+        d.publish(1, TriggerSource.GPIO); d.publish(2, TriggerSource.GPIO);
+        waitFor(TRIGGERS, 1);
+        then(TRIGGERS).containsExactly("2");
+        d.stop();
+    }
+
+    @Test
+    public void handler_can_not_be_null() {
+        try {
+            new TriggerDispatcher("test", null);
+            fail("missing handler check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("handler can not be null");
+        }
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private void waitFor(List<String> list, int size) throws Exception {
+        long end = System.currentTimeMillis() + 2500;
+        while ((list.size() < size) && (System.currentTimeMillis() < end)) {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.assertj.core.api.AssertionsForClassTypes.fail;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BugFreeTriggerRing {
+
+    @Test
+    public void capacity_must_be_a_power_of_two() {
+        for (int C: new int[] {0, -1, 3, 100}) {
+            try {
+                new TriggerRing(C);
+                fail("missing capacity check for " + C);
+            } catch (IllegalArgumentException x) {
+                then(x).hasMessage("capacity must be a power of 2 greater than 0");
+            }
+        }
+        then(new TriggerRing(8).capacity).isEqualTo(8);
+    }
+
+    @Test
+    public void fifo_and_bounded() {
+        final List<String> TRIGGERS = new ArrayList<>();
+        TriggerRing ring = new TriggerRing(4);
+
+        then(ring.isEmpty()).isTrue();
+        for (int i=0; i<4; ++i) {
+            then(ring.offer(i*10, i)).isTrue();
+        }
+        then(ring.offer(40, 4)).isFalse();
+        then(ring.size()).isEqualTo(4);
+
+        TriggerRing.Handler h = new TriggerRing.Handler() {
+            @Override
+            public void handle(long stamp, int source) {
+                TRIGGERS.add(stamp + ":" + source);
+            }
+        };
+        while (ring.poll(h));
+        then(TRIGGERS).containsExactly("0:0", "10:1", "20:2", "30:3");
+        then(ring.poll(h)).isFalse();
+
+        //
+        // wrap around
+        //
+        TRIGGERS.clear();
+        for (int i=0; i<10; ++i) {
+            ring.offer(i, i); ring.poll(h);
+        }
+        then(TRIGGERS).hasSize(10).endsWith("9:9");
+    }
+
+    @Test
+    public void poll_only_what_the_filter_accepts() {
+        final List<String> TRIGGERS = new ArrayList<>();
+        TriggerRing ring = new TriggerRing(4);
+
+        TriggerRing.Handler h = new TriggerRing.Handler() {
+            @Override
+            public void handle(long stamp, int source) {
+                TRIGGERS.add(stamp + ":" + source);
+            }
+        };
+        TriggerRing.Filter odd = new TriggerRing.Filter() {
+            @Override
+            public boolean accept(long stamp, int source) {
+                return (source % 2) == 1;
+            }
+        };
+
+        ring.offer(10, 1); ring.offer(20, 2); ring.offer(30, 3);
+
+        then(ring.poll(h, odd)).isTrue();
+        then(ring.poll(h, odd)).isFalse();  // 2 stays where it is
+        then(ring.size()).isEqualTo(2);
+        then(ring.poll(h, null)).isTrue();
+        then(ring.poll(h, odd)).isTrue();
+        then(ring.poll(h, odd)).isFalse();  // empty
+        then(TRIGGERS).containsExactly("10:1", "20:2", "30:3");
+    }
+
+    @Test
+    public void many_producers_one_consumer() throws Exception {
+        final int PRODUCERS = 4, N = 20000;
+        final TriggerRing ring = new TriggerRing(64);
+        final AtomicLong sum = new AtomicLong();
+        final long[] counts = new long[PRODUCERS];
+        final CountDownLatch start = new CountDownLatch(1);
+
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int p=0; p<PRODUCERS; ++p) {
+            final int P = p;
+            producers[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try { start.await(); } catch (InterruptedException x) {}
+                    for (int i=1; i<=N; ++i) {
+                        while (!ring.offer(i, P)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+            producers[p].start();
+        }
+
+        TriggerRing.Handler h = new TriggerRing.Handler() {
+            @Override
+            public void handle(long stamp, int source) {
+                sum.addAndGet(stamp); ++counts[source];
+            }
+        };
+
+        start.countDown();
+        long total = 0;
+        while (total < PRODUCERS*N) {
+            if (ring.poll(h)) {
+                ++total;
+            }
+        }
+        for (Thread t: producers) {
+            t.join();
+        }
+
+        then(ring.isEmpty()).isTrue();
+        then(sum.get()).isEqualTo(PRODUCERS * ((long)N*(N+1)/2));
+        for (long c: counts) {
+            then(c).isEqualTo(N);
+        }
+    }
+}
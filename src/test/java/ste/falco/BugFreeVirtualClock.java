@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import static org.assertj.core.api.AssertionsForClassTypes.fail;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BugFreeVirtualClock {
+
+    private static final ZoneId UTC = ZoneId.of("UTC");
+    private static final long START = Instant.parse("2020-06-01T09:00:00.00Z").toEpochMilli();
+
+    @Test
+    public void stands_still_until_set_or_advanced() throws Exception {
+        final VirtualClock clock = new VirtualClock(START, UTC);
+
+        then(clock.millis()).isEqualTo(START);
+        Thread.sleep(10);
+        then(clock.instant()).isEqualTo(Instant.ofEpochMilli(START));
+        then(LocalDateTime.now(clock)).isEqualTo(LocalDateTime.of(2020, 6, 1, 9, 0));
+
+        clock.advance(60*1000);
+        then(LocalDateTime.now(clock)).isEqualTo(LocalDateTime.of(2020, 6, 1, 9, 1));
+
+        clock.set(START - 1000);
+        then(clock.millis()).isEqualTo(START - 1000);
+        then(clock).hasToString("VirtualClock[2020-06-01T08:59:59Z,UTC]");
+    }
+
+    @Test
+    public void with_zone() {
+        final VirtualClock clock = new VirtualClock(START, UTC);
+        final Clock rome = clock.withZone(ZoneId.of("Europe/Rome"));
+
+        then(rome.getZone()).isEqualTo(ZoneId.of("Europe/Rome"));
+        then(LocalDateTime.now(rome)).isEqualTo(LocalDateTime.of(2020, 6, 1, 11, 0));
+
+        clock.advance(1000);
+        then(rome.millis()).isEqualTo(START);
+
+        try {
+            new VirtualClock(START, null);
+            fail("missing zone check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("zone can not be null");
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import static org.assertj.core.api.AssertionsForClassTypes.fail;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BugFreeZone {
+
+    @Test
+    public void parse_with_defaults() {
+        Zone z = Zone.parse("balcony");
+
+        then(z.name).isEqualTo("balcony");
+        then(z.pin).isEqualTo(MotionDetector.DEFAULT_PIN);
+        then(z.sound).isEqualTo(Zone.DEFAULT_SOUND);
+        then(z.debounce).isEqualTo(Zone.UNSET);
+        then(z.coalesce).isEqualTo(Zone.UNSET);
+        then(z.cooldown).isEqualTo(SoundMotionDetector.DEFAULT_COOLDOWN);
+    }
+
+    @Test
+    public void parse_all_settings() {
+        Zone z = Zone.parse("roof, pin=5,sound=/sounds/test1.wav,debounce=30,coalesce=1000,cooldown=5");
+
+        then(z.name).isEqualTo("roof");
+        then(z.pin).isEqualTo(5);
+        then(z.sound).isEqualTo("/sounds/test1.wav");
+        then(z.debounce).isEqualTo(30);
+        then(z.coalesce).isEqualTo(1000);
+        then(z.cooldown).isEqualTo(5);
+        then(z.toString()).isEqualTo("roof,pin=5,sound=/sounds/test1.wav,debounce=30,coalesce=1000,cooldown=5");
+    }
+
+    @Test
+    public void invalid_zones() {
+        invalid(null, "zone can not be blank or null");
+        invalid(" ", "zone can not be blank or null");
+        invalid("the roof", "invalid zone name 'the roof'");
+        invalid("roof,pin=99", "invalid pin 99 in zone roof");
+        invalid("roof,pin=five", "invalid pin 'five' in zone roof");
+        invalid("roof,sound=/sounds/none.wav", "'/sounds/none.wav' not found in classpath in zone roof");
+        invalid("roof,cooldown=-1", "debounce, coalesce and cooldown can not be negative in zone roof");
+        invalid("roof,volume=2", "unknown setting 'volume' in zone roof");
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private void invalid(String spec, String message) {
+        try {
+            Zone.parse(spec);
+            fail("missing check for " + spec);
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage(message);
+        }
+    }
+}
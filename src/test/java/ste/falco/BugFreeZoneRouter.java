@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import static org.assertj.core.api.AssertionsForClassTypes.fail;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BugFreeZoneRouter {
+
+    private final List<String> TRIGGERS = Collections.synchronizedList(new ArrayList<String>());
+
+    @Test
+    public void triggers_go_to_their_zone_with_plain_source() {
+        ZoneRouter router = new ZoneRouter("test");
+        then(router.add(new Recorder("one"))).isEqualTo(0);
+        then(router.add(new Recorder("two"))).isEqualTo(1);
+        then(router.size()).isEqualTo(2);
+
+        router.handle(10, TriggerSource.of(TriggerSource.JMX, 1));
+        router.handle(20, TriggerSource.of(TriggerSource.GPIO, 0));
+        router.handle(30, TriggerSource.of(TriggerSource.GPIO, 7));  // unknown, ignored
+
+        then(TRIGGERS).containsExactly("two 10 jmx", "one 20 gpio");
+    }
+
+    @Test
+    public void zones_share_the_dispatcher_thread() throws Exception {
+        ZoneRouter router = new ZoneRouter("falco-zones");
+        router.add(new Recorder("one")); router.add(new Recorder("two"));
+
+        router.dispatcher.start();
+        try {
+            router.dispatcher.publish(1, TriggerSource.of(TriggerSource.GPIO, 1));
+            router.dispatcher.publish(2, TriggerSource.of(TriggerSource.GPIO, 0));
+
+            long end = System.currentTimeMillis() + 2500;
+            while ((TRIGGERS.size() < 2) && (System.currentTimeMillis() < end)) {
+                Thread.sleep(10);
+            }
+            then(TRIGGERS).containsExactly("two 1 gpio falco-zones", "one 2 gpio falco-zones");
+        } finally {
+            router.dispatcher.stop();
+        }
+    }
+
+    @Test
+    public void zone_in_trigger_source() {
+        final int source = TriggerSource.of(TriggerSource.WARMUP, 3);
+
+        then(TriggerSource.zone(source)).isEqualTo(3);
+        then(TriggerSource.source(source)).isEqualTo(TriggerSource.WARMUP);
+        then(TriggerSource.name(source)).isEqualTo("warmup@3");
+        then(TriggerSource.of(TriggerSource.JMX, 0)).isEqualTo(TriggerSource.JMX);
+        then(TriggerSource.name(TriggerSource.JMX)).isEqualTo("jmx");
+    }
+
+    @Test
+    public void no_more_zones_than_dispatcher_lanes() {
+        ZoneRouter router = new ZoneRouter("test");
+        for (int i=0; i<TriggerSource.MAX_ZONES; ++i) {
+            router.add(new Recorder(String.valueOf(i)));
+        }
+        try {
+            router.add(new Recorder("one too many"));
+            fail("missing zones check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("too many zones, max is 256");
+        }
+
+        router.handle(10, TriggerSource.of(TriggerSource.JMX, TriggerSource.MAX_ZONES - 1));
+        then(TRIGGERS).containsExactly("255 10 jmx");
+    }
+
+    @Test
+    public void invalid_handler() {
+        try {
+            new ZoneRouter("test").add(null);
+            fail("missing handler check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("handler can not be null");
+        }
+    }
+
+    // ---------------------------------------------------------------- Recorder
+
+    private class Recorder implements TriggerRing.Handler {
+        private final String name;
+
+        Recorder(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void handle(long stamp, int source) {
+            String thread = Thread.currentThread().getName();
+            TRIGGERS.add(
+                name + " " + stamp + " " + TriggerSource.name(source)
+                + (thread.equals("falco-zones") ? " " + thread : "")
+            );
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco.jmx;
+
+import java.util.Arrays;
+import static org.assertj.core.api.AssertionsForClassTypes.fail;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Test;
+import ste.falco.SoundMotionDetector;
+
+/**
+ *
+ */
+public class BugFreeLatencyMBean {
+
+    @Test
+    public void constructor_sanity_check() {
+        try {
+            new Latency(null);
+            fail("missing sanity check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("detectors can not be null or empty");
+        }
+        try {
+            new Latency(Arrays.<SoundMotionDetector>asList());
+            fail("missing sanity check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("detectors can not be null or empty");
+        }
+    }
+
+    @Test
+    public void latencies_of_all_zones() throws Exception {
+        final SoundMotionDetector zone1 = new SoundMotionDetector("/sounds/test1.wav");
+        final SoundMotionDetector zone2 = new SoundMotionDetector("/sounds/test1.wav");
+        final LatencyMBean bean = new Latency(Arrays.asList(zone1, zone2));
+
+        zone1.triggerLatency.record(10_000L); zone1.dispatchLatency.record(1_000L);
+        zone1.startLatency.record(9_000L);
+        zone2.triggerLatency.record(20_000L); zone2.triggerLatency.record(30_000L);
+        zone2.dispatchLatency.record(2_000L); zone2.startLatency.record(18_000L);
+
+        then(bean.getTriggerCount()).isEqualTo(3);
+        then(bean.getTriggerP50()).isEqualTo(20);
+        then(bean.getTriggerMax()).isEqualTo(30);
+        then(bean.getDispatchMax()).isEqualTo(2);
+        then(bean.getStartP50()).isEqualTo(9);
+        then(bean.getStartMax()).isEqualTo(18);
+
+        bean.reset();
+        then(bean.getTriggerCount()).isZero();
+        then(zone1.triggerLatency.getCount()).isZero();
+        then(zone2.dispatchLatency.getCount()).isZero();
+        then(zone2.startLatency.getMax()).isZero();
+    }
+
+    @Test
+    public void latencies_of_one_zone() throws Exception {
+        final SoundMotionDetector zone = new SoundMotionDetector("/sounds/test1.wav");
+        final LatencyMBean bean = new Latency(Arrays.asList(zone));
+
+        zone.triggerLatency.record(10_000L); zone.triggerLatency.record(20_000L);
+
+        then(bean.getTriggerCount()).isEqualTo(2);
+        then(bean.getTriggerMax()).isEqualTo(20);
+        then(bean.getDispatchMax()).isZero();
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2020 Stefano Fornari.
+ * All Rights Reserved.  No use, copying or distribution of this
+ * work may be made except in accordance with a valid license
+ * agreement from Stefano Fornari.  This notice must be
+ * included on all copies, modifications and derivatives of this
+ * work.
+ *
+ * STEFANO FORNARI MAKES NO REPRESENTATIONS OR WARRANTIES ABOUT THE SUITABILITY
+ * OF THE SOFTWARE, EITHER EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE, OR NON-INFRINGEMENT. STEFANO FORNARI SHALL NOT BE LIABLE FOR ANY
+ * DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR DISTRIBUTING
+ * THIS SOFTWARE OR ITS DERIVATIVES.
+ */
+package ste.falco.sound;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Clip;
+import javax.sound.sampled.FloatControl;
+import javax.sound.sampled.LineEvent;
+import javax.sound.sampled.LineListener;
+import javax.sound.sampled.SourceDataLine;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Test;
+import ste.falco.SoundAsset;
+import ste.falco.SoundCache;
+import ste.falco.SoundUtils;
+
+/**
+ *
+ */
+public class BugFreeMemoryMixer {
+
+    private static final AudioFormat FORMAT = new AudioFormat(8000f, 16, 1, true, false);
+
+    @Test
+    public void available_through_audio_system() throws Exception {
+        final String audio = System.getProperty(SoundUtils.PROPERTY_AUDIO);
+        try {
+            System.setProperty(SoundUtils.PROPERTY_AUDIO, SoundUtils.AUDIO_MEMORY);
+
+            then(AudioSystem.getMixer(MemoryMixer.INFO)).isInstanceOf(MemoryMixer.class);
+            then(SoundUtils.getMixer()).isSameAs(AudioSystem.getMixer(MemoryMixer.INFO));
+        } finally {
+            if (audio == null) {
+                System.clearProperty(SoundUtils.PROPERTY_AUDIO);
+            } else {
+                System.setProperty(SoundUtils.PROPERTY_AUDIO, audio);
+            }
+        }
+    }
+
+    @Test
+    public void clip_renders_at_full_speed() throws Exception {
+        MemoryMixer mixer = new MemoryMixer();
+        SoundAsset asset = SoundCache.getInstance().get("/sounds/test1.wav");
+        EventRecorder events = new EventRecorder();
+
+        Clip clip = SoundUtils.getClip(mixer);
+        clip.addLineListener(events);
+        clip.open(asset.stream());
+        then(clip.getFrameLength()).isEqualTo(asset.frames);
+        then(mixer.getSourceLines()).containsExactly(clip);
+
+        long before = System.nanoTime();
+        clip.start();
+        then(events.types).containsExactly("Open", "Start", "Stop");
+        then(clip.getFramePosition()).isEqualTo(asset.frames);
+        then(clip.isRunning()).isFalse();
+        then(mixer.getRenderedFrames()).isEqualTo(asset.frames);
+        then(mixer.getRenders()).hasSize(1);
+        then(mixer.getRenders().get(0).line).isSameAs(clip);
+        then(mixer.getRenders().get(0).nanos).isGreaterThanOrEqualTo(before);
+
+        clip.setFramePosition(0); clip.loop(1);
+        then(mixer.getRenderedFrames()).isEqualTo(3 * asset.frames);
+
+        clip.close();
+        then(events.types).endsWith("Close");
+        then(mixer.getSourceLines()).isEmpty();
+
+        mixer.reset();
+        then(mixer.getRenders()).isEmpty();
+        then(mixer.getRenderedFrames()).isZero();
+    }
+
+    @Test
+    public void clip_starts_after_the_device_latency() throws Exception {
+        MemoryMixer mixer = new MemoryMixer();
+        mixer.setLatency(50);
+        then(mixer.getLatency()).isEqualTo(50);
+
+        final EventRecorder events = new EventRecorder();
+        Clip clip = SoundUtils.getClip(mixer);
+        clip.addLineListener(events);
+        clip.open(FORMAT, new byte[1600], 0, 1600);
+
+        long before = System.nanoTime();
+        clip.start();
+        then(events.types).containsExactly("Open");
+
+        events.waitFor("Stop");
+        then(events.types).containsExactly("Open", "Start", "Stop");
+        then(events.threads).contains("falco-memory-device");
+        then(mixer.getRenders().get(0).nanos - before).isGreaterThanOrEqualTo(50_000_000L);
+        then(mixer.getRenderedFrames()).isEqualTo(800);
+    }
+
+    @Test
+    public void clip_stopped_before_the_device_starts_is_not_rendered() throws Exception {
+        MemoryMixer mixer = new MemoryMixer();
+        mixer.setLatency(50);
+
+        Clip clip = SoundUtils.getClip(mixer);
+        clip.open(FORMAT, new byte[1600], 0, 1600);
+        clip.start(); clip.stop();
+
+        Thread.sleep(150);
+        then(mixer.getRenders()).isEmpty();
+    }
+
+    @Test
+    public void source_data_line_records_what_is_written() throws Exception {
+        MemoryMixer mixer = new MemoryMixer();
+        mixer.setLatency(20);
+
+        SourceDataLine line = SoundUtils.getSourceDataLine(mixer, FORMAT);
+        line.open(FORMAT, 1024);
+        line.start();
+
+        long before = System.nanoTime();
+        then(line.write(new byte[200], 0, 200)).isEqualTo(200);
+        then(System.nanoTime() - before).isGreaterThanOrEqualTo(20_000_000L);
+
+        before = System.nanoTime();
+        line.write(new byte[200], 0, 100);
+        then(System.nanoTime() - before).isLessThan(20_000_000L);
+
+        then(line.getLongFramePosition()).isEqualTo(150);
+        then(mixer.getRenders()).hasSize(2);
+        then(mixer.getRenders().get(1).frames).isEqualTo(50);
+        then(mixer.getRenderedFrames()).isEqualTo(150);
+    }
+
+    @Test
+    public void lines_have_a_master_gain() throws Exception {
+        Clip clip = SoundUtils.getClip(new MemoryMixer());
+        FloatControl gain = (FloatControl)clip.getControl(FloatControl.Type.MASTER_GAIN);
+
+        gain.setValue(-6f);
+        then(((FloatControl)clip.getControl(FloatControl.Type.MASTER_GAIN)).getValue()).isEqualTo(-6f);
+    }
+
+    // ----------------------------------------------------------- EventRecorder
+
+    private static class EventRecorder implements LineListener {
+        public final List<String> types = Collections.synchronizedList(new ArrayList<>());
+        public final List<String> threads = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void update(LineEvent e) {
+            types.add(e.getType().toString());
+            threads.add(Thread.currentThread().getName());
+        }
+
+        public void waitFor(String type) throws InterruptedException {
+            long end = System.currentTimeMillis() + 2500;
+            while (!types.contains(type) && (System.currentTimeMillis() < end)) {
+                Thread.sleep(10);
+            }
+        }
+    }
+}
@@ -15,16 +15,43 @@
  */
 package ste.falco.ui;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
 import java.util.logging.Logger;
+import javax.management.Attribute;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.sound.sampled.Clip;
+import static org.assertj.core.api.AssertionsForClassTypes.fail;
 import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import picocli.CommandLine;
+import ste.falco.AudioOutput;
 import ste.falco.BugFreeSoundMotionDetector;
+import ste.falco.EventJournal;
+import ste.falco.MotionDetector;
+import ste.falco.MotionSensorEmulator;
+import ste.falco.PlayPolicy;
+import ste.falco.Scheduler;
+import ste.falco.Supervisor;
+import ste.falco.TriggerDispatcher;
+import ste.falco.TriggerSource;
+import ste.falco.VirtualClock;
+import ste.falco.jmx.Scheduling;
 import ste.falco.ui.FalcoCLI.Heartbeat;
 import ste.xtest.concurrent.Condition;
 import ste.xtest.concurrent.WaitFor;
@@ -38,6 +65,8 @@ import ste.xtest.time.FixedClock;
  */
 public class BugFreeFalcoCLI extends BugFreeCLIBase {
 
+    @Rule
+    public final TemporaryFolder TMP = new TemporaryFolder();
 
     @Test
     public void heartbeat() throws Exception {
@@ -77,7 +106,7 @@ public class BugFreeFalcoCLI extends BugFreeCLIBase {
             Clip clip = (Clip)PrivateAccess.getInstanceValue(cli.moctor, "clip");
             clip.addLineListener(rec);
             PrivateAccess.setInstanceValue(cli.moctor, "CLOCK", clock);
-            PrivateAccess.setInstanceValue(cli.moctor, "lastMoved", LocalDateTime.now(clock).minusHours(24));
+            cli.moctor.setLastPlayed(clock.millis - 24*60*60*1000);
 
             cli.moctor.moved();  // first time: play
 
@@ -90,7 +119,7 @@ public class BugFreeFalcoCLI extends BugFreeCLIBase {
 
             clock.millis += 5*60*1000;  // 5 minutes later
             cli.moctor.moved();  Thread.sleep(50); // second time in a row: don't play
-            then(rec.events).hasSize(4);
+            then(rec.events).hasSize(2);
 
             clock.millis += 6*60*1000;  // 11 minutes later
             cli.moctor.moved();  // third time: play
@@ -113,11 +142,11 @@ public class BugFreeFalcoCLI extends BugFreeCLIBase {
 
          try (FalcoCLI cli = new FalcoCLI()) {
              cli.startup();
-             PrivateAccess.setInstanceValue(cli.moctor, "lastMoved", LocalDateTime.now().plusMinutes(10));
+             cli.moctor.setLastPlayed(System.currentTimeMillis() + 10*60*1000);
 
              cli.moctor.moved();
 
-             then(h.getMessages()).containsExactly("heartbeat disabled", "motion detected", "too early or not in day light - I am muted");
+             then(h.getMessages()).containsExactly("heartbeat disabled", "too early or not in day light - I am muted");
          }
     }
 
@@ -234,6 +263,484 @@ public class BugFreeFalcoCLI extends BugFreeCLIBase {
         }
     }
 
+    @Test
+    public void mbeans_are_not_left_behind() throws Exception {
+        final ObjectName traffic = new ObjectName(TRAFFIC_CONTROL_NAME);
+        final ObjectName latency = new ObjectName("ste.falco.jmx:name=Latency");
+        final ObjectName scheduler = new ObjectName("ste.falco.jmx:name=Scheduler");
+
+        //
+        // a registration that fails releases the MBeans registered so far
+        //
+        JMX.registerMBean(new Scheduling(Scheduler.getInstance()), scheduler);
+        try (FalcoCLI cli = new FalcoCLI(new FalcoCLI.FalcoOptions(true, true))) {
+            cli.startup();
+            fail("startup shall fail");
+        } catch (InstanceAlreadyExistsException x) {
+            then(x).hasMessageContaining("ste.falco.jmx:name=Scheduler");
+        } finally {
+            JMX.unregisterMBean(scheduler);
+        }
+        then(JMX.queryNames(new ObjectName("ste.falco.jmx:*"), null)).isEmpty();
+
+        //
+        // a failing unregistration does not stop the others
+        //
+        try (FalcoCLI cli = new FalcoCLI(new FalcoCLI.FalcoOptions(true, true))) {
+            cli.startup();
+            then(JMX.isRegistered(traffic)).isTrue();
+            JMX.unregisterMBean(latency);
+        }
+        then(JMX.queryNames(new ObjectName("ste.falco.jmx:*"), null)).isEmpty();
+
+        //
+        // so that the next instance can register its own
+        //
+        try (FalcoCLI cli = new FalcoCLI(new FalcoCLI.FalcoOptions(true, true))) {
+            cli.startup();
+            then(JMX.isRegistered(latency)).isTrue();
+        }
+    }
+
+    @Test
+    public void shutdown_only_once() throws Exception {
+        final FalcoCLI cli = new FalcoCLI(new FalcoCLI.FalcoOptions(true, true));
+        cli.startup();
+
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        final Thread[] threads = new Thread[2];
+        for (int i=0; i<threads.length; ++i) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        barrier.await(); cli.shutdown();
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t: threads) {
+            t.join(5000);
+        }
+
+        then(errors).isEmpty();
+        then(JMX.queryNames(new ObjectName("ste.falco.jmx:*"), null)).isEmpty();
+        cli.awaitShutdown();  // does not block
+        cli.close();          // nothing left to do
+    }
+
+    @Test
+    public void journal_segments_and_raw_edges() throws Exception {
+        final Path dir = TMP.getRoot().toPath();
+
+        FalcoCLI.FalcoOptions options = new FalcoCLI.FalcoOptions(false, true);
+        new CommandLine(options).parseArgs(
+            "--journal", dir.toString(), "--journal-segment-size", "4096", "--journal-segments", "3", "--journal-raw-edges"
+        );
+        try (FalcoCLI falco = new FalcoCLI(options)) {
+            final EventJournal journal = (EventJournal)PrivateAccess.getInstanceValue(falco, "journal");
+            then(journal.segmentSize).isEqualTo(4096);
+            then(journal.segments).isEqualTo(3);
+            then(((MotionDetector)falco.moctor).isRawEdges()).isTrue();
+        }
+
+        StringWriter err = new StringWriter();
+        CommandLine cli = new CommandLine(new FalcoCLI.FalcoOptions());
+        cli.setErr(new PrintWriter(err));
+        then(cli.execute("--nogpio", "--journal-segment-size", "100")).isNotZero();
+        then(err.toString()).contains("--journal-segment-size must be at least 528");
+
+        err = new StringWriter();
+        cli = new CommandLine(new FalcoCLI.FalcoOptions());
+        cli.setErr(new PrintWriter(err));
+        then(cli.execute("--nogpio", "--journal-segments", "0")).isNotZero();
+        then(err.toString()).contains("--journal-segments must be greater than 0");
+    }
+
+    @Test
+    public void stats_of_the_journal() throws Exception {
+        final Path dir = TMP.getRoot().toPath();
+        final long morning = ZonedDateTime.of(2020, 6, 1, 9, 0, 0, 0, ZoneId.systemDefault()).toInstant().toEpochMilli();
+        try (EventJournal j = new EventJournal(dir)) {
+            j.open();
+            j.append(morning, 4, EventJournal.PLAYED, (byte)0, TriggerSource.GPIO);
+            j.append(morning + 6*60*1000, 4, EventJournal.MUTED, EventJournal.COOLDOWN, TriggerSource.GPIO);
+        }
+
+        StringWriter out = new StringWriter();
+        CommandLine cli = new CommandLine(new FalcoCLI.FalcoOptions());
+        cli.setOut(new PrintWriter(out));
+
+        then(cli.execute("stats", "--journal", dir.toString(), "--threads", "2")).isZero();
+        then(cli.getParseResult().hasSubcommand()).isTrue();
+        then(out.toString())
+            .contains("records: 2 (0 edges) from 2020-06-01T09:00 to 2020-06-01T09:06")
+            .contains("motions: 2, played: 1, muted: 1 (night: 0, cooldown: 1)")
+            .contains("back after a play (minutes): count=1")
+            .contains("  09       2 ########################################")
+            .contains("  Mon      2 ########################################");
+
+        out = new StringWriter();
+        cli = new CommandLine(new FalcoCLI.FalcoOptions());
+        cli.setOut(new PrintWriter(out));
+        then(cli.execute("stats", "--journal", dir.resolve("none").toString())).isZero();
+        then(out.toString()).contains("no motions recorded in " + dir.resolve("none"));
+    }
+
+    @Test
+    public void simulate_the_policy() throws Exception {
+        final Path dir = TMP.getRoot().toPath();
+        final long morning = ZonedDateTime.of(2020, 6, 1, 9, 0, 0, 0, ZoneId.systemDefault()).toInstant().toEpochMilli();
+        try (EventJournal j = new EventJournal(dir)) {
+            j.open();
+            for (int i=0; i<4; ++i) {
+                j.append(morning + i*5*60*1000, 4, EventJournal.MUTED, EventJournal.COOLDOWN, TriggerSource.GPIO);
+            }
+        }
+
+        StringWriter out = new StringWriter();
+        CommandLine cli = new CommandLine(new FalcoCLI.FalcoOptions());
+        cli.setOut(new PrintWriter(out));
+
+        then(cli.execute("simulate", "--journal", dir.toString(), "--cooldown", "5")).isZero();
+        then(out.toString())
+            .contains("motions: 4 of pin 4 from 2020-06-01T09:00 to 2020-06-01T09:15")
+            .contains("played: 2 (50.0%), muted: 2 (night: 0, cooldown: 2) with a cooldown of 5 minutes")
+            .contains("coverage: 2.8% of the active hours within 10 minutes after a play")
+            .contains("simulated in ");
+        then(Logger.getLogger("ste.falco").getLevel()).isNull();
+
+        out = new StringWriter();
+        cli = new CommandLine(new FalcoCLI.FalcoOptions());
+        cli.setOut(new PrintWriter(out));
+        then(cli.execute("simulate", "--journal", dir.toString(), "--pin", "5")).isZero();
+        then(out.toString()).contains("no motions of pin 5 recorded in " + dir);
+
+        final StringWriter err = new StringWriter();
+        cli = new CommandLine(new FalcoCLI.FalcoOptions());
+        cli.setErr(new PrintWriter(err));
+        then(cli.execute("simulate", "--journal", dir.toString(), "--cooldown", "-1")).isNotZero();
+        then(err.toString()).contains("cooldown and effect can not be negative");
+
+        out = new StringWriter();
+        cli = new CommandLine(new FalcoCLI.FalcoOptions());
+        cli.setOut(new PrintWriter(out));
+        then(cli.execute("simulate", "--journal", dir.toString(), "--cooldown", "5", "--policy", "cooldown=0")).isZero();
+        then(out.toString())
+            .contains("played: 4 (100.0%), muted: 0 (night: 0, cooldown: 0) with the policy " + PlayPolicy.DEFAULT + ";cooldown=5;cooldown=0");
+    }
+
+    @Test
+    public void emulate_the_sensors() throws Exception {
+        FalcoCLI.FalcoOptions options = new FalcoCLI.FalcoOptions();
+        new CommandLine(options).parseArgs("--emulate", "burst,rate=2,size=3,seed=1");
+        then(options.emulate).hasToString("burst,rate=2.0,size=3,gap=200,pulse=100,seed=1");
+
+        StringWriter err = new StringWriter();
+        CommandLine cli = new CommandLine(new FalcoCLI.FalcoOptions());
+        cli.setErr(new PrintWriter(err));
+        then(cli.execute("--nogpio", "--emulate", "stuck")).isNotZero();
+        then(err.toString()).contains("--emulate can not be used with --nogpio");
+
+        err = new StringWriter();
+        cli = new CommandLine(new FalcoCLI.FalcoOptions());
+        cli.setErr(new PrintWriter(err));
+        then(cli.execute("--emulate", "rain")).isNotZero();
+        then(err.toString()).contains("unknown traffic 'rain'");
+
+        final ObjectName name = new ObjectName("ste.falco.jmx:name=Emulator");
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final MotionSensorEmulator emulator = new MotionSensorEmulator(5);
+        try {
+            try (FalcoCLI falco = new FalcoCLI(new FalcoCLI.FalcoOptions(true, true))) {
+                falco.startup();
+                falco.emulate(emulator, MotionSensorEmulator.Traffic.stuck(5));
+
+                then(server.getAttribute(name, "Running")).isEqualTo(true);
+                then(server.getAttribute(name, "Traffic")).isEqualTo("stuck,pin=5");
+                new WaitFor(1000, new Condition() {
+                    @Override
+                    public boolean check() {
+                        return emulator.isHigh(5);
+                    }
+                });
+                then(server.getAttribute(name, "Rises")).isEqualTo(1L);
+
+                server.invoke(name, "start", new Object[] {"poisson,rate=100,pulse=0,seed=1"}, new String[] {"java.lang.String"});
+                then(server.getAttribute(name, "Traffic")).isEqualTo("poisson,rate=100.0,pulse=0,seed=1");
+                then(emulator.isHigh(5)).isFalse();
+            }
+            then(server.isRegistered(name)).isFalse();
+            then(emulator.isRunning()).isTrue(); // traffic goes on across recycles
+        } finally {
+            emulator.stop();
+        }
+    }
+
+    @Test
+    public void admission_of_triggers() throws Exception {
+        StringWriter err = new StringWriter();
+        CommandLine cli = new CommandLine(new FalcoCLI.FalcoOptions());
+        cli.setErr(new PrintWriter(err));
+        then(cli.execute("--overflow", "drop-all")).isNotZero();
+        then(err.toString()).contains("unknown overflow policy 'drop-all'");
+
+        err = new StringWriter();
+        cli = new CommandLine(new FalcoCLI.FalcoOptions());
+        cli.setErr(new PrintWriter(err));
+        then(cli.execute("--rate-limit", "gpio")).isNotZero();
+        then(err.toString()).contains("invalid rate limit 'gpio', expected SOURCE=RATE[/BURST]");
+
+        FalcoCLI.FalcoOptions options = new FalcoCLI.FalcoOptions(true, true);
+        new CommandLine(options).parseArgs("--overflow", "coalesce", "--rate-limit", "jmx=0.1/2", "--rate-limit", "gpio=5");
+
+        final ObjectName admission = new ObjectName("ste.falco.jmx:name=Admission");
+        final ObjectName traffic = new ObjectName("ste.falco.jmx:name=TrafficControl");
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try (FalcoCLI falco = new FalcoCLI(options)) {
+            falco.startup();
+
+            then(server.getAttribute(admission, "Overflow")).isEqualTo("coalesce");
+            then(server.getAttribute(admission, "Capacity")).isEqualTo(64);
+            then(server.getAttribute(admission, "RateLimits")).isEqualTo("gpio=5.0/1,jmx=0.1/2");
+
+            for (int i=0; i<5; ++i) {
+                server.invoke(traffic, "move", new Object[0], new String[0]);
+            }
+            then(server.getAttribute(admission, "Published")).isEqualTo(5L);
+            then(server.getAttribute(admission, "Limited")).isEqualTo(3L);
+            then(
+                (Long)server.getAttribute(admission, "Admitted") + (Long)server.getAttribute(admission, "Coalesced")
+            ).isEqualTo(2L);
+
+            server.setAttribute(admission, new Attribute("Overflow", "drop-oldest"));
+            then(falco.moctor.getDispatcher().getOverflow()).isEqualTo(TriggerDispatcher.DROP_OLDEST);
+            server.invoke(admission, "limitRate", new Object[] {"jmx=0"}, new String[] {"java.lang.String"});
+            then(server.getAttribute(admission, "RateLimits")).isEqualTo("gpio=5.0/1,jmx=unlimited");
+        }
+        then(server.isRegistered(admission)).isFalse();
+    }
+
+    @Test
+    public void play_policy_of_the_zones() throws Exception {
+        StringWriter err = new StringWriter();
+        CommandLine cli = new CommandLine(new FalcoCLI.FalcoOptions());
+        cli.setErr(new PrintWriter(err));
+        then(cli.execute("--policy", "noon=always")).isNotZero();
+        then(err.toString()).contains("unknown key or day 'noon' in policy");
+
+        FalcoCLI.FalcoOptions options = new FalcoCLI.FalcoOptions(true, true);
+        new CommandLine(options).parseArgs(
+            "--zone", "balcony,cooldown=5", "--zone", "roof,pin=5", "--policy", "sat+sun=always;jmx:cooldown=0"
+        );
+
+        final ObjectName traffic = new ObjectName("ste.falco.jmx:name=TrafficControl");
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try (FalcoCLI falco = new FalcoCLI(options)) {
+            falco.startup();
+
+            then(falco.detectors.get(0).getPolicy()).hasToString(PlayPolicy.DEFAULT + ";cooldown=5;sat+sun=always;jmx:cooldown=0");
+            then(falco.detectors.get(1).getPolicy()).hasToString(PlayPolicy.DEFAULT + ";cooldown=10;sat+sun=always;jmx:cooldown=0");
+            then(server.getAttribute(traffic, "Policy")).isEqualTo(PlayPolicy.DEFAULT + ";cooldown=5;sat+sun=always;jmx:cooldown=0");
+
+            server.setAttribute(traffic, new Attribute("Policy", "hours=always"));
+            then(falco.detectors.get(0).getPolicy()).hasToString(PlayPolicy.DEFAULT + ";cooldown=5;hours=always");
+            then(falco.detectors.get(1).getPolicy()).hasToString(PlayPolicy.DEFAULT + ";cooldown=10;hours=always");
+
+            server.setAttribute(traffic, new Attribute("Policy", ""));
+            then(falco.detectors.get(1).getPolicy()).hasToString(PlayPolicy.DEFAULT + ";cooldown=10");
+
+            try {
+                falco.setPolicy("hours=8");
+                fail("missing policy check");
+            } catch (IllegalArgumentException x) {
+                then(x).hasMessage("invalid window '8' in policy");
+            }
+            then(falco.detectors.get(1).getPolicy()).hasToString(PlayPolicy.DEFAULT + ";cooldown=10");
+        }
+    }
+
+    @Test
+    public void dormant_during_muted_hours() throws Exception {
+        final ObjectName traffic = new ObjectName("ste.falco.jmx:name=TrafficControl");
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        FalcoCLI.FalcoOptions options = new FalcoCLI.FalcoOptions(true, true);
+        new CommandLine(options).parseArgs("--dormant", "--streaming", "--policy", "hours=never");
+        try (FalcoCLI falco = new FalcoCLI(options)) {
+            final AudioOutput output = (AudioOutput)PrivateAccess.getInstanceValue(falco, "output");
+            falco.startup();
+
+            then(falco.isDormant()).isTrue();
+            then(falco.moctor.isDormant()).isTrue();
+            then(falco.isLive()).isTrue();
+            then(output.isOpen()).isFalse();
+            then(server.getAttribute(traffic, "Dormant")).isEqualTo(true);
+
+            falco.moctor.moved();  // muted anyway, and nothing to play through
+
+            server.setAttribute(traffic, new Attribute("Policy", "hours=always"));
+            then(falco.isDormant()).isFalse();
+            then(falco.moctor.isDormant()).isFalse();
+            then(output.isOpen()).isTrue();
+            then(server.getAttribute(traffic, "Dormant")).isEqualTo(false);
+        }
+
+        //
+        // woken up a bit before the window opens
+        //
+        options = new FalcoCLI.FalcoOptions(true, true);
+        new CommandLine(options).parseArgs("--dormant");
+        try (FalcoCLI falco = new FalcoCLI(options)) {
+            final VirtualClock clock = new VirtualClock(
+                ZonedDateTime.of(2020, 6, 1, 7, 58, 0, 0, ZoneId.of("UTC")).toInstant().toEpochMilli(), ZoneId.of("UTC")
+            );
+            falco.moctor.setClock(clock);
+            falco.startup();
+            then(falco.isDormant()).isTrue();
+
+            clock.advance(FalcoCLI.WAKE_LEAD);
+            falco.checkDormancy();
+            then(falco.isDormant()).isFalse();
+            then(falco.moctor.getPolicy().isActive(clock.millis(), clock.getZone(), TriggerSource.GPIO)).isFalse();
+
+            clock.advance(13*60*60*1000);  // 20:59
+            falco.checkDormancy();
+            then(falco.isDormant()).isTrue();
+        }
+
+        //
+        // not dormant unless asked
+        //
+        options = new FalcoCLI.FalcoOptions(true, true);
+        new CommandLine(options).parseArgs("--policy", "hours=never");
+        try (FalcoCLI falco = new FalcoCLI(options)) {
+            falco.startup();
+            then(falco.isDormant()).isFalse();
+            then(falco.moctor.isDormant()).isFalse();
+        }
+    }
+
+    @Test
+    public void failed_audio_line_is_recovered_in_place() throws Exception {
+        final ObjectName audio = new ObjectName("ste.falco.jmx:name=Supervisor,component=audio");
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        FalcoCLI.FalcoOptions options = new FalcoCLI.FalcoOptions(true, true);
+        new CommandLine(options).parseArgs("--streaming", "--policy", "hours=always;cooldown=0");
+        try (final FalcoCLI falco = new FalcoCLI(options)) {
+            final AudioOutput output = (AudioOutput)PrivateAccess.getInstanceValue(falco, "output");
+            falco.startup();
+
+            then(server.getAttribute(audio, "Failures")).isEqualTo(0L);
+            then(server.isRegistered(new ObjectName("ste.falco.jmx:name=Supervisor,component=gpio"))).isTrue();
+            then(server.isRegistered(new ObjectName("ste.falco.jmx:name=Supervisor,component=heartbeat"))).isTrue();
+
+            output.getLine().close();  // e.g. by the driver
+            falco.moctor.moved();
+            new WaitFor(2500, new Condition() {
+                @Override
+                public boolean check() {
+                    return falco.getSupervisor().getRecoveries(Supervisor.AUDIO) == 1;
+                }
+            });
+            then(server.getAttribute(audio, "Failures")).isEqualTo(1L);
+            then(server.getAttribute(audio, "Recoveries")).isEqualTo(1L);
+            then(server.getAttribute(audio, "Escalations")).isEqualTo(0L);
+            then((Long)server.getAttribute(audio, "RecoveryMax")).isPositive();
+            then(output.isOpen()).isTrue();
+            then(output.getLine().isOpen()).isTrue();
+            then(falco.isLive()).isTrue();
+
+            //
+            // only a shutdown (e.g. a JMX reinit) recycles
+            //
+            final Thread waiting = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        falco.awaitShutdown();
+                    } catch (InterruptedException x) {
+                    }
+                }
+            });
+            waiting.start(); waiting.join(100);
+            then(waiting.isAlive()).isTrue();
+            falco.shutdown();
+            waiting.join(1000);
+            then(waiting.isAlive()).isFalse();
+            then(falco.getSupervisor().isRunning()).isFalse();
+            then(server.isRegistered(audio)).isFalse();
+        }
+    }
+
+    @Test
+    public void pin_health_without_gpio() throws Exception {
+        final ObjectName name = new ObjectName("ste.falco.jmx:name=Sensors,zone=default");
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try (FalcoCLI falco = new FalcoCLI(new FalcoCLI.FalcoOptions(true, true))) {
+            falco.startup();
+
+            then(server.getAttribute(name, "Health")).isEqualTo("unknown");
+            then(server.getAttribute(name, "Quarantined")).isEqualTo(false);
+            then(server.getAttribute(name, "Quarantines")).isEqualTo(0L);
+            then(server.getAttribute(name, "ProbeMillis")).isEqualTo(0L);
+        }
+    }
+
+    @Test
+    public void recycles_do_not_leak_threads_nor_tasks() throws Exception {
+        final FalcoCLI.FalcoOptions OPTIONS = new FalcoCLI.FalcoOptions(true, false);
+        final ObjectName name = new ObjectName("ste.falco.jmx:name=Scheduler");
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final Scheduler scheduler = new Scheduler("test-scheduler", 1);
+        try {
+            for (int i=0; i<5; ++i) {
+                final CounterTask counter = new CounterTask(10);
+                try (FalcoCLI cli = new FalcoCLI(OPTIONS, scheduler)) {
+                    then(cli.getScheduler()).isSameAs(scheduler);
+                    PrivateAccess.setInstanceValue(cli, "heartbeatTask", counter);
+                    cli.startup();
+
+                    new WaitFor(1000, new Condition() {
+                        @Override
+                        public boolean check() {
+                            return counter.value > 2;
+                        }
+                    });
+                    then(server.getAttribute(name, "Threads")).isEqualTo(1);
+                    then(server.getAttribute(name, "Tasks")).isEqualTo(1);
+                    then((String)server.getAttribute(name, "Scheduled")).startsWith("heartbeat (max lag ");
+                    then((Long)server.getAttribute(name, "Runs")).isGreaterThan(2);
+                    then(server.getAttribute(name, "Errors")).isEqualTo(0L);
+                    then((Long)server.getAttribute(name, "LagMax")).isGreaterThanOrEqualTo(
+                        (Long)server.getAttribute(name, "LagP50")
+                    );
+                }
+                then(scheduler.getTasks()).isZero();
+                then(scheduler.getThreads()).isEqualTo(1);
+                then(server.isRegistered(name)).isFalse();
+
+                final int value = counter.value;
+                Thread.sleep(50); then(counter.value).isEqualTo(value);
+            }
+            then(scheduler.isShutdown()).isFalse();  // not owned by falco
+        } finally {
+            scheduler.shutdown();
+        }
+
+        try {
+            new FalcoCLI(OPTIONS, null);
+            fail("missing scheduler check");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("scheduler can not be null");
+        }
+    }
+
     // ------------------------------------------------------------- CounterTask
 
     class CounterTask extends Heartbeat {
@@ -19,7 +19,9 @@ import java.time.LocalTime;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.logging.Logger;
+import javax.management.ObjectName;
 import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Before;
 import org.junit.Test;
 import ste.xtest.concurrent.Condition;
 import ste.xtest.concurrent.WaitFor;
@@ -34,6 +36,18 @@ public class BugFreeFalcoCLIMain extends BugFreeCLIBase {
     private static final LocalTime MORNING = LocalTime.of(8, 0);
     private static final LocalTime NIGHT = LocalTime.of(20, 0);
 
+    /**
+     * main() never returns, so the falco started by a previous test is still
+     * running: release its MBeans so that the next main() can register its
+     * own.
+     */
+    @Before
+    public void release_previous_main() throws Exception {
+        for (ObjectName name: JMX.queryNames(new ObjectName("ste.falco.jmx:*"), null)) {
+            JMX.unregisterMBean(name);
+        }
+    }
+
     @Test
     public void help() throws Exception {
         //
@@ -97,7 +111,7 @@ public class BugFreeFalcoCLIMain extends BugFreeCLIBase {
         Executors.newCachedThreadPool().execute(new Runnable() {
             @Override
             public void run() {
-                try { FalcoCLI.main(); } catch (Exception x) {};
+                try { FalcoCLI.main("--debounce", "0", "--coalesce", "0"); } catch (Exception x) {};
             }
         });
 
@@ -119,14 +133,14 @@ public class BugFreeFalcoCLIMain extends BugFreeCLIBase {
         if (now.isAfter(MORNING) && now.isBefore(NIGHT)) {
             then(h.getMessages()).containsExactly("falco started", "motion detected");
         } else {
-            then(h.getMessages()).containsExactly("falco started", "motion detected", "too early or not in day light - I am muted");
+            then(h.getMessages()).containsExactly("falco started", "too early or not in day light - I am muted");
         }
 
         PIR.up(); Thread.sleep(50); PIR.down();
         if (now.isAfter(MORNING) && now.isBefore(NIGHT)) {
-            then(h.getMessages()).containsExactly("falco started", "motion detected", "motion detected", "too early or not in day light - I am muted");
+            then(h.getMessages()).containsExactly("falco started", "motion detected", "too early or not in day light - I am muted");
         } else {
-            then(h.getMessages()).containsExactly("falco started", "motion detected", "too early or not in day light - I am muted", "motion detected", "too early or not in day light - I am muted");
+            then(h.getMessages()).containsExactly("falco started", "too early or not in day light - I am muted", "too early or not in day light - I am muted");
         }
 
         LOG.removeHandler(h);
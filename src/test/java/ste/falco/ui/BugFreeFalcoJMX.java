@@ -23,7 +23,8 @@ import javax.management.ObjectInstance;
 import javax.management.ObjectName;
 import static org.assertj.core.api.BDDAssertions.then;
 import org.junit.Test;
-import ste.falco.ui.FalcoCLI.TrafficControl;
+import ste.falco.jmx.Latency;
+import ste.falco.jmx.TrafficControl;
 import ste.xtest.concurrent.Condition;
 import ste.xtest.concurrent.WaitFor;
 import ste.xtest.logging.ListLogHandler;
@@ -43,6 +44,18 @@ public class BugFreeFalcoJMX extends BugFreeCLIBase {
         then(obj.getClassName()).isEqualTo(TrafficControl.class.getName());
     }
 
+    @Test
+    public void register_latency_mbean() throws Exception {
+        runMainClass();
+
+        MBeanServer jmx = waitForTrafficControl();
+
+        ObjectName name = new ObjectName("ste.falco.jmx:name=Latency");
+        then(jmx.getObjectInstance(name).getClassName()).isEqualTo(Latency.class.getName());
+        then(jmx.getAttribute(name, "TriggerCount")).isEqualTo(0L);
+        then(jmx.getAttribute(name, "TriggerP99")).isEqualTo(0L);
+    }
+
     @Test
     public void simulate_a_move() throws Exception {
         Logger LOG = Logger.getLogger("ste.falco");
@@ -64,7 +77,8 @@ public class BugFreeFalcoJMX extends BugFreeCLIBase {
             }
 
         });
-        then(h.getMessages()).containsSequence("falco started", "motion detected");
+        then(h.getMessages().get(0)).isEqualTo("falco started");
+        then(h.getMessages().get(1)).isIn("motion detected", "too early or not in day light - I am muted");  // played only in daylight
     }
 
     @Test
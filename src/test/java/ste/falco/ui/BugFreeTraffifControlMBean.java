@@ -20,8 +20,8 @@ import java.util.List;
 import static org.assertj.core.api.BDDAssertions.then;
 import org.junit.Test;
 import ste.falco.SoundMotionDetector;
-import ste.falco.ui.FalcoCLI.TrafficControl;
-import ste.falco.ui.FalcoCLI.TrafficControlMBean;
+import ste.falco.jmx.TrafficControl;
+import ste.falco.jmx.TrafficControlMBean;
 import ste.xtest.reflect.PrivateAccess;
 
 /**